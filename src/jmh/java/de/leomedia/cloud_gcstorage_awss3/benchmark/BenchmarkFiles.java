@@ -0,0 +1,35 @@
+package de.leomedia.cloud_gcstorage_awss3.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Creates the files that the upload benchmarks upload.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * @param size the size of the file in bytes
+     * @return a temporary file with random content of the given size
+     */
+    static Path create(long size) throws IOException {
+        Path file = Files.createTempFile("benchmark-" + size + "-", ".bin");
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(size).nextBytes(chunk);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; ) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written));
+                written += channel.write(buffer);
+            }
+        }
+        return file;
+    }
+}
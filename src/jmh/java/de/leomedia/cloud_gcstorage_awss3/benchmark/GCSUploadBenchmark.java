@@ -0,0 +1,58 @@
+package de.leomedia.cloud_gcstorage_awss3.benchmark;
+
+import com.google.cloud.storage.Storage;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark uploads files of 1 KB up to 1 GB through the {@link GCStorageService}
+ * to the in-memory storage of {@link LocalStorage}.
+ * <p>
+ * Every upload first deletes the object of the previous upload, so the does-not-exist precondition
+ * of the service applies each time and the in-memory storage does not grow.
+ * Large files go through the composite upload, whose components are kept in memory as well.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class GCSUploadBenchmark {
+
+    private static final String BUCKET = "benchmark-bucket";
+    private static final String KMS_KEY = "projects/benchmark/locations/europe/keyRings/benchmark/cryptoKeys/benchmark";
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long fileSize;
+
+    private Storage storage;
+    private GCStorageService storageService;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkLogging.discardOutput("INFO");
+        storage = LocalStorage.create();
+        storageService = new GCStorageService(storage, TransferOptions.defaults());
+        file = BenchmarkFiles.create(fileSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void uploadObject() throws IOException {
+        storage.delete(BUCKET, "object.bin");
+        storageService.uploadObject(BUCKET, "object.bin", file.toString(), KMS_KEY, null);
+    }
+}
@@ -0,0 +1,109 @@
+package de.leomedia.cloud_gcstorage_awss3.benchmark;
+
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.storage.StorageOptions;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.cache.CachingCloudStorageService;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * This benchmark generates presigned URLs one by one, in batches and from the {@link CachingCloudStorageService}.
+ * The signing happens locally with static credentials, so no request leaves the process.
+ * <p>
+ * The logLevel parameter shows the cost of logging every URL at INFO, compared to a disabled INFO level.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PresignBenchmark {
+
+    private static final String BUCKET = "benchmark-bucket";
+    private static final String KEY = "folder/object.bin";
+    private static final String KMS_KEY = "benchmark-key";
+    private static final int BATCH_SIZE = 1000;
+    private static final List<String> KEYS = IntStream.range(0, BATCH_SIZE).mapToObj(i -> "folder/object-" + i + ".bin").toList();
+
+    @Param({"INFO", "WARN"})
+    public String logLevel;
+
+    private S3Presigner presigner;
+    private AWSS3StorageService s3StorageService;
+    private GCStorageService gcStorageService;
+    private CachingCloudStorageService cachingStorageService;
+    private final LongAdder urls = new LongAdder();
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        BenchmarkLogging.discardOutput(logLevel);
+
+        AwsCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret"));
+        presigner = S3Presigner.builder().region(Region.EU_CENTRAL_1).credentialsProvider(credentialsProvider).build();
+        s3StorageService = new AWSS3StorageService(null, presigner, TransferOptions.defaults(), credentialsProvider);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        ServiceAccountCredentials credentials = ServiceAccountCredentials.newBuilder()
+                .setClientEmail("benchmark@benchmark.iam.gserviceaccount.com")
+                .setPrivateKey(keyPairGenerator.generateKeyPair().getPrivate())
+                .setPrivateKeyId("benchmark")
+                .build();
+        gcStorageService = new GCStorageService(StorageOptions.newBuilder()
+                .setProjectId("benchmark")
+                .setCredentials(credentials)
+                .build().getService(), TransferOptions.defaults());
+
+        cachingStorageService = CachingCloudStorageService.builder(s3StorageService).provider("AWS").build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        presigner.close();
+    }
+
+    @Benchmark
+    public URL s3GetPresignedUrl() {
+        return s3StorageService.getPresignedUrl(BUCKET, KEY, 60, KMS_KEY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long s3PresignAll() {
+        s3StorageService.presignAll(BUCKET, KEYS, 60, (key, url) -> urls.increment());
+        return urls.sum();
+    }
+
+    @Benchmark
+    public URL gcsGetPresignedUrl() {
+        return gcStorageService.getPresignedUrl(BUCKET, KEY, 60, KMS_KEY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long gcsPresignAll() {
+        gcStorageService.presignAll(BUCKET, KEYS, 60, (key, url) -> urls.increment());
+        return urls.sum();
+    }
+
+    @Benchmark
+    public URL cachedGetPresignedUrl() {
+        return cachingStorageService.getPresignedUrl(BUCKET, KEY, 60, KMS_KEY);
+    }
+}
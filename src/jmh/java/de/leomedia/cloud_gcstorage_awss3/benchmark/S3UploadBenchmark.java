@@ -0,0 +1,71 @@
+package de.leomedia.cloud_gcstorage_awss3.benchmark;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3AsyncStorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark uploads files of 1 KB up to 1 GB through the {@link AWSS3StorageService}
+ * and the {@link AWSS3AsyncStorageService} to an in-process {@link FakeS3Server}.
+ * <p>
+ * The server drains the request bodies without keeping them, so the time and the allocations
+ * are dominated by the request building, the body creation and the multipart handling of the services.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class S3UploadBenchmark {
+
+    private static final String BUCKET = "benchmark-bucket";
+    private static final String KMS_KEY = "arn:aws:kms:eu-central-1:000000000000:key/benchmark";
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long fileSize;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private S3AsyncClient s3AsyncClient;
+    private AWSS3StorageService storageService;
+    private AWSS3AsyncStorageService asyncStorageService;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkLogging.discardOutput("INFO");
+        server = new FakeS3Server(false);
+        s3Client = server.newClient();
+        s3AsyncClient = server.newAsyncClient();
+        storageService = new AWSS3StorageService(s3Client, null);
+        asyncStorageService = new AWSS3AsyncStorageService(s3AsyncClient, null);
+        file = BenchmarkFiles.create(fileSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        s3Client.close();
+        s3AsyncClient.close();
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void uploadObject() throws IOException {
+        storageService.uploadObject(BUCKET, "object.bin", file.toString(), KMS_KEY, "STANDARD");
+    }
+
+    @Benchmark
+    public void uploadObjectAsync() {
+        asyncStorageService.uploadObject(BUCKET, "object.bin", file.toString(), KMS_KEY, "STANDARD").join();
+    }
+}
@@ -0,0 +1,232 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ContentAttributes;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A S3 Storage Service Class that implements from {@link AsyncCloudStorageService}
+ * It uploads objects with the non-blocking {@link S3AsyncClient}, so no thread waits for a transfer.
+ */
+public class AWSS3AsyncStorageService implements AsyncCloudStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AWSS3AsyncStorageService.class);
+
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Presigner presigner;
+    private final TransferOptions transferOptions;
+    private final S3AsyncMultipartUploader multipartUploader;
+
+    public AWSS3AsyncStorageService(S3AsyncClient s3AsyncClient, S3Presigner presigner) {
+        this(s3AsyncClient, presigner, TransferOptions.defaults());
+    }
+
+    public AWSS3AsyncStorageService(S3AsyncClient s3AsyncClient, S3Presigner presigner, TransferOptions transferOptions) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.presigner = presigner;
+        this.transferOptions = transferOptions;
+        this.multipartUploader = new S3AsyncMultipartUploader(s3AsyncClient, transferOptions);
+    }
+
+    /**
+     * This method uploads an object to s3 with the aws sse kms encryption and the given storage class.
+     * Files from the multipart threshold of the {@link TransferOptions} on are uploaded
+     * with the {@link S3AsyncMultipartUploader}, smaller files with {@link AsyncRequestBody#fromFile}.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param file the full file path of an object
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @return a future that completes when the object is uploaded
+     */
+    @Override
+    public CompletableFuture<Void> uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) {
+        Path filePath = Paths.get(file);
+        long size;
+        try {
+            size = Files.size(filePath);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<?> upload;
+        if (size >= transferOptions.multipartThreshold()) {
+
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .build();
+
+            upload = multipartUploader.upload(createMultipartUploadRequest, filePath);
+
+        } else {
+
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .build();
+
+            upload = s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.fromFile(filePath));
+        }
+
+        return upload.thenRun(() -> logger.info("File {} uploaded to bucket {} as {}", file, bucketName, key));
+    }
+
+    /**
+     * This method uploads streamed content in a single request below the multipart threshold of the {@link TransferOptions},
+     * and from there on in parts with the {@link S3AsyncMultipartUploader}. The buffers of the content go straight
+     * into the requests through a {@link ContentSplitter}, so nothing is buffered besides the buffer that is being sent.
+     * The SDK computes the checksum of every request while it sends it and appends it as trailer, which S3 verifies.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param content the content, which is subscribed once
+     * @param contentLength the exact length of the content
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @param attributes the content type, Content-Encoding and user metadata of the object
+     * @return a future with the {@link UploadResult} and the checksum that S3 returned
+     */
+    @Override
+    public CompletableFuture<UploadResult> uploadStream(String bucketName, String key, Publisher<ByteBuffer> content, long contentLength,
+                                                        String encryptionKey, String storageClass, ContentAttributes attributes) {
+        if (contentLength < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("S3 needs the length of the content of " + key));
+        }
+        long start = System.nanoTime();
+        ContentSplitter splitter = new ContentSplitter(content);
+        UploadChecksum uploadChecksum = transferOptions.uploadChecksum();
+
+        CompletableFuture<ContentChecksum> upload;
+        if (contentLength >= transferOptions.multipartThreshold()) {
+
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .contentType(attributes.contentType())
+                    .contentEncoding(attributes.contentEncoding())
+                    .metadata(attributes.metadata())
+                    .build();
+
+            upload = multipartUploader.uploadStream(createMultipartUploadRequest, splitter, contentLength)
+                    .thenApply(parts -> checksumOf(uploadChecksum, parts));
+
+        } else {
+
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .contentType(attributes.contentType())
+                    .contentEncoding(attributes.contentEncoding())
+                    .metadata(attributes.metadata())
+                    .contentLength(contentLength)
+                    .checksumAlgorithm(checksumAlgorithm(transferOptions))
+                    .build();
+
+            upload = s3AsyncClient.putObject(putObjectRequest, splitter.nextPart(contentLength))
+                    .whenComplete((response, error) -> splitter.cancel())
+                    .thenApply(response -> checksumOf(uploadChecksum,
+                            uploadChecksum == UploadChecksum.SHA256 ? response.checksumSHA256() : response.checksumCRC32C()));
+        }
+
+        return upload.thenApply(checksum -> {
+            logger.info("Stream of {} bytes uploaded to bucket {} as {}", contentLength, bucketName, key);
+            return UploadResult.succeeded(key, contentLength, checksum, Duration.ofNanos(System.nanoTime() - start));
+        });
+    }
+
+    /**
+     * @return the algorithm of the checksum that the SDK computes while it sends a request, or null if checksums are disabled
+     */
+    static ChecksumAlgorithm checksumAlgorithm(TransferOptions transferOptions) {
+        return switch (transferOptions.uploadChecksum()) {
+            case NONE -> null;
+            case CRC32C -> ChecksumAlgorithm.CRC32_C;
+            case SHA256 -> ChecksumAlgorithm.SHA256;
+        };
+    }
+
+    private static ContentChecksum checksumOf(UploadChecksum uploadChecksum, String value) {
+        return uploadChecksum == UploadChecksum.NONE || value == null ? null : new ContentChecksum(uploadChecksum.algorithm(), value);
+    }
+
+    private static ContentChecksum checksumOf(UploadChecksum uploadChecksum, List<CompletedPart> parts) {
+        if (uploadChecksum == UploadChecksum.NONE) {
+            return null;
+        }
+        List<String> partChecksums = parts.stream()
+                .map(part -> uploadChecksum == UploadChecksum.SHA256 ? part.checksumSHA256() : part.checksumCRC32C())
+                .toList();
+        return partChecksums.contains(null) ? null : new ContentChecksum(uploadChecksum.algorithm(), uploadChecksum.composite(partChecksums));
+    }
+
+    /**
+     * This method generates a presigned URL for a given object.
+     * Presigning is computed locally, so the returned future is already completed.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param minutes given timestamp in minutes in which the url is valid
+     * @param encryptionKey given encryption key for decrypting objects
+     * @return a completed future with the generated signed {@link URL}
+     */
+    @Override
+    public CompletableFuture<URL> getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        try {
+
+            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build();
+
+            GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
+                    .signatureDuration(Duration.ofMinutes(minutes))
+                    .getObjectRequest(getObjectRequest)
+                    .build();
+
+            return CompletableFuture.completedFuture(presigner.presignGetObject(getObjectPresignRequest).url());
+
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -1,8 +1,22 @@
 package de.leomedia.cloud_gcstorage_awss3.AWS;
 
+import de.leomedia.cloud_gcstorage_awss3.BulkPresigner;
+import de.leomedia.cloud_gcstorage_awss3.BulkUploader;
 import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.ContentCompressor;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.RangedDownloader;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
@@ -11,11 +25,27 @@ import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignReques
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
 import java.time.Duration;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
 
 /**
  * A S3 Storage Service Class that implements from {@link CloudStorageService}
@@ -25,12 +55,43 @@ public class AWSS3StorageService implements CloudStorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(AWSS3StorageService.class);
 
+    /**
+     * The ETag of an object that was uploaded in a single request without SSE-KMS or SSE-C is the MD5 of its content.
+     */
+    private static final Pattern MD5_ETAG = Pattern.compile("\"?([0-9a-f]{32})\"?");
+
     private final S3Client s3Client;
     private final S3Presigner presigner;
+    private final TransferOptions transferOptions;
+    private final S3MultipartUploader multipartUploader;
+    private final BulkUploader bulkUploader;
+    private final S3UrlSigner urlSigner;
+    private final BulkPresigner bulkPresigner;
+    private final RangedDownloader rangedDownloader;
+    private final ContentCompressor compressor;
 
     public AWSS3StorageService(S3Client s3Client, S3Presigner presigner) {
+        this(s3Client, presigner, TransferOptions.defaults());
+    }
+
+    public AWSS3StorageService(S3Client s3Client, S3Presigner presigner, TransferOptions transferOptions) {
+        this(s3Client, presigner, transferOptions, DefaultCredentialsProvider.create());
+    }
+
+    /**
+     * @param credentialsProvider the credentials the presigner signs with, which {@link #presignAll} uses to sign without the presigner
+     */
+    public AWSS3StorageService(S3Client s3Client, S3Presigner presigner, TransferOptions transferOptions,
+                               AwsCredentialsProvider credentialsProvider) {
         this.presigner = presigner;
         this.s3Client = s3Client;
+        this.transferOptions = transferOptions;
+        this.multipartUploader = new S3MultipartUploader(s3Client, transferOptions);
+        this.bulkUploader = new BulkUploader(transferOptions.bulkConcurrency());
+        this.urlSigner = new S3UrlSigner(presigner, credentialsProvider, Clock.systemUTC());
+        this.bulkPresigner = new BulkPresigner(Runtime.getRuntime().availableProcessors());
+        this.rangedDownloader = new RangedDownloader(transferOptions);
+        this.compressor = new ContentCompressor(transferOptions);
     }
 
     /**
@@ -39,16 +100,75 @@ public class AWSS3StorageService implements CloudStorageService {
      * <p>
      * It also configures the aws sse kms method to encrypt the object
      * and sets the storage class of the object.
+     * <p>
+     * Files from the multipart threshold of the {@link TransferOptions} on are uploaded
+     * with the {@link S3MultipartUploader}. Smaller files are streamed from disk in a single request.
+     * <p>
+     * If the {@link TransferOptions} enable compression and the {@link ContentCompressor} selects the file,
+     * the content is compressed while it is read and the object gets the Content-Encoding of the codec.
      *
      * @param bucketName the name of a bucket
      * @param key the name of an object
      * @param file the full file path of an object
      * @param encryptionKey the encryption key generated by SSE KMS
      * @param storageClass the storage class in which the object will be stored in S3
+     * @throws IOException if the file cannot be read
+     * @throws S3Exception if S3 rejects the upload, so the caller can tell a throttled upload from a denied one
      */
     @Override
-    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) {
-        try {
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        putObject(bucketName, key, file, encryptionKey, storageClass, Map.of(), true);
+        logger.info("File {} uploaded to bucket {} as {}", file, bucketName, key);
+    }
+
+    /**
+     * This method uploads many objects concurrently with the {@link BulkUploader}.
+     * Every object is uploaded like in {@link #uploadObject}, but failures are returned
+     * in the {@link UploadResult} of the object instead of being logged.
+     * The result of a successful upload holds the checksum that S3 verified.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        return bulkUploader.uploadAllWithChecksums(uploads, upload ->
+                putObject(bucketName, upload.key(), upload.file(), upload.encryptionKey(), upload.storageClass(), upload.metadata(),
+                        upload.compressible()));
+    }
+
+    /**
+     * This method uploads the file either in parts or in a single request and throws if the upload fails.
+     * A single request sends the file through a memory mapped buffer, which is read once for the checksum
+     * and then by every attempt of the SDK.
+     *
+     * @return the number of uploaded bytes and the checksum that S3 verified
+     */
+    private BulkUploader.Uploaded putObject(String bucketName, String key, String file, String encryptionKey, String storageClass,
+                           Map<String, String> metadata, boolean compressible) throws IOException {
+        Path filePath = Paths.get(file);
+        long size = Files.size(filePath);
+
+        ContentChecksum checksum;
+        Compression compression = compressible ? compressor.select(filePath, size) : Compression.NONE;
+        if (compression != Compression.NONE) {
+            checksum = putCompressedObject(bucketName, key, filePath, size, compression, encryptionKey, storageClass, metadata);
+
+        } else if (size >= transferOptions.multipartThreshold()) {
+
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .metadata(metadata)
+                    .build();
+
+            checksum = this.multipartUploader.upload(createMultipartUploadRequest, filePath);
+
+        } else if (transferOptions.uploadChecksum() == UploadChecksum.NONE) {
 
             PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                     .bucket(bucketName)
@@ -56,17 +176,114 @@ public class AWSS3StorageService implements CloudStorageService {
                     .serverSideEncryption(ServerSideEncryption.AWS_KMS)
                     .ssekmsKeyId(encryptionKey)
                     .storageClass(storageClass)
+                    .metadata(metadata)
                     .build();
 
-            Path filePath = Paths.get(file);
-            byte[] fileBytes = Files.readAllBytes(filePath);
-            RequestBody requestBody = RequestBody.fromBytes(fileBytes);
+            RequestBody requestBody = RequestBody.fromFile(filePath);
 
             this.s3Client.putObject(putObjectRequest, requestBody);
-            logger.info("File " + file + " uploaded to bucket " + bucketName + " as " + key);
+            checksum = null;
 
-        } catch (S3Exception | IOException e) {
-            logger.error(e.getMessage());
+        } else {
+
+            MappedByteBuffer content;
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            PutObjectRequest.Builder putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .metadata(metadata);
+
+            checksum = putChecksummedObject(putObjectRequest, content);
+        }
+        return new BulkUploader.Uploaded(size, checksum);
+    }
+
+    /**
+     * This method sends the content in a single request together with its checksum, so S3 rejects the request
+     * if the content was corrupted on the way.
+     *
+     * @return the checksum that S3 verified, or null if checksums are disabled
+     */
+    private ContentChecksum putChecksummedObject(PutObjectRequest.Builder putObjectRequest, ByteBuffer content) {
+        UploadChecksum uploadChecksum = transferOptions.uploadChecksum();
+        String value = uploadChecksum == UploadChecksum.NONE ? null : uploadChecksum.base64(content);
+        switch (uploadChecksum) {
+            case CRC32C -> putObjectRequest.checksumCRC32C(value);
+            case SHA256 -> putObjectRequest.checksumSHA256(value);
+            default -> { }
+        }
+
+        // every attempt of the SDK gets a fresh view on the content
+        RequestBody requestBody = RequestBody.fromContentProvider(
+                () -> new ByteBufferInputStream(content.duplicate()), content.remaining(), "application/octet-stream");
+
+        this.s3Client.putObject(putObjectRequest.build(), requestBody);
+        return value == null ? null : new ContentChecksum(uploadChecksum.algorithm(), value);
+    }
+
+    /**
+     * This method uploads the compressed content of the file and stores the uncompressed size in the metadata.
+     * S3 needs the length of a single request up front, so a file below the multipart threshold is compressed
+     * into a temporary file first, which is then sent like an uncompressed file and deleted afterwards.
+     * Larger files are compressed into the parts of a multipart upload while they are uploaded.
+     * The checksum is computed from the compressed content, which is what S3 receives and stores.
+     *
+     * @return the checksum that S3 verified, or null if checksums are disabled
+     */
+    private ContentChecksum putCompressedObject(String bucketName, String key, Path filePath, long size, Compression compression,
+                                     String encryptionKey, String storageClass, Map<String, String> metadata) throws IOException {
+        Map<String, String> compressedMetadata = new HashMap<>(metadata);
+        compressedMetadata.put(ContentCompressor.UNCOMPRESSED_SIZE_METADATA, String.valueOf(size));
+
+        if (size >= transferOptions.multipartThreshold()) {
+
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .contentEncoding(compression.contentEncoding())
+                    .metadata(compressedMetadata)
+                    .build();
+
+            return this.multipartUploader.uploadStream(createMultipartUploadRequest,
+                    S3MultipartUploader.partSizeFor(size, transferOptions.partSize()),
+                    out -> ContentCompressor.compress(filePath, compression, out));
+
+        } else {
+
+            Path compressed = Files.createTempFile(filePath.getFileName() + ".", ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(compressed)) {
+                    ContentCompressor.compress(filePath, compression, out);
+                }
+
+                MappedByteBuffer content;
+                try (FileChannel channel = FileChannel.open(compressed, StandardOpenOption.READ)) {
+                    content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+
+                PutObjectRequest.Builder putObjectRequest = PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                        .ssekmsKeyId(encryptionKey)
+                        .storageClass(storageClass)
+                        .contentEncoding(compression.contentEncoding())
+                        .metadata(compressedMetadata);
+
+                logger.debug("File {} compressed with {} from {} to {} bytes", filePath, compression, size, content.remaining());
+                return putChecksummedObject(putObjectRequest, content);
+            } finally {
+                Files.deleteIfExists(compressed);
+            }
         }
     }
 
@@ -99,7 +316,7 @@ public class AWSS3StorageService implements CloudStorageService {
 
             URL url = presignedGetObjectRequest.url();
 
-            logger.info("Presigned URL: " + url);
+            logger.info("Presigned URL: {}", url);
 
             return url;
 
@@ -109,5 +326,282 @@ public class AWSS3StorageService implements CloudStorageService {
 
         return null;
     }
-}
 
+    /**
+     * This method generates presigned URLs for many objects in parallel with the {@link BulkPresigner}.
+     * The endpoint of the bucket is resolved once by the {@link S3Presigner}, every URL is then signed by the {@link S3UrlSigner}
+     * with the cached signing key of the day. The URLs are not logged one by one.
+     *
+     * @param bucketName the name of a bucket
+     * @param keys the names of the objects, which are read only once
+     * @param minutes given timestamp in minutes in which the urls are valid
+     * @param sink receives every key with its presigned URL
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        bulkPresigner.presignAll(keys, urlSigner.signers(bucketName, Duration.ofMinutes(minutes)), sink);
+    }
+
+    /**
+     * This method downloads an object with the {@link RangedDownloader}.
+     * The size, ETag and checksum are taken from a {@link HeadObjectRequest}, and every range is fetched
+     * with a ranged {@link GetObjectRequest} that only matches the same ETag, so the object cannot change during the download.
+     * <p>
+     * The file is verified against the full object checksum if the object was uploaded with one,
+     * otherwise against the ETag if it is the MD5 of the content.
+     * An object that was uploaded compressed is verified as stored and then decompressed.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param target the file to write, an existing file is replaced
+     * @throws IOException if the object does not exist, cannot be downloaded or does not match its checksum
+     */
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        HeadObjectResponse head;
+        try {
+            head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .checksumMode(ChecksumMode.ENABLED)
+                    .build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new NoSuchFileException("s3://" + bucketName + "/" + key);
+            }
+            throw e;
+        }
+
+        String eTag = head.eTag();
+        rangedDownloader.download(remoteObject(head), (offset, length) -> Channels.newChannel(
+                s3Client.getObject(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .range("bytes=" + offset + "-" + (offset + length - 1))
+                        .ifMatch(eTag)
+                        .build())), target);
+        ContentCompressor.decompress(target, Compression.forContentEncoding(head.contentEncoding()));
+
+        logger.info("Object {} of bucket {} downloaded to {}", key, bucketName, target);
+    }
+
+    /**
+     * This method reads a byte range of an object with a ranged {@link GetObjectRequest}.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return readRange(bucketName, key, null, offset, length);
+    }
+
+    /**
+     * This method reads a byte range of an object with a ranged {@link GetObjectRequest} that only matches the ETag
+     * of the version, like the ranges of {@link #downloadObject}.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param version the ETag of the object, or null to read the current version
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist or no longer has the ETag
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        if (length == 0) {
+            return new byte[0];
+        }
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .range("bytes=" + offset + "-" + (offset + length - 1))
+                    .ifMatch(version)
+                    .build()).asByteArray();
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException("s3://" + bucketName + "/" + key);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 412) {
+                throw new IOException("Object " + key + " is no longer version " + version, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * This method lists a page with a {@link ListObjectsV2Request}, with the continuation token of S3 as page token.
+     * The objects of the page have their ETag as version.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @param delimiter the delimiter that groups keys into common prefixes, or null to list all keys below the prefix
+     * @param pageToken the token of the previous page, or null for the first page
+     * @return the page with its objects, common prefixes and the token of the next page
+     * @throws IOException if the bucket does not exist
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        ListObjectsV2Response response;
+        try {
+            response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix.isEmpty() ? null : prefix)
+                    .delimiter(delimiter)
+                    .continuationToken(pageToken)
+                    .maxKeys(transferOptions.listPageSize())
+                    .build());
+        } catch (NoSuchBucketException e) {
+            throw new NoSuchFileException("s3://" + bucketName);
+        }
+        return new ListPage(
+                response.contents().stream().map(object -> new ObjectInfo(object.key(), object.size(), object.eTag(), null)).toList(),
+                response.commonPrefixes().stream().map(CommonPrefix::prefix).toList(),
+                Boolean.TRUE.equals(response.isTruncated()) ? response.nextContinuationToken() : null);
+    }
+
+    /**
+     * This method reads the metadata of an object with a {@link HeadObjectRequest}.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @return the {@link ObjectInfo} with the ETag as version, or null if the object does not exist
+     */
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) {
+        HeadObjectResponse head = headObject(bucketName, key);
+        return head == null ? null
+                : new ObjectInfo(key, head.contentLength(), head.eTag(), head.metadata(), head.contentType(), head.contentEncoding());
+    }
+
+    /**
+     * This method copies an object with a {@link CopyObjectRequest}, which keeps the user metadata and the
+     * Content-Encoding of the source.
+     * Objects from the multipart threshold of the {@link TransferOptions} on are copied in parts concurrently
+     * with the {@link S3MultipartUploader}, which is also required for objects larger than 5 GB.
+     *
+     * @param bucketName the name of a bucket
+     * @param sourceKey the name of the object to copy
+     * @param targetKey the name of the copy, an existing object is replaced
+     * @param encryptionKey the encryption key generated by SSE KMS for the copy
+     * @param storageClass the storage class in which the copy will be stored in S3
+     * @throws IOException if the source object does not exist
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        HeadObjectResponse source = headObject(bucketName, sourceKey);
+        if (source == null) {
+            throw new NoSuchFileException("s3://" + bucketName + "/" + sourceKey);
+        }
+
+        try {
+            copyObject(bucketName, source, sourceKey, targetKey, encryptionKey, storageClass);
+        } catch (S3Exception e) {
+            // the source was deleted or replaced since its metadata was read
+            if (e.statusCode() == 404 || e.statusCode() == 412) {
+                throw new NoSuchFileException("s3://" + bucketName + "/" + sourceKey);
+            }
+            throw e;
+        }
+
+        logger.info("Object {} of bucket {} copied to {}", sourceKey, bucketName, targetKey);
+    }
+
+    private void copyObject(String bucketName, HeadObjectResponse source, String sourceKey, String targetKey,
+                            String encryptionKey, String storageClass) throws IOException {
+        if (source.contentLength() >= transferOptions.multipartThreshold()) {
+
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(targetKey)
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .metadata(source.metadata())
+                    .contentType(source.contentType())
+                    .contentEncoding(source.contentEncoding())
+                    .build();
+
+            this.multipartUploader.copy(createMultipartUploadRequest, sourceKey, source.eTag(), source.contentLength());
+
+        } else {
+
+            CopyObjectRequest copyObjectRequest = CopyObjectRequest.builder()
+                    .sourceBucket(bucketName)
+                    .sourceKey(sourceKey)
+                    .destinationBucket(bucketName)
+                    .destinationKey(targetKey)
+                    .copySourceIfMatch(source.eTag())
+                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                    .ssekmsKeyId(encryptionKey)
+                    .storageClass(storageClass)
+                    .build();
+
+            this.s3Client.copyObject(copyObjectRequest);
+        }
+    }
+
+    /**
+     * This method deletes an object with a {@link DeleteObjectRequest}, which S3 also acknowledges for a missing object.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        this.s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+        logger.info("Object {} deleted from bucket {}", key, bucketName);
+    }
+
+    /**
+     * @return the response of the {@link HeadObjectRequest}, or null if the object does not exist
+     */
+    private HeadObjectResponse headObject(String bucketName, String key) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checksums of multipart uploads are checksums of the part checksums, marked with a "-partCount" suffix, and cannot be verified.
+     */
+    static RangedDownloader.RemoteObject remoteObject(HeadObjectResponse head) {
+        String[][] checksums = {
+                {"CRC32C", head.checksumCRC32C()},
+                {"CRC32", head.checksumCRC32()},
+                {"SHA-256", head.checksumSHA256()},
+                {"SHA-1", head.checksumSHA1()}};
+        for (String[] checksum : checksums) {
+            if (checksum[1] != null && !checksum[1].contains("-")) {
+                return new RangedDownloader.RemoteObject(head.contentLength(), head.eTag(), checksum[0], Base64.getDecoder().decode(checksum[1]));
+            }
+        }
+
+        var md5 = head.eTag() == null ? null : MD5_ETAG.matcher(head.eTag());
+        boolean md5ETag = md5 != null && md5.matches()
+                && head.serverSideEncryption() != ServerSideEncryption.AWS_KMS
+                && head.sseCustomerAlgorithm() == null;
+        if (md5ETag) {
+            return new RangedDownloader.RemoteObject(head.contentLength(), head.eTag(), "MD5", HexFormat.of().parseHex(md5.group(1)));
+        }
+        return new RangedDownloader.RemoteObject(head.contentLength(), head.eTag(), null, null);
+    }
+}
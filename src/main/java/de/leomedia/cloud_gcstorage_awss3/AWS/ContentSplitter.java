@@ -0,0 +1,221 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class cuts content that is published once, like the body of an HTTP request, into consecutive
+ * {@link AsyncRequestBody}s of known lengths, e.g. the parts of a multipart upload.
+ * <p>
+ * The content is subscribed when the first part is subscribed, and a buffer of the content is only requested
+ * when the SDK requests the next chunk of the current part. Buffers are handed out as views, so at most one buffer
+ * of the content is held, and only the rest of a buffer that crosses the end of a part is copied.
+ * A part can only be subscribed once, since the content cannot be read again.
+ */
+class ContentSplitter implements Subscriber<ByteBuffer> {
+
+    private final Publisher<ByteBuffer> content;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicInteger work = new AtomicInteger();
+
+    private volatile Subscription upstream;
+    private volatile ByteBuffer pending;
+    private volatile boolean requested;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile PartSubscription current;
+
+    ContentSplitter(Publisher<ByteBuffer> content) {
+        this.content = content;
+    }
+
+    /**
+     * This method returns the body of the next part. It must only be called once the body of the previous part completed.
+     *
+     * @param length the number of bytes of the part
+     */
+    AsyncRequestBody nextPart(long length) {
+        return new Part(length);
+    }
+
+    /**
+     * This method stops the content, e.g. after a failed part.
+     */
+    void cancel() {
+        PartSubscription part = current;
+        if (part != null) {
+            part.done = true;
+        }
+        Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer) {
+        pending = buffer;
+        requested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        upstreamError = error;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    /**
+     * Only one thread emits at a time. A request or buffer that arrives while another thread is emitting
+     * is picked up by that thread in its next loop.
+     */
+    private void drain() {
+        if (work.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            PartSubscription part = current;
+            if (part != null && !part.done) {
+                emit(part);
+            }
+            missed = work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(PartSubscription part) {
+        ByteBuffer buffer = pending;
+        while (part.demand.get() > 0 && part.remaining > 0 && buffer != null) {
+            int length = (int) Math.min(buffer.remaining(), part.remaining);
+            ByteBuffer chunk = chunk(buffer, length);
+            buffer.position(buffer.position() + length);
+            if (!buffer.hasRemaining()) {
+                pending = null;
+                buffer = null;
+            }
+            part.remaining -= length;
+            part.demand.decrementAndGet();
+            part.subscriber.onNext(chunk);
+        }
+
+        if (part.remaining == 0) {
+            part.done = true;
+            current = null;
+            part.subscriber.onComplete();
+        } else if (buffer == null && upstreamDone) {
+            part.done = true;
+            part.subscriber.onError(upstreamError != null
+                    ? upstreamError
+                    : new IllegalStateException("The content ended " + part.remaining + " bytes before the end of the part"));
+        } else if (buffer == null && part.demand.get() > 0 && !requested && upstream != null) {
+            requested = true;
+            upstream.request(1);
+        }
+    }
+
+    /**
+     * The checksum trailer of the SDK reads heap buffers from the start of their array, so a view into the middle of
+     * an array is copied. This only happens for the rest of a buffer that crossed the end of the previous part.
+     */
+    private static ByteBuffer chunk(ByteBuffer buffer, int length) {
+        ByteBuffer chunk = buffer.slice(buffer.position(), length);
+        if (chunk.hasArray() && chunk.arrayOffset() != 0) {
+            return ByteBuffer.allocate(length).put(chunk).flip();
+        }
+        return chunk;
+    }
+
+    private final class Part implements AsyncRequestBody {
+
+        private final long length;
+        private final AtomicBoolean partSubscribed = new AtomicBoolean();
+
+        private Part(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of(length);
+        }
+
+        @Override
+        public String contentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            if (!partSubscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("A part of streamed content cannot be sent again"));
+                return;
+            }
+            PartSubscription part = new PartSubscription(subscriber, length);
+            current = part;
+            subscriber.onSubscribe(part);
+            if (subscribed.compareAndSet(false, true)) {
+                content.subscribe(ContentSplitter.this);
+            }
+            drain();
+        }
+    }
+
+    private final class PartSubscription implements Subscription {
+
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private long remaining;
+        private volatile boolean done;
+
+        private PartSubscription(Subscriber<? super ByteBuffer> subscriber, long remaining) {
+            this.subscriber = subscriber;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Demand must be positive, but was " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link AsyncRequestBody} that publishes a memory mapped slice of a file in small chunks.
+ * The chunks are views on the mapped slice, so no bytes are copied onto the heap.
+ * Every subscription, e.g. of a retry, starts again at the beginning of the slice.
+ */
+class MappedSliceAsyncRequestBody implements AsyncRequestBody {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer slice;
+
+    MappedSliceAsyncRequestBody(ByteBuffer slice) {
+        this.slice = slice;
+    }
+
+    @Override
+    public Optional<Long> contentLength() {
+        return Optional.of((long) slice.remaining());
+    }
+
+    @Override
+    public String contentType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new SliceSubscription(subscriber, slice.duplicate()));
+    }
+
+    private static final class SliceSubscription implements Subscription {
+
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final ByteBuffer remaining;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean done;
+
+        private SliceSubscription(Subscriber<? super ByteBuffer> subscriber, ByteBuffer remaining) {
+            this.subscriber = subscriber;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Demand must be positive, but was " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        /**
+         * Only one thread emits at a time. A request that arrives while another thread is emitting
+         * is picked up by that thread in its next loop.
+         */
+        private void drain() {
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!done && demand.get() > 0 && remaining.hasRemaining()) {
+                    ByteBuffer chunk = remaining.slice();
+                    chunk.limit(Math.min(CHUNK_SIZE, remaining.remaining()));
+                    remaining.position(remaining.position() + chunk.remaining());
+                    demand.decrementAndGet();
+                    subscriber.onNext(chunk);
+                }
+                if (!done && !remaining.hasRemaining()) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class uploads a file to S3 with the multipart upload API of the {@link S3AsyncClient}.
+ * <p>
+ * Like the {@link S3MultipartUploader} it reads every part through a memory mapped slice,
+ * but it does not block a thread per part. When a part completes, the next one is started,
+ * so at most maxConcurrency parts of one upload are in flight.
+ * <p>
+ * Content that is received while it is uploaded is sent part after part straight from a {@link ContentSplitter},
+ * so only the buffer of the content that is being sent is held in memory.
+ */
+class S3AsyncMultipartUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3AsyncMultipartUploader.class);
+
+    private final S3AsyncClient s3AsyncClient;
+    private final TransferOptions options;
+
+    S3AsyncMultipartUploader(S3AsyncClient s3AsyncClient, TransferOptions options) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.options = options;
+    }
+
+    /**
+     * This method uploads the given file in parts.
+     * The encryption and storage class settings are taken from the {@link CreateMultipartUploadRequest}.
+     *
+     * @param createRequest the request that starts the multipart upload
+     * @param file the path of the file to upload
+     * @return a future with the response of the completed multipart upload
+     */
+    CompletableFuture<CompleteMultipartUploadResponse> upload(CreateMultipartUploadRequest createRequest, Path file) {
+        FileChannel channel;
+        long size;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long partSize = S3MultipartUploader.partSizeFor(size, options.partSize());
+        int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+
+        return s3AsyncClient.createMultipartUpload(createRequest)
+                .thenCompose(response -> new PartUpload(channel, createRequest, response.uploadId(), size, partSize, partCount).start())
+                .whenComplete((response, error) -> closeQuietly(channel));
+    }
+
+    /**
+     * This method uploads streamed content of a known length in parts, one part after the other since the content
+     * arrives in order. Every part carries the checksum of the {@link TransferOptions}, which the SDK computes while
+     * it sends the part and appends as trailer.
+     *
+     * @param createRequest the request that starts the multipart upload
+     * @param content the splitter of the content
+     * @param contentLength the length of the content
+     * @return a future with the checksums of the parts as S3 returned them
+     */
+    CompletableFuture<List<CompletedPart>> uploadStream(CreateMultipartUploadRequest createRequest, ContentSplitter content, long contentLength) {
+        long partSize = S3MultipartUploader.partSizeFor(contentLength, options.partSize());
+        int partCount = (int) Math.max(1, (contentLength + partSize - 1) / partSize);
+        ChecksumAlgorithm checksumAlgorithm = AWSS3AsyncStorageService.checksumAlgorithm(options);
+        String bucket = createRequest.bucket();
+        String key = createRequest.key();
+
+        return s3AsyncClient.createMultipartUpload(createRequest.toBuilder().checksumAlgorithm(checksumAlgorithm).build())
+                .thenCompose(created -> {
+                    List<CompletedPart> completedParts = new ArrayList<>(partCount);
+                    CompletableFuture<Void> parts = CompletableFuture.completedFuture(null);
+                    for (int i = 0; i < partCount; i++) {
+                        int partNumber = i + 1;
+                        long length = Math.min(partSize, contentLength - i * partSize);
+                        parts = parts.thenCompose(ignored -> s3AsyncClient.uploadPart(UploadPartRequest.builder()
+                                        .bucket(bucket)
+                                        .key(key)
+                                        .uploadId(created.uploadId())
+                                        .partNumber(partNumber)
+                                        .contentLength(length)
+                                        .checksumAlgorithm(checksumAlgorithm)
+                                        .build(), content.nextPart(length))
+                                .thenAccept(response -> {
+                                    completedParts.add(CompletedPart.builder()
+                                            .partNumber(partNumber)
+                                            .eTag(response.eTag())
+                                            .checksumCRC32C(response.checksumCRC32C())
+                                            .checksumSHA256(response.checksumSHA256())
+                                            .build());
+                                    logger.debug("Uploaded streamed part {} of {} ({} bytes)", partNumber, key, length);
+                                }));
+                    }
+                    return parts
+                            .thenCompose(ignored -> s3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                                    .bucket(bucket)
+                                    .key(key)
+                                    .uploadId(created.uploadId())
+                                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                                    .build()))
+                            .thenApply(completed -> completedParts)
+                            .exceptionallyCompose(error -> {
+                                content.cancel();
+                                return abort(bucket, key, created.uploadId(), error);
+                            });
+                });
+    }
+
+    private <T> CompletableFuture<T> abort(String bucket, String key, String uploadId, Throwable error) {
+        return s3AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build())
+                .handle((abortResponse, abortError) -> {
+                    if (abortError != null) {
+                        logger.error("Could not abort multipart upload {} of {}: {}", uploadId, key, abortError.getMessage());
+                    }
+                    throw error instanceof CompletionException completionException
+                            ? completionException
+                            : new CompletionException(error);
+                });
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close file channel: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * The state of the parts of one multipart upload.
+     */
+    private final class PartUpload {
+
+        private final FileChannel channel;
+        private final String bucket;
+        private final String key;
+        private final String uploadId;
+        private final long size;
+        private final long partSize;
+        private final int partCount;
+
+        private final CompletedPart[] completedParts;
+        private final AtomicInteger nextPart = new AtomicInteger();
+        private final AtomicInteger remainingParts;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final CompletableFuture<Void> allParts = new CompletableFuture<>();
+
+        private PartUpload(FileChannel channel, CreateMultipartUploadRequest createRequest, String uploadId,
+                           long size, long partSize, int partCount) {
+            this.channel = channel;
+            this.bucket = createRequest.bucket();
+            this.key = createRequest.key();
+            this.uploadId = uploadId;
+            this.size = size;
+            this.partSize = partSize;
+            this.partCount = partCount;
+            this.completedParts = new CompletedPart[partCount];
+            this.remainingParts = new AtomicInteger(partCount);
+        }
+
+        CompletableFuture<CompleteMultipartUploadResponse> start() {
+            for (int i = 0; i < Math.min(options.maxConcurrency(), partCount); i++) {
+                startNextPart();
+            }
+
+            return allParts
+                    .thenCompose(ignored -> s3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                            .build()))
+                    .exceptionallyCompose(error -> abort(bucket, key, uploadId, error));
+        }
+
+        private void startNextPart() {
+            int index = nextPart.getAndIncrement();
+            if (index >= partCount || failed.get()) {
+                return;
+            }
+
+            int partNumber = index + 1;
+            long offset = index * partSize;
+            long length = Math.min(partSize, size - offset);
+
+            ByteBuffer slice;
+            try {
+                slice = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            } catch (IOException e) {
+                fail(new UncheckedIOException(e));
+                return;
+            }
+
+            UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .contentLength(length)
+                    .build();
+
+            s3AsyncClient.uploadPart(uploadPartRequest, new MappedSliceAsyncRequestBody(slice))
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            fail(error);
+                            return;
+                        }
+                        completedParts[index] = CompletedPart.builder()
+                                .partNumber(partNumber)
+                                .eTag(response.eTag())
+                                .build();
+                        if (remainingParts.decrementAndGet() == 0) {
+                            allParts.complete(null);
+                        } else {
+                            startNextPart();
+                        }
+                    });
+        }
+
+        private void fail(Throwable error) {
+            if (failed.compareAndSet(false, true)) {
+                allParts.completeExceptionally(error);
+            }
+        }
+    }
+}
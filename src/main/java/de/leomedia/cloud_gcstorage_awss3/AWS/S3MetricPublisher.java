@@ -0,0 +1,98 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class publishes the metrics the AWS SDK collects for every API call to Micrometer.
+ * <p>
+ * The SDK reports the retries of a call and the time each attempt waited for the service,
+ * which the {@link de.leomedia.cloud_gcstorage_awss3.metrics.MeteredCloudStorageService} cannot see.
+ * Comparing {@value #SERVICE_CALL_TIMER} with {@value #API_CALL_TIMER} shows whether a slow call
+ * waited for S3 or spent its time in the client. Register it with
+ * {@code ClientOverrideConfiguration.Builder#addMetricPublisher} of an S3 client.
+ * <p>
+ * The meters are registered on the first call of each operation and reused afterwards,
+ * since every API call is published.
+ */
+public class S3MetricPublisher implements MetricPublisher {
+
+    public static final String API_CALL_TIMER = "cloud.storage.sdk.api.call";
+    public static final String SERVICE_CALL_TIMER = "cloud.storage.sdk.service.call";
+    public static final String RETRIES_COUNTER = "cloud.storage.retries";
+
+    private static final String ATTEMPT = "ApiCallAttempt";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<CallTags, Timer> apiCallTimers = new ConcurrentHashMap<>();
+    private final Map<CallTags, Counter> retryCounters = new ConcurrentHashMap<>();
+    private final Map<CallTags, Timer> serviceCallTimers = new ConcurrentHashMap<>();
+
+    public S3MetricPublisher(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * This method records the duration and retries of one API call and the service time of each of its attempts.
+     *
+     * @param metricCollection the metrics of an API call
+     */
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        String service = first(metricCollection.metricValues(CoreMetric.SERVICE_ID), "S3");
+        String operation = first(metricCollection.metricValues(CoreMetric.OPERATION_NAME), "unknown");
+        String outcome = Boolean.TRUE.equals(first(metricCollection.metricValues(CoreMetric.API_CALL_SUCCESSFUL), false)) ? "success" : "error";
+
+        Duration duration = first(metricCollection.metricValues(CoreMetric.API_CALL_DURATION), null);
+        if (duration != null) {
+            apiCallTimers.computeIfAbsent(new CallTags(service, operation, outcome), tags -> Timer.builder(API_CALL_TIMER)
+                            .description("Duration of AWS SDK calls including retries")
+                            .tags("provider", "AWS", "service", service, "operation", operation, "outcome", outcome)
+                            .publishPercentileHistogram()
+                            .register(meterRegistry))
+                    .record(duration);
+        }
+
+        Integer retries = first(metricCollection.metricValues(CoreMetric.RETRY_COUNT), 0);
+        if (retries > 0) {
+            retryCounters.computeIfAbsent(new CallTags(service, operation, null), tags -> Counter.builder(RETRIES_COUNTER)
+                            .description("Retried cloud storage requests")
+                            .tags("provider", "AWS", "service", service, "operation", operation)
+                            .register(meterRegistry))
+                    .increment(retries);
+        }
+
+        Timer serviceCalls = serviceCallTimers.computeIfAbsent(new CallTags(service, operation, null), tags -> Timer.builder(SERVICE_CALL_TIMER)
+                .description("Time each AWS SDK request attempt waited for the service")
+                .tags("provider", "AWS", "service", service, "operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        metricCollection.childrenWithName(ATTEMPT)
+                .flatMap(attempt -> attempt.metricValues(CoreMetric.SERVICE_CALL_DURATION).stream())
+                .forEach(serviceCalls::record);
+    }
+
+    @Override
+    public void close() {
+        // the meters belong to the registry
+    }
+
+    private static <T> T first(List<T> values, T defaultValue) {
+        return values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    /**
+     * The tags of the meters of one operation, the outcome is null for the meters that are not tagged with it.
+     */
+    private record CallTags(String service, String operation, String outcome) {
+    }
+}
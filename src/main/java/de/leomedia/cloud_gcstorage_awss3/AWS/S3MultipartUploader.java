@@ -0,0 +1,468 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class uploads a file to S3 with the multipart upload API.
+ * <p>
+ * The file is split into parts which are read through memory mapped slices of a {@link FileChannel},
+ * so the heap usage does not grow with the size of the file. The parts are uploaded concurrently,
+ * while a window limits the number of parts in flight per upload.
+ * If any part fails, the multipart upload is aborted.
+ * <p>
+ * Large objects are copied the same way, with parts that S3 copies from the source object on the server side.
+ * <p>
+ * Content of unknown length, like a file that is compressed while it is uploaded, is written to a stream
+ * that cuts it into parts. Only the parts in flight and the part being filled are held in memory.
+ * <p>
+ * Every uploaded part carries the {@link UploadChecksum} of its content, computed from the slice or buffer that is sent,
+ * and S3 reports the checksum of the object as the checksum of the part checksums.
+ */
+class S3MultipartUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3MultipartUploader.class);
+
+    /**
+     * S3 allows at most 10000 parts per multipart upload.
+     */
+    static final int MAX_PARTS = 10_000;
+
+    private final S3Client s3Client;
+    private final TransferOptions options;
+    private final ExecutorService executor;
+
+    S3MultipartUploader(S3Client s3Client, TransferOptions options) {
+        this.s3Client = s3Client;
+        this.options = options;
+        this.executor = Executors.newFixedThreadPool(options.maxConcurrency(), new DaemonThreadFactory("s3-multipart"));
+    }
+
+    /**
+     * This method uploads the given file in parts.
+     * The encryption and storage class settings are taken from the {@link CreateMultipartUploadRequest}.
+     *
+     * @param createRequest the request that starts the multipart upload
+     * @param file the path of the file to upload
+     * @return the checksum of the parts, or null if checksums are disabled
+     * @throws IOException if the file cannot be read
+     */
+    ContentChecksum upload(CreateMultipartUploadRequest createRequest, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long partSize = partSizeFor(size, options.partSize());
+            int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+
+            String uploadId = s3Client.createMultipartUpload(withChecksum(createRequest)).uploadId();
+            String bucket = createRequest.bucket();
+            String key = createRequest.key();
+
+            try {
+                CompletedPart[] completedParts = transferParts(key, size, partSize, partCount, (partNumber, offset, length) ->
+                        uploadPart(channel, bucket, key, uploadId, partNumber, offset, length));
+
+                complete(bucket, key, uploadId, completedParts);
+                return checksumOf(completedParts);
+
+            } catch (IOException | RuntimeException e) {
+                abort(bucket, key, uploadId);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * This method copies an object of the same bucket in parts with {@link UploadPartCopyRequest}s,
+     * which S3 requires for objects larger than 5 GB. The parts are copied concurrently like the parts of an upload.
+     * The metadata, encryption and storage class settings are taken from the {@link CreateMultipartUploadRequest}.
+     *
+     * @param createRequest the request that starts the multipart upload of the copy
+     * @param sourceKey the name of the object to copy
+     * @param sourceETag the ETag of the object to copy, so that every part is copied from the same version
+     * @param size the size of the object to copy
+     */
+    void copy(CreateMultipartUploadRequest createRequest, String sourceKey, String sourceETag, long size) throws IOException {
+        long partSize = partSizeFor(size, options.partSize());
+        int partCount = (int) Math.max(1, (size + partSize - 1) / partSize);
+
+        String uploadId = s3Client.createMultipartUpload(createRequest).uploadId();
+        String bucket = createRequest.bucket();
+        String key = createRequest.key();
+
+        try {
+            CompletedPart[] completedParts = transferParts(key, size, partSize, partCount, (partNumber, offset, length) -> {
+                UploadPartCopyRequest uploadPartCopyRequest = UploadPartCopyRequest.builder()
+                        .sourceBucket(bucket)
+                        .sourceKey(sourceKey)
+                        .copySourceIfMatch(sourceETag)
+                        .copySourceRange("bytes=" + offset + "-" + (offset + length - 1))
+                        .destinationBucket(bucket)
+                        .destinationKey(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .build();
+
+                String eTag = s3Client.uploadPartCopy(uploadPartCopyRequest).copyPartResult().eTag();
+                logger.debug("Copied part {} of {} ({} bytes)", partNumber, key, length);
+
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(eTag)
+                        .build();
+            });
+
+            complete(bucket, key, uploadId, completedParts);
+
+        } catch (IOException | RuntimeException e) {
+            abort(bucket, key, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * The producer of the content of a streamed upload.
+     */
+    @FunctionalInterface
+    interface ContentWriter {
+
+        /**
+         * @param out the stream that uploads the content in parts, it must be closed when the content is complete
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * This method uploads content of unknown length in parts of the given size. Every full part is uploaded
+     * while the writer produces the next one, with at most maxConcurrency parts in flight.
+     *
+     * @param createRequest the request that starts the multipart upload
+     * @param partSize the size of every part but the last, at least 5 MB
+     * @param writer writes the content to the stream of the upload
+     * @return the checksum of the parts, or null if checksums are disabled
+     * @throws IOException if the writer or a part fails
+     */
+    ContentChecksum uploadStream(CreateMultipartUploadRequest createRequest, long partSize, ContentWriter writer) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(withChecksum(createRequest)).uploadId();
+        String bucket = createRequest.bucket();
+        String key = createRequest.key();
+
+        PartOutputStream out = new PartOutputStream(bucket, key, uploadId, (int) partSize);
+        try {
+            writer.writeTo(out);
+            if (!out.closed) {
+                throw new IllegalStateException("The content of " + key + " was not closed");
+            }
+            CompletedPart[] completedParts = out.completedParts();
+            complete(bucket, key, uploadId, completedParts);
+            return checksumOf(completedParts);
+
+        } catch (IOException | RuntimeException e) {
+            out.cancel();
+            abort(bucket, key, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * This method announces the checksum algorithm of the parts, which S3 requires before the first part is uploaded.
+     */
+    private CreateMultipartUploadRequest withChecksum(CreateMultipartUploadRequest createRequest) {
+        return switch (options.uploadChecksum()) {
+            case NONE -> createRequest;
+            case CRC32C -> createRequest.toBuilder().checksumAlgorithm(ChecksumAlgorithm.CRC32_C).build();
+            case SHA256 -> createRequest.toBuilder().checksumAlgorithm(ChecksumAlgorithm.SHA256).build();
+        };
+    }
+
+    /**
+     * This method adds the checksum of the content to the request of a part and returns the completed part with the same checksum.
+     */
+    private CompletedPart checksummedPart(UploadPartRequest.Builder request, ByteBuffer content, String key, int partNumber, long length) {
+        UploadChecksum checksum = options.uploadChecksum();
+        String value = checksum == UploadChecksum.NONE ? null : checksum.base64(content);
+        switch (checksum) {
+            case CRC32C -> request.checksumCRC32C(value);
+            case SHA256 -> request.checksumSHA256(value);
+            default -> { }
+        }
+
+        String eTag = s3Client.uploadPart(request.build(), RequestBody.fromContentProvider(
+                () -> new ByteBufferInputStream(content.duplicate()), length, "application/octet-stream")).eTag();
+        logger.debug("Uploaded part {} of {} ({} bytes)", partNumber, key, length);
+
+        return CompletedPart.builder()
+                .partNumber(partNumber)
+                .eTag(eTag)
+                .checksumCRC32C(checksum == UploadChecksum.CRC32C ? value : null)
+                .checksumSHA256(checksum == UploadChecksum.SHA256 ? value : null)
+                .build();
+    }
+
+    private ContentChecksum checksumOf(CompletedPart[] completedParts) {
+        UploadChecksum checksum = options.uploadChecksum();
+        if (checksum == UploadChecksum.NONE) {
+            return null;
+        }
+        List<String> partChecksums = Arrays.stream(completedParts)
+                .map(part -> checksum == UploadChecksum.CRC32C ? part.checksumCRC32C() : part.checksumSHA256())
+                .toList();
+        return new ContentChecksum(checksum.algorithm(), checksum.composite(partChecksums));
+    }
+
+    private void complete(String bucket, String key, String uploadId, CompletedPart[] completedParts) {
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build());
+    }
+
+    /**
+     * The transfer of a single part, which throws if the part could not be transferred.
+     */
+    @FunctionalInterface
+    private interface PartTransfer {
+
+        CompletedPart transfer(int partNumber, long offset, long length) throws IOException;
+    }
+
+    /**
+     * This method submits one task per part while at most maxConcurrency parts are in flight.
+     * It stops submitting new parts as soon as one part failed.
+     */
+    private CompletedPart[] transferParts(String key, long size, long partSize, int partCount, PartTransfer transfer) throws IOException {
+
+        CompletedPart[] completedParts = new CompletedPart[partCount];
+        Semaphore window = new Semaphore(options.maxConcurrency());
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>(partCount);
+
+        try {
+            for (int i = 0; i < partCount && !failed.get(); i++) {
+                window.acquire();
+
+                int partNumber = i + 1;
+                long offset = i * partSize;
+                long length = Math.min(partSize, size - offset);
+
+                futures.add(executor.submit(() -> {
+                    try {
+                        completedParts[partNumber - 1] = transfer.transfer(partNumber, offset, length);
+                        return null;
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        window.release();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Multipart upload of " + key + " was interrupted", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+
+        return completedParts;
+    }
+
+    private CompletedPart uploadPart(FileChannel channel, String bucket, String key, String uploadId,
+                                     int partNumber, long offset, long length) throws IOException {
+
+        ByteBuffer slice = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+        UploadPartRequest.Builder uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length);
+
+        // the checksum and every attempt of the SDK get a fresh view on the mapped slice
+        return checksummedPart(uploadPartRequest, slice, key, partNumber, length);
+    }
+
+    private CompletedPart uploadPart(byte[] content, int length, String bucket, String key, String uploadId, int partNumber) {
+        UploadPartRequest.Builder uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length);
+
+        return checksummedPart(uploadPartRequest, ByteBuffer.wrap(content, 0, length), key, partNumber, length);
+    }
+
+    /**
+     * Collects the written content into part buffers and submits every full buffer to the executor.
+     * The last part is submitted when the stream is closed, an empty content is uploaded as one empty part.
+     */
+    private final class PartOutputStream extends OutputStream {
+
+        private final String bucket;
+        private final String key;
+        private final String uploadId;
+        private final int partSize;
+        private final Semaphore window = new Semaphore(options.maxConcurrency());
+        private final List<Future<CompletedPart>> parts = new ArrayList<>();
+        private byte[] buffer;
+        private int position;
+        private boolean closed;
+
+        PartOutputStream(String bucket, String key, String uploadId, int partSize) {
+            this.bucket = bucket;
+            this.key = key;
+            this.uploadId = uploadId;
+            this.partSize = partSize;
+            this.buffer = new byte[partSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int count = Math.min(len, partSize - position);
+                System.arraycopy(b, off, buffer, position, count);
+                position += count;
+                off += count;
+                len -= count;
+                if (position == partSize) {
+                    submit();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                if (position > 0 || parts.isEmpty()) {
+                    submit();
+                }
+                closed = true;
+            }
+        }
+
+        private void submit() throws IOException {
+            if (parts.size() == MAX_PARTS) {
+                throw new IOException("Streamed upload of " + key + " exceeds " + MAX_PARTS + " parts");
+            }
+            for (Future<CompletedPart> part : parts) {
+                // a failed part stops the writer before it produces the rest of the content
+                if (part.isDone()) {
+                    join(part);
+                }
+            }
+            try {
+                window.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Multipart upload of " + key + " was interrupted", e);
+            }
+
+            byte[] content = buffer;
+            int length = position;
+            int partNumber = parts.size() + 1;
+            parts.add(executor.submit(() -> {
+                try {
+                    return uploadPart(content, length, bucket, key, uploadId, partNumber);
+                } finally {
+                    window.release();
+                }
+            }));
+            buffer = new byte[partSize];
+            position = 0;
+        }
+
+        CompletedPart[] completedParts() throws IOException {
+            CompletedPart[] completedParts = new CompletedPart[parts.size()];
+            for (int i = 0; i < completedParts.length; i++) {
+                completedParts[i] = join(parts.get(i));
+            }
+            return completedParts;
+        }
+
+        void cancel() {
+            parts.forEach(part -> part.cancel(true));
+        }
+
+        private CompletedPart join(Future<CompletedPart> part) throws IOException {
+            try {
+                return part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Multipart upload of " + key + " was interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private void abort(String bucket, String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (S3Exception e) {
+            logger.error("Could not abort multipart upload {} of {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    /**
+     * This method increases the configured part size if the file would otherwise need more than {@link #MAX_PARTS} parts.
+     */
+    static long partSizeFor(long size, long configuredPartSize) {
+        long minimumPartSize = (size + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(configuredPartSize, minimumPartSize);
+    }
+}
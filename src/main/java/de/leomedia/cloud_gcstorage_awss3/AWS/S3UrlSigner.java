@@ -0,0 +1,244 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.BulkPresigner.KeySigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * This class generates presigned GET URLs for S3 without the request pipeline of the {@link S3Presigner}.
+ * <p>
+ * The endpoint and addressing style of a bucket are taken from a single URL of the {@link S3Presigner}.
+ * Every further URL only needs a SHA-256 hash of its canonical request and one HMAC with the daily
+ * signing key, which is derived once per date and region. The canonical query string only changes
+ * once per second and is shared by all keys of a batch.
+ * <p>
+ * The URLs are identical to those of {@link S3Presigner#presignGetObject} for the same signing time.
+ * If the credentials of the presigner are not known, every URL is generated by the {@link S3Presigner} instead.
+ */
+class S3UrlSigner {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3UrlSigner.class);
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String TEMPLATE_KEY = "presign-template";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final S3Presigner presigner;
+    private final AwsCredentialsProvider credentialsProvider;
+    private final Clock clock;
+    private final Map<SigningScope, byte[]> signingKeys = new ConcurrentHashMap<>();
+
+    S3UrlSigner(S3Presigner presigner, AwsCredentialsProvider credentialsProvider, Clock clock) {
+        this.presigner = presigner;
+        this.credentialsProvider = credentialsProvider;
+        this.clock = clock;
+    }
+
+    /**
+     * This method prepares the signing of the objects of a bucket.
+     *
+     * @param bucketName the name of a bucket
+     * @param duration the time in which the urls are valid
+     * @return a supplier of {@link KeySigner}s that share the layout of the bucket
+     */
+    Supplier<KeySigner> signers(String bucketName, Duration duration) {
+        URL template = presigner.presignGetObject(presignRequest(bucketName, TEMPLATE_KEY, duration)).url();
+        Layout layout = Layout.of(template);
+
+        AwsCredentials credentials = null;
+        try {
+            credentials = credentialsProvider.resolveCredentials();
+        } catch (SdkClientException e) {
+            logger.debug("Could not resolve the credentials of the presigner: {}", e.getMessage());
+        }
+
+        if (layout == null || credentials == null || !credentials.accessKeyId().equals(layout.accessKeyId())) {
+            logger.debug("Presigning the objects of {} with the S3Presigner", bucketName);
+            return () -> key -> presigner.presignGetObject(presignRequest(bucketName, key, duration)).url();
+        }
+
+        AwsCredentials signingCredentials = credentials;
+        return () -> new Signer(layout, signingCredentials, duration.getSeconds());
+    }
+
+    private static GetObjectPresignRequest presignRequest(String bucketName, String key, Duration duration) {
+        return GetObjectPresignRequest.builder()
+                .signatureDuration(duration)
+                .getObjectRequest(GetObjectRequest.builder().bucket(bucketName).key(key).build())
+                .build();
+    }
+
+    /**
+     * The daily signing key is derived with four HMACs, so it is kept for the whole day.
+     */
+    private byte[] signingKey(AwsCredentials credentials, String dateStamp, String region, String service) {
+        SigningScope scope = new SigningScope(credentials, dateStamp, region, service);
+        byte[] key = signingKeys.get(scope);
+        if (key == null) {
+            signingKeys.keySet().removeIf(s -> !s.dateStamp().equals(dateStamp));
+            key = signingKeys.computeIfAbsent(scope, s -> {
+                byte[] secret = ("AWS4" + s.credentials().secretAccessKey()).getBytes(StandardCharsets.UTF_8);
+                byte[] dateKey = hmac(secret, s.dateStamp());
+                byte[] regionKey = hmac(dateKey, s.region());
+                byte[] serviceKey = hmac(regionKey, s.service());
+                return hmac(serviceKey, "aws4_request");
+            });
+        }
+        return key;
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Signs the keys of one batch. The query parameters are in the order of the {@link S3Presigner}.
+     */
+    private final class Signer implements KeySigner {
+
+        private final Layout layout;
+        private final AwsCredentials credentials;
+        private final long expiresSeconds;
+        private final String sessionToken;
+        private final MessageDigest sha256;
+        private final Mac mac;
+
+        private long preparedSecond = Long.MIN_VALUE;
+        private String preparedDateStamp;
+        private String canonicalQuery;
+        private String urlQuery;
+        private String stringToSignPrefix;
+
+        Signer(Layout layout, AwsCredentials credentials, long expiresSeconds) {
+            this.layout = layout;
+            this.credentials = credentials;
+            this.expiresSeconds = expiresSeconds;
+            this.sessionToken = credentials instanceof AwsSessionCredentials session
+                    ? SdkHttpUtils.urlEncode(session.sessionToken())
+                    : null;
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+                this.mac = Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public URL sign(String key) throws MalformedURLException, GeneralSecurityException {
+            prepare(clock.instant().getEpochSecond());
+
+            String encodedKey = SdkHttpUtils.urlEncodeIgnoreSlashes(key);
+            String canonicalRequest = "GET\n" + layout.pathPrefix() + encodedKey + "\n" + canonicalQuery
+                    + "\nhost:" + layout.host() + "\n\nhost\nUNSIGNED-PAYLOAD";
+            String stringToSign = stringToSignPrefix + HEX.formatHex(sha256.digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+            String signature = HEX.formatHex(mac.doFinal(stringToSign.getBytes(StandardCharsets.UTF_8)));
+
+            return new URL(layout.urlPrefix() + encodedKey + "?" + urlQuery + signature);
+        }
+
+        private void prepare(long epochSecond) throws GeneralSecurityException {
+            if (epochSecond == preparedSecond) {
+                return;
+            }
+            String amzDate = AMZ_DATE.format(Instant.ofEpochSecond(epochSecond));
+            String dateStamp = amzDate.substring(0, 8);
+            String scope = dateStamp + "/" + layout.region() + "/" + layout.service() + "/aws4_request";
+            String credential = SdkHttpUtils.urlEncode(credentials.accessKeyId() + "/" + scope);
+
+            canonicalQuery = "X-Amz-Algorithm=" + ALGORITHM
+                    + "&X-Amz-Credential=" + credential
+                    + "&X-Amz-Date=" + amzDate
+                    + "&X-Amz-Expires=" + expiresSeconds
+                    + (sessionToken == null ? "" : "&X-Amz-Security-Token=" + sessionToken)
+                    + "&X-Amz-SignedHeaders=host";
+            urlQuery = (sessionToken == null ? "" : "X-Amz-Security-Token=" + sessionToken + "&")
+                    + "X-Amz-Algorithm=" + ALGORITHM
+                    + "&X-Amz-Date=" + amzDate
+                    + "&X-Amz-SignedHeaders=host"
+                    + "&X-Amz-Expires=" + expiresSeconds
+                    + "&X-Amz-Credential=" + credential
+                    + "&X-Amz-Signature=";
+            stringToSignPrefix = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n";
+
+            if (!dateStamp.equals(preparedDateStamp)) {
+                mac.init(new SecretKeySpec(signingKey(credentials, dateStamp, layout.region(), layout.service()), "HmacSHA256"));
+                preparedDateStamp = dateStamp;
+            }
+            preparedSecond = epochSecond;
+        }
+    }
+
+    /**
+     * The parts of a presigned URL that are the same for every object of a bucket.
+     *
+     * @param urlPrefix the URL up to the encoded key
+     * @param pathPrefix the path of the canonical request up to the encoded key
+     * @param host the value of the signed host header
+     */
+    private record Layout(String urlPrefix, String pathPrefix, String host, String accessKeyId, String region, String service) {
+
+        /**
+         * @return the layout of the template URL, or null if the URL is not a plain SigV4 URL
+         */
+        static Layout of(URL template) {
+            String url = template.toString();
+            String rawPath = template.getPath();
+            int keyStart = url.indexOf("/" + TEMPLATE_KEY + "?");
+            if (keyStart < 0 || !rawPath.endsWith("/" + TEMPLATE_KEY)) {
+                return null;
+            }
+
+            String credential = null;
+            for (String parameter : template.getQuery().split("&")) {
+                if (parameter.startsWith("X-Amz-Credential=")) {
+                    credential = SdkHttpUtils.urlDecode(parameter.substring("X-Amz-Credential=".length()));
+                }
+            }
+            String[] scope = credential == null ? new String[0] : credential.split("/");
+            if (scope.length != 5) {
+                return null;
+            }
+
+            return new Layout(url.substring(0, keyStart + 1),
+                    rawPath.substring(0, rawPath.length() - TEMPLATE_KEY.length()),
+                    template.getAuthority(),
+                    scope[0], scope[2], scope[3]);
+        }
+    }
+
+    private record SigningScope(AwsCredentials credentials, String dateStamp, String region, String service) {
+    }
+}
@@ -0,0 +1,74 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.reactivestreams.Publisher;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking variant of {@link CloudStorageService}.
+ * The methods return immediately and complete their {@link CompletableFuture} once the request is done,
+ * so a few threads can keep many transfers in flight.
+ */
+public interface AsyncCloudStorageService {
+
+    /**
+     * A method that uploads objects to S3 or Cloud Storage
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param file the full file path of an object
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @return a future that completes when the object is uploaded, or completes exceptionally if the upload failed
+     */
+    CompletableFuture<Void> uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass);
+
+    /**
+     * This method uploads content while it is received, e.g. the body of an HTTP request, without writing it to disk
+     * or collecting it in memory. The content is requested buffer by buffer as fast as the provider accepts it,
+     * so at most a part or chunk of every upload is held at a time.
+     * <p>
+     * The publisher is subscribed once, so a failed upload cannot be retried with the same content.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param content the content, whose buffers are not used anymore once they were requested again
+     * @param contentLength the exact length of the content, which S3 needs before the first byte is sent
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @return a future with the {@link UploadResult} and the checksum the provider verified, or completes exceptionally if the upload failed
+     */
+    default CompletableFuture<UploadResult> uploadStream(String bucketName, String key, Publisher<ByteBuffer> content, long contentLength,
+                                                         String encryptionKey, String storageClass) {
+        return uploadStream(bucketName, key, content, contentLength, encryptionKey, storageClass, ContentAttributes.NONE);
+    }
+
+    /**
+     * This method uploads content while it is received like {@link #uploadStream(String, String, Publisher, long, String, String)},
+     * and stores it with the given attributes. Content with a Content-Encoding is stored as it is received, without decoding it.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param content the content, whose buffers are not used anymore once they were requested again
+     * @param contentLength the exact length of the content, which S3 needs before the first byte is sent
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @param attributes the content type, Content-Encoding and user metadata of the object
+     * @return a future with the {@link UploadResult} and the checksum the provider verified, or completes exceptionally if the upload failed
+     */
+    CompletableFuture<UploadResult> uploadStream(String bucketName, String key, Publisher<ByteBuffer> content, long contentLength,
+                                                 String encryptionKey, String storageClass, ContentAttributes attributes);
+
+    /**
+     * This method generates a presigned URL for a given object.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param minutes given timestamp in minutes in which the url is valid
+     * @param encryptionKey given encryption key for decrypting objects
+     * @return a future with the generated signed {@link URL}
+     */
+    CompletableFuture<URL> getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey);
+}
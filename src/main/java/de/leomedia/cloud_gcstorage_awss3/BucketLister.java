@@ -0,0 +1,182 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class lists the objects of a bucket with many listings in parallel.
+ * <p>
+ * A single listing fetches one page after another, each one a round trip. Both providers list the keys
+ * below different prefixes independently, so the lister first discovers the sub-prefixes with a "/" delimiter
+ * down to the fan-out depth, and then lists every sub-prefix on its own, all of them in parallel.
+ * <p>
+ * The pages are passed to the stream through a bounded queue, so a slow consumer slows down the listings
+ * and the listing is never held in memory. The objects of a sub-prefix are in the order of their keys,
+ * but the sub-prefixes are interleaved.
+ */
+public class BucketLister {
+
+    public static final int DEFAULT_FAN_OUT_DEPTH = 2;
+
+    private static final String DELIMITER = "/";
+
+    /**
+     * Marks the end of the listing in the queue of pages.
+     */
+    private static final List<ObjectInfo> END = new ArrayList<>(0);
+
+    private final CloudStorageService service;
+    private final int parallelism;
+    private final int fanOutDepth;
+
+    /**
+     * @param service the service whose {@link CloudStorageService#listPage} fetches the pages
+     * @param parallelism the maximum number of pages that are fetched at the same time
+     * @param fanOutDepth the number of "/" levels below the prefix whose sub-prefixes are listed in parallel, 0 to list sequentially
+     */
+    public BucketLister(CloudStorageService service, int parallelism, int fanOutDepth) {
+        if (parallelism <= 0 || fanOutDepth < 0) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism + " or fan-out depth " + fanOutDepth);
+        }
+        this.service = service;
+        this.parallelism = parallelism;
+        this.fanOutDepth = fanOutDepth;
+    }
+
+    public BucketLister(CloudStorageService service) {
+        this(service, 16, DEFAULT_FAN_OUT_DEPTH);
+    }
+
+    /**
+     * This method starts the listings of the prefix and returns the objects while they are listed.
+     * The stream should be closed if it is not consumed to the end, which stops the listings.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @return a lazy stream of the objects without user metadata, which throws an {@link UncheckedIOException}
+     * if a page cannot be fetched
+     */
+    public Stream<ObjectInfo> list(String bucketName, String prefix) {
+        Listing listing = new Listing(bucketName);
+        listing.submit(prefix, 0);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listing, Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .onClose(listing::close);
+    }
+
+    private final class Listing implements Iterator<ObjectInfo> {
+
+        private final String bucketName;
+        private final BlockingQueue<List<ObjectInfo>> pages = new ArrayBlockingQueue<>(parallelism * 2);
+        private final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("bucket-list"));
+        private final AtomicInteger pendingPrefixes = new AtomicInteger();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        private Iterator<ObjectInfo> page = Collections.emptyIterator();
+        private boolean done;
+
+        Listing(String bucketName) {
+            this.bucketName = bucketName;
+        }
+
+        void submit(String prefix, int depth) {
+            pendingPrefixes.incrementAndGet();
+            try {
+                executor.execute(() -> list(prefix, depth));
+            } catch (RejectedExecutionException e) {
+                // the listing was closed
+                pendingPrefixes.decrementAndGet();
+            }
+        }
+
+        /**
+         * Lists the objects directly below the prefix and starts a listing for every sub-prefix,
+         * or lists all objects below the prefix once the fan-out depth is reached.
+         */
+        private void list(String prefix, int depth) {
+            String delimiter = depth < fanOutDepth ? DELIMITER : null;
+            try {
+                String pageToken = null;
+                do {
+                    ListPage next = service.listPage(bucketName, prefix, delimiter, pageToken);
+                    next.prefixes().forEach(subPrefix -> submit(subPrefix, depth + 1));
+                    if (!next.objects().isEmpty()) {
+                        pages.put(next.objects());
+                    }
+                    pageToken = next.nextPageToken();
+                } while (pageToken != null && !executor.isShutdown());
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, new IOException(e));
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pendingPrefixes.decrementAndGet() == 0 || failure.get() != null) {
+                try {
+                    pages.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !done) {
+                List<ObjectInfo> next;
+                try {
+                    next = pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted while listing " + bucketName));
+                }
+                if (failure.get() != null) {
+                    close();
+                    throw new UncheckedIOException(failure.get());
+                }
+                if (next == END) {
+                    close();
+                } else {
+                    page = next.iterator();
+                }
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public ObjectInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        void close() {
+            done = true;
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * This class generates the presigned URLs of a batch presign in parallel and passes them to a sink.
+ * <p>
+ * The keys are read lazily and signed in batches, so a batch of millions of keys is never held in memory.
+ * Every batch gets its own {@link KeySigner}, which can keep hash and signature instances
+ * without synchronization. A {@link Semaphore} limits the number of batches in flight,
+ * so a slow sink slows down the reading of the keys.
+ */
+public class BulkPresigner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkPresigner.class);
+
+    static final int BATCH_SIZE = 256;
+
+    private final int parallelism;
+
+    public BulkPresigner(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The signing of a single key. An instance is only used by one thread at a time.
+     */
+    @FunctionalInterface
+    public interface KeySigner {
+
+        /**
+         * @param key the name of the object
+         * @return the presigned {@link URL} of the object
+         */
+        URL sign(String key) throws Exception;
+    }
+
+    /**
+     * This method signs every key and waits until all URLs are passed to the sink.
+     * The sink is called concurrently from several threads and in no particular order.
+     * A key that could not be signed is passed with a null URL, like {@link CloudStorageService#getPresignedUrl} returns null.
+     *
+     * @param keys the names of the objects
+     * @param signers creates a {@link KeySigner} for every batch of keys
+     * @param sink receives every key with its presigned URL
+     */
+    public void presignAll(Iterable<String> keys, Supplier<? extends KeySigner> signers, BiConsumer<String, URL> sink) {
+        int maxBatchesInFlight = parallelism * 2;
+        Semaphore permits = new Semaphore(maxBatchesInFlight);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("presign"));
+        try {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            for (String key : keys) {
+                batch.add(key);
+                if (batch.size() == BATCH_SIZE) {
+                    submit(executor, permits, failure, batch, signers, sink);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+                if (failure.get() != null) {
+                    break;
+                }
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                submit(executor, permits, failure, batch, signers, sink);
+            }
+            permits.acquire(maxBatchesInFlight);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            throw new CancellationException("Batch presign was interrupted");
+        } finally {
+            executor.shutdown();
+        }
+
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static void submit(ExecutorService executor, Semaphore permits, AtomicReference<RuntimeException> failure,
+                               List<String> batch, Supplier<? extends KeySigner> signers, BiConsumer<String, URL> sink)
+            throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    signBatch(batch, signers.get(), sink);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static void signBatch(List<String> batch, KeySigner signer, BiConsumer<String, URL> sink) {
+        for (String key : batch) {
+            URL url = null;
+            try {
+                url = signer.sign(key);
+            } catch (Exception e) {
+                logger.error("Could not presign {}: {}", key, e.getMessage());
+            }
+            sink.accept(key, url);
+        }
+    }
+}
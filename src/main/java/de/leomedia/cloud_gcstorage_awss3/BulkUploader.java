@@ -0,0 +1,165 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * This class runs the uploads of a bulk upload concurrently and collects one {@link UploadResult} per object.
+ * <p>
+ * On Java 21 and newer every upload runs on its own virtual thread, so waiting for the network
+ * does not block a platform thread. On Java 17 a pool of platform threads is used instead.
+ * In both cases a {@link Semaphore} limits the number of uploads in flight.
+ */
+public class BulkUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkUploader.class);
+
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private final int concurrency;
+
+    public BulkUploader(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * The upload of a single object, which throws if the object could not be uploaded.
+     */
+    @FunctionalInterface
+    public interface UploadTask {
+
+        /**
+         * @param upload the object to upload
+         * @return the number of bytes that were uploaded
+         */
+        long upload(UploadSpec upload) throws Exception;
+    }
+
+    /**
+     * The upload of a single object that also returns the checksum that was sent with it.
+     */
+    @FunctionalInterface
+    public interface ChecksummedUploadTask {
+
+        /**
+         * @param upload the object to upload
+         * @return the number of uploaded bytes with the checksum of the stored content
+         */
+        Uploaded upload(UploadSpec upload) throws Exception;
+    }
+
+    /**
+     * @param bytes the number of bytes that were uploaded
+     * @param checksum the checksum that was sent with the content, or null
+     */
+    public record Uploaded(long bytes, ContentChecksum checksum) {
+    }
+
+    /**
+     * This method uploads every object with the given task and waits until all uploads are done.
+     *
+     * @param uploads the objects to upload
+     * @param task the upload of a single object
+     * @return the results in the order of the given uploads
+     */
+    public List<UploadResult> uploadAll(Collection<UploadSpec> uploads, UploadTask task) {
+        return uploadAllWithChecksums(uploads, upload -> new Uploaded(task.upload(upload), null));
+    }
+
+    /**
+     * This method uploads every object with the given task like {@link #uploadAll}, and keeps the checksum of every upload.
+     *
+     * @param uploads the objects to upload
+     * @param task the upload of a single object
+     * @return the results in the order of the given uploads
+     */
+    public List<UploadResult> uploadAllWithChecksums(Collection<UploadSpec> uploads, ChecksummedUploadTask task) {
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<UploadResult>> futures = new ArrayList<>(uploads.size());
+
+        ExecutorService executor = newExecutor();
+        try {
+            for (UploadSpec upload : uploads) {
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return uploadOne(upload, task);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            List<UploadResult> results = new ArrayList<>(futures.size());
+            for (Future<UploadResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new CancellationException("Bulk upload was interrupted");
+        } catch (ExecutionException e) {
+            // uploadOne never throws, so this is a bug in the task itself
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static UploadResult uploadOne(UploadSpec upload, ChecksummedUploadTask task) {
+        long start = System.nanoTime();
+        try {
+            Uploaded uploaded = task.upload(upload);
+            return UploadResult.succeeded(upload.key(), uploaded.bytes(), uploaded.checksum(), Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            logger.debug("Upload of {} failed: {}", upload.key(), e.getMessage());
+            return UploadResult.failed(upload.key(), e, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invokeExact();
+            } catch (Throwable e) {
+                logger.warn("Could not create a virtual thread executor: {}", e.getMessage());
+            }
+        }
+        return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("bulk-upload"));
+    }
+
+    /**
+     * @return true if the uploads run on virtual threads
+     */
+    public static boolean usesVirtualThreads() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * The project is compiled for Java 17, so the Java 21 factory method is looked up at runtime.
+     */
+    private static MethodHandle findVirtualThreadExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -1,12 +1,25 @@
 package de.leomedia.cloud_gcstorage_awss3;
 
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import de.leomedia.cloud_gcstorage_awss3.gateway.GatewayWebApplicationType;
+import de.leomedia.cloud_gcstorage_awss3.governor.GovernorOptions;
+import de.leomedia.cloud_gcstorage_awss3.load.LoadGenerator;
+import de.leomedia.cloud_gcstorage_awss3.load.LoadReport;
+import de.leomedia.cloud_gcstorage_awss3.load.WorkloadOptions;
+import de.leomedia.cloud_gcstorage_awss3.sync.DirectorySync;
+import de.leomedia.cloud_gcstorage_awss3.sync.SyncReport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @SpringBootApplication
 public class CloudGcStorageAwsS3Application {
@@ -20,36 +33,125 @@ public class CloudGcStorageAwsS3Application {
     @Value("${BUCKET_NAME}")
     private String bucket_name;
 
-    @Value("${PROJECT_ID}")
-    private String projectId;
-
-    @Value("${GC_JSON_KEY_PATH}")
-    private String gcJsonKeyPath;
-
     @Value("${ENCRYPTION_KEY}")
     private String encryptionKey;
 
+    @Value("${cloud.governor.max-attempts:" + GovernorOptions.DEFAULT_MAX_ATTEMPTS + "}")
+    private int maxAttempts;
+
+    @Value("${cloud.governor.maximum-concurrency:" + GovernorOptions.DEFAULT_MAXIMUM_LIMIT + "}")
+    private int maximumConcurrency;
+
+    @Value("${cloud.sync.directory:}")
+    private String syncDirectory;
+
+    @Value("${cloud.sync.prefix:}")
+    private String syncPrefix;
+
+    @Value("${cloud.sync.index-directory:${user.home}/.cloud-sync}")
+    private String syncIndexDirectory;
+
+    @Value("${cloud.sync.delete-orphans:false}")
+    private boolean syncDeleteOrphans;
+
+    @Value("${cloud.gateway.enabled:false}")
+    private boolean gatewayEnabled;
+
+    @Value("${cloud.load.enabled:false}")
+    private boolean loadEnabled;
+
+    @Value("${cloud.load.operations:" + WorkloadOptions.DEFAULT_OPERATIONS + "}")
+    private String loadOperations;
+
+    @Value("${cloud.load.object-sizes:" + WorkloadOptions.DEFAULT_OBJECT_SIZES + "}")
+    private String loadObjectSizes;
+
+    @Value("${cloud.load.concurrency:" + WorkloadOptions.DEFAULT_CONCURRENCY + "}")
+    private int loadConcurrency;
+
+    @Value("${cloud.load.duration:60s}")
+    private Duration loadDuration;
+
+    @Value("${cloud.load.warm-up:10s}")
+    private Duration loadWarmUp;
+
+    @Value("${cloud.load.arrival-rate:0}")
+    private double loadArrivalRate;
+
+    @Value("${cloud.load.max-queued:" + WorkloadOptions.DEFAULT_MAX_QUEUED + "}")
+    private int loadMaxQueued;
+
+    @Value("${cloud.load.report:}")
+    private String loadReport;
+
     public static void main(String[] args) {
-        SpringApplication.run(CloudGcStorageAwsS3Application.class, args);
+        SpringApplication application = new SpringApplication(CloudGcStorageAwsS3Application.class);
+        application.addListeners(new GatewayWebApplicationType());
+        application.run(args);
     }
 
     @Bean
-    CommandLineRunner commandLineRunner() {
+    CommandLineRunner commandLineRunner(CloudClientRegistry clientRegistry, MeterRegistry meterRegistry, ObjectProvider<ObservationRegistry> observationRegistry) {
         return args -> {
 
+            //The gateway serves uploads over HTTP instead of uploading a local file
+            if (gatewayEnabled) {
+                return;
+            }
+
+            //Run a workload and report its latencies instead of uploading a single file. The workload calls the service
+            //of the provider directly, so retries and concurrency limits do not hide how the provider performs
+            if (loadEnabled) {
+                LoadReport report = new LoadGenerator(clientRegistry.cloudStorageService(cloudProvider), cloudProvider,
+                        WorkloadOptions.builder(bucket_name)
+                                .operations(loadOperations)
+                                .objectSizes(loadObjectSizes)
+                                .concurrency(loadConcurrency)
+                                .duration(loadDuration)
+                                .warmUp(loadWarmUp)
+                                .arrivalRate(loadArrivalRate)
+                                .maxQueued(loadMaxQueued)
+                                .encryptionKey(encryptionKey)
+                                .storageClass(storageClass)
+                                .build()).run();
+                if (!loadReport.isBlank()) {
+                    Files.writeString(Path.of(loadReport), report.toJson());
+                }
+                return;
+            }
+
             //Define object key name and file path
             String key = "";
             String filePath = "";
 
-            //Create the appropriate CloudStorageService implementation
-            CloudStorageService cloudStorageService = CloudStorageServiceFactory.getCloudStorageService(
+            //Create the appropriate CloudStorageService implementation on the shared clients, which records metrics of every call
+            //and retries throttled calls with a concurrency limit that adapts to the provider
+            CloudStorageService cloudStorageService = CloudStorageServiceFactory.getGovernedCloudStorageService(
                     cloudProvider,
-                    projectId,
-                    gcJsonKeyPath,
-                    S3Presigner.builder().build(),
-                    S3Client.builder().build()
+                    clientRegistry,
+                    meterRegistry,
+                    observationRegistry.getIfAvailable(),
+                    GovernorOptions.builder()
+                            .maxAttempts(maxAttempts)
+                            .maximumLimit(maximumConcurrency)
+                            .build()
             );
 
+            //Sync a whole directory when one is configured, only new and changed files are uploaded
+            if (!syncDirectory.isEmpty()) {
+                try (DirectorySync directorySync = DirectorySync.builder(cloudStorageService, Path.of(syncIndexDirectory))
+                        .deleteOrphans(syncDeleteOrphans)
+                        .encryptionKey(encryptionKey)
+                        .storageClass(storageClass)
+                        .build()) {
+                    SyncReport report = directorySync.sync(Path.of(syncDirectory), bucket_name, syncPrefix);
+                    if (!report.isSuccess()) {
+                        throw new IllegalStateException(report.failures().size() + " files could not be synced");
+                    }
+                }
+                return;
+            }
+
             //Use the common interface to interact with the cloud storage service
             cloudStorageService.uploadObject(
                     bucket_name,
@@ -1,7 +1,19 @@
 package de.leomedia.cloud_gcstorage_awss3;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An interface that implements the common methods for uploading objects and generating presigned URLs.
@@ -19,6 +31,17 @@ public interface CloudStorageService {
      */
     void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException;
 
+    /**
+     * A method that uploads many objects to the same bucket concurrently.
+     * Unlike {@link #uploadObject}, a failed upload does not stop the others
+     * and is reported in its {@link UploadResult}.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads);
+
     /**
      * This method generates a presigned URL for a given object.
      *
@@ -29,5 +52,160 @@ public interface CloudStorageService {
      * @return generated signed {@link URL}
      */
     URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey);
+
+    /**
+     * This method downloads an object into a file.
+     * Large objects are fetched in byte ranges concurrently, the file is verified against the checksum
+     * of the object, and a failed download continues with its missing ranges when it is started again.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param target the file to write, an existing file is replaced
+     * @throws IOException if the object does not exist, cannot be downloaded or does not match its checksum
+     */
+    void downloadObject(String bucketName, String key, Path target) throws IOException;
+
+    /**
+     * This method reads a byte range of an object, as it is stored, with a single ranged request.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist or cannot be read
+     */
+    byte[] readRange(String bucketName, String key, long offset, int length) throws IOException;
+
+    /**
+     * This method reads a byte range of one version of an object, so ranges that are read one after another
+     * all belong to the same content even if the object is replaced meanwhile.
+     * The providers send the version as precondition of the ranged request. This default implementation reads the range
+     * and compares the version of the object afterwards, which is just as safe, since a version is never reused for other content.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param version the {@link ObjectInfo#version} of the object, or null to read the current version
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist, cannot be read or is no longer of the version
+     */
+    default byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        byte[] range = readRange(bucketName, key, offset, length);
+        if (version != null) {
+            ObjectInfo info = getObjectInfo(bucketName, key);
+            if (info == null || !version.equals(info.version())) {
+                throw new IOException("Object " + key + " is no longer version " + version);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * This method reads the size, version and user metadata of an object without downloading it.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @return the {@link ObjectInfo} of the object, or null if the object does not exist
+     * @throws IOException if the metadata cannot be read
+     */
+    ObjectInfo getObjectInfo(String bucketName, String key) throws IOException;
+
+    /**
+     * This method lists one page of the objects whose keys start with the prefix.
+     * With a delimiter, keys that contain the delimiter after the prefix are not listed,
+     * instead the part of the key up to the delimiter is returned once as a common prefix.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @param delimiter the delimiter like "/" that groups keys into common prefixes, or null to list all keys below the prefix
+     * @param pageToken the {@link ListPage#nextPageToken} of the previous page, or null for the first page
+     * @return the page with its objects, common prefixes and the token of the next page
+     * @throws IOException if the bucket does not exist or cannot be listed
+     */
+    ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException;
+
+    /**
+     * This method lists all objects whose keys start with the prefix, in the order of their keys.
+     * The pages are fetched one after another while the stream is consumed, so the listing is never held in memory.
+     * {@link BucketLister} lists large buckets faster by fetching the pages of many prefixes in parallel.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @return a lazy stream of the objects without user metadata, which throws an {@link UncheckedIOException}
+     * if a page cannot be fetched
+     */
+    default Stream<ObjectInfo> listObjects(String bucketName, String prefix) {
+        Iterator<ObjectInfo> objects = new Iterator<>() {
+            private Iterator<ObjectInfo> page = Collections.emptyIterator();
+            private String pageToken;
+            private boolean lastPage;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !lastPage) {
+                    try {
+                        ListPage next = listPage(bucketName, prefix, null, pageToken);
+                        page = next.objects().iterator();
+                        pageToken = next.nextPageToken();
+                        lastPage = pageToken == null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public ObjectInfo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(objects,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * This method copies an object inside a bucket on the server side, so its content is not transferred through this process.
+     * The copy keeps the user metadata of the source object.
+     *
+     * @param bucketName the name of a bucket
+     * @param sourceKey the name of the object to copy
+     * @param targetKey the name of the copy, an existing object is replaced
+     * @param encryptionKey the encryption key generated by SSE KMS for the copy
+     * @param storageClass the storage class in which the copy will be stored in S3
+     * @throws IOException if the source object does not exist or cannot be copied
+     */
+    void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException;
+
+    /**
+     * This method deletes an object. Deleting an object that does not exist is not an error.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @throws IOException if the object cannot be deleted
+     */
+    void deleteObject(String bucketName, String key) throws IOException;
+
+    /**
+     * This method generates presigned URLs for many objects of the same bucket.
+     * Every URL is the same as the one {@link #getPresignedUrl} generates at the same time.
+     * The URLs are passed to the sink as soon as they are signed, possibly from several threads,
+     * and a key that could not be signed is passed with a null URL.
+     *
+     * @param bucketName the name of a bucket
+     * @param keys the names of the objects, which are read only once
+     * @param minutes given timestamp in minutes in which the urls are valid
+     * @param sink receives every key with its presigned URL
+     */
+    default void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        for (String key : keys) {
+            sink.accept(key, getPresignedUrl(bucketName, key, minutes, null));
+        }
+    }
 }
 
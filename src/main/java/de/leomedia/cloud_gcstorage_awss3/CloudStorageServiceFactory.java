@@ -1,10 +1,27 @@
 package de.leomedia.cloud_gcstorage_awss3;
 
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3AsyncStorageService;
 import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageAsyncService;
 import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import de.leomedia.cloud_gcstorage_awss3.dedup.DeduplicatingCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.governor.GovernedCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.governor.GovernorOptions;
+import de.leomedia.cloud_gcstorage_awss3.governor.RequestGovernor;
+import de.leomedia.cloud_gcstorage_awss3.metrics.MeteredCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.pack.PackingCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.replicated.AckMode;
+import de.leomedia.cloud_gcstorage_awss3.replicated.ReplicatedCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.tiered.TierOptions;
+import de.leomedia.cloud_gcstorage_awss3.tiered.WriteBackCloudStorageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * This class implements the function to factor between AWS and Google Cloud.
@@ -32,4 +49,162 @@ public class CloudStorageServiceFactory {
             throw new IllegalArgumentException("Invalid cloud provider: " + cloudProvider);
         }
     }
+
+    /**
+     * This method compares the cloudProvider parameter and returns either
+     * the {@link AWSS3AsyncStorageService} or {@link GCStorageAsyncService}.
+     * The Cloud Storage calls run on a new bounded I/O executor with the default size.
+     *
+     * @param cloudProvider the given cloud provider whether "aws" or "google cloud"
+     * @param projectId     the id of the Google Cloud project
+     * @param jsonKeyPath   the service account file from Google Cloud
+     * @param presigner     the Presigner class for AWS
+     * @param s3AsyncClient the S3AsyncClient class for AWS
+     * @return new {@link AWSS3AsyncStorageService} or new {@link GCStorageAsyncService}
+     * @throws IOException if the service account file cannot be read
+     */
+    public static AsyncCloudStorageService getAsyncCloudStorageService(String cloudProvider, String projectId, String jsonKeyPath, S3Presigner presigner, S3AsyncClient s3AsyncClient) throws IOException {
+        if ("AWS".equalsIgnoreCase(cloudProvider)) {
+            return new AWSS3AsyncStorageService(s3AsyncClient, presigner);
+        } else if ("Google Cloud".equalsIgnoreCase(cloudProvider)) {
+            return new GCStorageAsyncService(new GCStorageService(projectId, jsonKeyPath),
+                    GCStorageAsyncService.newIoExecutor(GCStorageAsyncService.DEFAULT_IO_THREADS, GCStorageAsyncService.DEFAULT_QUEUE_CAPACITY));
+        } else {
+            throw new IllegalArgumentException("Invalid cloud provider: " + cloudProvider);
+        }
+    }
+
+    /**
+     * This method returns a {@link WriteBackCloudStorageService} that stages uploads on the local disk
+     * and flushes them to the service of the given backing provider.
+     *
+     * @param backingProvider the given cloud provider whether "aws" or "google cloud"
+     * @param projectId       the id of the Google Cloud project
+     * @param jsonKeyPath     the service account file from Google Cloud
+     * @param presigner       the Presigner class for AWS
+     * @param s3Client        the S3Client class for AWS
+     * @param tierOptions     the staging directory, capacity and backpressure settings
+     * @return new {@link WriteBackCloudStorageService}
+     * @throws IOException if the service account file or the staging directory cannot be read
+     */
+    public static WriteBackCloudStorageService getTieredCloudStorageService(String backingProvider, String projectId, String jsonKeyPath, S3Presigner presigner, S3Client s3Client, TierOptions tierOptions) throws IOException {
+        return new WriteBackCloudStorageService(getCloudStorageService(backingProvider, projectId, jsonKeyPath, presigner, s3Client), tierOptions);
+    }
+
+    /**
+     * This method returns the service of the given cloud provider wrapped in a {@link DeduplicatingCloudStorageService},
+     * which keeps its index of content hashes in the given file.
+     *
+     * @param cloudProvider the given cloud provider whether "aws" or "google cloud"
+     * @param projectId     the id of the Google Cloud project
+     * @param jsonKeyPath   the service account file from Google Cloud
+     * @param presigner     the Presigner class for AWS
+     * @param s3Client      the S3Client class for AWS
+     * @param indexFile     the file of the index of content hashes
+     * @return new {@link DeduplicatingCloudStorageService}
+     * @throws IOException if the service account file or the index file cannot be read
+     */
+    public static DeduplicatingCloudStorageService getDeduplicatingCloudStorageService(String cloudProvider, String projectId, String jsonKeyPath, S3Presigner presigner, S3Client s3Client, Path indexFile) throws IOException {
+        return DeduplicatingCloudStorageService.builder(getCloudStorageService(cloudProvider, projectId, jsonKeyPath, presigner, s3Client))
+                .indexFile(indexFile)
+                .build();
+    }
+
+    /**
+     * This method returns the service of the given cloud provider wrapped in a {@link PackingCloudStorageService},
+     * which stages its packs and keeps its pack index in the given directory.
+     *
+     * @param cloudProvider    the given cloud provider whether "aws" or "google cloud"
+     * @param projectId        the id of the Google Cloud project
+     * @param jsonKeyPath      the service account file from Google Cloud
+     * @param presigner        the Presigner class for AWS
+     * @param s3Client         the S3Client class for AWS
+     * @param stagingDirectory the directory of the open packs and the pack index
+     * @return new {@link PackingCloudStorageService}
+     * @throws IOException if the service account file or the pack index cannot be read
+     */
+    public static PackingCloudStorageService getPackingCloudStorageService(String cloudProvider, String projectId, String jsonKeyPath, S3Presigner presigner, S3Client s3Client, Path stagingDirectory) throws IOException {
+        return PackingCloudStorageService.builder(getCloudStorageService(cloudProvider, projectId, jsonKeyPath, presigner, s3Client), stagingDirectory)
+                .build();
+    }
+
+    /**
+     * This method returns the service of the given cloud provider wrapped in a {@link MeteredCloudStorageService},
+     * whose meters are tagged with "AWS" or "GC".
+     *
+     * @param cloudProvider       the given cloud provider whether "aws" or "google cloud"
+     * @param projectId           the id of the Google Cloud project
+     * @param jsonKeyPath         the service account file from Google Cloud
+     * @param presigner           the Presigner class for AWS
+     * @param s3Client            the S3Client class for AWS
+     * @param meterRegistry       the registry of the meters
+     * @param observationRegistry the registry in which every call is observed, or null to not observe calls
+     * @return new {@link MeteredCloudStorageService}
+     * @throws IOException if the service account file cannot be read
+     */
+    public static MeteredCloudStorageService getMeteredCloudStorageService(String cloudProvider, String projectId, String jsonKeyPath, S3Presigner presigner, S3Client s3Client, MeterRegistry meterRegistry, ObservationRegistry observationRegistry) throws IOException {
+        return MeteredCloudStorageService.builder(getCloudStorageService(cloudProvider, projectId, jsonKeyPath, presigner, s3Client), meterRegistry)
+                .provider("AWS".equalsIgnoreCase(cloudProvider) ? "AWS" : "GC")
+                .observationRegistry(observationRegistry)
+                .build();
+    }
+
+    /**
+     * This method returns the service of the given cloud provider of the {@link CloudClientRegistry}
+     * wrapped in a {@link MeteredCloudStorageService}, whose meters are tagged with "AWS" or "GC".
+     *
+     * @param cloudProvider       the given cloud provider whether "aws" or "google cloud"
+     * @param clientRegistry      the registry whose shared clients the service uses
+     * @param meterRegistry       the registry of the meters
+     * @param observationRegistry the registry in which every call is observed, or null to not observe calls
+     * @return new {@link MeteredCloudStorageService}
+     * @throws IOException if the service account file cannot be read
+     */
+    public static MeteredCloudStorageService getMeteredCloudStorageService(String cloudProvider, CloudClientRegistry clientRegistry, MeterRegistry meterRegistry, ObservationRegistry observationRegistry) throws IOException {
+        return MeteredCloudStorageService.builder(clientRegistry.cloudStorageService(cloudProvider), meterRegistry)
+                .provider("AWS".equalsIgnoreCase(cloudProvider) ? "AWS" : "GC")
+                .observationRegistry(observationRegistry)
+                .build();
+    }
+
+    /**
+     * This method returns the metered service of the given cloud provider of the {@link CloudClientRegistry}
+     * wrapped in a {@link GovernedCloudStorageService}, which retries failed calls and adapts the calls in flight per prefix.
+     * Every attempt is metered on its own, so retries and throttled calls show up in the metrics.
+     *
+     * @param cloudProvider       the given cloud provider whether "aws" or "google cloud"
+     * @param clientRegistry      the registry whose shared clients the service uses
+     * @param meterRegistry       the registry of the meters
+     * @param observationRegistry the registry in which every call is observed, or null to not observe calls
+     * @param governorOptions     the limits and retry settings of the {@link RequestGovernor}
+     * @return new {@link GovernedCloudStorageService}
+     * @throws IOException if the service account file cannot be read
+     */
+    public static GovernedCloudStorageService getGovernedCloudStorageService(String cloudProvider, CloudClientRegistry clientRegistry, MeterRegistry meterRegistry, ObservationRegistry observationRegistry, GovernorOptions governorOptions) throws IOException {
+        return new GovernedCloudStorageService(
+                getMeteredCloudStorageService(cloudProvider, clientRegistry, meterRegistry, observationRegistry), governorOptions);
+    }
+
+    /**
+     * This method returns a {@link ReplicatedCloudStorageService} that stores every object in S3 and Cloud Storage.
+     * Reads and presigned URLs are served by the faster provider.
+     *
+     * @param projectId        the id of the Google Cloud project
+     * @param jsonKeyPath      the service account file from Google Cloud
+     * @param presigner        the Presigner class for AWS
+     * @param s3Client         the S3Client class for AWS
+     * @param awsEncryptionKey the KMS Key ARN of AWS
+     * @param gcEncryptionKey  the KMS Key Ring of GCP
+     * @param ackMode          whether an upload waits for both providers or only for the first one
+     * @return new {@link ReplicatedCloudStorageService}
+     * @throws IOException if the service account file cannot be read
+     */
+    public static ReplicatedCloudStorageService getReplicatedCloudStorageService(String projectId, String jsonKeyPath, S3Presigner presigner, S3Client s3Client,
+                                                                                 String awsEncryptionKey, String gcEncryptionKey, AckMode ackMode) throws IOException {
+        return ReplicatedCloudStorageService.builder()
+                .replica("AWS", getCloudStorageService("AWS", projectId, jsonKeyPath, presigner, s3Client), awsEncryptionKey)
+                .replica("GC", getCloudStorageService("Google Cloud", projectId, jsonKeyPath, presigner, s3Client), gcEncryptionKey)
+                .ackMode(ackMode)
+                .build();
+    }
 }
@@ -0,0 +1,118 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The codecs that uploads can be compressed with while the file is read.
+ * The name of a codec is stored as the Content-Encoding of the object, so downloads know how to decompress it.
+ * <p>
+ * Zstandard needs the optional zstd-jni library with a native build for the platform, see {@link #isAvailable()}.
+ */
+public enum Compression {
+
+    NONE(null),
+    GZIP("gzip"),
+    ZSTD("zstd");
+
+    /**
+     * The gzip buffer is large enough that the deflater is not called for every small write.
+     */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final String contentEncoding;
+
+    Compression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return the Content-Encoding of objects compressed with this codec, or null for {@link #NONE}
+     */
+    public String contentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return true if this codec can be used in this process
+     */
+    public boolean isAvailable() {
+        return this != ZSTD || Zstd.AVAILABLE;
+    }
+
+    /**
+     * This method wraps a stream that receives the compressed content. Closing the returned stream finishes
+     * the compressed content and closes the given stream.
+     *
+     * @param out the stream that receives the compressed content
+     * @return the stream to write the uncompressed content to
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        return switch (this) {
+            case NONE -> out;
+            case GZIP -> new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+            case ZSTD -> Zstd.compress(out);
+        };
+    }
+
+    /**
+     * @param in the stream of the compressed content
+     * @return the stream of the uncompressed content
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        return switch (this) {
+            case NONE -> in;
+            case GZIP -> new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+            case ZSTD -> Zstd.decompress(in);
+        };
+    }
+
+    /**
+     * @param contentEncoding the Content-Encoding of an object, may be null
+     * @return the codec of the Content-Encoding, or {@link #NONE} if the object is not compressed by one of these codecs
+     */
+    public static Compression forContentEncoding(String contentEncoding) {
+        if (contentEncoding != null) {
+            for (Compression compression : values()) {
+                if (contentEncoding.trim().equalsIgnoreCase(compression.contentEncoding)) {
+                    return compression;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Only this class refers to zstd-jni, so the other codecs work without the library on the class path.
+     */
+    private static final class Zstd {
+
+        static final boolean AVAILABLE = load();
+
+        private static boolean load() {
+            try {
+                com.github.luben.zstd.util.Native.load();
+                return true;
+            } catch (LinkageError e) {
+                return false;
+            }
+        }
+
+        static OutputStream compress(OutputStream out) throws IOException {
+            if (!AVAILABLE) {
+                throw new IOException("Zstandard is not available, zstd-jni is missing on the class path");
+            }
+            return new com.github.luben.zstd.ZstdOutputStream(out, 3);
+        }
+
+        static InputStream decompress(InputStream in) throws IOException {
+            if (!AVAILABLE) {
+                throw new IOException("Zstandard is not available, zstd-jni is missing on the class path");
+            }
+            return new com.github.luben.zstd.ZstdInputStream(in);
+        }
+    }
+}
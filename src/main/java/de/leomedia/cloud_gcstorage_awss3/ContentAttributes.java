@@ -0,0 +1,23 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.util.Map;
+
+/**
+ * This record holds the attributes that are stored with the content of an object by
+ * {@link AsyncCloudStorageService#uploadStream}, e.g. the ones of the source of a copy.
+ *
+ * @param contentType the media type of the content, or null for the default of the provider
+ * @param contentEncoding the Content-Encoding of the content, e.g. gzip for compressed content, or null if it is not encoded
+ * @param metadata the user metadata that is stored with the object
+ */
+public record ContentAttributes(String contentType, String contentEncoding, Map<String, String> metadata) {
+
+    /**
+     * The attributes of content that is stored as it is, without user metadata.
+     */
+    public static final ContentAttributes NONE = new ContentAttributes(null, null, Map.of());
+
+    public ContentAttributes {
+        metadata = metadata == null ? Map.of() : Map.copyOf(metadata);
+    }
+}
@@ -0,0 +1,18 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+/**
+ * This record holds the checksum of an uploaded object, as it was computed on the client and checked by the provider.
+ *
+ * @param algorithm "CRC32C" or "SHA-256"
+ * @param value the checksum in base64 like the providers report it; the checksum of an S3 multipart upload is the
+ *              checksum of its part checksums followed by "-" and the number of parts
+ */
+public record ContentChecksum(String algorithm, String value) {
+
+    /**
+     * @return true if the value is the checksum of the whole content, and not of the parts of a multipart upload
+     */
+    public boolean isFullObject() {
+        return !value.contains("-");
+    }
+}
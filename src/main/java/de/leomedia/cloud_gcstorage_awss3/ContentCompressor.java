@@ -0,0 +1,170 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * This class decides which files are compressed while they are uploaded, and writes and reads the compressed content.
+ * <p>
+ * A file is only compressed if its name and content type do not mark it as compressed already and if the first bytes
+ * of the file shrink by at least the minimum compression ratio of the {@link TransferOptions}.
+ * The compressed content is always streamed, only the sample is held in memory.
+ */
+public final class ContentCompressor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentCompressor.class);
+
+    /**
+     * The metadata key under which the size of the file before compression is stored.
+     */
+    public static final String UNCOMPRESSED_SIZE_METADATA = "uncompressed-size";
+
+    /**
+     * Files smaller than this do not shrink enough to pay for the header of the codec.
+     */
+    private static final long MINIMUM_SIZE = 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "gz", "tgz", "zst", "zip", "jar", "bz2", "xz", "7z", "rar", "br", "lz4",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "aac", "ogg", "opus", "flac", "mp4", "m4a", "mkv", "mov", "webm", "avi",
+            "pdf", "docx", "xlsx", "pptx", "parquet", "orc", "avro");
+
+    private static final Set<String> COMPRESSED_CONTENT_TYPES = Set.of(
+            "application/gzip", "application/x-gzip", "application/zstd", "application/zip", "application/x-bzip2",
+            "application/x-xz", "application/x-7z-compressed", "application/vnd.rar", "application/pdf");
+
+    private final Compression compression;
+    private final int sampleSize;
+    private final double minimumRatio;
+
+    public ContentCompressor(TransferOptions options) {
+        Compression configured = options.compression();
+        if (!configured.isAvailable()) {
+            logger.warn("Compression {} is not available, files are compressed with gzip instead", configured);
+            configured = Compression.GZIP;
+        }
+        this.compression = configured;
+        this.sampleSize = options.compressionSampleSize();
+        this.minimumRatio = options.minimumCompressionRatio();
+    }
+
+    /**
+     * This method compresses a sample from the start of the file and returns the codec to upload the file with.
+     *
+     * @param file the file to upload
+     * @param size the size of the file
+     * @return the configured codec, or {@link Compression#NONE} if the file is not worth compressing
+     */
+    public Compression select(Path file, long size) throws IOException {
+        if (compression == Compression.NONE || size < MINIMUM_SIZE || isCompressedType(file)) {
+            return Compression.NONE;
+        }
+
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, sampleSize));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (sample.hasRemaining() && channel.read(sample) >= 0) {
+                // read until the sample is full
+            }
+        }
+
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream out = compression.compress(counter)) {
+            out.write(sample.array(), 0, sample.position());
+        }
+
+        double ratio = (double) sample.position() / Math.max(1, counter.count);
+        if (ratio < minimumRatio) {
+            logger.debug("File {} is uploaded uncompressed, its sample only shrinks by {}", file, ratio);
+            return Compression.NONE;
+        }
+        return compression;
+    }
+
+    /**
+     * This method streams the file through the codec into the given stream.
+     * The stream is only closed once the whole file was read, because closing the stream of an upload
+     * finishes the object, which must not happen with truncated content.
+     *
+     * @param file the file to compress
+     * @param compression the codec to compress with
+     * @param out the stream that receives the compressed content
+     */
+    public static void compress(Path file, Compression compression, OutputStream out) throws IOException {
+        OutputStream compressed = compression.compress(out);
+        try (InputStream in = Files.newInputStream(file)) {
+            in.transferTo(compressed);
+        }
+        compressed.close();
+    }
+
+    /**
+     * This method replaces a downloaded file with its decompressed content.
+     * The content is decompressed into a file next to it, which then replaces the downloaded file.
+     *
+     * @param file the downloaded file with the compressed content
+     * @param compression the codec the content was compressed with
+     */
+    public static void decompress(Path file, Compression compression) throws IOException {
+        if (compression == Compression.NONE) {
+            return;
+        }
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        try {
+            try (InputStream in = compression.decompress(Files.newInputStream(file));
+                 OutputStream out = Files.newOutputStream(temporary)) {
+                in.transferTo(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static boolean isCompressedType(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1))) {
+            return true;
+        }
+        try {
+            String contentType = Files.probeContentType(file);
+            return contentType != null && (COMPRESSED_CONTENT_TYPES.contains(contentType)
+                    || contentType.startsWith("image/") && !contentType.equals("image/svg+xml") && !contentType.equals("image/bmp")
+                    || contentType.startsWith("video/")
+                    || contentType.startsWith("audio/") && !contentType.equals("audio/wav"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Discards the compressed sample and only counts its size.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
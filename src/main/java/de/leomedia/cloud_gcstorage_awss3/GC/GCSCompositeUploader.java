@@ -0,0 +1,360 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * This class uploads a file to Cloud Storage as a parallel composite upload.
+ * <p>
+ * The file is split into components which are written concurrently through a {@link WriteChannel}
+ * with the configured chunk size. The components are joined with {@link Storage#compose}
+ * and deleted afterwards.
+ * <p>
+ * If a resume directory is configured, the {@link RestorableState} of every component is saved
+ * after each chunk. A later upload of the same unchanged file restores these states and continues
+ * from the last committed chunk instead of starting from zero. The components of a failed upload are only kept
+ * for such a resume if the upload was interrupted while writing them or by a transient error of the compose.
+ * If Cloud Storage refused the compose, e.g. because a precondition failed, or a component was corrupted,
+ * the components and their resume files are deleted, since retrying with them cannot succeed.
+ * <p>
+ * The CRC32C of every component is computed from the chunks while they are written, or read from the file again
+ * for a resumed component, and compared with the CRC32C that Cloud Storage computed for the component before the compose,
+ * so a corrupted component never replaces the target object. Their combination is the CRC32C of the file.
+ */
+class GCSCompositeUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(GCSCompositeUploader.class);
+
+    private final Storage storage;
+    private final TransferOptions options;
+    private final ExecutorService executor;
+
+    GCSCompositeUploader(Storage storage, TransferOptions options) {
+        this.storage = storage;
+        this.options = options;
+        this.executor = Executors.newFixedThreadPool(options.maxConcurrency(), new DaemonThreadFactory("gcs-composite"));
+    }
+
+    /**
+     * This method uploads the components of the file and composes them into the target object.
+     *
+     * @param target the {@link BlobInfo} of the composed object, including its metadata
+     * @param file the path of the file to upload
+     * @param precondition the generation-match or does-not-exist precondition of the target object
+     * @return the verified CRC32C of the object, or null if checksums are disabled
+     * @throws IOException if the file cannot be read, a component cannot be written or is corrupted
+     */
+    Long upload(BlobInfo target, Path file, Storage.BlobTargetOption precondition) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String token = uploadToken(target, file, size);
+            List<Component> components = components(target, token, size);
+            Long crc32c;
+            boolean uploaded = false;
+
+            try {
+                Long[] componentCrc32cs = uploadComponents(channel, components);
+                uploaded = true;
+                crc32c = verifyComponents(channel, components, componentCrc32cs);
+
+                Storage.ComposeRequest composeRequest = Storage.ComposeRequest.newBuilder()
+                        .addSource(components.stream().map(c -> c.blobInfo().getName()).toList())
+                        .setTarget(target)
+                        .setTargetOptions(precondition)
+                        .build();
+                storage.compose(composeRequest);
+
+            } catch (IOException | RuntimeException e) {
+                if (options.resumeDirectory() == null || uploaded && !isTransient(e)) {
+                    deleteComponents(components);
+                }
+                throw e;
+            }
+
+            deleteComponents(components);
+            return crc32c;
+        }
+    }
+
+    /**
+     * This method compares the CRC32C of every component with the one Cloud Storage computed, concurrently,
+     * and combines them into the CRC32C of the file.
+     * The CRC32C of a resumed component is unknown, so its range is read from the file again.
+     */
+    private Long verifyComponents(FileChannel channel, List<Component> components, Long[] componentCrc32cs) throws IOException {
+        if (options.uploadChecksum() == UploadChecksum.NONE) {
+            return null;
+        }
+        List<Future<Long>> futures = new ArrayList<>(components.size());
+        for (int i = 0; i < components.size(); i++) {
+            Component component = components.get(i);
+            Long uploaded = componentCrc32cs[i];
+            futures.add(executor.submit(() -> verifyComponent(channel, component, uploaded)));
+        }
+        long crc32c = 0;
+        Long[] verified = await(futures);
+        for (int i = 0; i < components.size(); i++) {
+            crc32c = UploadChecksum.combineCrc32c(crc32c, verified[i], components.get(i).length());
+        }
+        return crc32c;
+    }
+
+    private long verifyComponent(FileChannel channel, Component component, Long crc32c) throws IOException {
+        long local = crc32c != null ? crc32c : readCrc32c(channel, component);
+        Blob blob = storage.get(component.blobInfo().getBlobId());
+        if (blob == null) {
+            throw new NoSuchFileException(component.blobInfo().getName());
+        }
+        String expected = Base64.getEncoder().encodeToString(UploadChecksum.crc32cBytes(local));
+        if (blob.getCrc32c() != null && !blob.getCrc32c().equals(expected)) {
+            throw new IOException("CRC32C of component " + blob.getName() + " is " + blob.getCrc32c() + " instead of " + expected);
+        }
+        return local;
+    }
+
+    private long readCrc32c(FileChannel channel, Component component) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(options.chunkSize(), Math.max(1, component.length())));
+        long read = 0;
+        while (read < component.length()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), component.length() - read));
+            int count = channel.read(buffer, component.offset() + read);
+            if (count < 0) {
+                throw new EOFException("File ended before component " + component.blobInfo().getName());
+            }
+            buffer.flip();
+            crc.update(buffer);
+            read += count;
+        }
+        return crc.getValue();
+    }
+
+    private Long[] uploadComponents(FileChannel channel, List<Component> components) throws IOException {
+        List<Future<Long>> futures = new ArrayList<>(components.size());
+        for (Component component : components) {
+            futures.add(executor.submit(() -> uploadComponent(channel, component)));
+        }
+        return await(futures);
+    }
+
+    /**
+     * This method waits for the results of the components and cancels the others once one of them failed.
+     */
+    private static Long[] await(List<Future<Long>> futures) throws IOException {
+        try {
+            Long[] results = new Long[futures.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+            }
+            return results;
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Composite upload was interrupted", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * This method writes one component chunk by chunk and computes its CRC32C from the same chunks.
+     * It restores a saved {@link WriteChannel} state and skips the bytes it already committed.
+     *
+     * @return the CRC32C of the component, or null if the component was resumed
+     */
+    private Long uploadComponent(FileChannel channel, Component component) throws IOException, ClassNotFoundException {
+        if (component.isResumable() && Files.exists(component.doneFile())) {
+            logger.debug("Component {} was already uploaded", component.blobInfo().getName());
+            return null;
+        }
+
+        long committed = 0;
+        WriteChannel writer = null;
+        if (component.isResumable() && Files.exists(component.stateFile())) {
+            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(component.stateFile()))) {
+                committed = in.readLong();
+                @SuppressWarnings("unchecked")
+                RestorableState<WriteChannel> state = (RestorableState<WriteChannel>) in.readObject();
+                writer = state.restore();
+            }
+            logger.info("Resuming component {} at {} of {} bytes", component.blobInfo().getName(), committed, component.length());
+        }
+        if (writer == null) {
+            writer = storage.writer(component.blobInfo(), Storage.BlobWriteOption.doesNotExist());
+            writer.setChunkSize(options.chunkSize());
+        }
+
+        // the bytes committed before a resume are not read again, so their CRC32C is unknown
+        CRC32C crc = committed == 0 ? new CRC32C() : null;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(options.chunkSize(), Math.max(1, component.length())));
+        while (committed < component.length()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), component.length() - committed));
+            long position = component.offset() + committed;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File ended before component " + component.blobInfo().getName());
+                }
+            }
+            buffer.flip();
+            if (crc != null) {
+                crc.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                writer.write(buffer);
+            }
+            committed += buffer.limit();
+
+            if (component.isResumable() && committed < component.length()) {
+                saveState(component, writer.capture(), committed);
+            }
+        }
+        // closing the channel finalizes the component, so the channel of a failed component is abandoned instead,
+        // which leaves its upload open for a resume from the saved state
+        writer.close();
+
+        if (component.isResumable()) {
+            Files.write(component.doneFile(), new byte[0]);
+            Files.deleteIfExists(component.stateFile());
+        }
+        return crc == null ? null : crc.getValue();
+    }
+
+    private static void saveState(Component component, RestorableState<WriteChannel> state, long committed) throws IOException {
+        Path temporary = component.stateFile().resolveSibling(component.stateFile().getFileName() + ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(temporary))) {
+                out.writeLong(committed);
+                out.writeObject(state);
+            }
+            Files.move(temporary, component.stateFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the previous state is still valid, only the interrupted write of the new one is dropped
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * A compose that failed with a retryable error can be repeated with the same components by a resumed upload.
+     */
+    private static boolean isTransient(Exception e) {
+        return e instanceof StorageException storageException && storageException.isRetryable();
+    }
+
+    /**
+     * This method deletes the components concurrently, since every delete is a separate request,
+     * and their resume files.
+     */
+    private void deleteComponents(List<Component> components) {
+        List<Future<Boolean>> futures = components.stream()
+                .map(c -> executor.submit(() -> storage.delete(c.blobInfo().getBlobId())))
+                .toList();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Could not delete the component {}: {}",
+                        components.get(i).blobInfo().getName(), e.getCause().getMessage());
+            }
+        }
+        for (Component component : components) {
+            if (component.isResumable()) {
+                try {
+                    Files.deleteIfExists(component.stateFile());
+                    Files.deleteIfExists(component.doneFile());
+                } catch (IOException e) {
+                    logger.error("Could not delete the resume files of the component {}: {}",
+                            component.blobInfo().getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private List<Component> components(BlobInfo target, String token, long size) throws IOException {
+        int count = (int) Math.max(1, Math.min(options.compositeComponentCount(), size / options.chunkSize()));
+        long componentSize = (size + count - 1) / count;
+
+        Path resumeDirectory = options.resumeDirectory();
+        if (resumeDirectory != null) {
+            Files.createDirectories(resumeDirectory);
+        }
+
+        List<Component> components = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long offset = i * componentSize;
+            long length = Math.max(0, Math.min(componentSize, size - offset));
+            BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(target.getBucket(), target.getName() + ".composite-" + token + "-" + i))
+                    .setMetadata(target.getMetadata())
+                    .build();
+            Path stateFile = resumeDirectory == null ? null : resumeDirectory.resolve(token + "-" + i + ".state");
+            Path doneFile = resumeDirectory == null ? null : resumeDirectory.resolve(token + "-" + i + ".done");
+            components.add(new Component(blobInfo, offset, length, stateFile, doneFile));
+        }
+        return components;
+    }
+
+    /**
+     * The token identifies one upload of an unchanged file, so a retry finds the state of the interrupted upload.
+     */
+    private static String uploadToken(BlobInfo target, Path file, long size) throws IOException {
+        String identity = target.getBucket() + "/" + target.getName() + "|" + file.toAbsolutePath() + "|" + size
+                + "|" + Files.getLastModifiedTime(file).toMillis();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Component(BlobInfo blobInfo, long offset, long length, Path stateFile, Path doneFile) {
+
+        boolean isResumable() {
+            return stateFile != null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.api.gax.retrying.ResultRetryAlgorithm;
+import com.google.api.gax.retrying.TimedAttemptSettings;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.StorageRetryStrategy;
+import de.leomedia.cloud_gcstorage_awss3.AWS.S3MetricPublisher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * This class counts the retries of the Cloud Storage client in the same counter {@link S3MetricPublisher} feeds for S3.
+ * <p>
+ * The client retries inside its calls, so the {@link de.leomedia.cloud_gcstorage_awss3.metrics.MeteredCloudStorageService}
+ * cannot see them. This strategy wraps the default retry strategy and counts every failed attempt that is retried.
+ * A retry that the total timeout of the retry settings prevents is counted as well.
+ * The retry algorithm does not know the called operation, so the counter is tagged with whether the request was idempotent.
+ * Set it with {@link StorageOptions.Builder#setStorageRetryStrategy}.
+ * <p>
+ * The strategy is serialized with the state of a resumable upload, without the meter registry,
+ * so a restored upload retries like the default strategy without counting.
+ */
+public class GCSRetryMetrics implements StorageRetryStrategy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final StorageRetryStrategy delegate;
+    private final transient Counter idempotentRetries;
+    private final transient Counter nonIdempotentRetries;
+
+    public GCSRetryMetrics(MeterRegistry meterRegistry) {
+        this(StorageRetryStrategy.getDefaultStorageRetryStrategy(), meterRegistry);
+    }
+
+    /**
+     * @param delegate the strategy that decides which failures are retried
+     * @param meterRegistry the registry of the {@value S3MetricPublisher#RETRIES_COUNTER} counters
+     */
+    public GCSRetryMetrics(StorageRetryStrategy delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.idempotentRetries = retries(meterRegistry, "idempotent");
+        this.nonIdempotentRetries = retries(meterRegistry, "non-idempotent");
+    }
+
+    @Override
+    public ResultRetryAlgorithm<?> getIdempotentHandler() {
+        return counting(delegate.getIdempotentHandler(), idempotentRetries);
+    }
+
+    @Override
+    public ResultRetryAlgorithm<?> getNonidempotentHandler() {
+        return counting(delegate.getNonidempotentHandler(), nonIdempotentRetries);
+    }
+
+    private static Counter retries(MeterRegistry meterRegistry, String operation) {
+        return Counter.builder(S3MetricPublisher.RETRIES_COUNTER)
+                .description("Retried cloud storage requests")
+                .tags("provider", "GC", "service", "Cloud Storage", "operation", operation)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The last attempt is not retried, no matter whether the failure could be.
+     */
+    private static boolean isAnotherAttemptAllowed(TimedAttemptSettings previousSettings) {
+        int maxAttempts = previousSettings.getGlobalSettings().getMaxAttempts();
+        return maxAttempts <= 0 || previousSettings.getAttemptCount() + 1 < maxAttempts;
+    }
+
+    private static <T> ResultRetryAlgorithm<T> counting(ResultRetryAlgorithm<T> algorithm, Counter retries) {
+        if (retries == null) {
+            return algorithm;
+        }
+        return new ResultRetryAlgorithm<>() {
+            /**
+             * The client asks this method once for every failed attempt the algorithm retries,
+             * while {@link #shouldRetry} is asked twice, so the retries are counted here.
+             */
+            @Override
+            public TimedAttemptSettings createNextAttempt(Throwable previousThrowable, T previousResponse,
+                                                         TimedAttemptSettings previousSettings) {
+                if (isAnotherAttemptAllowed(previousSettings)) {
+                    retries.increment();
+                }
+                return algorithm.createNextAttempt(previousThrowable, previousResponse, previousSettings);
+            }
+
+            @Override
+            public boolean shouldRetry(Throwable previousThrowable, T previousResponse) throws CancellationException {
+                return algorithm.shouldRetry(previousThrowable, previousResponse);
+            }
+        };
+    }
+}
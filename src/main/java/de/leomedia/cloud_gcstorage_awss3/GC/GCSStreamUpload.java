@@ -0,0 +1,139 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.cloud.WriteChannel;
+import de.leomedia.cloud_gcstorage_awss3.ContentAttributes;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32C;
+
+/**
+ * This class writes streamed content to a resumable upload of Cloud Storage.
+ * <p>
+ * The Cloud Storage client only offers blocking writes, so every received buffer is written on the I/O executor,
+ * and the next buffer is only requested once it is written. No thread waits for the content in between,
+ * and at most one received buffer and the chunk of the {@link WriteChannel} are held per upload.
+ * The CRC32C of the content is computed from the same buffers. If checksums are enabled, the content is written to a temporary object,
+ * which only replaces the target once Cloud Storage computed the same CRC32C, see {@link GCStorageService#commitStream}.
+ */
+class GCSStreamUpload implements Subscriber<ByteBuffer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(GCSStreamUpload.class);
+
+    private final GCStorageService storageService;
+    private final Executor ioExecutor;
+    private final String bucketName;
+    private final String key;
+    private final String encryptionKey;
+    private final ContentAttributes attributes;
+    private final long contentLength;
+    private final long start = System.nanoTime();
+    private final CRC32C crc = new CRC32C();
+    private final CompletableFuture<UploadResult> result = new CompletableFuture<>();
+
+    private Subscription subscription;
+    private GCStorageService.StreamTarget stream;
+    private long bytes;
+    // the writes of one upload run one after the other, even if the publisher completes while the last buffer is written
+    private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+
+    GCSStreamUpload(GCStorageService storageService, Executor ioExecutor, String bucketName, String key,
+                    String encryptionKey, ContentAttributes attributes, long contentLength) {
+        this.storageService = storageService;
+        this.ioExecutor = ioExecutor;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.encryptionKey = encryptionKey;
+        this.attributes = attributes;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @return a future with the {@link UploadResult}, which completes exceptionally if the content or a write failed
+     */
+    CompletableFuture<UploadResult> result() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        then(() -> stream = storageService.openStream(bucketName, key, encryptionKey, attributes));
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer) {
+        then(() -> {
+            crc.update(buffer.duplicate());
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                stream.writer().write(buffer);
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        // the writer is not closed, so the incomplete content is never committed as object
+        writes.whenComplete((ignored, writeError) -> result.completeExceptionally(error));
+    }
+
+    @Override
+    public void onComplete() {
+        writes = writes.thenRunAsync(() -> {
+            try {
+                if (contentLength >= 0 && bytes != contentLength) {
+                    throw new IOException("Received " + bytes + " instead of " + contentLength + " bytes for " + key);
+                }
+                stream.writer().close();
+                result.complete(UploadResult.succeeded(key, bytes, storageService.commitStream(stream, crc.getValue()),
+                        Duration.ofNanos(System.nanoTime() - start)));
+                logger.info("Stream of {} bytes uploaded to bucket {} as {}", bytes, bucketName, key);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor);
+        writes.whenComplete((ignored, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    /**
+     * This method runs the write on the I/O executor after the previous one and requests the next buffer afterwards.
+     * A failed write cancels the content.
+     */
+    private void then(IoAction action) {
+        writes = writes.thenRunAsync(() -> {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor);
+        writes.whenComplete((ignored, error) -> {
+            if (error != null) {
+                subscription.cancel();
+                result.completeExceptionally(error);
+            } else {
+                subscription.request(1);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,83 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ContentAttributes;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * A Cloud Storage Service Class that implements from {@link AsyncCloudStorageService}
+ * <p>
+ * The Cloud Storage client only offers blocking calls, so this class runs the calls of a
+ * {@link GCStorageService} on a dedicated, bounded I/O executor instead of the caller's thread.
+ * If the queue of the executor is full, the returned future fails with a {@link RejectedExecutionException}.
+ */
+public class GCStorageAsyncService implements AsyncCloudStorageService {
+
+    public static final int DEFAULT_IO_THREADS = 32;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private final GCStorageService storageService;
+    private final ExecutorService ioExecutor;
+
+    public GCStorageAsyncService(GCStorageService storageService, ExecutorService ioExecutor) {
+        this.storageService = storageService;
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * This method creates a fixed number of I/O threads with a bounded queue of waiting calls.
+     *
+     * @param threads the number of I/O threads
+     * @param queueCapacity the maximum number of calls that wait for a thread
+     * @return a new bounded {@link ExecutorService}
+     */
+    public static ExecutorService newIoExecutor(int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DaemonThreadFactory("gcs-io"));
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) {
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    storageService.uploadObject(bucketName, key, file, encryptionKey, storageClass);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * This method writes the streamed content to a single resumable upload with a {@link GCSStreamUpload}.
+     * Every received buffer is written on the I/O executor, so the threads are only busy while a chunk is sent.
+     */
+    @Override
+    public CompletableFuture<UploadResult> uploadStream(String bucketName, String key, Publisher<ByteBuffer> content, long contentLength,
+                                                        String encryptionKey, String storageClass, ContentAttributes attributes) {
+        GCSStreamUpload upload = new GCSStreamUpload(storageService, ioExecutor, bucketName, key, encryptionKey, attributes, contentLength);
+        content.subscribe(upload);
+        return upload.result();
+    }
+
+    @Override
+    public CompletableFuture<URL> getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> storageService.getPresignedUrl(bucketName, key, minutes, encryptionKey), ioExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
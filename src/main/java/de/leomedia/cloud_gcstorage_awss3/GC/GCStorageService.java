@@ -1,19 +1,52 @@
 package de.leomedia.cloud_gcstorage_awss3.GC;
 
+import com.google.api.gax.paging.Page;
 import com.google.auth.Credentials;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.storage.*;
+import de.leomedia.cloud_gcstorage_awss3.BulkPresigner;
+import de.leomedia.cloud_gcstorage_awss3.BulkUploader;
 import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.ContentAttributes;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.ContentCompressor;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.RangedDownloader;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * A Cloud Storage Service Class that implements from {@link CloudStorageService}
@@ -23,12 +56,41 @@ public class GCStorageService implements CloudStorageService {
     private final Logger logger = LoggerFactory.getLogger(GCStorageService.class);
 
     private final Storage storage;
+    private final TransferOptions transferOptions;
+    private final GCSCompositeUploader compositeUploader;
+    private final BulkUploader bulkUploader;
+    private final GCSUrlSigner urlSigner;
+    private final BulkPresigner bulkPresigner;
+    private final RangedDownloader rangedDownloader;
+    private final ContentCompressor compressor;
 
     public GCStorageService(String projectId, String jsonKeyPath) throws IOException {
+        this(projectId, jsonKeyPath, TransferOptions.defaults());
+    }
+
+    public GCStorageService(String projectId, String jsonKeyPath, TransferOptions transferOptions) throws IOException {
+        this(createStorage(projectId, jsonKeyPath), transferOptions);
+    }
+
+    public GCStorageService(Storage storage, TransferOptions transferOptions) {
+        this.storage = storage;
+        this.transferOptions = transferOptions;
+        this.compositeUploader = new GCSCompositeUploader(storage, transferOptions);
+        this.bulkUploader = new BulkUploader(transferOptions.bulkConcurrency());
+        this.urlSigner = new GCSUrlSigner(storage);
+        this.bulkPresigner = new BulkPresigner(Runtime.getRuntime().availableProcessors());
+        this.rangedDownloader = new RangedDownloader(transferOptions);
+        this.compressor = new ContentCompressor(transferOptions);
+    }
 
-        Credentials credentials = GoogleCredentials.fromStream(new FileInputStream(jsonKeyPath));
+    private static Storage createStorage(String projectId, String jsonKeyPath) throws IOException {
 
-        this.storage = StorageOptions.newBuilder()
+        Credentials credentials;
+        try (InputStream keyFile = new FileInputStream(jsonKeyPath)) {
+            credentials = GoogleCredentials.fromStream(keyFile);
+        }
+
+        return StorageOptions.newBuilder()
                 .setCredentials(credentials)
                 .setProjectId(projectId)
                 .build().getService();
@@ -37,6 +99,18 @@ public class GCStorageService implements CloudStorageService {
     /**
      * This method configures the {@link BlobId} and {@link BlobInfo}.
      * It sets the sse kms key as the metadata and uploads the object to Cloud Storage
+     * <p>
+     * Files from the multipart threshold of the {@link TransferOptions} on are uploaded
+     * as parallel composite upload with the {@link GCSCompositeUploader}.
+     * <p>
+     * If the {@link TransferOptions} enable compression and the {@link ContentCompressor} selects the file,
+     * the content is compressed while it is read and written to a single resumable upload,
+     * and the object gets the Content-Encoding of the codec.
+     * <p>
+     * Unless the {@link TransferOptions} disable checksums, the CRC32C of the content is computed while it is sent.
+     * A small file is sent with its CRC32C, so Cloud Storage rejects corrupted content. The components of a composite upload
+     * are verified before they are composed, and compressed content is written to a temporary object that only replaces
+     * the target once its CRC32C is verified, so a corrupted upload never replaces the previous object.
      *
      * @param bucketName the name of a bucket
      * @param key the name of an object
@@ -46,8 +120,17 @@ public class GCStorageService implements CloudStorageService {
      */
     @Override
     public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        putObject(bucketName, key, file, encryptionKey, Map.of(), true);
+        logger.info("File {} uploaded to bucket {} as {}", file, bucketName, key);
+    }
+
+    /**
+     * @return the CRC32C that Cloud Storage verified, or null if checksums are disabled
+     */
+    private ContentChecksum putObject(String bucketName, String key, String file, String encryptionKey, Map<String, String> metadata,
+                                      boolean compressible) throws IOException {
 
-        Map<String, String> kmsKeyName = new HashMap<>();
+        Map<String, String> kmsKeyName = new HashMap<>(metadata);
         kmsKeyName.put("kmsKeyName", encryptionKey);
 
         // Get a reference to the bucket
@@ -59,23 +142,178 @@ public class GCStorageService implements CloudStorageService {
         // set a generation-match precondition to avoid potential race
         // conditions and data corruptions. The request returns a 412 error if the
         // preconditions are not met.
-        Storage.BlobWriteOption precondition;
-        if (this.storage.get(bucketName, key) == null) {
-            // For a target object that does not yet exist, set the DoesNotExist precondition.
-            // This will cause the request to fail if the object is created before the request runs.
-            precondition = Storage.BlobWriteOption.doesNotExist();
+        Blob existingBlob = this.storage.get(bucketName, key);
+        Path filePath = Paths.get(file);
+        long size = Files.size(filePath);
+
+        boolean checksummed = transferOptions.uploadChecksum() != UploadChecksum.NONE;
+        Long crc32c;
+        Compression compression = compressible ? compressor.select(filePath, size) : Compression.NONE;
+        if (compression != Compression.NONE) {
+            kmsKeyName.put(ContentCompressor.UNCOMPRESSED_SIZE_METADATA, String.valueOf(size));
+            BlobInfo compressedBlobInfo = blobInfo.toBuilder()
+                    .setContentEncoding(compression.contentEncoding())
+                    .setMetadata(kmsKeyName)
+                    .build();
+
+            // the compressed size is unknown up front, so the content goes through one resumable upload instead of a composite one
+            StreamTarget stream = openStream(compressedBlobInfo, existingBlob);
+            CheckedOutputStream out = new CheckedOutputStream(Channels.newOutputStream(stream.writer()), new CRC32C());
+            ContentCompressor.compress(filePath, compression, out);
+            commitStream(stream, out.getChecksum().getValue());
+            crc32c = checksummed ? out.getChecksum().getValue() : null;
+
+        } else if (size >= transferOptions.multipartThreshold()) {
+            Storage.BlobTargetOption precondition = existingBlob == null
+                    ? Storage.BlobTargetOption.doesNotExist()
+                    : Storage.BlobTargetOption.generationMatch(existingBlob.getGeneration());
+
+            crc32c = this.compositeUploader.upload(blobInfo, filePath, precondition);
+
         } else {
-            // If the destination already exists in your bucket, instead set a generation-match
-            // precondition. This will cause the request to fail if the existing object's generation
-            // changes before the request runs.
-            precondition =
-                    Storage.BlobWriteOption.generationMatch(
-                            this.storage.get(bucketName, key).getGeneration());
+            Storage.BlobWriteOption precondition;
+            if (existingBlob == null) {
+                // For a target object that does not yet exist, set the DoesNotExist precondition.
+                // This will cause the request to fail if the object is created before the request runs.
+                precondition = Storage.BlobWriteOption.doesNotExist();
+            } else {
+                // If the destination already exists in your bucket, instead set a generation-match
+                // precondition. This will cause the request to fail if the existing object's generation
+                // changes before the request runs.
+                precondition = Storage.BlobWriteOption.generationMatch(existingBlob.getGeneration());
+            }
+            if (checksummed) {
+                // the file is mapped once, its pages are read from disk by the CRC32C and then written from memory
+                ByteBuffer content;
+                try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                    content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(content.duplicate());
+                crc32c = crc.getValue();
+
+                BlobInfo checksummedBlobInfo = blobInfo.toBuilder()
+                        .setCrc32c(Base64.getEncoder().encodeToString(UploadChecksum.crc32cBytes(crc32c)))
+                        .build();
+                try (WriteChannel writer = this.storage.writer(checksummedBlobInfo, precondition, Storage.BlobWriteOption.crc32cMatch())) {
+                    writer.setChunkSize(transferOptions.chunkSize());
+                    while (content.hasRemaining()) {
+                        writer.write(content);
+                    }
+                }
+            } else {
+                this.storage.createFrom(blobInfo, filePath, transferOptions.chunkSize(), precondition);
+                crc32c = null;
+            }
         }
-        this.storage.createFrom(blobInfo, Paths.get(file), precondition);
+        return crc32c == null ? null
+                : new ContentChecksum(UploadChecksum.CRC32C.algorithm(), Base64.getEncoder().encodeToString(UploadChecksum.crc32cBytes(crc32c)));
+    }
 
-        logger.info("File " + file + " uploaded to bucket " + bucketName + " as " + key);
+    /**
+     * The resumable upload of streamed content. If checksums are enabled, the content is written to a temporary object
+     * that {@link #commitStream} copies onto the target under the precondition once its CRC32C is verified.
+     *
+     * @param temporary the temporary object, or null if the writer writes the target object itself
+     */
+    record StreamTarget(WriteChannel writer, BlobInfo target, BlobId temporary, Storage.BlobTargetOption precondition) {
+    }
+
+    /**
+     * This method opens a resumable upload for content that is streamed, like a compressed upload.
+     * The object gets the encryption key and a precondition like every other upload, and the given attributes.
+     *
+     * @return the upload whose channel writes the content in chunks of the {@link TransferOptions}
+     */
+    StreamTarget openStream(String bucketName, String key, String encryptionKey, ContentAttributes attributes) {
+        Map<String, String> kmsKeyName = new HashMap<>(attributes.metadata());
+        kmsKeyName.put("kmsKeyName", encryptionKey);
+        BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, key))
+                .setContentType(attributes.contentType())
+                .setContentEncoding(attributes.contentEncoding())
+                .setMetadata(kmsKeyName)
+                .build();
+        return openStream(blobInfo, this.storage.get(bucketName, key));
+    }
 
+    /**
+     * A streamed upload cannot send its CRC32C up front, so Cloud Storage cannot reject corrupted content.
+     * If checksums are enabled, the content is therefore written to a temporary object next to the target,
+     * and the target is only replaced after the CRC32C of the temporary object matched.
+     */
+    private StreamTarget openStream(BlobInfo target, Blob existingBlob) {
+        WriteChannel writer;
+        StreamTarget stream;
+        if (transferOptions.uploadChecksum() == UploadChecksum.NONE) {
+            writer = this.storage.writer(target, existingBlob == null
+                    ? Storage.BlobWriteOption.doesNotExist()
+                    : Storage.BlobWriteOption.generationMatch(existingBlob.getGeneration()));
+            stream = new StreamTarget(writer, target, null, null);
+        } else {
+            BlobId temporary = BlobId.of(target.getBucket(), target.getName() + ".upload-" + UUID.randomUUID());
+            writer = this.storage.writer(target.toBuilder().setBlobId(temporary).build(), Storage.BlobWriteOption.doesNotExist());
+            stream = new StreamTarget(writer, target, temporary, existingBlob == null
+                    ? Storage.BlobTargetOption.doesNotExist()
+                    : Storage.BlobTargetOption.generationMatch(existingBlob.getGeneration()));
+        }
+        writer.setChunkSize(transferOptions.chunkSize());
+        return stream;
+    }
+
+    /**
+     * This method compares the CRC32C of the streamed content with the one Cloud Storage computed for the temporary object
+     * and copies the temporary object onto the target under the precondition only if they match.
+     * The temporary object is deleted in any case, so a corrupted upload leaves the target untouched.
+     * The writer of the stream must be closed before.
+     *
+     * @return the verified CRC32C, or null if checksums are disabled
+     * @throws IOException if the CRC32C differs
+     */
+    ContentChecksum commitStream(StreamTarget stream, long crc32c) throws IOException {
+        if (stream.temporary() == null) {
+            return null;
+        }
+        String expected = Base64.getEncoder().encodeToString(UploadChecksum.crc32cBytes(crc32c));
+        try {
+            Blob blob = this.storage.get(stream.temporary());
+            if (blob == null) {
+                throw new NoSuchFileException(stream.temporary().getName());
+            }
+            if (blob.getCrc32c() != null && !blob.getCrc32c().equals(expected)) {
+                throw new IOException("CRC32C of " + stream.target().getName() + " is " + blob.getCrc32c() + " instead of " + expected);
+            }
+            this.storage.copy(Storage.CopyRequest.newBuilder()
+                    .setSource(BlobId.of(blob.getBucket(), blob.getName(), blob.getGeneration()))
+                    .setTarget(stream.target(), stream.precondition())
+                    .build()).getResult();
+        } finally {
+            try {
+                this.storage.delete(stream.temporary());
+            } catch (RuntimeException e) {
+                logger.error("Could not delete the temporary object {}: {}", stream.temporary().getName(), e.getMessage());
+            }
+        }
+        return new ContentChecksum(UploadChecksum.CRC32C.algorithm(), expected);
+    }
+
+    /**
+     * This method uploads many objects concurrently with the {@link BulkUploader}.
+     * Every object is uploaded like in {@link #uploadObject}, and failures are returned
+     * in the {@link UploadResult} of the object.
+     * The result of a successful upload holds the CRC32C that Cloud Storage verified.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        return bulkUploader.uploadAllWithChecksums(uploads, upload -> {
+            ContentChecksum checksum = putObject(bucketName, upload.key(), upload.file(), upload.encryptionKey(), upload.metadata(),
+                    upload.compressible());
+            logger.info("File {} uploaded to bucket {} as {}", upload.file(), bucketName, upload.key());
+            return new BulkUploader.Uploaded(Files.size(Paths.get(upload.file())), checksum);
+        });
     }
 
     /**
@@ -107,7 +345,7 @@ public class GCStorageService implements CloudStorageService {
                     Storage.SignUrlOption.withV4Signature()
             );
 
-            logger.info("Generated GET signed URL: " + url);
+            logger.info("Generated GET signed URL: {}", url);
 
             return url;
 
@@ -117,4 +355,254 @@ public class GCStorageService implements CloudStorageService {
 
         return null;
     }
+
+    /**
+     * This method generates V4 signed URLs for many objects in parallel with the {@link BulkPresigner}.
+     * With a service account key every URL is signed by the {@link GCSUrlSigner}, which reuses the key
+     * for the whole batch. The URLs are not logged one by one.
+     *
+     * @param bucketName the name of a bucket
+     * @param keys the names of the objects, which are read only once
+     * @param minutes given timestamp in minutes in which the urls are valid
+     * @param sink receives every key with its signed URL
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        bulkPresigner.presignAll(keys, urlSigner.signers(bucketName, minutes), sink);
+    }
+
+    /**
+     * This method downloads an object with the {@link RangedDownloader}.
+     * The size, generation and CRC32C checksum are taken from the {@link Blob}, and every range is read
+     * from that generation, so the object cannot change during the download.
+     * An object that was uploaded compressed is read as stored, verified and then decompressed.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param target the file to write, an existing file is replaced
+     * @throws IOException if the object does not exist, cannot be downloaded or does not match its checksum
+     */
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        Blob blob = storage.get(BlobId.of(bucketName, key));
+        if (blob == null) {
+            throw new NoSuchFileException("gs://" + bucketName + "/" + key);
+        }
+
+        BlobId generation = BlobId.of(bucketName, key, blob.getGeneration());
+        RangedDownloader.RemoteObject object = new RangedDownloader.RemoteObject(blob.getSize(), String.valueOf(blob.getGeneration()),
+                blob.getCrc32c() == null ? null : "CRC32C",
+                blob.getCrc32c() == null ? null : Base64.getDecoder().decode(blob.getCrc32c()));
+
+        Compression compression = Compression.forContentEncoding(blob.getContentEncoding());
+        rangedDownloader.download(object, (offset, length) -> {
+            // without the raw stream, Cloud Storage would decompress gzip objects and ignore the range
+            ReadChannel reader = storage.reader(generation, Storage.BlobSourceOption.shouldReturnRawInputStream(true));
+            reader.setChunkSize((int) Math.min(length, transferOptions.chunkSize()));
+            reader.seek(offset);
+            reader.limit(offset + length);
+            return reader;
+        }, target);
+        ContentCompressor.decompress(target, compression);
+
+        logger.info("Object {} of bucket {} downloaded to {}", key, bucketName, target);
+    }
+
+    /**
+     * This method reads a byte range of an object, as it is stored, through a {@link ReadChannel} that is limited to the range.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return readRange(bucketName, key, null, offset, length);
+    }
+
+    /**
+     * This method reads a byte range of an object like {@link #readRange(String, String, long, int)},
+     * with a generation-match precondition on the generation of the version.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param version the generation of the object, or null to read the current version
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist or is no longer of the generation
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        Storage.BlobSourceOption[] options = version == null
+                ? new Storage.BlobSourceOption[]{Storage.BlobSourceOption.shouldReturnRawInputStream(true)}
+                : new Storage.BlobSourceOption[]{Storage.BlobSourceOption.shouldReturnRawInputStream(true),
+                Storage.BlobSourceOption.generationMatch(Long.parseLong(version))};
+        ByteBuffer range = ByteBuffer.allocate(length);
+        try (ReadChannel reader = storage.reader(BlobId.of(bucketName, key), options)) {
+            reader.setChunkSize(Math.max(length, 1));
+            reader.seek(offset);
+            reader.limit(offset + length);
+            while (range.hasRemaining() && reader.read(range) >= 0) {
+                // read until the range is complete or the object ends
+            }
+        } catch (StorageException e) {
+            if (e.getCode() == 404) {
+                throw new NoSuchFileException("gs://" + bucketName + "/" + key);
+            }
+            if (e.getCode() == 412) {
+                throw new IOException("Object " + key + " is no longer version " + version, e);
+            }
+            throw e;
+        }
+        return Arrays.copyOf(range.array(), range.position());
+    }
+
+    /**
+     * This method lists a page with the page token of Cloud Storage. Only the name, size and generation of the objects
+     * are requested, which keeps the pages of large listings small. The objects of the page have their generation as version.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @param delimiter the delimiter that groups keys into common prefixes, or null to list all keys below the prefix
+     * @param pageToken the token of the previous page, or null for the first page
+     * @return the page with its objects, common prefixes and the token of the next page
+     * @throws IOException if the bucket does not exist
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        List<Storage.BlobListOption> options = new ArrayList<>(List.of(
+                Storage.BlobListOption.pageSize(transferOptions.listPageSize()),
+                Storage.BlobListOption.fields(Storage.BlobField.NAME, Storage.BlobField.SIZE, Storage.BlobField.GENERATION)));
+        if (!prefix.isEmpty()) {
+            options.add(Storage.BlobListOption.prefix(prefix));
+        }
+        if (delimiter != null) {
+            options.add(Storage.BlobListOption.delimiter(delimiter));
+        }
+        if (pageToken != null) {
+            options.add(Storage.BlobListOption.pageToken(pageToken));
+        }
+
+        Page<Blob> page;
+        try {
+            page = storage.list(bucketName, options.toArray(Storage.BlobListOption[]::new));
+        } catch (StorageException e) {
+            if (e.getCode() == 404) {
+                throw new NoSuchFileException("gs://" + bucketName);
+            }
+            throw e;
+        }
+        List<ObjectInfo> objects = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (Blob blob : page.getValues()) {
+            // common prefixes are returned as directories
+            if (blob.isDirectory()) {
+                prefixes.add(blob.getName());
+            } else if (blob.getSize() != null) {
+                // an object without size is still being written and not an object yet
+                objects.add(new ObjectInfo(blob.getName(), blob.getSize(), version(blob), null));
+            }
+        }
+        return new ListPage(objects, prefixes, page.hasNextPage() ? page.getNextPageToken() : null);
+    }
+
+    /**
+     * This method reads the metadata of an object.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @return the {@link ObjectInfo} with the generation as version, or null if the object does not exist
+     */
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) {
+        Blob blob = storage.get(bucketName, key);
+        if (blob == null) {
+            return null;
+        }
+        // an upload without encryption key stores the kmsKeyName without a value
+        Map<String, String> metadata = new HashMap<>();
+        if (blob.getMetadata() != null) {
+            blob.getMetadata().forEach((name, value) -> {
+                if (value != null) {
+                    metadata.put(name, value);
+                }
+            });
+        }
+        return new ObjectInfo(key, blob.getSize(), version(blob), metadata,
+                blob.getContentType(), blob.getContentEncoding());
+    }
+
+    /**
+     * This method copies an object with a rewrite of Cloud Storage, which keeps the user metadata of the source.
+     * Large objects may need several rewrite calls, which the {@link CopyWriter} makes until the copy is complete.
+     * The copy only succeeds if the source generation is still current, and like {@link #uploadObject}
+     * it sets a precondition on the generation of the target.
+     *
+     * @param bucketName the name of a bucket
+     * @param sourceKey the name of the object to copy
+     * @param targetKey the name of the copy, an existing object is replaced
+     * @param encryptionKey the encryption key generated by SSE KMS for the copy
+     * @param storageClass the storage class in which the copy will be stored in S3
+     * @throws IOException if the source object does not exist
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        Blob source = storage.get(bucketName, sourceKey);
+        if (source == null) {
+            throw new NoSuchFileException("gs://" + bucketName + "/" + sourceKey);
+        }
+
+        Map<String, String> metadata = source.getMetadata() == null ? new HashMap<>() : new HashMap<>(source.getMetadata());
+        metadata.put("kmsKeyName", encryptionKey);
+        BlobInfo target = BlobInfo.newBuilder(BlobId.of(bucketName, targetKey))
+                .setContentType(source.getContentType())
+                .setContentEncoding(source.getContentEncoding())
+                .setMetadata(metadata)
+                .build();
+
+        Blob existingBlob = storage.get(bucketName, targetKey);
+        Storage.BlobTargetOption precondition = existingBlob == null
+                ? Storage.BlobTargetOption.doesNotExist()
+                : Storage.BlobTargetOption.generationMatch(existingBlob.getGeneration());
+
+        try {
+            CopyWriter copyWriter = storage.copy(Storage.CopyRequest.newBuilder()
+                    .setSource(BlobId.of(bucketName, sourceKey, source.getGeneration()))
+                    .setTarget(target, precondition)
+                    .build());
+            copyWriter.getResult();
+        } catch (StorageException e) {
+            // the generation of the source was deleted or replaced since its metadata was read
+            if (e.getCode() == 404) {
+                throw new NoSuchFileException("gs://" + bucketName + "/" + sourceKey);
+            }
+            throw e;
+        }
+
+        logger.info("Object {} of bucket {} copied to {}", sourceKey, bucketName, targetKey);
+    }
+
+    /**
+     * This method deletes an object.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        if (storage.delete(bucketName, key)) {
+            logger.info("Object {} deleted from bucket {}", key, bucketName);
+        }
+    }
+
+    /**
+     * The generation of an object is its version, which {@link #readRange(String, String, String, long, int)} matches.
+     */
+    private static String version(Blob blob) {
+        return blob.getGeneration() == null ? null : String.valueOf(blob.getGeneration());
+    }
 }
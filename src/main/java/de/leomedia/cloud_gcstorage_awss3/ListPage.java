@@ -0,0 +1,62 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * This record holds one page of a listing with {@link CloudStorageService#listPage}.
+ *
+ * @param objects the objects of the page in the order of their keys, without user metadata
+ * @param prefixes the common prefixes of the page if the listing has a delimiter, each ending with the delimiter
+ * @param nextPageToken the token of the next page, or null if this is the last page
+ */
+public record ListPage(List<ObjectInfo> objects, List<String> prefixes, String nextPageToken) {
+
+    public ListPage {
+        objects = List.copyOf(objects);
+        prefixes = List.copyOf(prefixes);
+    }
+
+    /**
+     * This method merges the objects that a decorator keeps on its own into this page of its delegate.
+     * The local objects below the prefix are added to the first page, grouped into common prefixes like the delegate groups them,
+     * and every page drops the common prefixes that were added that way and the objects of the delegate that the decorator hides.
+     * The local objects do not take part in the paging, so the first page may hold more objects than the page size.
+     *
+     * @param prefix the prefix of the listing
+     * @param delimiter the delimiter of the listing, or null
+     * @param firstPage whether this is the first page of the listing
+     * @param localObjects the objects of the bucket that only the decorator knows
+     * @param hidden whether an object of the delegate is hidden by the decorator
+     * @return the merged page with the next page token of the delegate
+     */
+    public ListPage merge(String prefix, String delimiter, boolean firstPage, Collection<ObjectInfo> localObjects, Predicate<String> hidden) {
+        List<ObjectInfo> mergedObjects = new ArrayList<>();
+        Set<String> localPrefixes = new TreeSet<>();
+        for (ObjectInfo object : localObjects) {
+            if (!object.key().startsWith(prefix)) {
+                continue;
+            }
+            int end = delimiter == null ? -1 : object.key().indexOf(delimiter, prefix.length());
+            if (end >= 0) {
+                localPrefixes.add(object.key().substring(0, end + delimiter.length()));
+            } else if (firstPage) {
+                mergedObjects.add(object);
+            }
+        }
+        objects.stream().filter(object -> !hidden.test(object.key())).forEach(mergedObjects::add);
+        mergedObjects.sort(Comparator.comparing(ObjectInfo::key));
+
+        List<String> mergedPrefixes = new ArrayList<>(prefixes.stream().filter(commonPrefix -> !localPrefixes.contains(commonPrefix)).toList());
+        if (firstPage) {
+            mergedPrefixes.addAll(localPrefixes);
+            mergedPrefixes.sort(Comparator.naturalOrder());
+        }
+        return new ListPage(mergedObjects, mergedPrefixes, nextPageToken);
+    }
+}
@@ -0,0 +1,42 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.util.Map;
+
+/**
+ * This record holds the metadata of a stored object that {@link CloudStorageService#getObjectInfo} returns.
+ *
+ * @param key the name of the object
+ * @param size the size of the object in bytes as it is stored, which is the compressed size of a compressed object
+ * @param version the ETag of S3 or the generation of Cloud Storage, which changes whenever the object is replaced
+ * @param metadata the user metadata of the object
+ * @param contentType the media type of the object, or null if it is unknown, e.g. in a listing
+ * @param contentEncoding the Content-Encoding of the object, or null if it is not encoded or unknown
+ */
+public record ObjectInfo(String key, long size, String version, Map<String, String> metadata, String contentType, String contentEncoding) {
+
+    public ObjectInfo {
+        metadata = metadata == null ? Map.of() : Map.copyOf(metadata);
+    }
+
+    public ObjectInfo(String key, long size, String version, Map<String, String> metadata) {
+        this(key, size, version, metadata, null, null);
+    }
+
+    /**
+     * @return the content type, Content-Encoding and user metadata, which a copy of the object stores as well
+     */
+    public ContentAttributes attributes() {
+        return new ContentAttributes(contentType, contentEncoding, metadata);
+    }
+
+    /**
+     * This method reads the size of the content before compression from the
+     * {@value ContentCompressor#UNCOMPRESSED_SIZE_METADATA} metadata, which compressed uploads store.
+     *
+     * @return the size of the file that was uploaded, which is the size for an object that is not compressed
+     */
+    public long uncompressedSize() {
+        String uncompressedSize = metadata.get(ContentCompressor.UNCOMPRESSED_SIZE_METADATA);
+        return uncompressedSize == null ? size : Long.parseLong(uncompressedSize);
+    }
+}
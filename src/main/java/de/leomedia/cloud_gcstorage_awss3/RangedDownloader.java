@@ -0,0 +1,378 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * This class downloads an object into a file in byte ranges that are fetched concurrently.
+ * <p>
+ * The object is written into a preallocated partial file next to the target. Each range is read
+ * through a direct buffer of its download thread and written at its position with {@link FileChannel#write(ByteBuffer, long)},
+ * so the heap usage does not grow with the size of the object. Objects smaller than the multipart threshold
+ * of the {@link TransferOptions} are fetched in a single range, larger ones in ranges of the part size
+ * with at most maxConcurrency ranges in flight.
+ * <p>
+ * The completed ranges are saved in a state file after every few ranges and when a download fails, so a
+ * download of the same object version into the same target continues with the missing ranges.
+ * Once every range is written, the file is verified against the checksum of the object, if the provider has one,
+ * and moved to the target. A file that does not match is deleted, so the next download starts again.
+ */
+public class RangedDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(RangedDownloader.class);
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".part.state";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int CHECKPOINT_RANGES = 16;
+
+    private final TransferOptions options;
+    private final ExecutorService executor;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    public RangedDownloader(TransferOptions options) {
+        this.options = options;
+        this.executor = Executors.newFixedThreadPool(options.maxConcurrency(), new DaemonThreadFactory("ranged-download"));
+    }
+
+    /**
+     * The object to download as the provider describes it.
+     *
+     * @param size the size of the object in bytes
+     * @param version the ETag or generation of the object, a partial download is only resumed for the same version
+     * @param checksumAlgorithm "CRC32C", "CRC32" or the name of a {@link MessageDigest} algorithm, or null if the object has no checksum
+     * @param checksum the expected checksum in big-endian byte order, or null
+     */
+    public record RemoteObject(long size, String version, String checksumAlgorithm, byte[] checksum) {
+    }
+
+    /**
+     * Opens a byte range of a single version of the object.
+     */
+    @FunctionalInterface
+    public interface RangeReader {
+
+        /**
+         * @param offset the position of the first byte of the range
+         * @param length the number of bytes of the range
+         * @return a channel that returns at least the bytes of the range
+         */
+        ReadableByteChannel open(long offset, long length) throws IOException;
+    }
+
+    /**
+     * This method downloads the object into the target file and replaces an existing file.
+     *
+     * @param object the size, version and checksum of the object
+     * @param reader opens the ranges of the object
+     * @param target the file to write
+     * @throws IOException if a range cannot be read or written, or if the file does not match the checksum
+     */
+    public void download(RemoteObject object, RangeReader reader, Path target) throws IOException {
+        Path absoluteTarget = target.toAbsolutePath();
+        if (absoluteTarget.getParent() != null) {
+            Files.createDirectories(absoluteTarget.getParent());
+        }
+        Path partFile = absoluteTarget.resolveSibling(absoluteTarget.getFileName() + PART_SUFFIX);
+        Path stateFile = absoluteTarget.resolveSibling(absoluteTarget.getFileName() + STATE_SUFFIX);
+
+        long size = object.size();
+        long rangeSize = size < options.multipartThreshold() ? Math.max(1, size) : options.partSize();
+        int rangeCount = (int) ((size + rangeSize - 1) / rangeSize);
+
+        DownloadState state = Files.exists(partFile) ? DownloadState.load(stateFile, object, rangeSize) : null;
+        if (state == null) {
+            Files.deleteIfExists(partFile);
+            state = new DownloadState(stateFile, object, rangeSize, new BitSet(rangeCount));
+        } else {
+            logger.info("Resuming the download into {} with {} of {} ranges done", target, state.completedRanges(), rangeCount);
+        }
+
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            preallocate(channel, size);
+            try {
+                downloadRanges(channel, reader, state, size, rangeSize, rangeCount);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    state.checkpoint(channel);
+                } catch (IOException checkpointFailure) {
+                    e.addSuppressed(checkpointFailure);
+                }
+                throw e;
+            }
+            channel.force(true);
+        }
+
+        try {
+            verify(partFile, object);
+        } catch (IOException e) {
+            Files.deleteIfExists(partFile);
+            Files.deleteIfExists(stateFile);
+            throw e;
+        }
+        try {
+            Files.move(partFile, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile, absoluteTarget, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(stateFile);
+    }
+
+    /**
+     * This method submits one task per missing range while at most maxConcurrency ranges are in flight.
+     * It stops submitting new ranges as soon as one range failed.
+     */
+    private void downloadRanges(FileChannel channel, RangeReader reader, DownloadState state,
+                                long size, long rangeSize, int rangeCount) throws IOException {
+
+        Semaphore window = new Semaphore(options.maxConcurrency());
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int index : state.missing(rangeCount)) {
+                if (failed.get()) {
+                    break;
+                }
+                window.acquire();
+
+                long offset = index * rangeSize;
+                long length = Math.min(rangeSize, size - offset);
+
+                futures.add(executor.submit(() -> {
+                    try {
+                        if (failed.get()) {
+                            return null;
+                        }
+                        downloadRange(channel, reader, offset, length);
+                        state.completed(index, channel);
+                        return null;
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        window.release();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } catch (InterruptedException e) {
+            failed.set(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("The download was interrupted", e);
+        } catch (ExecutionException e) {
+            awaitRunning(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Waits for the running ranges, so they are saved as done. The ranges that did not start yet are skipped
+     * once a range failed. Running ranges are not interrupted, because an interrupt closes the {@link FileChannel} of every range.
+     */
+    private static void awaitRunning(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ignored) {
+                // the first failure is reported
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void downloadRange(FileChannel channel, RangeReader reader, long offset, long length) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        long position = offset;
+        long end = offset + length;
+
+        try (ReadableByteChannel in = reader.open(offset, length)) {
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                if (in.read(buffer) < 0) {
+                    throw new IOException("The range at " + offset + " ended after " + (position - offset) + " of " + length + " bytes");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the length of the partial file. New files stay sparse until their ranges are written.
+     */
+    private static void preallocate(FileChannel channel, long size) throws IOException {
+        if (channel.size() > size) {
+            channel.truncate(size);
+        } else if (channel.size() < size) {
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    /**
+     * This method compares the size and the checksum of the file with those of the object.
+     */
+    private static void verify(Path file, RemoteObject object) throws IOException {
+        long size = Files.size(file);
+        byte[] actual = object.checksumAlgorithm() == null ? null : checksum(file, object.checksumAlgorithm());
+
+        if (size != object.size() || (actual != null && !Arrays.equals(actual, object.checksum()))) {
+            throw new IOException("The downloaded file " + file + " does not match the " +
+                    (size != object.size() ? "size" : object.checksumAlgorithm() + " checksum") + " of the object");
+        }
+    }
+
+    /**
+     * @param file the file to read
+     * @param algorithm "CRC32C", "CRC32" or the name of a {@link MessageDigest} algorithm
+     * @return the checksum of the file in big-endian byte order
+     */
+    public static byte[] checksum(Path file, String algorithm) throws IOException {
+        Checksum crc = switch (algorithm) {
+            case "CRC32C" -> new CRC32C();
+            case "CRC32" -> new CRC32();
+            default -> null;
+        };
+        MessageDigest digest = null;
+        if (crc == null) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) >= 0) {
+                buffer.flip();
+                if (crc != null) {
+                    crc.update(buffer);
+                } else {
+                    digest.update(buffer);
+                }
+            }
+        }
+        if (crc == null) {
+            return digest.digest();
+        }
+        return ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+    }
+
+    /**
+     * The completed ranges of a partial file, saved as three lines: the object version,
+     * the object and range size, and the indexes of the completed ranges.
+     */
+    private static final class DownloadState {
+
+        private final Path stateFile;
+        private final RemoteObject object;
+        private final long rangeSize;
+        private final BitSet done;
+        private int uncheckpointed;
+
+        private DownloadState(Path stateFile, RemoteObject object, long rangeSize, BitSet done) {
+            this.stateFile = stateFile;
+            this.object = object;
+            this.rangeSize = rangeSize;
+            this.done = done;
+        }
+
+        /**
+         * @return the saved state, or null if there is none for this version of the object and range size
+         */
+        static DownloadState load(Path stateFile, RemoteObject object, long rangeSize) {
+            if (!Files.exists(stateFile)) {
+                return null;
+            }
+            try {
+                List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+                if (lines.size() < 2 || !lines.get(0).equals(String.valueOf(object.version()))
+                        || !lines.get(1).equals(object.size() + " " + rangeSize)) {
+                    return null;
+                }
+                BitSet done = new BitSet();
+                if (lines.size() > 2 && !lines.get(2).isEmpty()) {
+                    for (String index : lines.get(2).split(",")) {
+                        done.set(Integer.parseInt(index));
+                    }
+                }
+                return new DownloadState(stateFile, object, rangeSize, done);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Ignoring the invalid download state {}: {}", stateFile, e.getMessage());
+                return null;
+            }
+        }
+
+        synchronized int[] missing(int rangeCount) {
+            return IntStream.range(0, rangeCount).filter(i -> !done.get(i)).toArray();
+        }
+
+        synchronized int completedRanges() {
+            return done.cardinality();
+        }
+
+        synchronized void completed(int index, FileChannel channel) throws IOException {
+            done.set(index);
+            if (++uncheckpointed >= CHECKPOINT_RANGES) {
+                checkpoint(channel);
+            }
+        }
+
+        /**
+         * The ranges are forced to disk before they are saved as done, so a saved range survives a crash.
+         */
+        synchronized void checkpoint(FileChannel channel) throws IOException {
+            if (uncheckpointed == 0 || !channel.isOpen()) {
+                return;
+            }
+            channel.force(false);
+            StringBuilder indexes = new StringBuilder();
+            done.stream().forEach(i -> indexes.append(indexes.length() == 0 ? "" : ",").append(i));
+
+            Path temporary = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            Files.writeString(temporary, object.version() + "\n" + object.size() + " " + rangeSize + "\n" + indexes + "\n",
+                    StandardCharsets.UTF_8);
+            Files.move(temporary, stateFile, StandardCopyOption.REPLACE_EXISTING);
+            uncheckpointed = 0;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.nio.file.Path;
+
+/**
+ * This class holds the tuning parameters for uploads of the {@link CloudStorageService} implementations.
+ * <p>
+ * Files smaller than the multipart threshold are uploaded in a single request.
+ * Larger files are split into parts of the given part size which are uploaded concurrently,
+ * with at most maxConcurrency parts in flight at the same time. S3 rejects parts below 5 MiB except the last one,
+ * so a smaller part size is refused when the options are built, unless the minimum part size is lowered
+ * for an S3-compatible endpoint that accepts smaller parts.
+ * <p>
+ * Cloud Storage splits large files into a fixed number of composite components instead,
+ * which are written in chunks of the given chunk size and joined afterwards.
+ * If a resume directory is set, the state of every component is saved after each chunk,
+ * so an interrupted upload continues from its last committed chunk.
+ * <p>
+ * A bulk upload runs at most bulkConcurrency object uploads at the same time.
+ * <p>
+ * With a compression other than {@link Compression#NONE}, files are compressed while they are uploaded.
+ * A file is uploaded uncompressed if its type is compressed already, or if the first compressionSampleSize bytes
+ * do not shrink by at least the minimumCompressionRatio.
+ * <p>
+ * A listing fetches at most listPageSize objects per request, which both providers cap at 1000.
+ * <p>
+ * Every upload carries the {@link UploadChecksum} of its content, CRC32C by default, which the provider checks before it stores the object.
+ */
+public final class TransferOptions {
+
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 16L * 1024 * 1024;
+    public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+    public static final int DEFAULT_COMPOSITE_COMPONENT_COUNT = 8;
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_BULK_CONCURRENCY = 64;
+    public static final int DEFAULT_COMPRESSION_SAMPLE_SIZE = 64 * 1024;
+    public static final double DEFAULT_MINIMUM_COMPRESSION_RATIO = 1.25;
+    public static final int DEFAULT_LIST_PAGE_SIZE = 1000;
+
+    /**
+     * S3 rejects every part of a multipart upload but the last that is smaller than 5 MiB.
+     */
+    public static final long S3_MINIMUM_PART_SIZE = 5L * 1024 * 1024;
+
+    /**
+     * Cloud Storage composes at most 32 source objects in one request.
+     */
+    public static final int MAX_COMPOSITE_COMPONENT_COUNT = 32;
+
+    /**
+     * Chunks of a resumable Cloud Storage upload have to be a multiple of 256 KiB.
+     */
+    public static final int CHUNK_SIZE_GRANULARITY = 256 * 1024;
+
+    private final long multipartThreshold;
+    private final long partSize;
+    private final int maxConcurrency;
+    private final int compositeComponentCount;
+    private final int chunkSize;
+    private final Path resumeDirectory;
+    private final int bulkConcurrency;
+    private final Compression compression;
+    private final int compressionSampleSize;
+    private final double minimumCompressionRatio;
+    private final int listPageSize;
+    private final UploadChecksum uploadChecksum;
+
+    private TransferOptions(Builder builder) {
+        this.multipartThreshold = builder.multipartThreshold;
+        this.partSize = builder.partSize;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.compositeComponentCount = builder.compositeComponentCount;
+        this.chunkSize = builder.chunkSize;
+        this.resumeDirectory = builder.resumeDirectory;
+        this.bulkConcurrency = builder.bulkConcurrency;
+        this.compression = builder.compression;
+        this.compressionSampleSize = builder.compressionSampleSize;
+        this.minimumCompressionRatio = builder.minimumCompressionRatio;
+        this.listPageSize = builder.listPageSize;
+        this.uploadChecksum = builder.uploadChecksum;
+    }
+
+    /**
+     * @return the {@link TransferOptions} with the default values
+     */
+    public static TransferOptions defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the file size in bytes from which on a file is uploaded in multiple parts
+     */
+    public long multipartThreshold() {
+        return multipartThreshold;
+    }
+
+    /**
+     * @return the size of a single part in bytes
+     */
+    public long partSize() {
+        return partSize;
+    }
+
+    /**
+     * @return the maximum number of parts that are uploaded at the same time
+     */
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of components a large file is split into for a Cloud Storage composite upload
+     */
+    public int compositeComponentCount() {
+        return compositeComponentCount;
+    }
+
+    /**
+     * @return the size of a chunk that is written to a Cloud Storage upload in bytes
+     */
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the directory where the state of interrupted uploads is kept, or null if uploads are not resumable
+     */
+    public Path resumeDirectory() {
+        return resumeDirectory;
+    }
+
+    /**
+     * @return the maximum number of objects of a bulk upload that are uploaded at the same time
+     */
+    public int bulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /**
+     * @return the codec files are compressed with while they are uploaded
+     */
+    public Compression compression() {
+        return compression;
+    }
+
+    /**
+     * @return the number of bytes at the start of a file that are compressed to decide whether the file is compressed
+     */
+    public int compressionSampleSize() {
+        return compressionSampleSize;
+    }
+
+    /**
+     * @return the ratio of uncompressed to compressed size the sample has to reach for the file to be compressed
+     */
+    public double minimumCompressionRatio() {
+        return minimumCompressionRatio;
+    }
+
+    /**
+     * @return the maximum number of objects of a listing that are fetched with one request
+     */
+    public int listPageSize() {
+        return listPageSize;
+    }
+
+    /**
+     * @return the checksum that is sent with uploads and compared with the one the provider computed
+     */
+    public UploadChecksum uploadChecksum() {
+        return uploadChecksum;
+    }
+
+    public static final class Builder {
+
+        private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+        private long partSize = DEFAULT_PART_SIZE;
+        private long minimumPartSize = S3_MINIMUM_PART_SIZE;
+        private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        private int compositeComponentCount = DEFAULT_COMPOSITE_COMPONENT_COUNT;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private Path resumeDirectory;
+        private int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+        private Compression compression = Compression.NONE;
+        private int compressionSampleSize = DEFAULT_COMPRESSION_SAMPLE_SIZE;
+        private double minimumCompressionRatio = DEFAULT_MINIMUM_COMPRESSION_RATIO;
+        private int listPageSize = DEFAULT_LIST_PAGE_SIZE;
+        private UploadChecksum uploadChecksum = UploadChecksum.CRC32C;
+
+        private Builder() {
+        }
+
+        public Builder multipartThreshold(long multipartThreshold) {
+            this.multipartThreshold = multipartThreshold;
+            return this;
+        }
+
+        public Builder partSize(long partSize) {
+            this.partSize = partSize;
+            return this;
+        }
+
+        /**
+         * @param minimumPartSize the smallest part size the endpoint accepts, {@link #S3_MINIMUM_PART_SIZE} by default.
+         *                        Lower it only for S3-compatible endpoints that accept smaller parts, such as local stand-ins
+         */
+        public Builder minimumPartSize(long minimumPartSize) {
+            this.minimumPartSize = minimumPartSize;
+            return this;
+        }
+
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder compositeComponentCount(int compositeComponentCount) {
+            this.compositeComponentCount = compositeComponentCount;
+            return this;
+        }
+
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public Builder resumeDirectory(Path resumeDirectory) {
+            this.resumeDirectory = resumeDirectory;
+            return this;
+        }
+
+        public Builder bulkConcurrency(int bulkConcurrency) {
+            this.bulkConcurrency = bulkConcurrency;
+            return this;
+        }
+
+        public Builder compression(Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder compressionSampleSize(int compressionSampleSize) {
+            this.compressionSampleSize = compressionSampleSize;
+            return this;
+        }
+
+        public Builder minimumCompressionRatio(double minimumCompressionRatio) {
+            this.minimumCompressionRatio = minimumCompressionRatio;
+            return this;
+        }
+
+        public Builder listPageSize(int listPageSize) {
+            this.listPageSize = listPageSize;
+            return this;
+        }
+
+        public Builder uploadChecksum(UploadChecksum uploadChecksum) {
+            this.uploadChecksum = uploadChecksum;
+            return this;
+        }
+
+        public TransferOptions build() {
+            if (multipartThreshold <= 0) {
+                throw new IllegalArgumentException("Invalid multipart threshold: " + multipartThreshold);
+            }
+            // a single part is read through one memory mapped region, which is limited to 2 GB
+            if (partSize <= 0 || partSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid part size: " + partSize);
+            }
+            if (minimumPartSize <= 0) {
+                throw new IllegalArgumentException("Invalid minimum part size: " + minimumPartSize);
+            }
+            if (partSize < minimumPartSize) {
+                throw new IllegalArgumentException("Part size " + partSize + " is below the minimum part size of " + minimumPartSize);
+            }
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("Invalid max concurrency: " + maxConcurrency);
+            }
+            if (compositeComponentCount <= 0 || compositeComponentCount > MAX_COMPOSITE_COMPONENT_COUNT) {
+                throw new IllegalArgumentException("Invalid composite component count: " + compositeComponentCount);
+            }
+            if (chunkSize <= 0 || chunkSize % CHUNK_SIZE_GRANULARITY != 0) {
+                throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+            }
+            if (bulkConcurrency <= 0) {
+                throw new IllegalArgumentException("Invalid bulk concurrency: " + bulkConcurrency);
+            }
+            if (compression == null) {
+                throw new IllegalArgumentException("Invalid compression: null");
+            }
+            if (compressionSampleSize <= 0) {
+                throw new IllegalArgumentException("Invalid compression sample size: " + compressionSampleSize);
+            }
+            if (!(minimumCompressionRatio >= 1)) {
+                throw new IllegalArgumentException("Invalid minimum compression ratio: " + minimumCompressionRatio);
+            }
+            if (listPageSize <= 0 || listPageSize > 1000) {
+                throw new IllegalArgumentException("Invalid list page size: " + listPageSize);
+            }
+            if (uploadChecksum == null) {
+                throw new IllegalArgumentException("Invalid upload checksum: null");
+            }
+            return new TransferOptions(this);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The checksum that is computed on the client and sent with every upload, so the provider rejects content
+ * that was corrupted on the way. The checksum is computed from the same buffers that are sent, so the file is read once.
+ * <p>
+ * CRC32C uses {@link CRC32C} of the JDK, which the JIT compiles to the CRC32C instructions of the CPU,
+ * so it keeps up with any network. SHA-256 is much slower but detects deliberate changes as well.
+ * Cloud Storage only checks CRC32C and MD5, so it always uses CRC32C unless checksums are disabled.
+ */
+public enum UploadChecksum {
+
+    NONE(null),
+    CRC32C("CRC32C"),
+    SHA256("SHA-256");
+
+    /**
+     * The reversed CRC32C (Castagnoli) polynomial.
+     */
+    private static final long CRC32C_POLYNOMIAL = 0x82F63B78L;
+
+    private final String algorithm;
+
+    UploadChecksum(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return the name of the algorithm as {@link RangedDownloader#checksum} takes it, or null for {@link #NONE}
+     */
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * This method computes the checksum of the remaining bytes of the buffer without consuming them.
+     *
+     * @return the checksum in big-endian byte order
+     */
+    public byte[] compute(ByteBuffer content) {
+        ByteBuffer view = content.duplicate();
+        return switch (this) {
+            case NONE -> throw new IllegalStateException("No checksum is computed");
+            case CRC32C -> {
+                CRC32C crc = new CRC32C();
+                crc.update(view);
+                yield crc32cBytes(crc.getValue());
+            }
+            case SHA256 -> {
+                MessageDigest digest = sha256();
+                digest.update(view);
+                yield digest.digest();
+            }
+        };
+    }
+
+    /**
+     * @return the checksum of the remaining bytes of the buffer encoded in base64, as both providers expect it in their headers
+     */
+    public String base64(ByteBuffer content) {
+        return Base64.getEncoder().encodeToString(compute(content));
+    }
+
+    /**
+     * This method computes the checksum of a multipart upload like S3 does: the checksum of the concatenated
+     * binary checksums of the parts, followed by "-" and the number of parts.
+     *
+     * @param partChecksums the base64 checksums of the parts in the order of their part numbers
+     */
+    public String composite(List<String> partChecksums) {
+        ByteBuffer concatenated = ByteBuffer.allocate(partChecksums.size() * (this == SHA256 ? 32 : 4));
+        partChecksums.forEach(partChecksum -> concatenated.put(Base64.getDecoder().decode(partChecksum)));
+        return base64(concatenated.flip()) + "-" + partChecksums.size();
+    }
+
+    /**
+     * This method combines the CRC32C of two adjacent ranges into the CRC32C of both without reading them again,
+     * which is how Cloud Storage computes the CRC32C of a composed object.
+     *
+     * @param first the CRC32C of the first range
+     * @param second the CRC32C of the second range
+     * @param secondLength the length of the second range in bytes
+     * @return the CRC32C of the first range followed by the second
+     */
+    public static long combineCrc32c(long first, long second, long secondLength) {
+        if (secondLength <= 0) {
+            return first;
+        }
+        // the operator that appends one zero bit, then squared to append two, four and so on (zlib's crc32_combine)
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = CRC32C_POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+
+        long crc = first;
+        long length = secondLength;
+        do {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length >>= 1;
+        } while (length != 0);
+        return crc ^ second;
+    }
+
+    /**
+     * @return the CRC32C value in the big-endian byte order of its base64 form
+     */
+    public static byte[] crc32cBytes(long crc) {
+        return ByteBuffer.allocate(4).putInt((int) crc).array();
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
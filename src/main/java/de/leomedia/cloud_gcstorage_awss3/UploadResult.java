@@ -0,0 +1,31 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.time.Duration;
+
+/**
+ * This record holds the outcome of one object of a bulk upload with {@link CloudStorageService#uploadObjects}.
+ *
+ * @param key the name of the object
+ * @param error the exception that made the upload fail, or null if it succeeded
+ * @param bytes the number of bytes that were uploaded
+ * @param checksum the checksum that was sent with the content and checked by the provider, or null if none was sent
+ * @param latency the time the upload took
+ */
+public record UploadResult(String key, Exception error, long bytes, ContentChecksum checksum, Duration latency) {
+
+    public static UploadResult succeeded(String key, long bytes, Duration latency) {
+        return new UploadResult(key, null, bytes, null, latency);
+    }
+
+    public static UploadResult succeeded(String key, long bytes, ContentChecksum checksum, Duration latency) {
+        return new UploadResult(key, null, bytes, checksum, latency);
+    }
+
+    public static UploadResult failed(String key, Exception error, Duration latency) {
+        return new UploadResult(key, error, 0, null, latency);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
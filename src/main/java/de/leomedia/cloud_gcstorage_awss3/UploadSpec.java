@@ -0,0 +1,36 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.util.Map;
+
+/**
+ * This record describes one object of a bulk upload with {@link CloudStorageService#uploadObjects}.
+ *
+ * @param key the name of an object
+ * @param file the full file path of an object
+ * @param encryptionKey the encryption key generated by SSE KMS
+ * @param storageClass the storage class in which the object will be stored in S3
+ * @param metadata the user metadata that is stored with the object
+ * @param compressible whether the service may compress the content, which must be false for content that is read in byte ranges
+ */
+public record UploadSpec(String key, String file, String encryptionKey, String storageClass, Map<String, String> metadata,
+                         boolean compressible) {
+
+    public UploadSpec {
+        metadata = metadata == null ? Map.of() : Map.copyOf(metadata);
+    }
+
+    public UploadSpec(String key, String file, String encryptionKey, String storageClass, Map<String, String> metadata) {
+        this(key, file, encryptionKey, storageClass, metadata, true);
+    }
+
+    public UploadSpec(String key, String file, String encryptionKey, String storageClass) {
+        this(key, file, encryptionKey, storageClass, Map.of());
+    }
+
+    /**
+     * @return this upload, stored exactly as the file is
+     */
+    public UploadSpec withoutCompression() {
+        return new UploadSpec(key, file, encryptionKey, storageClass, metadata, false);
+    }
+}
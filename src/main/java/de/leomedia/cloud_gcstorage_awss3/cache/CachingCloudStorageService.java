@@ -0,0 +1,379 @@
+package de.leomedia.cloud_gcstorage_awss3.cache;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A decorator for a {@link CloudStorageService} that caches presigned URLs.
+ * <p>
+ * A cached URL is returned as long as its remaining validity is at least the configured fraction
+ * of the requested lifetime, so a caller never gets a URL that expires earlier than it can expect.
+ * The cache holds at most maximumSize URLs and evicts the least recently used one first.
+ * <p>
+ * If a refresh executor is set, a URL whose remaining validity falls below the refresh-ahead fraction
+ * is signed again in the background when it is requested, so hot objects do not miss when their URL expires.
+ * Concurrent misses of the same URL wait for one signing call instead of signing it each.
+ * <p>
+ * An S3 URL that carries a session token stops working when the temporary credentials it was signed with expire,
+ * which can be long before the requested lifetime ends. Such URLs are returned but never cached.
+ * Uploads are passed to the wrapped service unchanged.
+ */
+public class CachingCloudStorageService implements CloudStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingCloudStorageService.class);
+
+    private static final String SESSION_TOKEN_PARAMETER = "X-Amz-Security-Token=";
+
+    private final CloudStorageService delegate;
+    private final String provider;
+    private final double minRemainingFraction;
+    private final double refreshAheadFraction;
+    private final int durationBucketMinutes;
+    private final Executor refreshExecutor;
+    private final Clock clock;
+    private final Map<CacheKey, CachedUrl> cache;
+    private final Map<CacheKey, CompletableFuture<URL>> signing = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    private CachingCloudStorageService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.provider = builder.provider;
+        this.minRemainingFraction = builder.minRemainingFraction;
+        this.refreshAheadFraction = builder.refreshAheadFraction;
+        this.durationBucketMinutes = builder.durationBucketMinutes;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.clock = builder.clock;
+
+        int maximumSize = builder.maximumSize;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedUrl> eldest) {
+                if (size() > maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static Builder builder(CloudStorageService delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        delegate.uploadObject(bucketName, key, file, encryptionKey, storageClass);
+    }
+
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        return delegate.uploadObjects(bucketName, uploads);
+    }
+
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        delegate.downloadObject(bucketName, key, target);
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return delegate.readRange(bucketName, key, offset, length);
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        return delegate.readRange(bucketName, key, version, offset, length);
+    }
+
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        return delegate.listPage(bucketName, prefix, delimiter, pageToken);
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        return delegate.getObjectInfo(bucketName, key);
+    }
+
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        delegate.deleteObject(bucketName, key);
+    }
+
+    /**
+     * This method returns a cached presigned URL if it is still valid long enough,
+     * otherwise it generates a new one with the wrapped service and caches it.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param minutes given timestamp in minutes in which the url is valid
+     * @param encryptionKey given encryption key for decrypting objects
+     * @return generated signed {@link URL}, or null if the wrapped service could not generate one
+     */
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        int bucketedMinutes = bucketMinutes(minutes);
+        CacheKey cacheKey = new CacheKey(provider, bucketName, key, encryptionKey, bucketedMinutes);
+        Instant now = clock.instant();
+
+        CachedUrl cached = validUrl(cacheKey, now, minutes);
+        if (cached != null) {
+            hits.increment();
+            if (refreshExecutor != null && !cached.isValidFor(now, Duration.ofMinutes(bucketedMinutes), refreshAheadFraction)) {
+                refreshAsync(cacheKey, cached);
+            }
+            return cached.url();
+        }
+
+        misses.increment();
+        return signOnce(cacheKey, minutes);
+    }
+
+    private CachedUrl validUrl(CacheKey cacheKey, Instant now, int minutes) {
+        CachedUrl cached;
+        synchronized (cache) {
+            cached = cache.get(cacheKey);
+        }
+        return cached != null && cached.isValidFor(now, Duration.ofMinutes(minutes), minRemainingFraction) ? cached : null;
+    }
+
+    /**
+     * This method signs the URL, unless another miss of the same URL is signing it already, whose URL is returned then.
+     */
+    private URL signOnce(CacheKey cacheKey, int minutes) {
+        CompletableFuture<URL> pending = new CompletableFuture<>();
+        CompletableFuture<URL> running = signing.putIfAbsent(cacheKey, pending);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+        }
+
+        try {
+            // another miss may have cached the URL between the lookup and the registration of this one
+            CachedUrl cached = validUrl(cacheKey, clock.instant(), minutes);
+            URL url = cached != null ? cached.url() : sign(cacheKey);
+            pending.complete(url);
+            return url;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            signing.remove(cacheKey, pending);
+        }
+    }
+
+    /**
+     * A batch presign is passed to the wrapped service without caching,
+     * since its keys are usually requested only once.
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        delegate.presignAll(bucketName, keys, minutes, sink);
+    }
+
+    private URL sign(CacheKey cacheKey) {
+        Instant signedAt = clock.instant();
+        URL url = delegate.getPresignedUrl(cacheKey.bucketName(), cacheKey.key(), cacheKey.minutes(), cacheKey.encryptionKey());
+        if (url != null && !isSignedWithSessionToken(url)) {
+            CachedUrl cachedUrl = new CachedUrl(url, signedAt.plus(Duration.ofMinutes(cacheKey.minutes())));
+            synchronized (cache) {
+                cache.put(cacheKey, cachedUrl);
+            }
+        }
+        return url;
+    }
+
+    /**
+     * The expiration of the temporary credentials is not part of the URL, so its real lifetime is unknown.
+     */
+    private static boolean isSignedWithSessionToken(URL url) {
+        String query = url.getQuery();
+        return query != null && (query.startsWith(SESSION_TOKEN_PARAMETER) || query.contains("&" + SESSION_TOKEN_PARAMETER));
+    }
+
+    private void refreshAsync(CacheKey cacheKey, CachedUrl cached) {
+        if (!cached.refreshing().compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                refreshes.increment();
+                sign(cacheKey);
+            });
+        } catch (RejectedExecutionException e) {
+            cached.refreshing().set(false);
+            logger.debug("Refresh of presigned URL for {} was rejected", cacheKey.key());
+        }
+    }
+
+    /**
+     * Requests are grouped into buckets of durationBucketMinutes, so close lifetimes share one cached URL.
+     * The URL is signed for the end of the bucket, which is never shorter than the requested lifetime.
+     */
+    private int bucketMinutes(int minutes) {
+        return ((minutes + durationBucketMinutes - 1) / durationBucketMinutes) * durationBucketMinutes;
+    }
+
+    /**
+     * Removes every cached URL.
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the current hit, miss, eviction and refresh counters and the size of the cache
+     */
+    public Stats stats() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), refreshes.sum(), size);
+    }
+
+    /**
+     * The counters of a {@link CachingCloudStorageService}.
+     */
+    public record Stats(long hits, long misses, long evictions, long refreshes, int size) {
+    }
+
+    private record CacheKey(String provider, String bucketName, String key, String encryptionKey, int minutes) {
+    }
+
+    private record CachedUrl(URL url, Instant expiresAt, AtomicBoolean refreshing) {
+
+        CachedUrl(URL url, Instant expiresAt) {
+            this(url, expiresAt, new AtomicBoolean());
+        }
+
+        boolean isValidFor(Instant now, Duration lifetime, double fraction) {
+            Duration remaining = Duration.between(now, expiresAt);
+            return !remaining.isNegative() && remaining.toMillis() >= lifetime.toMillis() * fraction;
+        }
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService delegate;
+        private String provider = "";
+        private int maximumSize = 10_000;
+        private double minRemainingFraction = 0.5;
+        private double refreshAheadFraction = 0.6;
+        private int durationBucketMinutes = 1;
+        private Executor refreshExecutor;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(CloudStorageService delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param provider the name of the cloud provider, which is part of the cache key
+         */
+        public Builder provider(String provider) {
+            this.provider = provider;
+            return this;
+        }
+
+        /**
+         * @param maximumSize the maximum number of cached URLs
+         */
+        public Builder maximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * @param minRemainingFraction the fraction of the requested lifetime a cached URL must still be valid for
+         */
+        public Builder minRemainingFraction(double minRemainingFraction) {
+            this.minRemainingFraction = minRemainingFraction;
+            return this;
+        }
+
+        /**
+         * @param refreshAheadFraction the fraction of the lifetime below which a requested URL is refreshed in the background
+         */
+        public Builder refreshAheadFraction(double refreshAheadFraction) {
+            this.refreshAheadFraction = refreshAheadFraction;
+            return this;
+        }
+
+        /**
+         * @param durationBucketMinutes the granularity in minutes in which requested lifetimes share a cached URL
+         */
+        public Builder durationBucketMinutes(int durationBucketMinutes) {
+            this.durationBucketMinutes = durationBucketMinutes;
+            return this;
+        }
+
+        /**
+         * @param refreshExecutor the executor for background refreshes, or null to disable them
+         */
+        public Builder refreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public CachingCloudStorageService build() {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("Invalid maximum size: " + maximumSize);
+            }
+            if (minRemainingFraction <= 0 || minRemainingFraction > 1) {
+                throw new IllegalArgumentException("Invalid min remaining fraction: " + minRemainingFraction);
+            }
+            if (refreshAheadFraction < minRemainingFraction || refreshAheadFraction > 1) {
+                throw new IllegalArgumentException("Invalid refresh ahead fraction: " + refreshAheadFraction);
+            }
+            if (durationBucketMinutes <= 0) {
+                throw new IllegalArgumentException("Invalid duration bucket: " + durationBucketMinutes);
+            }
+            return new CachingCloudStorageService(this);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package de.leomedia.cloud_gcstorage_awss3.clients;
+
+import java.time.Duration;
+
+/**
+ * This class holds the connection pool settings of the clients of a {@link CloudClientRegistry}.
+ * <p>
+ * Every client keeps at most maxConnections pooled connections. A connection is closed after it was idle
+ * for the max idle time or open for the time to live, so a pool follows DNS changes of the endpoints.
+ * With TCP keep-alive, idle connections are not dropped silently by NAT gateways and load balancers.
+ * <p>
+ * S3 and the JSON API of Cloud Storage only speak HTTP/1.1, so the pools hold one connection per concurrent call.
+ */
+public final class ClientOptions {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 128;
+    public static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_SOCKET_TIMEOUT = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_CONNECTION_TIME_TO_LIVE = Duration.ofMinutes(5);
+
+    private final int maxConnections;
+    private final Duration connectionTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionMaxIdleTime;
+    private final Duration connectionTimeToLive;
+    private final boolean tcpKeepAlive;
+
+    private ClientOptions(Builder builder) {
+        this.maxConnections = builder.maxConnections;
+        this.connectionTimeout = builder.connectionTimeout;
+        this.socketTimeout = builder.socketTimeout;
+        this.connectionMaxIdleTime = builder.connectionMaxIdleTime;
+        this.connectionTimeToLive = builder.connectionTimeToLive;
+        this.tcpKeepAlive = builder.tcpKeepAlive;
+    }
+
+    /**
+     * @return the {@link ClientOptions} with the default values
+     */
+    public static ClientOptions defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the maximum number of open connections of a client
+     */
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return how long opening a connection may take
+     */
+    public Duration connectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * @return how long a call may wait for data from a connection
+     */
+    public Duration socketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @return how long a connection stays in the pool without being used
+     */
+    public Duration connectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    /**
+     * @return how long a connection is reused at most
+     */
+    public Duration connectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * @return whether TCP keep-alive probes are sent on idle connections
+     */
+    public boolean tcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public static final class Builder {
+
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private Duration connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+        private Duration socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        private Duration connectionMaxIdleTime = DEFAULT_CONNECTION_MAX_IDLE_TIME;
+        private Duration connectionTimeToLive = DEFAULT_CONNECTION_TIME_TO_LIVE;
+        private boolean tcpKeepAlive = true;
+
+        private Builder() {
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder connectionTimeout(Duration connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public Builder socketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public Builder connectionMaxIdleTime(Duration connectionMaxIdleTime) {
+            this.connectionMaxIdleTime = connectionMaxIdleTime;
+            return this;
+        }
+
+        public Builder connectionTimeToLive(Duration connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+            return this;
+        }
+
+        public Builder tcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        public ClientOptions build() {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("Invalid max connections: " + maxConnections);
+            }
+            for (Duration duration : new Duration[]{connectionTimeout, socketTimeout, connectionMaxIdleTime, connectionTimeToLive}) {
+                if (duration == null || duration.isNegative() || duration.isZero()) {
+                    throw new IllegalArgumentException("Invalid connection duration: " + duration);
+                }
+            }
+            return new ClientOptions(this);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.leomedia.cloud_gcstorage_awss3.clients;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.S3MetricPublisher;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCSRetryMetrics;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class provides the {@link CloudClientRegistry} of the application, which is closed when the context shuts down.
+ * The clients of the configured cloud provider are warmed up while the context starts, unless cloud.clients.warm-up is false.
+ * Uploads are compressed with the codec of cloud.transfer.compression, which is none by default,
+ * and carry the checksum of cloud.transfer.checksum, which is crc32c by default.
+ */
+@Configuration
+public class CloudClientConfiguration {
+
+    @Value("${CLOUD_PROVIDER}")
+    private String cloudProvider;
+
+    @Value("${BUCKET_NAME}")
+    private String bucketName;
+
+    @Value("${PROJECT_ID}")
+    private String projectId;
+
+    @Value("${GC_JSON_KEY_PATH}")
+    private String gcJsonKeyPath;
+
+    @Value("${cloud.clients.max-connections:" + ClientOptions.DEFAULT_MAX_CONNECTIONS + "}")
+    private int maxConnections;
+
+    @Value("${cloud.clients.connection-timeout:5s}")
+    private Duration connectionTimeout;
+
+    @Value("${cloud.clients.socket-timeout:60s}")
+    private Duration socketTimeout;
+
+    @Value("${cloud.clients.connection-max-idle-time:60s}")
+    private Duration connectionMaxIdleTime;
+
+    @Value("${cloud.clients.connection-time-to-live:5m}")
+    private Duration connectionTimeToLive;
+
+    @Value("${cloud.clients.tcp-keep-alive:true}")
+    private boolean tcpKeepAlive;
+
+    @Value("${cloud.clients.warm-up:true}")
+    private boolean warmUp;
+
+    @Value("${cloud.clients.s3-endpoint:}")
+    private String s3Endpoint;
+
+    @Value("${cloud.clients.gcs-endpoint:}")
+    private String gcsEndpoint;
+
+    @Value("${cloud.transfer.compression:none}")
+    private String compression;
+
+    @Value("${cloud.transfer.checksum:crc32c}")
+    private String checksum;
+
+    @Bean(destroyMethod = "close")
+    CloudClientRegistry cloudClientRegistry(MeterRegistry meterRegistry) {
+        CloudClientRegistry.Builder builder = CloudClientRegistry.builder(ClientOptions.builder()
+                        .maxConnections(maxConnections)
+                        .connectionTimeout(connectionTimeout)
+                        .socketTimeout(socketTimeout)
+                        .connectionMaxIdleTime(connectionMaxIdleTime)
+                        .connectionTimeToLive(connectionTimeToLive)
+                        .tcpKeepAlive(tcpKeepAlive)
+                        .build())
+                .transferOptions(TransferOptions.builder()
+                        .compression(Compression.valueOf(compression.toUpperCase(Locale.ROOT)))
+                        .uploadChecksum(UploadChecksum.valueOf(checksum.toUpperCase(Locale.ROOT)))
+                        .build())
+                .googleCredentials(projectId, gcJsonKeyPath)
+                .metricPublisher(new S3MetricPublisher(meterRegistry))
+                .storageRetryStrategy(new GCSRetryMetrics(meterRegistry));
+        //Local stand-ins like MinIO or a Cloud Storage emulator replace the providers, e.g. for load tests
+        if (!s3Endpoint.isBlank()) {
+            builder.s3Endpoint(URI.create(s3Endpoint));
+        }
+        if (!gcsEndpoint.isBlank()) {
+            builder.gcsEndpoint(URI.create(gcsEndpoint));
+        }
+        CloudClientRegistry registry = builder.build();
+
+        if (warmUp) {
+            registry.warmUp(List.of(cloudProvider), bucketName);
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,457 @@
+package de.leomedia.cloud_gcstorage_awss3.clients;
+
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.auth.Credentials;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.StorageRetryStrategy;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3AsyncStorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCSRetryMetrics;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageAsyncService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.apache.http.config.SocketConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the clients of S3 and Cloud Storage, so every service of a process shares them
+ * instead of resolving credentials, regions and connections again.
+ * <p>
+ * A client is built on its first use with the connection pool of the {@link ClientOptions},
+ * and {@link #cloudStorageService} returns one service per provider that is built on these clients,
+ * like {@link #asyncCloudStorageService} for the non-blocking services.
+ * {@link #warmUp} builds the clients and opens their first connections ahead of the first request.
+ * {@link #close} closes every client and its connection pool.
+ */
+public class CloudClientRegistry implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CloudClientRegistry.class);
+
+    private final ClientOptions clientOptions;
+    private final TransferOptions transferOptions;
+    private final AwsCredentialsProvider awsCredentialsProvider;
+    private final Region awsRegion;
+    private final URI s3Endpoint;
+    private final List<MetricPublisher> metricPublishers;
+    private final String projectId;
+    private final String jsonKeyPath;
+    private final URI gcsEndpoint;
+    private final StorageRetryStrategy storageRetryStrategy;
+
+    private SdkHttpClient httpClient;
+    private SdkAsyncHttpClient asyncHttpClient;
+    private S3Client s3Client;
+    private S3AsyncClient s3AsyncClient;
+    private S3Presigner presigner;
+    private ApacheHttpTransport storageTransport;
+    private Storage storage;
+    private final Map<String, CloudStorageService> services = new HashMap<>();
+    private final Map<String, AsyncCloudStorageService> asyncServices = new HashMap<>();
+    private ExecutorService gcsIoExecutor;
+    private boolean closed;
+
+    private CloudClientRegistry(Builder builder) {
+        this.clientOptions = builder.clientOptions;
+        this.transferOptions = builder.transferOptions;
+        this.awsCredentialsProvider = builder.awsCredentialsProvider;
+        this.awsRegion = builder.awsRegion;
+        this.s3Endpoint = builder.s3Endpoint;
+        this.metricPublishers = List.copyOf(builder.metricPublishers);
+        this.projectId = builder.projectId;
+        this.jsonKeyPath = builder.jsonKeyPath;
+        this.gcsEndpoint = builder.gcsEndpoint;
+        this.storageRetryStrategy = builder.storageRetryStrategy;
+        this.storage = builder.storage;
+    }
+
+    public static Builder builder(ClientOptions clientOptions) {
+        return new Builder(clientOptions);
+    }
+
+    /**
+     * This method returns the service of the given cloud provider, which is built once on the shared clients.
+     *
+     * @param cloudProvider the given cloud provider whether "aws" or "google cloud"
+     * @return the {@link AWSS3StorageService} or {@link GCStorageService} of this registry
+     * @throws IOException if the service account file cannot be read
+     */
+    public synchronized CloudStorageService cloudStorageService(String cloudProvider) throws IOException {
+        String provider = provider(cloudProvider);
+        CloudStorageService service = services.get(provider);
+        if (service == null) {
+            service = "AWS".equals(provider)
+                    ? new AWSS3StorageService(s3Client(), s3Presigner(), transferOptions, awsCredentialsProvider)
+                    : new GCStorageService(storage(), transferOptions);
+            services.put(provider, service);
+        }
+        return service;
+    }
+
+    /**
+     * This method returns the non-blocking service of the given cloud provider, which is built once on the shared clients.
+     * The Cloud Storage service runs the calls of {@link #cloudStorageService} on a bounded I/O executor.
+     *
+     * @param cloudProvider the given cloud provider whether "aws" or "google cloud"
+     * @return the {@link AWSS3AsyncStorageService} or {@link GCStorageAsyncService} of this registry
+     * @throws IOException if the service account file cannot be read
+     */
+    public synchronized AsyncCloudStorageService asyncCloudStorageService(String cloudProvider) throws IOException {
+        String provider = provider(cloudProvider);
+        AsyncCloudStorageService service = asyncServices.get(provider);
+        if (service == null) {
+            if ("AWS".equals(provider)) {
+                service = new AWSS3AsyncStorageService(s3AsyncClient(), s3Presigner(), transferOptions);
+            } else {
+                gcsIoExecutor = GCStorageAsyncService.newIoExecutor(GCStorageAsyncService.DEFAULT_IO_THREADS, GCStorageAsyncService.DEFAULT_QUEUE_CAPACITY);
+                service = new GCStorageAsyncService((GCStorageService) cloudStorageService(provider), gcsIoExecutor);
+            }
+            asyncServices.put(provider, service);
+        }
+        return service;
+    }
+
+    public synchronized S3Client s3Client() {
+        checkOpen();
+        if (s3Client == null) {
+            if (httpClient == null) {
+                httpClient = ApacheHttpClient.builder()
+                        .maxConnections(clientOptions.maxConnections())
+                        .connectionTimeout(clientOptions.connectionTimeout())
+                        .socketTimeout(clientOptions.socketTimeout())
+                        .connectionMaxIdleTime(clientOptions.connectionMaxIdleTime())
+                        .connectionTimeToLive(clientOptions.connectionTimeToLive())
+                        .tcpKeepAlive(clientOptions.tcpKeepAlive())
+                        .build();
+            }
+            var builder = S3Client.builder()
+                    .httpClient(httpClient)
+                    .credentialsProvider(awsCredentialsProvider)
+                    .overrideConfiguration(c -> metricPublishers.forEach(c::addMetricPublisher));
+            if (awsRegion != null) {
+                builder.region(awsRegion);
+            }
+            if (s3Endpoint != null) {
+                builder.endpointOverride(s3Endpoint)
+                        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+            }
+            s3Client = builder.build();
+        }
+        return s3Client;
+    }
+
+    public synchronized S3AsyncClient s3AsyncClient() {
+        checkOpen();
+        if (s3AsyncClient == null) {
+            if (asyncHttpClient == null) {
+                asyncHttpClient = NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(clientOptions.maxConnections())
+                        .connectionTimeout(clientOptions.connectionTimeout())
+                        .readTimeout(clientOptions.socketTimeout())
+                        .connectionMaxIdleTime(clientOptions.connectionMaxIdleTime())
+                        .connectionTimeToLive(clientOptions.connectionTimeToLive())
+                        .tcpKeepAlive(clientOptions.tcpKeepAlive())
+                        .build();
+            }
+            var builder = S3AsyncClient.builder()
+                    .httpClient(asyncHttpClient)
+                    .credentialsProvider(awsCredentialsProvider)
+                    .overrideConfiguration(c -> metricPublishers.forEach(c::addMetricPublisher));
+            if (awsRegion != null) {
+                builder.region(awsRegion);
+            }
+            if (s3Endpoint != null) {
+                builder.endpointOverride(s3Endpoint)
+                        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+            }
+            s3AsyncClient = builder.build();
+        }
+        return s3AsyncClient;
+    }
+
+    public synchronized S3Presigner s3Presigner() {
+        checkOpen();
+        if (presigner == null) {
+            var builder = S3Presigner.builder().credentialsProvider(awsCredentialsProvider);
+            if (awsRegion != null) {
+                builder.region(awsRegion);
+            }
+            if (s3Endpoint != null) {
+                builder.endpointOverride(s3Endpoint)
+                        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+            }
+            presigner = builder.build();
+        }
+        return presigner;
+    }
+
+    /**
+     * This method returns the {@link Storage} of the registry. The service account file is read once,
+     * without one the application default credentials are used. A Cloud Storage compatible endpoint is called without credentials.
+     *
+     * @throws IOException if the service account file cannot be read
+     */
+    public synchronized Storage storage() throws IOException {
+        checkOpen();
+        if (storage == null) {
+            Credentials credentials;
+            if (gcsEndpoint != null) {
+                credentials = NoCredentials.getInstance();
+            } else if (jsonKeyPath == null || jsonKeyPath.isBlank()) {
+                credentials = GoogleCredentials.getApplicationDefault();
+            } else {
+                try (InputStream keyFile = new FileInputStream(jsonKeyPath)) {
+                    credentials = GoogleCredentials.fromStream(keyFile);
+                }
+            }
+
+            storageTransport = new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                    .setMaxConnTotal(clientOptions.maxConnections())
+                    .setMaxConnPerRoute(clientOptions.maxConnections())
+                    .setConnectionTimeToLive(clientOptions.connectionTimeToLive().toMillis(), TimeUnit.MILLISECONDS)
+                    .evictIdleConnections(clientOptions.connectionMaxIdleTime().toMillis(), TimeUnit.MILLISECONDS)
+                    .setDefaultSocketConfig(SocketConfig.custom()
+                            .setSoKeepAlive(clientOptions.tcpKeepAlive())
+                            .setSoTimeout((int) clientOptions.socketTimeout().toMillis())
+                            .build())
+                    .build());
+
+            StorageOptions.Builder options = StorageOptions.http();
+            if (gcsEndpoint != null) {
+                options.setHost(gcsEndpoint.toString());
+            }
+            if (storageRetryStrategy != null) {
+                options.setStorageRetryStrategy(storageRetryStrategy);
+            }
+            storage = options
+                    .setCredentials(credentials)
+                    .setProjectId(projectId)
+                    .setTransportOptions(HttpTransportOptions.newBuilder()
+                            .setHttpTransportFactory(() -> storageTransport)
+                            .setConnectTimeout((int) clientOptions.connectionTimeout().toMillis())
+                            .setReadTimeout((int) clientOptions.socketTimeout().toMillis())
+                            .build())
+                    .build().getService();
+        }
+        return storage;
+    }
+
+    /**
+     * This method builds the clients of the given providers, resolves their credentials and,
+     * if a bucket is given, opens a first connection with a metadata request for the bucket.
+     * A failed warm-up is logged and does not fail, the first request then pays the setup itself.
+     *
+     * @param cloudProviders the providers whose clients are warmed up, "aws" or "google cloud"
+     * @param bucketName the bucket whose metadata is requested, or null to not open connections
+     */
+    public void warmUp(Collection<String> cloudProviders, String bucketName) {
+        long start = System.nanoTime();
+        for (String cloudProvider : cloudProviders) {
+            String provider = provider(cloudProvider);
+            try {
+                cloudStorageService(provider);
+                if ("AWS".equals(provider)) {
+                    awsCredentialsProvider.resolveCredentials();
+                    if (bucketName != null) {
+                        s3Client().headBucket(request -> request.bucket(bucketName));
+                    }
+                } else if (bucketName != null) {
+                    storage().get(bucketName, Storage.BucketGetOption.fields(Storage.BucketField.NAME));
+                }
+            } catch (S3Exception e) {
+                // S3 answered, so the connection is open even if the bucket cannot be read
+                logger.debug("Warm-up request to S3 answered with {}", e.statusCode());
+            } catch (StorageException e) {
+                if (e.getCode() == 0) {
+                    logger.warn("Could not warm up the {} client: {}", provider, e.getMessage());
+                }
+            } catch (IOException | SdkClientException e) {
+                logger.warn("Could not warm up the {} client: {}", provider, e.getMessage());
+            }
+        }
+        logger.info("Warmed up the clients of {} in {} ms", cloudProviders, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * This method closes every client that was built and its connection pool.
+     * The services of the registry cannot be used anymore afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<AutoCloseable> closeables = new ArrayList<>();
+        closeables.add(gcsIoExecutor == null ? null : gcsIoExecutor::shutdownNow);
+        closeables.add(s3Client);
+        closeables.add(s3AsyncClient);
+        closeables.add(presigner);
+        closeables.add(httpClient);
+        closeables.add(asyncHttpClient);
+        closeables.add(storage);
+        closeables.add(storageTransport == null ? null : storageTransport::shutdown);
+        for (AutoCloseable closeable : closeables) {
+            if (closeable == null) {
+                continue;
+            }
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                logger.error("Could not close {}: {}", closeable, e.getMessage());
+            }
+        }
+        services.clear();
+        asyncServices.clear();
+        logger.info("Closed the cloud storage clients");
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The client registry is closed");
+        }
+    }
+
+    private static String provider(String cloudProvider) {
+        if ("AWS".equalsIgnoreCase(cloudProvider)) {
+            return "AWS";
+        } else if ("Google Cloud".equalsIgnoreCase(cloudProvider) || "GC".equalsIgnoreCase(cloudProvider)) {
+            return "GC";
+        } else {
+            throw new IllegalArgumentException("Invalid cloud provider: " + cloudProvider);
+        }
+    }
+
+    public static final class Builder {
+
+        private final ClientOptions clientOptions;
+        private TransferOptions transferOptions = TransferOptions.defaults();
+        private AwsCredentialsProvider awsCredentialsProvider = DefaultCredentialsProvider.create();
+        private Region awsRegion;
+        private URI s3Endpoint;
+        private final List<MetricPublisher> metricPublishers = new ArrayList<>();
+        private String projectId;
+        private String jsonKeyPath;
+        private URI gcsEndpoint;
+        private StorageRetryStrategy storageRetryStrategy;
+        private Storage storage;
+
+        private Builder(ClientOptions clientOptions) {
+            this.clientOptions = clientOptions;
+        }
+
+        /**
+         * @param transferOptions the upload and download settings of the services
+         */
+        public Builder transferOptions(TransferOptions transferOptions) {
+            this.transferOptions = transferOptions;
+            return this;
+        }
+
+        /**
+         * @param awsCredentialsProvider the credentials of the S3 clients, by default the default credentials chain
+         */
+        public Builder awsCredentialsProvider(AwsCredentialsProvider awsCredentialsProvider) {
+            this.awsCredentialsProvider = awsCredentialsProvider;
+            return this;
+        }
+
+        /**
+         * @param awsRegion the region of the S3 clients, by default the region of the default region chain
+         */
+        public Builder awsRegion(Region awsRegion) {
+            this.awsRegion = awsRegion;
+            return this;
+        }
+
+        /**
+         * @param s3Endpoint an S3 compatible endpoint that is called with path-style requests instead of S3
+         */
+        public Builder s3Endpoint(URI s3Endpoint) {
+            this.s3Endpoint = s3Endpoint;
+            return this;
+        }
+
+        /**
+         * @param metricPublisher a publisher of the metrics of the S3 clients
+         */
+        public Builder metricPublisher(MetricPublisher metricPublisher) {
+            this.metricPublishers.add(metricPublisher);
+            return this;
+        }
+
+        /**
+         * @param projectId the id of the Google Cloud project
+         * @param jsonKeyPath the service account file from Google Cloud, or null for the application default credentials
+         */
+        public Builder googleCredentials(String projectId, String jsonKeyPath) {
+            this.projectId = projectId;
+            this.jsonKeyPath = jsonKeyPath;
+            return this;
+        }
+
+        /**
+         * @param gcsEndpoint a Cloud Storage compatible endpoint, like an emulator, that is called instead of Cloud Storage
+         */
+        public Builder gcsEndpoint(URI gcsEndpoint) {
+            this.gcsEndpoint = gcsEndpoint;
+            return this;
+        }
+
+        /**
+         * @param storageRetryStrategy the retry strategy of the Cloud Storage client, like the {@link GCSRetryMetrics}
+         */
+        public Builder storageRetryStrategy(StorageRetryStrategy storageRetryStrategy) {
+            this.storageRetryStrategy = storageRetryStrategy;
+            return this;
+        }
+
+        /**
+         * @param storage a {@link Storage} to use instead of building one, which is closed with the registry
+         */
+        public Builder storage(Storage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        public CloudClientRegistry build() {
+            if (clientOptions == null || transferOptions == null || awsCredentialsProvider == null) {
+                throw new IllegalArgumentException("The client options, transfer options and AWS credentials are required");
+            }
+            return new CloudClientRegistry(this);
+        }
+    }
+}
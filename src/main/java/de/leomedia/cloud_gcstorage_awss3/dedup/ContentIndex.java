@@ -0,0 +1,165 @@
+package de.leomedia.cloud_gcstorage_awss3.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class maps the content hashes of a bucket to an object that holds the content.
+ * <p>
+ * The index keeps at most maximumEntries hashes and evicts the least recently used one first.
+ * If it has a file, every change is appended to it and the file is replayed when the index is opened,
+ * so the index survives a restart. The file is rewritten with the current entries once it holds
+ * twice as many records as entries. Records are not forced to disk: the index is only a hint
+ * that is verified against the provider, so a lost record costs an upload, not a wrong object.
+ */
+final class ContentIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndex.class);
+
+    private final Path file;
+    private final Map<HashId, Location> entries;
+    private FileChannel channel;
+    private int records;
+
+    /**
+     * An object that holds the content of a hash.
+     */
+    record Location(String key, long size) {
+    }
+
+    private record HashId(String bucketName, String hash) {
+    }
+
+    /**
+     * @param file the file of the index, or null to keep the index in memory only
+     * @param maximumEntries the maximum number of hashes
+     */
+    ContentIndex(Path file, int maximumEntries) throws IOException {
+        this.file = file;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HashId, Location> eldest) {
+                return size() > maximumEntries;
+            }
+        };
+        if (file != null) {
+            load();
+            rewrite();
+        }
+    }
+
+    synchronized Location get(String bucketName, String hash) {
+        return entries.get(new HashId(bucketName, hash));
+    }
+
+    synchronized void put(String bucketName, String hash, Location location) {
+        HashId id = new HashId(bucketName, hash);
+        if (location.equals(entries.put(id, location))) {
+            return;
+        }
+        append("PUT " + encode(bucketName) + " " + hash + " " + location.size() + " " + encode(location.key()) + "\n");
+    }
+
+    /**
+     * This method removes the hash only if it still points to the given object, which turned out to hold other content.
+     */
+    synchronized void remove(String bucketName, String hash, String key) {
+        HashId id = new HashId(bucketName, hash);
+        Location location = entries.get(id);
+        if (location != null && location.key().equals(key)) {
+            entries.remove(id);
+            append("DEL " + encode(bucketName) + " " + hash + "\n");
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String[] fields = line.split(" ", -1);
+                    HashId id = new HashId(decode(fields[1]), fields[2]);
+                    if ("PUT".equals(fields[0]) && fields.length == 5) {
+                        entries.put(id, new Location(decode(fields[4]), Long.parseLong(fields[3])));
+                    } else if ("DEL".equals(fields[0])) {
+                        entries.remove(id);
+                    }
+                } catch (RuntimeException e) {
+                    // the last record may be torn by a crash
+                    logger.warn("Skipping invalid index record: {}", line);
+                }
+            }
+        }
+    }
+
+    private void append(String record) {
+        if (file == null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (++records > 2 * Math.max(entries.size(), 1_000)) {
+                rewrite();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not write the content index {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * The entries are written from the least to the most recently used one, so replaying the file restores their order.
+     */
+    private void rewrite() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        entries.forEach((id, location) -> content.append("PUT ").append(encode(id.bucketName())).append(' ').append(id.hash())
+                .append(' ').append(location.size()).append(' ').append(encode(location.key())).append('\n'));
+        Files.writeString(temporary, content, StandardCharsets.UTF_8);
+
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = entries.size();
+    }
+
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String field) {
+        return new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,384 @@
+package de.leomedia.cloud_gcstorage_awss3.dedup;
+
+import de.leomedia.cloud_gcstorage_awss3.BulkUploader;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A decorator for a {@link CloudStorageService} that does not upload content which the bucket already holds.
+ * <p>
+ * Before an upload, the SHA-256 of the file is computed and compared with the
+ * {@value #CONTENT_HASH_METADATA} metadata of the target object. If the target already holds the content,
+ * the upload is skipped. Otherwise the {@link ContentIndex} is asked for another object with the same content,
+ * which is verified with its metadata and then copied on the server, so no content leaves the client.
+ * Only if neither is found, the file is uploaded with its hash as metadata and added to the index.
+ * <p>
+ * An object only counts as holding the content if it was also stored with the same encryption key, storage class
+ * and user metadata, which the decorator records as a hash in the {@value #CONTENT_ATTRIBUTES_METADATA} metadata.
+ * A server-side copy keeps the metadata of its source, so it is only made from an object with the same attributes,
+ * and the copy ends up with the requested encryption key, storage class and user metadata.
+ * <p>
+ * A file that has to be uploaded is read twice, once for the hash and once for the upload. The hash cannot be computed
+ * while uploading, because it decides whether the upload happens at all and it is sent as metadata with the request
+ * that starts the upload. The second read is usually served from the page cache of the first one.
+ * <p>
+ * The hash is only trusted from the metadata of objects that were uploaded by this decorator,
+ * so objects uploaded without it are never copied or skipped.
+ */
+public class DeduplicatingCloudStorageService implements CloudStorageService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeduplicatingCloudStorageService.class);
+
+    public static final String CONTENT_HASH_METADATA = "content-sha256";
+    public static final String CONTENT_ATTRIBUTES_METADATA = "content-attributes";
+
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final CloudStorageService delegate;
+    private final ContentIndex index;
+    private final BulkUploader bulkUploader;
+
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    private DeduplicatingCloudStorageService(Builder builder) throws IOException {
+        this.delegate = builder.delegate;
+        this.index = new ContentIndex(builder.indexFile, builder.maximumEntries);
+        this.bulkUploader = new BulkUploader(builder.concurrency);
+    }
+
+    public static Builder builder(CloudStorageService delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * This method skips the upload if the object already holds the content of the file, copies another object
+     * with the same content on the server if there is one, and uploads the file otherwise.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param file the full file path of an object
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @throws IOException if the file cannot be read or the object could neither be copied nor uploaded
+     */
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        UploadSpec upload = new UploadSpec(key, file, encryptionKey, storageClass);
+        Content content = deduplicate(bucketName, upload);
+        if (content == null) {
+            return;
+        }
+        UploadResult result = delegate.uploadObjects(bucketName, List.of(content.upload())).get(0);
+        if (!result.isSuccess()) {
+            throw result.error() instanceof IOException e ? e : new IOException("Could not upload " + key, result.error());
+        }
+        uploaded(bucketName, content);
+    }
+
+    /**
+     * This method deduplicates the objects concurrently and uploads the remaining ones with a single
+     * {@link CloudStorageService#uploadObjects} of the wrapped service.
+     * The bytes of a skipped or copied object are the size of its file, although none of them were sent.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        List<UploadSpec> specs = List.copyOf(uploads);
+        Map<UploadSpec, Content> misses = new HashMap<>();
+        List<UploadResult> results = new ArrayList<>(bulkUploader.uploadAll(specs, upload -> {
+            Content content = deduplicate(bucketName, upload);
+            if (content != null) {
+                synchronized (misses) {
+                    misses.put(upload, content);
+                }
+            }
+            return content != null ? content.size() : Files.size(Paths.get(upload.file()));
+        }));
+
+        List<Integer> positions = new ArrayList<>();
+        List<Content> contents = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            Content content = misses.get(specs.get(i));
+            if (content != null && results.get(i).isSuccess()) {
+                positions.add(i);
+                contents.add(content);
+            }
+        }
+        if (contents.isEmpty()) {
+            return results;
+        }
+
+        List<UploadResult> uploadResults = delegate.uploadObjects(bucketName, contents.stream().map(Content::upload).toList());
+        for (int i = 0; i < contents.size(); i++) {
+            UploadResult result = uploadResults.get(i);
+            int position = positions.get(i);
+            if (result.isSuccess()) {
+                uploaded(bucketName, contents.get(i));
+            }
+            Duration latency = results.get(position).latency().plus(result.latency());
+            results.set(position, new UploadResult(result.key(), result.error(), result.bytes(), result.checksum(), latency));
+        }
+        return results;
+    }
+
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        return delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey);
+    }
+
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        delegate.presignAll(bucketName, keys, minutes, sink);
+    }
+
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        delegate.downloadObject(bucketName, key, target);
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return delegate.readRange(bucketName, key, offset, length);
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        return delegate.readRange(bucketName, key, version, offset, length);
+    }
+
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        return delegate.listPage(bucketName, prefix, delimiter, pageToken);
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        return delegate.getObjectInfo(bucketName, key);
+    }
+
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+    }
+
+    /**
+     * The index entries of a deleted object are dropped when they are verified the next time.
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        delegate.deleteObject(bucketName, key);
+    }
+
+    /**
+     * @return the current counters and the size of the index
+     */
+    public Stats stats() {
+        return new Stats(skipped.sum(), copied.sum(), uploaded.sum(), bytesSaved.sum(), index.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * This method hashes the file and skips or copies the object if its content is already stored.
+     *
+     * @return the upload with the hash as metadata if the file has to be uploaded, or null if the object is stored
+     */
+    private Content deduplicate(String bucketName, UploadSpec upload) throws IOException {
+        Content content = hash(upload);
+
+        ObjectInfo target = delegate.getObjectInfo(bucketName, upload.key());
+        if (content.matches(target)) {
+            skipped.increment();
+            bytesSaved.add(content.size());
+            index.put(bucketName, content.indexKey(), new ContentIndex.Location(upload.key(), content.size()));
+            logger.info("Object {} of bucket {} already holds the content of {}", upload.key(), bucketName, upload.file());
+            return null;
+        }
+
+        ContentIndex.Location location = index.get(bucketName, content.indexKey());
+        if (location != null && !location.key().equals(upload.key())) {
+            if (content.matches(delegate.getObjectInfo(bucketName, location.key()))) {
+                try {
+                    delegate.copyObject(bucketName, location.key(), upload.key(), upload.encryptionKey(), upload.storageClass());
+                    copied.increment();
+                    bytesSaved.add(content.size());
+                    logger.info("Object {} of bucket {} copied to {} instead of uploading {}", location.key(), bucketName,
+                            upload.key(), upload.file());
+                    return null;
+                } catch (NoSuchFileException e) {
+                    // replaced or deleted since its metadata was read
+                }
+            }
+            index.remove(bucketName, content.indexKey(), location.key());
+        }
+        return content;
+    }
+
+    private void uploaded(String bucketName, Content content) {
+        uploaded.increment();
+        index.put(bucketName, content.indexKey(), new ContentIndex.Location(content.upload().key(), content.size()));
+    }
+
+    /**
+     * The file is read through a direct buffer, so the digest is computed without copying the content onto the heap.
+     */
+    private static Content hash(UploadSpec upload) throws IOException {
+        MessageDigest digest = sha256();
+
+        long size = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(Paths.get(upload.file()), StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                size += read;
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        String hash = HEX.formatHex(digest.digest());
+        String attributes = attributes(upload);
+        Map<String, String> metadata = new HashMap<>(upload.metadata());
+        metadata.put(CONTENT_HASH_METADATA, hash);
+        metadata.put(CONTENT_ATTRIBUTES_METADATA, attributes);
+        return new Content(hash, attributes, size,
+                new UploadSpec(upload.key(), upload.file(), upload.encryptionKey(), upload.storageClass(), metadata, upload.compressible()));
+    }
+
+    /**
+     * The user metadata is hashed in the order of its keys, so the hash does not depend on the order of the map.
+     *
+     * @return the hash of the encryption key, storage class and user metadata of the upload
+     */
+    private static String attributes(UploadSpec upload) {
+        StringBuilder attributes = new StringBuilder()
+                .append(upload.encryptionKey()).append('\n')
+                .append(upload.storageClass()).append('\n');
+        new TreeMap<>(upload.metadata()).forEach((name, value) -> attributes.append(name).append('=').append(value).append('\n'));
+        return HEX.formatHex(sha256().digest(attributes.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The counters of a {@link DeduplicatingCloudStorageService}.
+     *
+     * @param skipped the uploads that were skipped because the object already held the content
+     * @param copied the uploads that were replaced by a server-side copy
+     * @param uploaded the uploads that sent the file
+     * @param bytesSaved the bytes that were not sent because of a skip or a copy
+     * @param indexSize the number of hashes in the index
+     */
+    public record Stats(long skipped, long copied, long uploaded, long bytesSaved, int indexSize) {
+    }
+
+    private record Content(String hash, String attributes, long size, UploadSpec upload) {
+
+        /**
+         * Objects are only copied from objects with the same attributes, so the index keeps one object per content and attributes.
+         */
+        String indexKey() {
+            return hash + "-" + attributes;
+        }
+
+        boolean matches(ObjectInfo info) {
+            return info != null && info.uncompressedSize() == size && hash.equals(info.metadata().get(CONTENT_HASH_METADATA))
+                    && attributes.equals(info.metadata().get(CONTENT_ATTRIBUTES_METADATA));
+        }
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService delegate;
+        private Path indexFile;
+        private int maximumEntries = 100_000;
+        private int concurrency = TransferOptions.DEFAULT_BULK_CONCURRENCY;
+
+        private Builder(CloudStorageService delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param indexFile the file in which the index is kept across restarts, or null to keep it in memory only
+         */
+        public Builder indexFile(Path indexFile) {
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        /**
+         * @param maximumEntries the maximum number of hashes in the index
+         */
+        public Builder maximumEntries(int maximumEntries) {
+            this.maximumEntries = maximumEntries;
+            return this;
+        }
+
+        /**
+         * @param concurrency the maximum number of files of a bulk upload that are hashed and checked at the same time
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @throws IOException if the index file cannot be read or written
+         */
+        public DeduplicatingCloudStorageService build() throws IOException {
+            if (delegate == null) {
+                throw new IllegalArgumentException("The delegate is required");
+            }
+            if (maximumEntries <= 0 || concurrency <= 0) {
+                throw new IllegalArgumentException("Invalid index or concurrency settings");
+            }
+            return new DeduplicatingCloudStorageService(this);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class serves the {@link UploadGateway} of the configured cloud provider when cloud.gateway.enabled is true.
+ * The gateway needs the reactive web server, which {@link GatewayWebApplicationType} selects, and refuses to start
+ * without a cloud.gateway.access-token.
+ */
+@Configuration
+@ConditionalOnProperty(name = "cloud.gateway.enabled", havingValue = "true")
+public class GatewayConfiguration {
+
+    @Value("${CLOUD_PROVIDER}")
+    private String cloudProvider;
+
+    @Value("${BUCKET_NAME}")
+    private String bucketName;
+
+    @Value("${ENCRYPTION_KEY}")
+    private String encryptionKey;
+
+    @Value("${STORAGE_CLASS}")
+    private String storageClass;
+
+    @Value("${cloud.gateway.access-token:}")
+    private String accessToken;
+
+    @Value("${cloud.gateway.allowed-prefixes:}")
+    private List<String> allowedPrefixes;
+
+    @Value("${cloud.gateway.maximum-content-length:" + UploadGateway.MAXIMUM_CONTENT_LENGTH + "}")
+    private long maximumContentLength;
+
+    @Bean
+    UploadGateway uploadGateway(CloudClientRegistry clientRegistry) throws IOException {
+        return UploadGateway.builder(clientRegistry.asyncCloudStorageService(cloudProvider),
+                        clientRegistry.cloudStorageService(cloudProvider), bucketName)
+                .encryptionKey(encryptionKey)
+                .storageClass(storageClass)
+                .accessToken(accessToken)
+                .allowedPrefixes(allowedPrefixes)
+                .maximumContentLength(maximumContentLength)
+                .build();
+    }
+
+    @Bean
+    RouterFunction<ServerResponse> uploadGatewayRoutes(UploadGateway uploadGateway) {
+        return uploadGateway.routes();
+    }
+}
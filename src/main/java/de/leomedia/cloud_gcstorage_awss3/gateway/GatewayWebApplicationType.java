@@ -0,0 +1,27 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * This class selects the reactive web server when cloud.gateway.enabled is true.
+ * <p>
+ * The application runs without a web server by default, so the gateway would otherwise never be served and the
+ * application would exit right after starting. The event is published after the configuration files are read and before
+ * the application binds spring.main.web-application-type, so the enabled gateway takes precedence over that setting.
+ */
+public class GatewayWebApplicationType implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+
+    @Override
+    public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+        ConfigurableEnvironment environment = event.getEnvironment();
+        if (environment.getProperty("cloud.gateway.enabled", Boolean.class, false)) {
+            environment.getPropertySources().addFirst(new MapPropertySource("cloudGateway",
+                    Map.of("spring.main.web-application-type", "reactive")));
+        }
+    }
+}
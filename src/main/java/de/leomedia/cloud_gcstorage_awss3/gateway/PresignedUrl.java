@@ -0,0 +1,11 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+/**
+ * This record is the response of the {@link UploadGateway} to a request for a presigned URL.
+ *
+ * @param key the name of the object
+ * @param url the presigned URL of the object
+ * @param minutes the number of minutes the URL is valid
+ */
+public record PresignedUrl(String key, String url, int minutes) {
+}
@@ -0,0 +1,271 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+import de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class serves uploads and presigned URLs over HTTP on the non-blocking WebFlux stack.
+ * <p>
+ * {@code PUT /objects/{key}} streams the request body to {@link AsyncCloudStorageService#uploadStream}: every buffer that
+ * Netty receives is passed on to the provider, and the next one is only read from the socket once the provider took it.
+ * The body never touches the disk and is never held as a whole, so a few event loop threads serve thousands of uploads.
+ * The request needs a Content-Length, since S3 needs the length of every request before it is sent.
+ * <p>
+ * {@code GET /presigned/{key}?minutes=60} returns a presigned URL of the {@link CloudStorageService}.
+ * <p>
+ * Every request needs the access token of the gateway as a bearer token and is answered with 401 Unauthorized without it.
+ * If allowed prefixes are configured, keys outside of them are answered with 403 Forbidden.
+ */
+public class UploadGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadGateway.class);
+
+    /**
+     * The largest object S3 accepts.
+     */
+    public static final long MAXIMUM_CONTENT_LENGTH = 5L * 1024 * 1024 * 1024 * 1024;
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final AsyncCloudStorageService uploadService;
+    private final CloudStorageService storageService;
+    private final String bucketName;
+    private final String encryptionKey;
+    private final String storageClass;
+    private final byte[] accessToken;
+    private final List<String> allowedPrefixes;
+    private final long maximumContentLength;
+    private final int defaultMinutes;
+    private final int maximumMinutes;
+
+    private UploadGateway(Builder builder) {
+        this.uploadService = builder.uploadService;
+        this.storageService = builder.storageService;
+        this.bucketName = builder.bucketName;
+        this.encryptionKey = builder.encryptionKey;
+        this.storageClass = builder.storageClass;
+        this.accessToken = builder.accessToken.getBytes(StandardCharsets.UTF_8);
+        this.allowedPrefixes = List.copyOf(builder.allowedPrefixes);
+        this.maximumContentLength = builder.maximumContentLength;
+        this.defaultMinutes = builder.defaultMinutes;
+        this.maximumMinutes = builder.maximumMinutes;
+    }
+
+    /**
+     * @param uploadService the service the request bodies are streamed to
+     * @param storageService the service that presigns the URLs
+     * @param bucketName the bucket of the objects
+     */
+    public static Builder builder(AsyncCloudStorageService uploadService, CloudStorageService storageService, String bucketName) {
+        return new Builder(uploadService, storageService, bucketName);
+    }
+
+    /**
+     * @return the routes of the uploads and presigned URLs
+     */
+    public RouterFunction<ServerResponse> routes() {
+        return RouterFunctions.route()
+                .PUT("/objects/{*key}", this::upload)
+                .GET("/presigned/{*key}", this::presign)
+                .filter(this::authorize)
+                .build();
+    }
+
+    /**
+     * This method passes a request on only if it carries the access token and its key is within the allowed prefixes.
+     * The token is compared in constant time, so its value cannot be guessed from the response times.
+     */
+    Mono<ServerResponse> authorize(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        String authorization = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX)
+                || !MessageDigest.isEqual(accessToken, authorization.substring(BEARER_PREFIX.length()).getBytes(StandardCharsets.UTF_8))) {
+            return ServerResponse.status(HttpStatus.UNAUTHORIZED).header(HttpHeaders.WWW_AUTHENTICATE, "Bearer").build();
+        }
+        String key = key(request);
+        if (!allowedPrefixes.isEmpty() && allowedPrefixes.stream().noneMatch(key::startsWith)) {
+            return ServerResponse.status(HttpStatus.FORBIDDEN).bodyValue("The key " + key + " is outside of the allowed prefixes");
+        }
+        return next.handle(request);
+    }
+
+    /**
+     * This method streams the body of the request to the provider and answers with an {@link UploadReceipt}.
+     * A failed upload is answered with 502 Bad Gateway, since the body cannot be sent again.
+     */
+    Mono<ServerResponse> upload(ServerRequest request) {
+        String key = key(request);
+        if (key.isEmpty()) {
+            return ServerResponse.badRequest().bodyValue("The key of the object is missing");
+        }
+        OptionalLong contentLength = request.headers().contentLength();
+        if (contentLength.isEmpty()) {
+            return ServerResponse.status(HttpStatus.LENGTH_REQUIRED).bodyValue("The Content-Length of the upload is missing");
+        }
+        if (contentLength.getAsLong() > maximumContentLength) {
+            return ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).bodyValue("The upload exceeds " + maximumContentLength + " bytes");
+        }
+
+        Flux<ByteBuffer> content = request.body(BodyExtractors.toDataBuffers()).map(UploadGateway::toByteBuffer);
+        return Mono.defer(() -> Mono.fromFuture(
+                        uploadService.uploadStream(bucketName, key, content, contentLength.getAsLong(), encryptionKey, storageClass)))
+                .flatMap(result -> ServerResponse.created(URI.create("/objects/" + key))
+                        .bodyValue(new UploadReceipt(key, result.bytes(), result.checksum())))
+                .onErrorResume(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    logger.error("Upload of {} failed: {}", key, cause.toString());
+                    return ServerResponse.status(HttpStatus.BAD_GATEWAY).bodyValue("The upload of " + key + " failed: " + cause.getMessage());
+                });
+    }
+
+    /**
+     * This method answers with a {@link PresignedUrl} of the object. Presigning can read credentials,
+     * so it runs outside of the event loop. A key that the storage service could not sign is answered with 404 Not Found.
+     */
+    Mono<ServerResponse> presign(ServerRequest request) {
+        String key = key(request);
+        int minutes;
+        try {
+            minutes = request.queryParam("minutes").map(Integer::parseInt).orElse(defaultMinutes);
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().bodyValue("Invalid minutes: " + request.queryParam("minutes").orElse(""));
+        }
+        if (key.isEmpty() || minutes <= 0 || minutes > maximumMinutes) {
+            return ServerResponse.badRequest().bodyValue("A key and between 1 and " + maximumMinutes + " minutes are required");
+        }
+
+        return Mono.fromCallable(() -> storageService.getPresignedUrl(bucketName, key, minutes, encryptionKey))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(url -> ServerResponse.ok().bodyValue(new PresignedUrl(key, url.toString(), minutes)))
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.notFound().build()));
+    }
+
+    private static String key(ServerRequest request) {
+        String key = request.pathVariable("key");
+        return key.startsWith("/") ? key.substring(1) : key;
+    }
+
+    /**
+     * The buffers of Netty are pooled, so the received bytes are copied out and the buffer is released right away.
+     */
+    private static ByteBuffer toByteBuffer(DataBuffer dataBuffer) {
+        try {
+            byte[] bytes = new byte[dataBuffer.readableByteCount()];
+            dataBuffer.read(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            DataBufferUtils.release(dataBuffer);
+        }
+    }
+
+    public static final class Builder {
+
+        private final AsyncCloudStorageService uploadService;
+        private final CloudStorageService storageService;
+        private final String bucketName;
+        private String encryptionKey;
+        private String storageClass;
+        private String accessToken;
+        private List<String> allowedPrefixes = List.of();
+        private long maximumContentLength = MAXIMUM_CONTENT_LENGTH;
+        private int defaultMinutes = 60;
+        private int maximumMinutes = 7 * 24 * 60;
+
+        private Builder(AsyncCloudStorageService uploadService, CloudStorageService storageService, String bucketName) {
+            this.uploadService = uploadService;
+            this.storageService = storageService;
+            this.bucketName = bucketName;
+        }
+
+        /**
+         * @param encryptionKey the encryption key generated by SSE KMS
+         */
+        public Builder encryptionKey(String encryptionKey) {
+            this.encryptionKey = encryptionKey;
+            return this;
+        }
+
+        /**
+         * @param storageClass the storage class in which the objects will be stored in S3
+         */
+        public Builder storageClass(String storageClass) {
+            this.storageClass = storageClass;
+            return this;
+        }
+
+        /**
+         * @param accessToken the token that every request has to send as "Authorization: Bearer token"
+         */
+        public Builder accessToken(String accessToken) {
+            this.accessToken = accessToken;
+            return this;
+        }
+
+        /**
+         * @param allowedPrefixes the prefixes of the keys that can be uploaded and presigned, or an empty list for all keys
+         */
+        public Builder allowedPrefixes(List<String> allowedPrefixes) {
+            this.allowedPrefixes = allowedPrefixes;
+            return this;
+        }
+
+        /**
+         * @param maximumContentLength the largest accepted upload in bytes
+         */
+        public Builder maximumContentLength(long maximumContentLength) {
+            this.maximumContentLength = maximumContentLength;
+            return this;
+        }
+
+        /**
+         * @param defaultMinutes the validity of a presigned URL if the request does not ask for one
+         * @param maximumMinutes the longest validity a request can ask for, S3 allows at most 7 days
+         */
+        public Builder presignMinutes(int defaultMinutes, int maximumMinutes) {
+            this.defaultMinutes = defaultMinutes;
+            this.maximumMinutes = maximumMinutes;
+            return this;
+        }
+
+        public UploadGateway build() {
+            if (uploadService == null || storageService == null || bucketName == null) {
+                throw new IllegalArgumentException("The services and the bucket name are required");
+            }
+            if (accessToken == null || accessToken.isBlank()) {
+                throw new IllegalArgumentException("An access token is required");
+            }
+            if (allowedPrefixes == null) {
+                throw new IllegalArgumentException("Invalid allowed prefixes: null");
+            }
+            if (maximumContentLength <= 0) {
+                throw new IllegalArgumentException("Invalid maximum content length: " + maximumContentLength);
+            }
+            if (defaultMinutes <= 0 || defaultMinutes > maximumMinutes) {
+                throw new IllegalArgumentException("Invalid presign minutes: " + defaultMinutes + " of at most " + maximumMinutes);
+            }
+            return new UploadGateway(this);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+
+/**
+ * This record is the response of the {@link UploadGateway} to a successful upload.
+ *
+ * @param key the name of the uploaded object
+ * @param bytes the number of uploaded bytes
+ * @param checksum the checksum the provider verified, or null if checksums are disabled
+ */
+public record UploadReceipt(String key, long bytes, ContentChecksum checksum) {
+}
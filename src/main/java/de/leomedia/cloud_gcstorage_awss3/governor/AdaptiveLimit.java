@@ -0,0 +1,122 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class limits the requests in flight to one bucket and prefix with additive increase and multiplicative decrease,
+ * and holds the retry budget of these requests.
+ * <p>
+ * A throttled request shrinks the limit by the backoff ratio, a request slower than the latency tolerance allows
+ * shrinks it by a tenth. Only requests that started after the last decrease can shrink the limit again,
+ * so a burst of throttled requests that were sent with the old limit counts as one signal.
+ * A successful request grows the limit by one divided by the limit, which is one per round trip of a full window,
+ * but only while the window is at least half used, so an idle limit does not grow without being tested.
+ */
+final class AdaptiveLimit {
+
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+    /**
+     * The lowest recent latency follows slower requests by this share, so it adapts when the link gets slower for good.
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final GovernorOptions options;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private double baselineNanos;
+    private long lastDecrease = Long.MIN_VALUE;
+    private double retryTokens;
+
+    AdaptiveLimit(GovernorOptions options) {
+        this.options = options;
+        this.limit = options.initialLimit();
+        this.retryTokens = options.retryBudgetCapacity();
+    }
+
+    /**
+     * This method waits until the request fits into the limit.
+     *
+     * @return the start time of the request, which is passed to {@link #release}
+     */
+    long acquire() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                available.await();
+            }
+            inFlight++;
+            retryTokens = Math.min(options.retryBudgetCapacity(), retryTokens + options.retryBudgetRatio());
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(long start, Outcome outcome) {
+        long now = System.nanoTime();
+        double latency = now - start;
+        lock.lock();
+        try {
+            boolean windowUsed = inFlight >= limit / 2;
+            inFlight--;
+            if (outcome == Outcome.THROTTLED) {
+                decrease(start, now, options.backoffRatio());
+            } else if (outcome == Outcome.SUCCESS) {
+                boolean slow = baselineNanos > 0 && options.latencyTolerance() > 0
+                        && latency > options.latencyTolerance() * baselineNanos;
+                baselineNanos = baselineNanos == 0 || latency < baselineNanos
+                        ? latency
+                        : baselineNanos + (latency - baselineNanos) * BASELINE_DRIFT;
+                if (slow) {
+                    decrease(start, now, LATENCY_BACKOFF_RATIO);
+                } else if (windowUsed) {
+                    limit = Math.min(options.maximumLimit(), limit + 1 / limit);
+                }
+            }
+        } finally {
+            available.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the budget had a retry left, which is taken
+     */
+    boolean tryRetry() {
+        lock.lock();
+        try {
+            if (retryTokens < 1) {
+                return false;
+            }
+            retryTokens--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long start, long now, double ratio) {
+        if (start > lastDecrease) {
+            limit = Math.max(options.minimumLimit(), limit * ratio);
+            lastDecrease = now;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import de.leomedia.cloud_gcstorage_awss3.BulkUploader;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A decorator for a {@link CloudStorageService} that sends every request through a {@link RequestGovernor}.
+ * <p>
+ * All operations of the interface are idempotent: an upload or copy stores the same object again, a delete of a deleted object
+ * is not an error, and an interrupted download continues with its missing ranges. So every operation that failed
+ * transiently or was throttled is retried. Presigned URLs are signed locally and are passed to the delegate directly.
+ * <p>
+ * {@link #uploadObjects} runs every upload as a request of its own, so the number of uploads in flight
+ * follows the limit of each prefix instead of the fixed bulk concurrency of the delegate.
+ */
+public class GovernedCloudStorageService implements CloudStorageService {
+
+    private final CloudStorageService delegate;
+    private final RequestGovernor governor;
+    private final int maximumLimit;
+
+    public GovernedCloudStorageService(CloudStorageService delegate, GovernorOptions options) {
+        this.delegate = delegate;
+        this.governor = new RequestGovernor(options);
+        this.maximumLimit = options.maximumLimit();
+    }
+
+    public RequestGovernor governor() {
+        return governor;
+    }
+
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        governor.execute(bucketName, key, () -> {
+            delegate.uploadObject(bucketName, key, file, encryptionKey, storageClass);
+            return null;
+        });
+    }
+
+    /**
+     * This method uploads every object with a single upload of the delegate, which keeps the user metadata of the object.
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        BulkUploader bulkUploader = new BulkUploader(Math.max(1, Math.min(maximumLimit, uploads.size())));
+        return bulkUploader.uploadAllWithChecksums(uploads, upload -> governor.execute(bucketName, upload.key(), () -> {
+            UploadResult result = delegate.uploadObjects(bucketName, List.of(upload)).get(0);
+            if (result.isSuccess()) {
+                return new BulkUploader.Uploaded(result.bytes(), result.checksum());
+            }
+            if (result.error() instanceof IOException e) {
+                throw e;
+            }
+            if (result.error() instanceof RuntimeException e) {
+                throw e;
+            }
+            throw new IOException(result.error());
+        }));
+    }
+
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        return delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey);
+    }
+
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        delegate.presignAll(bucketName, keys, minutes, sink);
+    }
+
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        governor.execute(bucketName, key, () -> {
+            delegate.downloadObject(bucketName, key, target);
+            return null;
+        });
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return governor.execute(bucketName, key, () -> delegate.readRange(bucketName, key, offset, length));
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        return governor.execute(bucketName, key, () -> delegate.readRange(bucketName, key, version, offset, length));
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        return governor.execute(bucketName, key, () -> delegate.getObjectInfo(bucketName, key));
+    }
+
+    /**
+     * A page counts against the limit of its prefix, so the listings of a {@link de.leomedia.cloud_gcstorage_awss3.BucketLister}
+     * spread over the limits of the sub-prefixes they list.
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        return governor.execute(bucketName, prefix, () -> delegate.listPage(bucketName, prefix, delimiter, pageToken));
+    }
+
+    /**
+     * The copy counts against the limit of the target, whose prefix receives the write.
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        governor.execute(bucketName, targetKey, () -> {
+            delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        governor.execute(bucketName, key, () -> {
+            delegate.deleteObject(bucketName, key);
+            return null;
+        });
+    }
+}
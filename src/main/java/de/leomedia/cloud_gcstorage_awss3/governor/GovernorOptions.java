@@ -0,0 +1,238 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import java.time.Duration;
+
+/**
+ * This class holds the settings of a {@link RequestGovernor}.
+ * <p>
+ * Every bucket and key prefix starts with the initial limit of requests in flight. The limit grows by one
+ * per limit of successful requests, and shrinks by the backoff ratio when a request is throttled
+ * or takes longer than the latency tolerance times the lowest recent latency.
+ * <p>
+ * A failed request is retried after a random delay of up to the retry delay, which doubles with every attempt
+ * up to the max retry delay. Every request adds the retry budget ratio to a budget of at most
+ * retry budget capacity retries, and every retry takes one, so retries cannot multiply the load of an outage.
+ */
+public final class GovernorOptions {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 16;
+    public static final int DEFAULT_MINIMUM_LIMIT = 1;
+    public static final int DEFAULT_MAXIMUM_LIMIT = 128;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 3.0;
+    public static final int DEFAULT_PREFIX_DEPTH = 1;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_RETRY_DELAY = Duration.ofMillis(50);
+    public static final Duration DEFAULT_MAX_RETRY_DELAY = Duration.ofSeconds(10);
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_RETRY_BUDGET_CAPACITY = 20;
+
+    private final int initialLimit;
+    private final int minimumLimit;
+    private final int maximumLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final int prefixDepth;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final Duration maxRetryDelay;
+    private final double retryBudgetRatio;
+    private final int retryBudgetCapacity;
+
+    private GovernorOptions(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minimumLimit = builder.minimumLimit;
+        this.maximumLimit = builder.maximumLimit;
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.prefixDepth = builder.prefixDepth;
+        this.maxAttempts = builder.maxAttempts;
+        this.retryDelay = builder.retryDelay;
+        this.maxRetryDelay = builder.maxRetryDelay;
+        this.retryBudgetRatio = builder.retryBudgetRatio;
+        this.retryBudgetCapacity = builder.retryBudgetCapacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static GovernorOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * @return the number of requests in flight that a new bucket and prefix starts with
+     */
+    public int initialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * @return the number of requests in flight that throttling never goes below
+     */
+    public int minimumLimit() {
+        return minimumLimit;
+    }
+
+    /**
+     * @return the number of requests in flight that the limit never grows beyond
+     */
+    public int maximumLimit() {
+        return maximumLimit;
+    }
+
+    /**
+     * @return the factor the limit is multiplied with when a request is throttled
+     */
+    public double backoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @return how many times slower than the lowest recent latency a request may be before the limit shrinks, 0 to ignore latency
+     */
+    public double latencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @return the number of leading path segments of a key that share a limit, 0 for one limit per bucket
+     */
+    public int prefixDepth() {
+        return prefixDepth;
+    }
+
+    /**
+     * @return the maximum number of attempts of a request, including the first one
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return the maximum delay before the first retry
+     */
+    public Duration retryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * @return the maximum delay before any retry
+     */
+    public Duration maxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * @return the share of a retry that every request adds to the retry budget
+     */
+    public double retryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * @return the maximum number of retries that the retry budget holds
+     */
+    public int retryBudgetCapacity() {
+        return retryBudgetCapacity;
+    }
+
+    public static final class Builder {
+
+        private int initialLimit = DEFAULT_INITIAL_LIMIT;
+        private int minimumLimit = DEFAULT_MINIMUM_LIMIT;
+        private int maximumLimit = DEFAULT_MAXIMUM_LIMIT;
+        private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+        private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+        private int prefixDepth = DEFAULT_PREFIX_DEPTH;
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private Duration retryDelay = DEFAULT_RETRY_DELAY;
+        private Duration maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+        private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+        private int retryBudgetCapacity = DEFAULT_RETRY_BUDGET_CAPACITY;
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minimumLimit(int minimumLimit) {
+            this.minimumLimit = minimumLimit;
+            return this;
+        }
+
+        public Builder maximumLimit(int maximumLimit) {
+            this.maximumLimit = maximumLimit;
+            return this;
+        }
+
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public Builder latencyTolerance(double latencyTolerance) {
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        public Builder prefixDepth(int prefixDepth) {
+            this.prefixDepth = prefixDepth;
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryDelay(Duration retryDelay) {
+            this.retryDelay = retryDelay;
+            return this;
+        }
+
+        public Builder maxRetryDelay(Duration maxRetryDelay) {
+            this.maxRetryDelay = maxRetryDelay;
+            return this;
+        }
+
+        public Builder retryBudgetRatio(double retryBudgetRatio) {
+            this.retryBudgetRatio = retryBudgetRatio;
+            return this;
+        }
+
+        public Builder retryBudgetCapacity(int retryBudgetCapacity) {
+            this.retryBudgetCapacity = retryBudgetCapacity;
+            return this;
+        }
+
+        public GovernorOptions build() {
+            if (minimumLimit <= 0 || maximumLimit < minimumLimit || initialLimit < minimumLimit || initialLimit > maximumLimit) {
+                throw new IllegalArgumentException("Invalid limits: " + initialLimit + " between " + minimumLimit + " and " + maximumLimit);
+            }
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("Invalid backoff ratio: " + backoffRatio);
+            }
+            if (latencyTolerance != 0 && latencyTolerance <= 1) {
+                throw new IllegalArgumentException("Invalid latency tolerance: " + latencyTolerance);
+            }
+            if (prefixDepth < 0) {
+                throw new IllegalArgumentException("Invalid prefix depth: " + prefixDepth);
+            }
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+            }
+            if (retryDelay == null || retryDelay.isNegative() || maxRetryDelay == null || maxRetryDelay.compareTo(retryDelay) < 0) {
+                throw new IllegalArgumentException("Invalid retry delay: " + retryDelay + " up to " + maxRetryDelay);
+            }
+            if (retryBudgetRatio < 0 || retryBudgetCapacity < 0) {
+                throw new IllegalArgumentException("Invalid retry budget: " + retryBudgetRatio + " up to " + retryBudgetCapacity);
+            }
+            return new GovernorOptions(this);
+        }
+    }
+}
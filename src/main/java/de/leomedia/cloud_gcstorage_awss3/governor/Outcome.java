@@ -0,0 +1,74 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import com.google.cloud.storage.StorageException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+
+/**
+ * How a request ended, as far as the {@link RequestGovernor} is concerned.
+ */
+enum Outcome {
+
+    /**
+     * The request succeeded.
+     */
+    SUCCESS,
+
+    /**
+     * The provider asked to slow down, with S3 503 Slow Down or a Cloud Storage 429.
+     */
+    THROTTLED,
+
+    /**
+     * The request failed for a reason that may go away, like a server error or a broken connection.
+     */
+    TRANSIENT,
+
+    /**
+     * The request failed for a reason that a retry does not change, like a missing object or a denied access.
+     */
+    FAILED;
+
+    private static final Set<String> THROTTLING_ERROR_CODES = Set.of(
+            "SlowDown", "Throttling", "ThrottlingException", "RequestLimitExceeded", "TooManyRequests", "RequestThrottled");
+
+    boolean isRetryable() {
+        return this == THROTTLED || this == TRANSIENT;
+    }
+
+    /**
+     * This method classifies the first exception of the cause chain that tells more than that something failed,
+     * so a provider error that a decorator wrapped into an {@link java.io.IOException} is still recognized.
+     * Other {@link java.io.IOException}s are failures of the local file system and are not retried.
+     */
+    static Outcome of(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof S3Exception s3) {
+                String errorCode = s3.awsErrorDetails() != null ? s3.awsErrorDetails().errorCode() : null;
+                if (s3.statusCode() == 429 || s3.statusCode() == 503 || THROTTLING_ERROR_CODES.contains(errorCode)) {
+                    return THROTTLED;
+                }
+                return ofStatus(s3.statusCode());
+            }
+            if (e instanceof StorageException gcs) {
+                if (gcs.getCode() == 429 || gcs.getCode() == 503) {
+                    return THROTTLED;
+                }
+                // the client reports broken connections with code 0
+                return gcs.getCode() == 0 && gcs.isRetryable() ? TRANSIENT : ofStatus(gcs.getCode());
+            }
+            if (e instanceof SdkClientException || e instanceof SocketTimeoutException || e instanceof ConnectException) {
+                return TRANSIENT;
+            }
+        }
+        return FAILED;
+    }
+
+    private static Outcome ofStatus(int statusCode) {
+        return statusCode == 408 || statusCode >= 500 ? TRANSIENT : FAILED;
+    }
+}
@@ -0,0 +1,148 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class runs the requests to a provider with a concurrency limit per bucket and key prefix, and retries them.
+ * <p>
+ * Both providers scale their request rate per prefix and answer with S3 503 Slow Down or a Cloud Storage 429
+ * when a prefix gets more requests than it can take. The {@link AdaptiveLimit} of the prefix finds the highest
+ * number of requests in flight that is not throttled, so a bulk job neither idles nor runs into throttling.
+ * <p>
+ * Requests that were throttled or failed transiently are retried with exponential backoff and full jitter,
+ * as long as the retry budget of their prefix allows, so only requests that may be sent twice can be governed.
+ * Steps that must not be repeated on their own, like completing a multipart upload or composing components,
+ * are retried as a part of the whole operation that repeats every step, not by themselves.
+ * The SDK clients retry a few times on their own, so a request that reaches the governor as throttled
+ * has already been throttled repeatedly.
+ * The limits of all prefixes that were used are kept for the lifetime of the governor.
+ */
+public class RequestGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestGovernor.class);
+
+    private final GovernorOptions options;
+    private final Map<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    /**
+     * A request to the provider.
+     */
+    @FunctionalInterface
+    public interface Request<T> {
+
+        T call() throws IOException;
+    }
+
+    /**
+     * The counters of a governor since it was created.
+     *
+     * @param requests the number of attempts, including retries
+     * @param retries the number of retries
+     * @param throttled the number of attempts that the provider throttled
+     * @param budgetExhausted the number of failed requests that were not retried because the retry budget was used up
+     */
+    public record Stats(long requests, long retries, long throttled, long budgetExhausted) {
+    }
+
+    public RequestGovernor(GovernorOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * This method runs a request within the limit of its bucket and prefix, and retries it if it failed
+     * for a reason that may go away. A request that is retried does not hold its slot while it waits.
+     *
+     * @param bucketName the name of the bucket
+     * @param key the name of the object, whose leading path segments select the limit
+     * @param request the request, which must have the same effect when it is sent twice
+     * @return the result of the request
+     * @throws IOException the exception of the last attempt, with the exceptions of earlier attempts as suppressed exceptions
+     */
+    public <T> T execute(String bucketName, String key, Request<T> request) throws IOException {
+        AdaptiveLimit limit = limits.computeIfAbsent(scope(bucketName, key), scope -> new AdaptiveLimit(options));
+        List<Exception> earlierFailures = new ArrayList<>();
+        for (int attempt = 1; ; attempt++) {
+            long start = limit.acquire();
+            requests.increment();
+            try {
+                T result = request.call();
+                limit.release(start, Outcome.SUCCESS);
+                return result;
+            } catch (IOException | RuntimeException e) {
+                Outcome outcome = Outcome.of(e);
+                limit.release(start, outcome);
+                if (outcome == Outcome.THROTTLED) {
+                    throttled.increment();
+                }
+                if (!outcome.isRetryable() || attempt >= options.maxAttempts()) {
+                    earlierFailures.forEach(e::addSuppressed);
+                    throw e;
+                }
+                if (!limit.tryRetry()) {
+                    budgetExhausted.increment();
+                    logger.warn("Retry budget of {} exhausted, giving up on {}: {}", scope(bucketName, key), key, e.getMessage());
+                    earlierFailures.forEach(e::addSuppressed);
+                    throw e;
+                }
+                earlierFailures.add(e);
+                retries.increment();
+                logger.debug("Attempt {} of {} in bucket {} was {}, retrying: {}", attempt, key, bucketName, outcome, e.getMessage());
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * @return the current limit of requests in flight to the prefix of the key
+     */
+    public int limit(String bucketName, String key) {
+        AdaptiveLimit limit = limits.get(scope(bucketName, key));
+        return limit != null ? limit.limit() : options.initialLimit();
+    }
+
+    public Stats stats() {
+        return new Stats(requests.sum(), retries.sum(), throttled.sum(), budgetExhausted.sum());
+    }
+
+    /**
+     * @return the bucket with the first prefix depth path segments of the key, not counting the name of the object itself
+     */
+    String scope(String bucketName, String key) {
+        int end = 0;
+        for (int depth = 0; depth < options.prefixDepth(); depth++) {
+            int slash = key.indexOf('/', end);
+            if (slash < 0) {
+                break;
+            }
+            end = slash + 1;
+        }
+        return bucketName + "/" + key.substring(0, end);
+    }
+
+    private void backOff(int attempt) throws InterruptedIOException {
+        long maxDelay = Math.min(options.maxRetryDelay().toNanos(),
+                options.retryDelay().toNanos() << Math.min(attempt - 1, 20));
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a retry");
+        }
+    }
+}
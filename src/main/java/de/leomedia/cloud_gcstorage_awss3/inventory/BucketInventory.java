@@ -0,0 +1,272 @@
+package de.leomedia.cloud_gcstorage_awss3.inventory;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * This class keeps a local inventory of the objects below a prefix of a bucket, so a job that scans the bucket
+ * repeatedly reads a local file instead of listing millions of keys every time.
+ * <p>
+ * The inventory is split into segments: one segment for the objects directly below the prefix,
+ * and one for every sub-prefix up to the next "/". A refresh lists the prefix with a "/" delimiter, which yields
+ * the direct objects and the current sub-prefixes, and then lists only the segments that are older than the maximum age,
+ * all of them in parallel. The other segments are copied from the previous inventory file without decoding them.
+ * Segments of sub-prefixes that no longer exist are dropped.
+ * <p>
+ * The inventory is a snapshot: a segment shows the objects at the time it was listed, and objects without
+ * user metadata. The file stores the keys front coded, see {@link InventoryFile}.
+ */
+public class BucketInventory implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketInventory.class);
+
+    private static final String DELIMITER = "/";
+
+    private final CloudStorageService service;
+    private final Path inventoryDirectory;
+    private final ExecutorService executor;
+    private final Duration maximumAge;
+    private final Clock clock;
+
+    private BucketInventory(Builder builder) {
+        this.service = builder.service;
+        this.inventoryDirectory = builder.inventoryDirectory.toAbsolutePath().normalize();
+        this.executor = Executors.newFixedThreadPool(builder.parallelism, new DaemonThreadFactory("inventory-list"));
+        this.maximumAge = builder.maximumAge;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * @param service the service the objects are listed with
+     * @param inventoryDirectory the directory of the inventory files
+     */
+    public static Builder builder(CloudStorageService service, Path inventoryDirectory) {
+        return new Builder(service, inventoryDirectory);
+    }
+
+    /**
+     * This method refreshes the inventory of the prefix with the maximum age of the builder.
+     *
+     * @see #refresh(String, String, Duration)
+     */
+    public InventoryReport refresh(String bucketName, String prefix) throws IOException {
+        return refresh(bucketName, prefix, maximumAge);
+    }
+
+    /**
+     * This method lists the segments of the prefix that are older than the maximum age, or that are not in the inventory yet,
+     * and replaces the inventory file with the new segments and the fresh segments of the previous file.
+     * The objects directly below the prefix are listed every time. Only one refresh runs at a time.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the keys, or an empty string for the whole bucket
+     * @param maximumAge the age up to which a segment is kept, {@link Duration#ZERO} to list all segments
+     * @return the {@link InventoryReport} of the refresh
+     * @throws IOException if a segment cannot be listed or the inventory cannot be written, then the previous inventory is kept
+     */
+    public synchronized InventoryReport refresh(String bucketName, String prefix, Duration maximumAge) throws IOException {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        Path file = inventoryFile(bucketName, prefix);
+        Files.createDirectories(inventoryDirectory);
+
+        Map<String, InventoryFile.Segment> previous = new TreeMap<>();
+        if (Files.exists(file)) {
+            InventoryFile.segments(file).forEach(segment -> previous.put(segment.prefix(), segment));
+        }
+
+        List<Path> temporaryFiles = new ArrayList<>();
+        try {
+            Path rootFile = temporaryFile(file, temporaryFiles);
+            List<String> subPrefixes = new ArrayList<>();
+            InventoryFile.Segment root;
+            try (InventoryFile.SegmentWriter writer = new InventoryFile.SegmentWriter(rootFile)) {
+                String pageToken = null;
+                do {
+                    ListPage page = service.listPage(bucketName, prefix, DELIMITER, pageToken);
+                    for (ObjectInfo object : page.objects()) {
+                        writer.write(object);
+                    }
+                    subPrefixes.addAll(page.prefixes());
+                    pageToken = page.nextPageToken();
+                } while (pageToken != null);
+                root = writer.finish(prefix, now);
+            }
+
+            List<Future<InventoryFile.Segment>> listings = new ArrayList<>();
+            for (String subPrefix : subPrefixes) {
+                InventoryFile.Segment segment = previous.get(subPrefix);
+                if (segment != null && now - segment.listedAt() <= maximumAge.toMillis()) {
+                    listings.add(CompletableFuture.completedFuture(segment));
+                } else {
+                    Path segmentFile = temporaryFile(file, temporaryFiles);
+                    listings.add(executor.submit(() -> listSegment(bucketName, subPrefix, segmentFile, now)));
+                }
+            }
+
+            List<InventoryFile.Segment> segments = new ArrayList<>();
+            segments.add(root);
+            for (Future<InventoryFile.Segment> listing : listings) {
+                segments.add(await(listing, listings));
+            }
+            InventoryFile.write(file, segments);
+
+            int listed = (int) segments.stream().filter(segment -> !segment.source().equals(file)).count();
+            InventoryReport report = new InventoryReport(segments.size(), listed,
+                    segments.stream().mapToLong(InventoryFile.Segment::count).sum(),
+                    segments.stream().mapToLong(InventoryFile.Segment::bytes).sum(),
+                    Files.size(file), Duration.ofNanos(System.nanoTime() - start));
+            logger.info("Refreshed inventory of {} in bucket {}: {} of {} segments listed, {} objects in {} ms", prefix, bucketName,
+                    report.listedSegments(), report.segments(), report.objects(), report.duration().toMillis());
+            return report;
+        } finally {
+            for (Path temporaryFile : temporaryFiles) {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * This method reads the objects of the last refresh while the stream is consumed, segment by segment.
+     * The objects of a segment are in the order of their keys. The stream must be closed.
+     *
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the inventory
+     * @return a lazy stream of the objects without user metadata, which throws an {@link UncheckedIOException}
+     * if the file cannot be read
+     * @throws java.nio.file.NoSuchFileException if the prefix was never refreshed
+     */
+    public Stream<ObjectInfo> objects(String bucketName, String prefix) throws IOException {
+        return InventoryFile.read(inventoryFile(bucketName, prefix));
+    }
+
+    /**
+     * This method stops the threads of the listings.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private InventoryFile.Segment listSegment(String bucketName, String subPrefix, Path segmentFile, long now) throws IOException {
+        try (InventoryFile.SegmentWriter writer = new InventoryFile.SegmentWriter(segmentFile);
+             Stream<ObjectInfo> objects = service.listObjects(bucketName, subPrefix)) {
+            Iterator<ObjectInfo> iterator = objects.iterator();
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+            }
+            return writer.finish(subPrefix, now);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static InventoryFile.Segment await(Future<InventoryFile.Segment> listing, List<Future<InventoryFile.Segment>> listings)
+            throws IOException {
+        try {
+            return listing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listings.forEach(other -> other.cancel(true));
+            throw new InterruptedIOException("Interrupted while listing the segments");
+        } catch (ExecutionException e) {
+            listings.forEach(other -> other.cancel(true));
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Path temporaryFile(Path file, List<Path> temporaryFiles) {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + "." + temporaryFiles.size() + ".segment");
+        temporaryFiles.add(temporaryFile);
+        return temporaryFile;
+    }
+
+    private Path inventoryFile(String bucketName, String prefix) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] id = digest.digest((bucketName + "\n" + prefix).getBytes(StandardCharsets.UTF_8));
+        return inventoryDirectory.resolve(HexFormat.of().formatHex(id, 0, 16) + ".inventory");
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService service;
+        private final Path inventoryDirectory;
+        private int parallelism = 16;
+        private Duration maximumAge = Duration.ofHours(1);
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(CloudStorageService service, Path inventoryDirectory) {
+            this.service = service;
+            this.inventoryDirectory = inventoryDirectory;
+        }
+
+        /**
+         * @param parallelism the number of segments that are listed at the same time
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param maximumAge the age up to which a segment is kept by {@link #refresh(String, String)}
+         */
+        public Builder maximumAge(Duration maximumAge) {
+            this.maximumAge = maximumAge;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public BucketInventory build() {
+            if (service == null || inventoryDirectory == null) {
+                throw new IllegalArgumentException("The service and the inventory directory are required");
+            }
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+            }
+            if (maximumAge == null || maximumAge.isNegative()) {
+                throw new IllegalArgumentException("Invalid maximum age: " + maximumAge);
+            }
+            return new BucketInventory(this);
+        }
+    }
+}
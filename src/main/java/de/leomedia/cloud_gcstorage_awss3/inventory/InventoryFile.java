@@ -0,0 +1,295 @@
+package de.leomedia.cloud_gcstorage_awss3.inventory;
+
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class reads and writes the file of a {@link BucketInventory}.
+ * <p>
+ * The file starts with a magic number and the number of segments. Every segment has a header with its prefix,
+ * the time it was listed, its number of objects, their total size and the length of its entries, followed by the entries.
+ * An entry holds a key as the number of leading bytes it shares with the previous key of its segment and the bytes that differ,
+ * the size and the version, all lengths and numbers as variable length integers. The keys of a segment are listed in order,
+ * so most of a key is shared with the previous one, and an entry of a typical key takes a few dozen bytes.
+ * <p>
+ * A segment can be copied into a new file without decoding it, which is how a refresh keeps the segments that are still fresh.
+ */
+final class InventoryFile {
+
+    private static final int MAGIC = 0x494e5631;
+
+    /**
+     * A segment in a file.
+     *
+     * @param prefix the prefix of the keys of the segment
+     * @param listedAt the time the segment was listed, in milliseconds since the epoch
+     * @param count the number of objects
+     * @param bytes the total size of the objects
+     * @param source the file that holds the entries
+     * @param offset the position of the first entry in the file
+     * @param length the length of the entries
+     */
+    record Segment(String prefix, long listedAt, long count, long bytes, Path source, long offset, long length) {
+    }
+
+    private InventoryFile() {
+    }
+
+    /**
+     * @return the segments of the file in the order they are stored, without reading their entries
+     */
+    static List<Segment> segments(Path file) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an inventory file: " + file);
+            }
+            int segmentCount = header.getInt();
+            long position = 8;
+            for (int i = 0; i < segmentCount; i++) {
+                int prefixLength = read(channel, position, 4).getInt();
+                ByteBuffer fields = read(channel, position + 4, prefixLength + 32);
+                byte[] prefix = new byte[prefixLength];
+                fields.get(prefix);
+                long listedAt = fields.getLong();
+                long count = fields.getLong();
+                long bytes = fields.getLong();
+                long length = fields.getLong();
+                position += 36 + prefixLength;
+                segments.add(new Segment(new String(prefix, StandardCharsets.UTF_8), listedAt, count, bytes, file, position, length));
+                position += length;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * This method writes the segments into a temporary file, forces it to disk and moves it over the file,
+     * so a reader sees either the old or the new inventory.
+     */
+    static void write(Path file, List<Segment> segments) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(8).putInt(MAGIC).putInt(segments.size()).flip());
+            for (Segment segment : segments) {
+                byte[] prefix = segment.prefix().getBytes(StandardCharsets.UTF_8);
+                writeFully(out, ByteBuffer.allocate(36 + prefix.length).putInt(prefix.length).put(prefix).putLong(segment.listedAt())
+                        .putLong(segment.count()).putLong(segment.bytes()).putLong(segment.length()).flip());
+                try (FileChannel in = FileChannel.open(segment.source(), StandardOpenOption.READ)) {
+                    long transferred = 0;
+                    while (transferred < segment.length()) {
+                        long count = in.transferTo(segment.offset() + transferred, segment.length() - transferred, out);
+                        if (count <= 0) {
+                            throw new EOFException("Segment " + segment.prefix() + " of " + segment.source() + " is truncated");
+                        }
+                        transferred += count;
+                    }
+                }
+            }
+            out.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * This method reads the objects of all segments while the stream is consumed. The stream must be closed.
+     */
+    static Stream<ObjectInfo> read(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an inventory file: " + file);
+            }
+            EntryIterator entries = new EntryIterator(in, in.readInt());
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.NONNULL | Spliterator.DISTINCT), false)
+                    .onClose(() -> {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This class writes the front coded entries of one segment into a file of their own.
+     * The objects must be written in the order of their keys to be coded compactly.
+     */
+    static final class SegmentWriter implements Closeable {
+
+        private final Path file;
+        private final DataOutputStream out;
+        private byte[] previous = new byte[0];
+        private long count;
+        private long bytes;
+
+        SegmentWriter(Path file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        }
+
+        void write(ObjectInfo object) throws IOException {
+            byte[] key = object.key().getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int maximum = Math.min(previous.length, key.length);
+            while (shared < maximum && previous[shared] == key[shared]) {
+                shared++;
+            }
+            writeVarLong(out, shared);
+            writeVarLong(out, key.length - shared);
+            out.write(key, shared, key.length - shared);
+            writeVarLong(out, object.size());
+            if (object.version() == null) {
+                writeVarLong(out, 0);
+            } else {
+                byte[] version = object.version().getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, version.length + 1);
+                out.write(version);
+            }
+            previous = key;
+            count++;
+            bytes += object.size();
+        }
+
+        /**
+         * This method closes the writer and returns the segment it wrote.
+         */
+        Segment finish(String prefix, long listedAt) throws IOException {
+            close();
+            return new Segment(prefix, listedAt, count, bytes, file, 0, Files.size(file));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class EntryIterator implements Iterator<ObjectInfo> {
+
+        private final DataInputStream in;
+        private int remainingSegments;
+        private long remainingEntries;
+        private byte[] previous = new byte[0];
+
+        EntryIterator(DataInputStream in, int segmentCount) {
+            this.in = in;
+            this.remainingSegments = segmentCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (remainingEntries == 0 && remainingSegments > 0) {
+                    in.skipNBytes(in.readInt());
+                    in.readLong();
+                    remainingEntries = in.readLong();
+                    in.readLong();
+                    in.readLong();
+                    remainingSegments--;
+                    previous = new byte[0];
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return remainingEntries > 0;
+        }
+
+        @Override
+        public ObjectInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                int shared = (int) readVarLong(in);
+                int suffixLength = (int) readVarLong(in);
+                byte[] key = new byte[shared + suffixLength];
+                System.arraycopy(previous, 0, key, 0, shared);
+                in.readFully(key, shared, suffixLength);
+                long size = readVarLong(in);
+                int versionLength = (int) readVarLong(in);
+                String version = null;
+                if (versionLength > 0) {
+                    byte[] versionBytes = new byte[versionLength - 1];
+                    in.readFully(versionBytes);
+                    version = new String(versionBytes, StandardCharsets.UTF_8);
+                }
+                previous = key;
+                remainingEntries--;
+                return new ObjectInfo(new String(key, StandardCharsets.UTF_8), size, version, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Inventory file is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Inventory file is truncated");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length integer in inventory file");
+    }
+}
@@ -0,0 +1,16 @@
+package de.leomedia.cloud_gcstorage_awss3.inventory;
+
+import java.time.Duration;
+
+/**
+ * This record holds the outcome of one {@link BucketInventory#refresh}.
+ *
+ * @param segments the number of segments of the inventory, including the segment of the objects directly below the prefix
+ * @param listedSegments the number of segments that were listed, the others were fresh and kept from the previous inventory
+ * @param objects the number of objects in the inventory
+ * @param bytes the total size of the objects in the inventory
+ * @param fileSize the size of the inventory file
+ * @param duration the time the refresh took
+ */
+public record InventoryReport(int segments, int listedSegments, long objects, long bytes, long fileSize, Duration duration) {
+}
@@ -0,0 +1,378 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * This class runs a configurable workload against a {@link CloudStorageService} and reports the latency percentiles
+ * and throughput of every operation, so providers and deployments can be compared under the same load.
+ * <p>
+ * Before the run, one local file per object size is written for the uploads, and the seed objects for the downloads
+ * and presigned URLs are uploaded. The workload then runs for the warm-up, which is not recorded, and for the duration,
+ * in a closed or open loop as described in {@link WorkloadOptions}. The latency of every operation is recorded in
+ * an HdrHistogram per operation with microsecond resolution, so the percentiles are exact to three significant digits
+ * no matter how many operations ran. Failed operations are recorded in a histogram of their own, since a fast error
+ * would otherwise lower the percentiles and raise the throughput. In an open loop, an arrival that finds the queue
+ * of waiting operations full is dropped and counted instead of being queued without limit.
+ * Afterwards the objects of the run and the local files are deleted.
+ * <p>
+ * The service can be any implementation, so the same workload runs against S3, Cloud Storage or local stand-ins of them.
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    private static final int PRESIGN_MINUTES = 60;
+
+    private final CloudStorageService service;
+    private final String provider;
+    private final WorkloadOptions options;
+    private final WeightedChoice<LoadOperation> operations;
+    private final WeightedChoice<Long> objectSizes;
+
+    /**
+     * @param service the service the workload runs against
+     * @param provider the name of the provider in the report, e.g. "AWS"
+     * @param options the workload
+     */
+    public LoadGenerator(CloudStorageService service, String provider, WorkloadOptions options) {
+        this.service = service;
+        this.provider = provider;
+        this.options = options;
+        this.operations = new WeightedChoice<>(options.operations());
+        this.objectSizes = new WeightedChoice<>(options.objectSizes());
+    }
+
+    /**
+     * This method prepares the objects, runs the warm-up and the recorded workload and deletes the objects of the run.
+     *
+     * @return the {@link LoadReport} of the recorded operations, failed and dropped operations are counted apart
+     * @throws IOException if the local files or the seed objects cannot be written
+     */
+    public LoadReport run() throws IOException {
+        Run run = new Run(options.keyPrefix() + (options.keyPrefix().isEmpty() || options.keyPrefix().endsWith("/") ? "" : "/")
+                + Long.toHexString(System.currentTimeMillis()) + "/", Files.createTempDirectory("load-"));
+        try {
+            run.writeFiles();
+            if (options.operations().getOrDefault(LoadOperation.DOWNLOAD, 0) > 0
+                    || options.operations().getOrDefault(LoadOperation.PRESIGN, 0) > 0) {
+                run.uploadSeedObjects();
+            }
+            if (!options.warmUp().isZero()) {
+                run.phase(options.warmUp(), new Recording());
+            }
+
+            Recording recording = new Recording();
+            long elapsed = run.phase(options.duration(), recording);
+            LoadReport report = recording.report(elapsed);
+            logger.info("Load test of {} finished:\n{}", provider, report.toTable());
+            return report;
+        } finally {
+            run.cleanUp();
+        }
+    }
+
+    private final class Run {
+
+        private final String keyPrefix;
+        private final Path workDirectory;
+        private final Map<Long, Path> files = new HashMap<>();
+        private final List<SeedObject> seedObjects = new ArrayList<>();
+        private final Queue<String> uploadedKeys = new ConcurrentLinkedQueue<>();
+        private final AtomicLong counter = new AtomicLong();
+
+        private Run(String keyPrefix, Path workDirectory) {
+            this.keyPrefix = keyPrefix;
+            this.workDirectory = workDirectory;
+        }
+
+        /**
+         * The content is random, so neither compression nor deduplication makes the uploads cheaper than real data.
+         */
+        private void writeFiles() throws IOException {
+            SplittableRandom random = new SplittableRandom(options.seed());
+            byte[] buffer = new byte[FILE_BUFFER_SIZE];
+            for (long size : options.objectSizes().keySet()) {
+                Path file = workDirectory.resolve("object-" + size + ".bin");
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    for (long written = 0; written < size; written += buffer.length) {
+                        random.nextBytes(buffer);
+                        out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+                    }
+                }
+                files.put(size, file);
+            }
+        }
+
+        private void uploadSeedObjects() throws IOException {
+            SplittableRandom random = new SplittableRandom(options.seed());
+            for (int i = 0; i < options.seedObjects(); i++) {
+                seedObjects.add(new SeedObject(keyPrefix + "seed-" + i, objectSizes.pick(random)));
+            }
+            forEachParallel(seedObjects, seedObject -> service.uploadObject(options.bucketName(), seedObject.key(),
+                    files.get(seedObject.size()).toString(), options.encryptionKey(), options.storageClass()));
+        }
+
+        /**
+         * This method runs the workload for the given time on a new pool of concurrency workers.
+         * In an open loop, at most the configured number of operations wait for a worker.
+         *
+         * @return the nanoseconds from the start until the last operation completed
+         */
+        private long phase(Duration length, Recording recording) throws IOException {
+            ExecutorService workers = options.isOpenLoop()
+                    ? new ThreadPoolExecutor(options.concurrency(), options.concurrency(), 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(options.maxQueued()), new DaemonThreadFactory("load"))
+                    : Executors.newFixedThreadPool(options.concurrency(), new DaemonThreadFactory("load"));
+            SplittableRandom random = new SplittableRandom(options.seed());
+            long start = System.nanoTime();
+            long end = start + length.toNanos();
+
+            if (options.isOpenLoop()) {
+                // the operations are started on schedule, so a slow provider builds up a queue instead of slowing down the load,
+                // and once the queue is full the arrivals are dropped, so the backlog cannot grow without limit
+                for (long i = 0; ; i++) {
+                    long intendedStart = start + (long) (i * 1_000_000_000d / options.arrivalRate());
+                    if (intendedStart >= end) {
+                        break;
+                    }
+                    long wait;
+                    while ((wait = intendedStart - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    SplittableRandom operationRandom = random.split();
+                    LoadOperation operation = operations.pick(operationRandom);
+                    try {
+                        workers.execute(() -> execute(operation, operationRandom, recording, intendedStart));
+                    } catch (RejectedExecutionException e) {
+                        recording.drop(operation);
+                    }
+                }
+            } else {
+                for (int i = 0; i < options.concurrency(); i++) {
+                    SplittableRandom workerRandom = random.split();
+                    workers.execute(() -> {
+                        while (System.nanoTime() < end) {
+                            execute(operations.pick(workerRandom), workerRandom, recording, System.nanoTime());
+                        }
+                    });
+                }
+            }
+
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    logger.info("Waiting for the operations of the load test to complete");
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Load test was interrupted");
+            }
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * This method runs one operation and records its latency since the given start,
+         * in the histogram of the failed operations if it failed.
+         */
+        private void execute(LoadOperation operation, SplittableRandom random, Recording recording, long start) {
+            long bytes = 0;
+            boolean failed = false;
+            try {
+                switch (operation) {
+                    case UPLOAD -> {
+                        long size = objectSizes.pick(random);
+                        String key = keyPrefix + "object-" + counter.incrementAndGet();
+                        service.uploadObject(options.bucketName(), key, files.get(size).toString(),
+                                options.encryptionKey(), options.storageClass());
+                        uploadedKeys.add(key);
+                        bytes = size;
+                    }
+                    case DOWNLOAD -> {
+                        SeedObject seedObject = seedObjects.get(random.nextInt(seedObjects.size()));
+                        Path target = workDirectory.resolve("download-" + counter.incrementAndGet());
+                        try {
+                            service.downloadObject(options.bucketName(), seedObject.key(), target);
+                        } finally {
+                            Files.deleteIfExists(target);
+                        }
+                        bytes = seedObject.size();
+                    }
+                    case PRESIGN -> {
+                        SeedObject seedObject = seedObjects.get(random.nextInt(seedObjects.size()));
+                        // the providers return null instead of throwing if the URL cannot be signed
+                        URL url = service.getPresignedUrl(options.bucketName(), seedObject.key(), PRESIGN_MINUTES, options.encryptionKey());
+                        if (url == null) {
+                            failed = true;
+                            logger.debug("{} of {} returned no URL", operation, seedObject.key());
+                        }
+                    }
+                    case LIST -> service.listPage(options.bucketName(), keyPrefix, null, null);
+                }
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                logger.debug("{} failed: {}", operation, e.getMessage());
+            }
+            recording.record(operation, System.nanoTime() - start, bytes, failed);
+        }
+
+        /**
+         * This method deletes the objects of the run, if configured, and the local files.
+         */
+        private void cleanUp() {
+            if (options.cleanUp()) {
+                List<String> keys = new ArrayList<>(uploadedKeys);
+                seedObjects.forEach(seedObject -> keys.add(seedObject.key()));
+                try {
+                    forEachParallel(keys, key -> service.deleteObject(options.bucketName(), key));
+                } catch (IOException e) {
+                    logger.warn("Could not delete the objects of the load test below {}: {}", keyPrefix, e.getMessage());
+                }
+            }
+            try (Stream<Path> paths = Files.walk(workDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Could not delete the files of the load test in {}: {}", workDirectory, e.getMessage());
+            }
+        }
+
+        /**
+         * This method applies the consumer to every value on concurrency threads. Every value is tried,
+         * also if others failed, and the first failure is thrown with the others suppressed.
+         */
+        private <T> void forEachParallel(List<T> values, IoConsumer<T> consumer) throws IOException {
+            ExecutorService pool = Executors.newFixedThreadPool(options.concurrency(), new DaemonThreadFactory("load-prepare"));
+            try {
+                List<Future<?>> futures = values.stream().<Future<?>>map(value -> pool.submit(() -> {
+                    consumer.accept(value);
+                    return null;
+                })).toList();
+                IOException failure = null;
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        IOException cause = e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+                        if (failure == null) {
+                            failure = cause;
+                        } else {
+                            failure.addSuppressed(cause);
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Load test was interrupted");
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private final class Recording {
+
+        private final Map<LoadOperation, Recorded> operations = new EnumMap<>(LoadOperation.class);
+
+        private Recording() {
+            for (LoadOperation operation : options.operations().keySet()) {
+                operations.put(operation, new Recorded());
+            }
+        }
+
+        void record(LoadOperation operation, long nanos, long bytes, boolean failed) {
+            Recorded recorded = operations.get(operation);
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (failed) {
+                recorded.errorLatencies.recordValue(micros);
+            } else {
+                recorded.latencies.recordValue(micros);
+                recorded.bytes.add(bytes);
+            }
+        }
+
+        void drop(LoadOperation operation) {
+            operations.get(operation).dropped.increment();
+        }
+
+        LoadReport report(long elapsedNanos) {
+            double seconds = elapsedNanos / 1_000_000_000d;
+            List<OperationStats> stats = new ArrayList<>();
+            operations.forEach((operation, recorded) -> {
+                Histogram latencies = recorded.latencies;
+                Histogram errorLatencies = recorded.errorLatencies;
+                stats.add(new OperationStats(operation, latencies.getTotalCount(), errorLatencies.getTotalCount(),
+                        recorded.dropped.sum(), latencies.getTotalCount() / seconds, recorded.bytes.sum() / 1_000_000d / seconds,
+                        millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+                        millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()), latencies.getMean() / 1000,
+                        millis(errorLatencies.getValueAtPercentile(99))));
+            });
+            return new LoadReport(provider, options.isOpenLoop() ? "open-loop" : "closed-loop", options.concurrency(),
+                    options.arrivalRate(), seconds, stats);
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000d;
+        }
+    }
+
+    private static final class Recorded {
+
+        private final ConcurrentHistogram latencies = new ConcurrentHistogram(3);
+        private final ConcurrentHistogram errorLatencies = new ConcurrentHistogram(3);
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    private record SeedObject(String key, long size) {
+    }
+
+    @FunctionalInterface
+    private interface IoConsumer<T> {
+        void accept(T value) throws IOException;
+    }
+}
@@ -0,0 +1,39 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+
+import java.util.Locale;
+
+/**
+ * This enum lists the operations of a workload, each one call of the {@link CloudStorageService}.
+ */
+public enum LoadOperation {
+
+    /**
+     * {@link CloudStorageService#uploadObject} of a new object with a size of the size distribution
+     */
+    UPLOAD,
+    /**
+     * {@link CloudStorageService#downloadObject} of a random seed object into a temporary file
+     */
+    DOWNLOAD,
+    /**
+     * {@link CloudStorageService#getPresignedUrl} of a random seed object
+     */
+    PRESIGN,
+    /**
+     * {@link CloudStorageService#listPage} of the first page of the objects of the run
+     */
+    LIST;
+
+    /**
+     * @param name the name of an operation in any case, e.g. "upload"
+     */
+    public static LoadOperation parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown operation " + name + ", expected upload, download, presign or list");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This record holds the outcome of one {@link LoadGenerator} run.
+ *
+ * @param provider the provider the workload ran against, e.g. "AWS"
+ * @param mode "closed-loop" or "open-loop"
+ * @param concurrency the number of operations that ran at a time
+ * @param arrivalRate the operations started per second in an open loop, or 0 for a closed loop
+ * @param seconds the time from the start of the recorded operations until the last one completed
+ * @param operations the statistics of every operation of the mix
+ */
+public record LoadReport(String provider, String mode, int concurrency, double arrivalRate, double seconds,
+                         List<OperationStats> operations) {
+
+    private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public LoadReport {
+        operations = List.copyOf(operations);
+    }
+
+    /**
+     * @return the report as JSON, with the statistics of every operation as an element of "operations"
+     */
+    public String toJson() {
+        try {
+            return JSON.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the report as a table with one line per operation
+     */
+    public String toTable() {
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+                "%s %s, concurrency %d%s, %.1f s%n", provider, mode, concurrency,
+                arrivalRate > 0 ? String.format(Locale.ROOT, ", %.1f ops/s offered", arrivalRate) : "", seconds));
+        table.append(String.format(Locale.ROOT, "%-9s %9s %7s %8s %10s %9s %10s %10s %10s %10s %12s%n",
+                "operation", "count", "errors", "dropped", "ops/s", "MB/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "error p99 ms"));
+        for (OperationStats stats : operations) {
+            table.append(String.format(Locale.ROOT, "%-9s %9d %7d %8d %10.1f %9.2f %10.2f %10.2f %10.2f %10.2f %12.2f%n",
+                    stats.operation().name().toLowerCase(Locale.ROOT), stats.count(), stats.errors(), stats.dropped(),
+                    stats.opsPerSecond(), stats.megabytesPerSecond(), stats.p50Millis(), stats.p99Millis(), stats.p999Millis(),
+                    stats.maxMillis(), stats.errorP99Millis()));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+/**
+ * This record holds the recorded latencies and throughput of one operation of a {@link LoadGenerator} run.
+ * The latencies and the throughput only include successful operations, failed ones are counted as errors
+ * and their latencies are recorded apart.
+ *
+ * @param operation the operation
+ * @param count the number of successfully completed operations
+ * @param errors the number of failed operations
+ * @param dropped the number of operations of an open loop that were not started, since the queue of waiting operations was full
+ * @param opsPerSecond the successfully completed operations per second
+ * @param megabytesPerSecond the uploaded or downloaded megabytes (10^6 bytes) per second
+ * @param p50Millis the median latency in milliseconds
+ * @param p99Millis the 99th percentile of the latency in milliseconds
+ * @param p999Millis the 99.9th percentile of the latency in milliseconds
+ * @param maxMillis the highest latency in milliseconds
+ * @param meanMillis the mean latency in milliseconds
+ * @param errorP99Millis the 99th percentile of the latency of the failed operations in milliseconds
+ */
+public record OperationStats(LoadOperation operation, long count, long errors, long dropped, double opsPerSecond,
+                             double megabytesPerSecond, double p50Millis, double p99Millis, double p999Millis, double maxMillis,
+                             double meanMillis, double errorP99Millis) {
+}
@@ -0,0 +1,65 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+/**
+ * This class picks values at random in proportion to their weights, like the operations or object sizes of a workload.
+ */
+final class WeightedChoice<T> {
+
+    private final List<T> values;
+    private final int[] cumulativeWeights;
+
+    WeightedChoice(Map<T, Integer> weights) {
+        this.values = new ArrayList<>(weights.size());
+        this.cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        for (Map.Entry<T, Integer> entry : weights.entrySet()) {
+            total = Math.addExact(total, entry.getValue());
+            cumulativeWeights[values.size()] = total;
+            values.add(entry.getKey());
+        }
+    }
+
+    T pick(SplittableRandom random) {
+        int point = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (point < cumulativeWeights[i]) {
+                return values.get(i);
+            }
+        }
+        throw new IllegalStateException("Weights are not cumulative");
+    }
+
+    /**
+     * This method parses a comma separated list of values with optional weights, e.g. "upload:70,download:30".
+     * A value without weight has the weight 1.
+     *
+     * @param specification the list of values and weights
+     * @param parser the parser of a single value, which throws an {@link IllegalArgumentException} for an invalid value
+     * @return the weights of the values in the order of the list
+     */
+    static <T> Map<T, Integer> parse(String specification, Function<String, T> parser) {
+        Map<T, Integer> weights = new LinkedHashMap<>();
+        for (String entry : specification.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf(':');
+            T value = parser.apply(separator < 0 ? entry.trim() : entry.substring(0, separator).trim());
+            int weight;
+            try {
+                weight = separator < 0 ? 1 : Integer.parseInt(entry.substring(separator + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight in " + entry.trim());
+            }
+            weights.merge(value, weight, Integer::sum);
+        }
+        return weights;
+    }
+}
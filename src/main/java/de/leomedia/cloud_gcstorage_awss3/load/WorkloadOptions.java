@@ -0,0 +1,350 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds the settings of a {@link LoadGenerator} run.
+ * <p>
+ * Every operation is picked at random in proportion to its weight in the operation mix, and every uploaded object
+ * gets a size that is picked at random in proportion to its weight in the object sizes.
+ * <p>
+ * Without an arrival rate, the run is a closed loop: concurrency workers each start the next operation as soon
+ * as their previous one completed, which measures the throughput the provider sustains at that concurrency.
+ * With an arrival rate, the run is an open loop: operations start at a fixed rate no matter how long the previous
+ * ones took, and the latency of an operation is measured from the time it should have started, so the time it
+ * waited for a free worker counts as well. At most the configured number of operations wait for a worker,
+ * further arrivals are dropped and counted, so a provider that cannot keep up does not build up an unbounded backlog.
+ */
+public final class WorkloadOptions {
+
+    public static final String DEFAULT_OPERATIONS = "upload:60,download:30,presign:5,list:5";
+    public static final String DEFAULT_OBJECT_SIZES = "4KiB:50,100KiB:40,8MiB:10";
+    public static final int DEFAULT_CONCURRENCY = 16;
+    public static final Duration DEFAULT_DURATION = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_WARM_UP = Duration.ofSeconds(10);
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+    public static final int DEFAULT_SEED_OBJECTS = 32;
+    public static final String DEFAULT_KEY_PREFIX = "load-test";
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*(B|KB|KIB|MB|MIB|GB|GIB)?");
+
+    private final String bucketName;
+    private final Map<LoadOperation, Integer> operations;
+    private final Map<Long, Integer> objectSizes;
+    private final int concurrency;
+    private final Duration duration;
+    private final Duration warmUp;
+    private final double arrivalRate;
+    private final int maxQueued;
+    private final int seedObjects;
+    private final String keyPrefix;
+    private final String encryptionKey;
+    private final String storageClass;
+    private final boolean cleanUp;
+    private final long seed;
+
+    private WorkloadOptions(Builder builder) {
+        this.bucketName = builder.bucketName;
+        this.operations = Collections.unmodifiableMap(new EnumMap<>(builder.operations));
+        this.objectSizes = Collections.unmodifiableMap(new LinkedHashMap<>(builder.objectSizes));
+        this.concurrency = builder.concurrency;
+        this.duration = builder.duration;
+        this.warmUp = builder.warmUp;
+        this.arrivalRate = builder.arrivalRate;
+        this.maxQueued = builder.maxQueued;
+        this.seedObjects = builder.seedObjects;
+        this.keyPrefix = builder.keyPrefix;
+        this.encryptionKey = builder.encryptionKey;
+        this.storageClass = builder.storageClass;
+        this.cleanUp = builder.cleanUp;
+        this.seed = builder.seed;
+    }
+
+    /**
+     * @param bucketName the bucket the objects of the run are stored in
+     */
+    public static Builder builder(String bucketName) {
+        return new Builder(bucketName);
+    }
+
+    public String bucketName() {
+        return bucketName;
+    }
+
+    /**
+     * @return the weight of every operation in the mix
+     */
+    public Map<LoadOperation, Integer> operations() {
+        return operations;
+    }
+
+    /**
+     * @return the weight of every object size in bytes
+     */
+    public Map<Long, Integer> objectSizes() {
+        return objectSizes;
+    }
+
+    /**
+     * @return the number of operations that run at a time
+     */
+    public int concurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return the time in which operations are started and recorded
+     */
+    public Duration duration() {
+        return duration;
+    }
+
+    /**
+     * @return the time the workload runs before it is recorded, so connections and caches are set up
+     */
+    public Duration warmUp() {
+        return warmUp;
+    }
+
+    /**
+     * @return the operations started per second in an open loop, or 0 for a closed loop
+     */
+    public double arrivalRate() {
+        return arrivalRate;
+    }
+
+    public boolean isOpenLoop() {
+        return arrivalRate > 0;
+    }
+
+    /**
+     * @return the number of operations of an open loop that may wait for a free worker before further arrivals are dropped
+     */
+    public int maxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return the number of objects that are uploaded before the run for the downloads and presigned URLs
+     */
+    public int seedObjects() {
+        return seedObjects;
+    }
+
+    /**
+     * @return the prefix of the keys of the run, which is followed by an id of the run
+     */
+    public String keyPrefix() {
+        return keyPrefix;
+    }
+
+    public String encryptionKey() {
+        return encryptionKey;
+    }
+
+    public String storageClass() {
+        return storageClass;
+    }
+
+    /**
+     * @return true if the objects of the run are deleted afterwards
+     */
+    public boolean cleanUp() {
+        return cleanUp;
+    }
+
+    /**
+     * @return the seed of the random choices, so two runs pick the same operations and sizes
+     */
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * This method parses a size in bytes with an optional unit, e.g. "512", "4KiB" or "8 MB".
+     */
+    static long parseSize(String size) {
+        Matcher matcher = SIZE.matcher(size.trim().toUpperCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid object size " + size + ", expected e.g. 512, 4KiB or 8MB");
+        }
+        long value = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2) == null ? "B" : matcher.group(2);
+        return switch (unit) {
+            case "KB" -> value * 1000;
+            case "KIB" -> value * 1024;
+            case "MB" -> value * 1000 * 1000;
+            case "MIB" -> value * 1024 * 1024;
+            case "GB" -> value * 1000 * 1000 * 1000;
+            case "GIB" -> value * 1024 * 1024 * 1024;
+            default -> value;
+        };
+    }
+
+    public static final class Builder {
+
+        private final String bucketName;
+        private Map<LoadOperation, Integer> operations = WeightedChoice.parse(DEFAULT_OPERATIONS, LoadOperation::parse);
+        private Map<Long, Integer> objectSizes = WeightedChoice.parse(DEFAULT_OBJECT_SIZES, WorkloadOptions::parseSize);
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private Duration duration = DEFAULT_DURATION;
+        private Duration warmUp = DEFAULT_WARM_UP;
+        private double arrivalRate;
+        private int maxQueued = DEFAULT_MAX_QUEUED;
+        private int seedObjects = DEFAULT_SEED_OBJECTS;
+        private String keyPrefix = DEFAULT_KEY_PREFIX;
+        private String encryptionKey;
+        private String storageClass;
+        private boolean cleanUp = true;
+        private long seed = 1;
+
+        private Builder(String bucketName) {
+            this.bucketName = bucketName;
+        }
+
+        /**
+         * @param operations the operations and their weights, e.g. "upload:70,download:20,presign:5,list:5"
+         */
+        public Builder operations(String operations) {
+            this.operations = WeightedChoice.parse(operations, LoadOperation::parse);
+            return this;
+        }
+
+        /**
+         * @param operations the weight of every operation in the mix
+         */
+        public Builder operations(Map<LoadOperation, Integer> operations) {
+            this.operations = new EnumMap<>(operations);
+            return this;
+        }
+
+        /**
+         * @param objectSizes the sizes of the uploaded objects and their weights, e.g. "4KiB:50,100KiB:40,8MiB:10"
+         */
+        public Builder objectSizes(String objectSizes) {
+            this.objectSizes = WeightedChoice.parse(objectSizes, WorkloadOptions::parseSize);
+            return this;
+        }
+
+        /**
+         * @param concurrency the number of operations that run at a time
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param duration the time in which operations are started and recorded
+         */
+        public Builder duration(Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * @param warmUp the time the workload runs before it is recorded
+         */
+        public Builder warmUp(Duration warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * @param arrivalRate the operations started per second in an open loop, or 0 for a closed loop
+         */
+        public Builder arrivalRate(double arrivalRate) {
+            this.arrivalRate = arrivalRate;
+            return this;
+        }
+
+        /**
+         * @param maxQueued the number of operations of an open loop that may wait for a free worker
+         */
+        public Builder maxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        /**
+         * @param seedObjects the number of objects that are uploaded before the run for the downloads and presigned URLs
+         */
+        public Builder seedObjects(int seedObjects) {
+            this.seedObjects = seedObjects;
+            return this;
+        }
+
+        /**
+         * @param keyPrefix the prefix of the keys of the run
+         */
+        public Builder keyPrefix(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+            return this;
+        }
+
+        /**
+         * @param encryptionKey the encryption key generated by SSE KMS
+         */
+        public Builder encryptionKey(String encryptionKey) {
+            this.encryptionKey = encryptionKey;
+            return this;
+        }
+
+        /**
+         * @param storageClass the storage class in which the objects will be stored in S3
+         */
+        public Builder storageClass(String storageClass) {
+            this.storageClass = storageClass;
+            return this;
+        }
+
+        /**
+         * @param cleanUp false to keep the objects of the run
+         */
+        public Builder cleanUp(boolean cleanUp) {
+            this.cleanUp = cleanUp;
+            return this;
+        }
+
+        /**
+         * @param seed the seed of the random choices
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public WorkloadOptions build() {
+            if (bucketName == null || bucketName.isBlank()) {
+                throw new IllegalArgumentException("The bucket name is required");
+            }
+            if (operations.isEmpty() || objectSizes.isEmpty()
+                    || operations.values().stream().anyMatch(weight -> weight < 0)
+                    || objectSizes.values().stream().anyMatch(weight -> weight < 0)
+                    || operations.values().stream().mapToInt(Integer::intValue).sum() == 0
+                    || objectSizes.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+                throw new IllegalArgumentException("The operation mix and the object sizes need positive weights");
+            }
+            if (objectSizes.keySet().stream().anyMatch(size -> size < 0)) {
+                throw new IllegalArgumentException("Invalid object size");
+            }
+            if (concurrency <= 0 || arrivalRate < 0 || maxQueued <= 0 || seedObjects <= 0) {
+                throw new IllegalArgumentException("Invalid concurrency, arrival rate, queue size or number of seed objects");
+            }
+            if (duration == null || duration.isNegative() || duration.isZero() || warmUp == null || warmUp.isNegative()) {
+                throw new IllegalArgumentException("Invalid duration or warm-up");
+            }
+            if (keyPrefix == null) {
+                throw new IllegalArgumentException("The key prefix is required");
+            }
+            return new WorkloadOptions(this);
+        }
+    }
+}
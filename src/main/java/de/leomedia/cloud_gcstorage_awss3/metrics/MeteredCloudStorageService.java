@@ -0,0 +1,445 @@
+package de.leomedia.cloud_gcstorage_awss3.metrics;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A decorator for a {@link CloudStorageService} that records Micrometer metrics of every operation.
+ * <p>
+ * Every meter is tagged with the provider and the operation:
+ * <ul>
+ *     <li>{@value #OPERATION_TIMER}: the latency of each call, tagged with its outcome, with percentiles and a histogram</li>
+ *     <li>{@value #IN_FLIGHT_GAUGE}: the number of calls that are currently running</li>
+ *     <li>{@value #BYTES_COUNTER}: the number of uploaded and downloaded bytes</li>
+ *     <li>{@value #THROUGHPUT_SUMMARY}: the throughput of each transferred object in bytes per second</li>
+ *     <li>{@value #ERRORS_COUNTER}: the failed calls and objects, tagged with the simple name of the exception</li>
+ *     <li>{@value #URLS_COUNTER}: the number of presigned URLs</li>
+ * </ul>
+ * The meters are registered when the decorator is built, so a call only updates existing meters.
+ * If an {@link ObservationRegistry} is set, each call is also observed, which creates a span when a tracer is configured.
+ */
+public class MeteredCloudStorageService implements CloudStorageService {
+
+    public static final String OPERATION_TIMER = "cloud.storage.operation";
+    public static final String IN_FLIGHT_GAUGE = "cloud.storage.in.flight";
+    public static final String BYTES_COUNTER = "cloud.storage.bytes";
+    public static final String THROUGHPUT_SUMMARY = "cloud.storage.throughput";
+    public static final String ERRORS_COUNTER = "cloud.storage.errors";
+    public static final String URLS_COUNTER = "cloud.storage.presigned.urls";
+    public static final String OBSERVATION = "cloud.storage";
+
+    private final CloudStorageService delegate;
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final String provider;
+
+    private final Operation upload;
+    private final Operation bulkUpload;
+    private final Operation download;
+    private final Operation presign;
+    private final Operation bulkPresign;
+    private final Operation range;
+    private final Operation info;
+    private final Operation list;
+    private final Operation copy;
+    private final Operation delete;
+
+    private MeteredCloudStorageService(Builder builder) {
+        this.delegate = builder.delegate;
+        this.meterRegistry = builder.meterRegistry;
+        this.observationRegistry = builder.observationRegistry;
+        this.provider = builder.provider;
+
+        this.upload = new Operation("uploadObject", builder.percentiles);
+        this.bulkUpload = new Operation("uploadObjects", builder.percentiles);
+        this.download = new Operation("downloadObject", builder.percentiles);
+        this.presign = new Operation("getPresignedUrl", builder.percentiles);
+        this.bulkPresign = new Operation("presignAll", builder.percentiles);
+        this.range = new Operation("readRange", builder.percentiles);
+        this.info = new Operation("getObjectInfo", builder.percentiles);
+        this.list = new Operation("listPage", builder.percentiles);
+        this.copy = new Operation("copyObject", builder.percentiles);
+        this.delete = new Operation("deleteObject", builder.percentiles);
+    }
+
+    public static Builder builder(CloudStorageService delegate, MeterRegistry meterRegistry) {
+        return new Builder(delegate, meterRegistry);
+    }
+
+    /**
+     * This method uploads the object as a bulk upload of one object, whose {@link UploadResult} holds the uploaded bytes.
+     */
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        Observation observation = observe(upload, bucketName);
+        long start = upload.begin();
+        try {
+            UploadResult result = delegate.uploadObjects(bucketName, List.of(new UploadSpec(key, file, encryptionKey, storageClass))).get(0);
+            if (result.error() instanceof IOException e) {
+                throw e;
+            }
+            if (result.error() instanceof RuntimeException e) {
+                throw e;
+            }
+            if (result.error() != null) {
+                throw new IOException(result.error());
+            }
+            long nanos = upload.succeeded(start);
+            upload.transferred(result.bytes(), nanos);
+        } catch (IOException | RuntimeException e) {
+            upload.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * This method records the whole call as one operation and every object of it as a transfer or an error.
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        Observation observation = observe(bulkUpload, bucketName);
+        long start = bulkUpload.begin();
+        try {
+            List<UploadResult> results = delegate.uploadObjects(bucketName, uploads);
+            bulkUpload.succeeded(start);
+            for (UploadResult result : results) {
+                if (result.isSuccess()) {
+                    bulkUpload.transferred(result.bytes(), result.latency().toNanos());
+                } else {
+                    bulkUpload.error(result.error());
+                }
+            }
+            return results;
+        } catch (RuntimeException e) {
+            bulkUpload.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        Observation observation = observe(download, bucketName);
+        long start = download.begin();
+        try {
+            delegate.downloadObject(bucketName, key, target);
+            long size = Files.size(target);
+            long nanos = download.succeeded(start);
+            download.transferred(size, nanos);
+        } catch (IOException | RuntimeException e) {
+            download.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        Observation observation = observe(presign, bucketName);
+        long start = presign.begin();
+        try {
+            URL url = delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey);
+            presign.succeeded(start);
+            if (url != null) {
+                presign.urls.increment();
+            }
+            return url;
+        } catch (RuntimeException e) {
+            presign.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        Observation observation = observe(bulkPresign, bucketName);
+        long start = bulkPresign.begin();
+        try {
+            delegate.presignAll(bucketName, keys, minutes, (key, url) -> {
+                if (url != null) {
+                    bulkPresign.urls.increment();
+                }
+                sink.accept(key, url);
+            });
+            bulkPresign.succeeded(start);
+        } catch (RuntimeException e) {
+            bulkPresign.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return readRange(bucketName, key, null, offset, length);
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, String version, long offset, int length) throws IOException {
+        Observation observation = observe(range, bucketName);
+        long start = range.begin();
+        try {
+            byte[] bytes = version == null
+                    ? delegate.readRange(bucketName, key, offset, length)
+                    : delegate.readRange(bucketName, key, version, offset, length);
+            long nanos = range.succeeded(start);
+            range.transferred(bytes.length, nanos);
+            return bytes;
+        } catch (IOException | RuntimeException e) {
+            range.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        Observation observation = observe(info, bucketName);
+        long start = info.begin();
+        try {
+            ObjectInfo objectInfo = delegate.getObjectInfo(bucketName, key);
+            info.succeeded(start);
+            return objectInfo;
+        } catch (IOException | RuntimeException e) {
+            info.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        Observation observation = observe(list, bucketName);
+        long start = list.begin();
+        try {
+            ListPage page = delegate.listPage(bucketName, prefix, delimiter, pageToken);
+            list.succeeded(start);
+            return page;
+        } catch (IOException | RuntimeException e) {
+            list.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * A server-side copy transfers no bytes through the client, so only its latency and errors are recorded.
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        Observation observation = observe(copy, bucketName);
+        long start = copy.begin();
+        try {
+            delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+            copy.succeeded(start);
+        } catch (IOException | RuntimeException e) {
+            copy.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        Observation observation = observe(delete, bucketName);
+        long start = delete.begin();
+        try {
+            delegate.deleteObject(bucketName, key);
+            delete.succeeded(start);
+        } catch (IOException | RuntimeException e) {
+            delete.failed(start, e);
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Returns a started observation, or the no-op observation if no observation registry is set.
+     */
+    private Observation observe(Operation operation, String bucketName) {
+        return Observation.createNotStarted(OBSERVATION, observationRegistry)
+                .lowCardinalityKeyValue("provider", provider)
+                .lowCardinalityKeyValue("operation", operation.name)
+                .highCardinalityKeyValue("bucket", String.valueOf(bucketName))
+                .start();
+    }
+
+    /**
+     * The meters of one operation.
+     */
+    private final class Operation {
+
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Timer succeeded;
+        private final Timer failed;
+        private final Counter bytes;
+        private final DistributionSummary throughput;
+        private final Counter urls;
+
+        Operation(String name, double[] percentiles) {
+            this.name = name;
+            this.succeeded = timer("success", percentiles);
+            this.failed = timer("error", percentiles);
+            this.bytes = Counter.builder(BYTES_COUNTER)
+                    .baseUnit("bytes")
+                    .description("Bytes transferred to the cloud storage")
+                    .tags("provider", provider, "operation", name)
+                    .register(meterRegistry);
+            this.throughput = DistributionSummary.builder(THROUGHPUT_SUMMARY)
+                    .baseUnit("bytes.per.second")
+                    .description("Throughput of each transferred object")
+                    .tags("provider", provider, "operation", name)
+                    .publishPercentiles(percentiles)
+                    .register(meterRegistry);
+            this.urls = Counter.builder(URLS_COUNTER)
+                    .description("Presigned URLs")
+                    .tags("provider", provider, "operation", name)
+                    .register(meterRegistry);
+            Gauge.builder(IN_FLIGHT_GAUGE, inFlight, AtomicInteger::get)
+                    .description("Cloud storage calls that are currently running")
+                    .tags("provider", provider, "operation", name)
+                    .register(meterRegistry);
+        }
+
+        private Timer timer(String outcome, double[] percentiles) {
+            return Timer.builder(OPERATION_TIMER)
+                    .description("Latency of cloud storage calls")
+                    .tags("provider", provider, "operation", name, "outcome", outcome)
+                    .publishPercentiles(percentiles)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        long begin() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        long succeeded(long start) {
+            long nanos = System.nanoTime() - start;
+            inFlight.decrementAndGet();
+            succeeded.record(nanos, TimeUnit.NANOSECONDS);
+            return nanos;
+        }
+
+        void failed(long start, Exception e) {
+            inFlight.decrementAndGet();
+            failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            error(e);
+        }
+
+        void transferred(long size, long nanos) {
+            if (size < 0) {
+                return;
+            }
+            bytes.increment(size);
+            if (nanos > 0) {
+                throughput.record(size * 1e9 / nanos);
+            }
+        }
+
+        /**
+         * Errors are rare, so their counters are looked up per exception type when they happen.
+         */
+        void error(Exception e) {
+            Counter.builder(ERRORS_COUNTER)
+                    .description("Failed cloud storage calls and objects")
+                    .tags("provider", provider, "operation", name, "exception", e == null ? "none" : e.getClass().getSimpleName())
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService delegate;
+        private final MeterRegistry meterRegistry;
+        private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+        private String provider = "";
+        private double[] percentiles = {0.5, 0.95, 0.99};
+
+        private Builder(CloudStorageService delegate, MeterRegistry meterRegistry) {
+            this.delegate = delegate;
+            this.meterRegistry = meterRegistry;
+        }
+
+        /**
+         * @param provider the name of the cloud provider, which tags every meter
+         */
+        public Builder provider(String provider) {
+            this.provider = provider;
+            return this;
+        }
+
+        /**
+         * @param observationRegistry the registry in which every call is observed, for example to trace it
+         */
+        public Builder observationRegistry(ObservationRegistry observationRegistry) {
+            this.observationRegistry = observationRegistry == null ? ObservationRegistry.NOOP : observationRegistry;
+            return this;
+        }
+
+        /**
+         * @param percentiles the percentiles of the latencies and throughputs that are computed in the process
+         */
+        public Builder percentiles(double... percentiles) {
+            this.percentiles = percentiles.clone();
+            return this;
+        }
+
+        public MeteredCloudStorageService build() {
+            if (delegate == null || meterRegistry == null) {
+                throw new IllegalArgumentException("The delegate and the meter registry are required");
+            }
+            for (double percentile : percentiles) {
+                if (percentile < 0 || percentile > 1) {
+                    throw new IllegalArgumentException("Invalid percentile: " + percentile);
+                }
+            }
+            return new MeteredCloudStorageService(this);
+        }
+    }
+}
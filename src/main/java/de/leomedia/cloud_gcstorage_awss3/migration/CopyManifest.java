@@ -0,0 +1,98 @@
+package de.leomedia.cloud_gcstorage_awss3.migration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class records the objects of a migration that were copied, so a migration that is interrupted or
+ * that had failures continues with the objects it did not copy yet.
+ * <p>
+ * Every copied object is appended to the manifest file as a COPIED record with the version of the source object,
+ * so an object that was replaced since it was copied is copied again.
+ */
+final class CopyManifest implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CopyManifest.class);
+
+    private static final String NULL_FIELD = "-";
+
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+    private final FileChannel channel;
+
+    CopyManifest(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        load(file);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return true if the object was copied in this version
+     */
+    boolean isCopied(String key, String version) {
+        String copied = versions.get(key);
+        return copied != null && copied.equals(Objects.requireNonNullElse(version, NULL_FIELD));
+    }
+
+    synchronized void copied(String key, long size, String version) throws IOException {
+        String field = version == null ? NULL_FIELD : encode(version);
+        versions.put(key, version == null ? NULL_FIELD : version);
+        ByteBuffer buffer = ByteBuffer.wrap(("COPIED " + encode(key) + " " + size + " " + field + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String[] fields = line.split(" ", -1);
+                    if ("COPIED".equals(fields[0]) && fields.length == 4) {
+                        versions.put(decode(fields[1]), NULL_FIELD.equals(fields[3]) ? NULL_FIELD : decode(fields[3]));
+                    }
+                } catch (RuntimeException e) {
+                    // the last record may be torn by a crash, its object is copied again
+                    logger.warn("Skipping invalid copy manifest record: {}", line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Base64 never contains a space or a line break, so any key fits into a single field.
+     */
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String field) {
+        return new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,299 @@
+package de.leomedia.cloud_gcstorage_awss3.migration;
+
+import de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * This class copies objects between buckets of S3 and Cloud Storage without staging them in a local file.
+ * <p>
+ * The source object is read in byte ranges, of which up to the window are read concurrently and held in memory.
+ * The ranges are streamed in order into {@link AsyncCloudStorageService#uploadStream} of the target, which sends them
+ * as the parts of a multipart upload to S3 or through a resumable upload to Cloud Storage, with the encryption key
+ * and storage class of the target. The copy keeps the content type, Content-Encoding and user metadata of the source,
+ * and compressed objects are copied as they are stored, without decompressing them.
+ * <p>
+ * Every range is read from the version of the source object that was read before the copy, with an If-Match precondition
+ * on the ETag in S3 or a generation-match precondition in Cloud Storage. If the object is replaced meanwhile, the next range
+ * fails, so the upload is abandoned before the copy is written and the copy is reported as failed.
+ * <p>
+ * A migration copies all objects below a prefix, with up to maxObjects copies at a time, and records every copied
+ * object in a manifest file. A migration with the same manifest skips the objects that were already copied.
+ */
+public class CrossProviderCopier implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrossProviderCopier.class);
+
+    public static final int DEFAULT_RANGE_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_WINDOW = 4;
+    public static final int DEFAULT_MAX_OBJECTS = 8;
+    public static final int DEFAULT_READ_THREADS = 16;
+
+    private final CloudClientRegistry registry;
+    private final int rangeSize;
+    private final int window;
+    private final int maxObjects;
+    private final String encryptionKey;
+    private final String storageClass;
+    private final ExecutorService readExecutor;
+
+    private CrossProviderCopier(Builder builder) {
+        this.registry = builder.registry;
+        this.rangeSize = builder.rangeSize;
+        this.window = builder.window;
+        this.maxObjects = builder.maxObjects;
+        this.encryptionKey = builder.encryptionKey;
+        this.storageClass = builder.storageClass;
+        this.readExecutor = Executors.newFixedThreadPool(builder.readThreads, new DaemonThreadFactory("copy-read"));
+    }
+
+    /**
+     * @param registry the registry with the clients of the source and target providers
+     */
+    public static Builder builder(CloudClientRegistry registry) {
+        return new Builder(registry);
+    }
+
+    /**
+     * This method copies one object from a bucket of the source provider to a bucket of the target provider.
+     *
+     * @param sourceProvider the provider of the source bucket, "AWS" or "GC"
+     * @param sourceBucket the name of the source bucket
+     * @param sourceKey the name of the source object
+     * @param targetProvider the provider of the target bucket, "AWS" or "GC"
+     * @param targetBucket the name of the target bucket
+     * @param targetKey the name of the copy
+     * @return the {@link UploadResult} of the copy with the checksum that the target checked
+     * @throws IOException if the source object does not exist, cannot be read, changed during the copy or cannot be written
+     */
+    public UploadResult copy(String sourceProvider, String sourceBucket, String sourceKey,
+                             String targetProvider, String targetBucket, String targetKey) throws IOException {
+        CloudStorageService source = registry.cloudStorageService(sourceProvider);
+        CloudStorageService target = registry.cloudStorageService(targetProvider);
+        if (source == target && sourceBucket.equals(targetBucket) && sourceKey.equals(targetKey)) {
+            throw new IllegalArgumentException("Object " + sourceKey + " cannot be copied onto itself");
+        }
+        UploadResult result = copy(source, sourceBucket, sourceKey, null, registry.asyncCloudStorageService(targetProvider),
+                targetBucket, targetKey).join();
+        if (!result.isSuccess()) {
+            throw result.error() instanceof IOException ioException ? ioException : new IOException(result.error());
+        }
+        return result;
+    }
+
+    /**
+     * This method copies all objects below a prefix to the same keys in the target bucket, except the objects that
+     * the manifest lists as copied in their current version. Every copied object is added to the manifest.
+     *
+     * @param sourceProvider the provider of the source bucket, "AWS" or "GC"
+     * @param sourceBucket the name of the source bucket
+     * @param prefix the prefix of the keys, or an empty string for all keys
+     * @param targetProvider the provider of the target bucket, "AWS" or "GC"
+     * @param targetBucket the name of the target bucket
+     * @param manifestFile the file that records the copied objects, it is created if it does not exist
+     * @return the {@link MigrationReport} with the failed copies, which are retried by the next migration
+     * @throws IOException if the source bucket cannot be listed or the manifest cannot be written
+     */
+    public MigrationReport migrate(String sourceProvider, String sourceBucket, String prefix,
+                                   String targetProvider, String targetBucket, Path manifestFile) throws IOException {
+        long start = System.nanoTime();
+        CloudStorageService source = registry.cloudStorageService(sourceProvider);
+        CloudStorageService targetService = registry.cloudStorageService(targetProvider);
+        if (source == targetService && sourceBucket.equals(targetBucket)) {
+            throw new IllegalArgumentException("Bucket " + sourceBucket + " cannot be migrated onto itself");
+        }
+        AsyncCloudStorageService target = registry.asyncCloudStorageService(targetProvider);
+
+        LongAdder listed = new LongAdder();
+        LongAdder skipped = new LongAdder();
+        LongAdder copied = new LongAdder();
+        LongAdder copiedBytes = new LongAdder();
+        List<UploadResult> failures = Collections.synchronizedList(new ArrayList<>());
+        Semaphore permits = new Semaphore(maxObjects);
+
+        try (CopyManifest manifest = new CopyManifest(manifestFile);
+             Stream<ObjectInfo> objects = source.listObjects(sourceBucket, prefix == null ? "" : prefix)) {
+            try {
+                objects.forEach(info -> {
+                    listed.increment();
+                    if (manifest.isCopied(info.key(), info.version())) {
+                        skipped.increment();
+                        return;
+                    }
+                    permits.acquireUninterruptibly();
+                    copy(source, sourceBucket, info.key(), info.version(), target, targetBucket, info.key()).thenAccept(result -> {
+                        try {
+                            if (result.isSuccess()) {
+                                manifest.copied(info.key(), result.bytes(), info.version());
+                                copied.increment();
+                                copiedBytes.add(result.bytes());
+                            } else {
+                                logger.warn("Copy of {} of bucket {} failed: {}", info.key(), sourceBucket, result.error().toString());
+                                failures.add(result);
+                            }
+                        } catch (IOException e) {
+                            failures.add(UploadResult.failed(info.key(), e, result.latency()));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                // the manifest is only closed once the running copies recorded their objects
+                permits.acquireUninterruptibly(maxObjects);
+            }
+        }
+
+        MigrationReport report = new MigrationReport(listed.sum(), skipped.sum(), copied.sum(), copiedBytes.sum(),
+                List.copyOf(failures), Duration.ofNanos(System.nanoTime() - start));
+        logger.info("Migrated {} objects of bucket {} to bucket {}: {} copied, {} skipped, {} failed in {} ms", report.listed(),
+                sourceBucket, targetBucket, report.copied(), report.skipped(), report.failures().size(), report.duration().toMillis());
+        return report;
+    }
+
+    /**
+     * This method stops the threads that read the source objects.
+     */
+    @Override
+    public void close() {
+        readExecutor.shutdownNow();
+    }
+
+    /**
+     * This method reads the current metadata of the source object and streams the ranges of this version to the target.
+     *
+     * @param listedVersion the version of the source object in its listing, or null to copy the current version
+     * @return a future with the {@link UploadResult} of the copy, which is failed instead of completed exceptionally
+     */
+    private CompletableFuture<UploadResult> copy(CloudStorageService source, String sourceBucket, String sourceKey, String listedVersion,
+                                                 AsyncCloudStorageService target, String targetBucket, String targetKey) {
+        long start = System.nanoTime();
+
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        ObjectInfo info = source.getObjectInfo(sourceBucket, sourceKey);
+                        if (info == null) {
+                            throw new NoSuchFileException(sourceBucket + "/" + sourceKey);
+                        }
+                        if (listedVersion != null && !listedVersion.equals(info.version())) {
+                            throw new IOException("Object " + sourceKey + " changed since it was listed");
+                        }
+                        return info;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, readExecutor)
+                .thenCompose(info -> target.uploadStream(targetBucket, targetKey,
+                                new RangedContent(source, sourceBucket, sourceKey, info.version(), info.size(), rangeSize, window, readExecutor),
+                                info.size(), encryptionKey, storageClass, info.attributes())
+                        .thenApply(result -> {
+                            logger.debug("Copied {} bytes of {} to {}", result.bytes(), sourceKey, targetKey);
+                            return result;
+                        }))
+                .exceptionally(error -> UploadResult.failed(targetKey, exception(error), Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    private static Exception exception(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException unchecked) {
+            return unchecked.getCause();
+        }
+        return cause instanceof Exception exception ? exception : new IOException(cause);
+    }
+
+    public static final class Builder {
+
+        private final CloudClientRegistry registry;
+        private int rangeSize = DEFAULT_RANGE_SIZE;
+        private int window = DEFAULT_WINDOW;
+        private int maxObjects = DEFAULT_MAX_OBJECTS;
+        private int readThreads = DEFAULT_READ_THREADS;
+        private String encryptionKey;
+        private String storageClass;
+
+        private Builder(CloudClientRegistry registry) {
+            this.registry = registry;
+        }
+
+        /**
+         * @param rangeSize the number of bytes of a source object that are read with one request
+         */
+        public Builder rangeSize(int rangeSize) {
+            this.rangeSize = rangeSize;
+            return this;
+        }
+
+        /**
+         * @param window the maximum number of ranges of one object that are read ahead and held in memory
+         */
+        public Builder window(int window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * @param maxObjects the maximum number of objects that a migration copies at a time
+         */
+        public Builder maxObjects(int maxObjects) {
+            this.maxObjects = maxObjects;
+            return this;
+        }
+
+        /**
+         * @param readThreads the number of threads that read ranges of the source objects
+         */
+        public Builder readThreads(int readThreads) {
+            this.readThreads = readThreads;
+            return this;
+        }
+
+        /**
+         * @param encryptionKey the encryption key of the target, a KMS key of S3 or the kmsKeyName of Cloud Storage
+         */
+        public Builder encryptionKey(String encryptionKey) {
+            this.encryptionKey = encryptionKey;
+            return this;
+        }
+
+        /**
+         * @param storageClass the storage class in which the copies will be stored in S3
+         */
+        public Builder storageClass(String storageClass) {
+            this.storageClass = storageClass;
+            return this;
+        }
+
+        public CrossProviderCopier build() {
+            if (registry == null) {
+                throw new IllegalArgumentException("The registry is required");
+            }
+            if (rangeSize <= 0 || window <= 0 || maxObjects <= 0 || readThreads <= 0) {
+                throw new IllegalArgumentException("Invalid range size, window, maximum number of objects or read threads");
+            }
+            return new CrossProviderCopier(this);
+        }
+    }
+}
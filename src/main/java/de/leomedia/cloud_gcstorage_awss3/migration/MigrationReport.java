@@ -0,0 +1,24 @@
+package de.leomedia.cloud_gcstorage_awss3.migration;
+
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * This record holds the outcome of one {@link CrossProviderCopier#migrate}.
+ *
+ * @param listed the number of source objects below the prefix
+ * @param skipped the number of objects that the manifest lists as copied in the same version
+ * @param copied the number of copied objects
+ * @param copiedBytes the number of copied bytes
+ * @param failures the copies that failed, they are retried by the next migration with the same manifest
+ * @param duration the time the migration took
+ */
+public record MigrationReport(long listed, long skipped, long copied, long copiedBytes,
+                              List<UploadResult> failures, Duration duration) {
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+}
@@ -0,0 +1,180 @@
+package de.leomedia.cloud_gcstorage_awss3.migration;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class publishes the content of one version of an object as consecutive byte ranges that are read concurrently
+ * with {@link CloudStorageService#readRange(String, String, String, long, int)}.
+ * <p>
+ * Up to window ranges are read ahead of the subscriber, so at most window ranges of the object are held in memory,
+ * and the ranges are published in the order of their offsets. A range that is no longer of the version, or that is shorter
+ * than requested, means that the object was replaced during the copy, which fails the content.
+ */
+final class RangedContent implements Publisher<ByteBuffer> {
+
+    private final CloudStorageService source;
+    private final String bucketName;
+    private final String key;
+    private final String version;
+    private final long size;
+    private final int rangeSize;
+    private final int window;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param version the version that every range is read from, or null to read the current version
+     */
+    RangedContent(CloudStorageService source, String bucketName, String key, String version, long size, int rangeSize, int window,
+                  Executor executor) {
+        this.source = source;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.version = version;
+        this.size = size;
+        this.rangeSize = rangeSize;
+        this.window = window;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The ranges of " + key + " are only published once"));
+            return;
+        }
+        RangeSubscription subscription = new RangeSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private final class RangeSubscription implements Subscription {
+
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final ArrayDeque<CompletableFuture<byte[]>> reads = new ArrayDeque<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+
+        private long nextOffset;
+        private boolean done;
+        private volatile boolean cancelled;
+
+        private RangeSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Demand must be positive, but was " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Only one thread reads the queue at a time. A completed read or a request that arrives meanwhile
+         * is picked up by that thread in its next loop.
+         */
+        private void drain() {
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!done) {
+                    emit();
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            while (true) {
+                if (cancelled) {
+                    done = true;
+                    reads.clear();
+                    return;
+                }
+                while (reads.size() < window && nextOffset < size) {
+                    startRead();
+                }
+                CompletableFuture<byte[]> read = reads.peek();
+                if (read == null) {
+                    done = true;
+                    subscriber.onComplete();
+                    return;
+                }
+                if (demand.get() == 0 || !read.isDone()) {
+                    return;
+                }
+
+                reads.poll();
+                byte[] range;
+                try {
+                    range = read.join();
+                } catch (CompletionException e) {
+                    done = true;
+                    reads.clear();
+                    Throwable cause = e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause() : e.getCause();
+                    subscriber.onError(cause);
+                    return;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(ByteBuffer.wrap(range));
+            }
+        }
+
+        private void startRead() {
+            long offset = nextOffset;
+            int length = (int) Math.min(rangeSize, size - offset);
+            nextOffset += length;
+
+            CompletableFuture<byte[]> read = CompletableFuture.supplyAsync(() -> {
+                try {
+                    byte[] range = source.readRange(bucketName, key, version, offset, length);
+                    if (range.length != length) {
+                        throw new IOException("Object " + key + " changed during the copy, the range at " + offset
+                                + " has " + range.length + " instead of " + length + " bytes");
+                    }
+                    return range;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+            reads.add(read);
+            read.whenComplete((range, error) -> drain());
+        }
+    }
+}
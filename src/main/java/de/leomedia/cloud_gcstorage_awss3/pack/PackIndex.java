@@ -0,0 +1,318 @@
+package de.leomedia.cloud_gcstorage_awss3.pack;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps the packed objects to their byte range in a pack and keeps the packs of every bucket.
+ * <p>
+ * Unlike the index of the deduplication, this index is the only place that knows where a packed object is,
+ * so the records of a flushed pack are forced to disk before the uploads of the pack are acknowledged.
+ * Every change is appended to the index file, which is replayed when the index is opened and rewritten
+ * with the current entries once it holds twice as many records as entries.
+ * An index that is lost can be rebuilt from the footers of the packs.
+ */
+final class PackIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackIndex.class);
+
+    private static final String NULL_FIELD = "-";
+
+    private final Path file;
+    private final Map<ObjectId, Location> locations = new ConcurrentHashMap<>();
+    private final Map<ObjectId, Pack> packs = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private int records;
+
+    /**
+     * The byte range of a packed object.
+     *
+     * @param pack the name of the pack object
+     * @param offset the position of the content in the pack
+     * @param length the size of the content
+     * @param checksum the CRC32C of the content
+     * @param metadata the user metadata of the object
+     */
+    record Location(String pack, long offset, long length, long checksum, Map<String, String> metadata) {
+
+        Location {
+            metadata = Map.copyOf(metadata);
+        }
+    }
+
+    /**
+     * A pack object with the settings it was uploaded with, which a compaction applies to the pack that replaces it.
+     */
+    record Pack(String key, long size, String encryptionKey, String storageClass) {
+    }
+
+    record ObjectId(String bucketName, String key) {
+    }
+
+    PackIndex(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        load();
+        rewrite();
+    }
+
+    Location get(String bucketName, String key) {
+        return locations.get(new ObjectId(bucketName, key));
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * @return the packs of the bucket
+     */
+    List<Pack> packs(String bucketName) {
+        return packs.entrySet().stream()
+                .filter(pack -> pack.getKey().bucketName().equals(bucketName))
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    /**
+     * @return the keys of the bucket that are packed into the given pack, with their locations
+     */
+    Map<String, Location> entries(String bucketName, String pack) {
+        Map<String, Location> entries = new TreeMap<>();
+        locations.forEach((id, location) -> {
+            if (id.bucketName().equals(bucketName) && location.pack().equals(pack)) {
+                entries.put(id.key(), location);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @return the packed keys of the bucket that start with the prefix, with their locations
+     */
+    Map<String, Location> keys(String bucketName, String prefix) {
+        Map<String, Location> keys = new TreeMap<>();
+        locations.forEach((id, location) -> {
+            if (id.bucketName().equals(bucketName) && id.key().startsWith(prefix)) {
+                keys.put(id.key(), location);
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * This method records an uploaded pack with all its entries and forces the records to disk.
+     * An entry replaces the location of its key, even if the key was packed before.
+     */
+    synchronized void addPack(String bucketName, Pack pack, List<PackWriter.Entry> entries) throws IOException {
+        StringBuilder batch = new StringBuilder(packRecord(bucketName, pack));
+        packs.put(new ObjectId(bucketName, pack.key()), pack);
+        for (PackWriter.Entry entry : entries) {
+            Location location = new Location(pack.key(), entry.offset(), entry.length(), entry.checksum(), entry.metadata());
+            locations.put(new ObjectId(bucketName, entry.key()), location);
+            batch.append(putRecord(bucketName, entry.key(), location));
+        }
+        append(batch.toString(), entries.size() + 1);
+        channel.force(false);
+    }
+
+    /**
+     * This method records a location only if the key is not packed yet, which is how a restored pack fills the gaps of the index.
+     *
+     * @return true if the location was recorded
+     */
+    synchronized boolean putIfAbsent(String bucketName, String key, Location location) throws IOException {
+        if (locations.putIfAbsent(new ObjectId(bucketName, key), location) != null) {
+            return false;
+        }
+        append(putRecord(bucketName, key, location), 1);
+        return true;
+    }
+
+    synchronized void put(String bucketName, String key, Location location) throws IOException {
+        locations.put(new ObjectId(bucketName, key), location);
+        append(putRecord(bucketName, key, location), 1);
+    }
+
+    /**
+     * This method moves a key only if it still has the expected location, so a compaction never reverts a newer upload.
+     *
+     * @return true if the key was moved
+     */
+    synchronized boolean replace(String bucketName, String key, Location expected, Location location) throws IOException {
+        if (!locations.replace(new ObjectId(bucketName, key), expected, location)) {
+            return false;
+        }
+        append(putRecord(bucketName, key, location), 1);
+        return true;
+    }
+
+    /**
+     * @return the location the key had, or null if it was not packed
+     */
+    synchronized Location remove(String bucketName, String key) throws IOException {
+        Location location = locations.remove(new ObjectId(bucketName, key));
+        if (location != null) {
+            append("DEL " + encode(bucketName) + " " + encode(key) + "\n", 1);
+        }
+        return location;
+    }
+
+    synchronized void addPack(String bucketName, Pack pack) throws IOException {
+        packs.put(new ObjectId(bucketName, pack.key()), pack);
+        append(packRecord(bucketName, pack), 1);
+    }
+
+    /**
+     * This method forgets a deleted pack, but only if no key is packed into it anymore.
+     *
+     * @return true if the pack was forgotten
+     */
+    synchronized boolean dropPack(String bucketName, String pack) throws IOException {
+        if (!entries(bucketName, pack).isEmpty()) {
+            return false;
+        }
+        if (packs.remove(new ObjectId(bucketName, pack)) != null) {
+            append("DROP " + encode(bucketName) + " " + encode(pack) + "\n", 1);
+        }
+        return true;
+    }
+
+    synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String[] fields = line.split(" ", -1);
+                    ObjectId id = new ObjectId(decode(fields[1]), decode(fields[2]));
+                    switch (fields[0]) {
+                        case "PUT" -> locations.put(id, new Location(decode(fields[3]), Long.parseLong(fields[4]),
+                                Long.parseLong(fields[5]), Long.parseLong(fields[6]), decodeMetadata(fields[7])));
+                        case "DEL" -> locations.remove(id);
+                        case "PACK" -> packs.put(id, new Pack(id.key(), Long.parseLong(fields[3]),
+                                decodeNullable(fields[4]), decodeNullable(fields[5])));
+                        case "DROP" -> packs.remove(id);
+                        default -> throw new IllegalArgumentException(fields[0]);
+                    }
+                } catch (RuntimeException e) {
+                    // the last record may be torn by a crash, the uploads of its pack were not acknowledged
+                    logger.warn("Skipping invalid pack index record: {}", line);
+                }
+            }
+        }
+    }
+
+    private void append(String batch, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records += count;
+        if (records > 2 * Math.max(locations.size() + packs.size(), 1_000)) {
+            rewrite();
+        }
+    }
+
+    private void rewrite() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        packs.forEach((id, pack) -> content.append(packRecord(id.bucketName(), pack)));
+        locations.forEach((id, location) -> content.append(putRecord(id.bucketName(), id.key(), location)));
+        Files.writeString(temporary, content, StandardCharsets.UTF_8);
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            out.force(true);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = locations.size() + packs.size();
+    }
+
+    private static String packRecord(String bucketName, Pack pack) {
+        return "PACK " + encode(bucketName) + " " + encode(pack.key()) + " " + pack.size()
+                + " " + encodeNullable(pack.encryptionKey()) + " " + encodeNullable(pack.storageClass()) + "\n";
+    }
+
+    private static String putRecord(String bucketName, String key, Location location) {
+        return "PUT " + encode(bucketName) + " " + encode(key) + " " + encode(location.pack()) + " " + location.offset()
+                + " " + location.length() + " " + location.checksum() + " " + encodeMetadata(location.metadata()) + "\n";
+    }
+
+    private static String encodeMetadata(Map<String, String> metadata) {
+        if (metadata.isEmpty()) {
+            return NULL_FIELD;
+        }
+        StringBuilder field = new StringBuilder();
+        new TreeMap<>(metadata).forEach((name, value) -> {
+            if (!field.isEmpty()) {
+                field.append(',');
+            }
+            field.append(encode(name)).append(':').append(encode(value));
+        });
+        return field.toString();
+    }
+
+    private static Map<String, String> decodeMetadata(String field) {
+        Map<String, String> metadata = new HashMap<>();
+        if (!NULL_FIELD.equals(field)) {
+            for (String pair : field.split(",")) {
+                String[] nameAndValue = pair.split(":", 2);
+                metadata.put(decode(nameAndValue[0]), decode(nameAndValue[1]));
+            }
+        }
+        return metadata;
+    }
+
+    private static String encodeNullable(String value) {
+        return value == null ? NULL_FIELD : encode(value);
+    }
+
+    private static String decodeNullable(String field) {
+        return NULL_FIELD.equals(field) ? null : decode(field);
+    }
+
+    /**
+     * Base64 never contains a space, a comma, a colon or a line break, so any name fits into a single field.
+     */
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String field) {
+        return new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,186 @@
+package de.leomedia.cloud_gcstorage_awss3.pack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * This class writes a pack file: the content of the packed objects back to back, followed by a footer that indexes them.
+ * <pre>
+ * content of every entry
+ * footer:  int count, then per entry: UTF key, long offset, long length, int crc32c,
+ *          int metadata count, then per metadata entry: UTF name, UTF value
+ * trailer: int footer length, int magic "PACK"
+ * </pre>
+ * The footer makes a pack self-describing, so the keys of a pack can be restored from the pack alone
+ * with two ranged reads: the trailer first, then the footer.
+ */
+final class PackWriter implements Closeable {
+
+    static final int MAGIC = 0x5041434B;
+    static final int TRAILER_SIZE = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long size;
+
+    /**
+     * An object of the pack.
+     *
+     * @param key the name of the object
+     * @param offset the position of the content in the pack
+     * @param length the size of the content
+     * @param checksum the CRC32C of the content
+     * @param metadata the user metadata of the object
+     */
+    record Entry(String key, long offset, long length, long checksum, Map<String, String> metadata) {
+
+        Entry {
+            metadata = Map.copyOf(metadata);
+        }
+    }
+
+    PackWriter(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * This method appends the whole file.
+     */
+    Entry append(String key, Path source, Map<String, String> metadata) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ)) {
+            return append(key, sourceChannel, 0, sourceChannel.size(), metadata);
+        }
+    }
+
+    /**
+     * This method appends a region of the source and computes its checksum while it is copied.
+     * If the source cannot be read, the pack is truncated to its previous size, so a failed entry leaves no trace.
+     */
+    Entry append(String key, FileChannel source, long position, long length, Map<String, String> metadata) throws IOException {
+        CRC32C crc = new CRC32C();
+        long offset = size;
+        try {
+            long copied = 0;
+            while (copied < length) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, length - copied));
+                int read = source.read(buffer, position + copied);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + key + " after " + copied + " of " + length + " bytes");
+                }
+                buffer.flip();
+                crc.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + copied + buffer.position());
+                }
+                copied += read;
+            }
+        } catch (IOException e) {
+            channel.truncate(offset);
+            throw e;
+        }
+
+        Entry entry = new Entry(key, offset, length, crc.getValue(), metadata);
+        entries.add(entry);
+        size += length;
+        return entry;
+    }
+
+    /**
+     * This method writes the footer and the trailer and closes the file.
+     */
+    void finish() throws IOException {
+        ByteArrayOutputStream footer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(footer);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.key());
+            out.writeLong(entry.offset());
+            out.writeLong(entry.length());
+            out.writeInt((int) entry.checksum());
+            out.writeInt(entry.metadata().size());
+            for (Map.Entry<String, String> metadata : entry.metadata().entrySet()) {
+                out.writeUTF(metadata.getKey());
+                out.writeUTF(metadata.getValue());
+            }
+        }
+        out.writeInt(footer.size());
+        out.writeInt(MAGIC);
+
+        ByteBuffer tail = ByteBuffer.wrap(footer.toByteArray());
+        while (tail.hasRemaining()) {
+            channel.write(tail, size + tail.position());
+        }
+        channel.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param trailer the last {@link #TRAILER_SIZE} bytes of a pack
+     * @return the length of the footer without the trailer
+     * @throws IOException if the bytes are not the trailer of a pack
+     */
+    static int footerLength(byte[] trailer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(trailer);
+        if (trailer.length != TRAILER_SIZE || buffer.getInt(4) != MAGIC) {
+            throw new IOException("Not a pack");
+        }
+        return buffer.getInt(0);
+    }
+
+    /**
+     * @param footer the footer of a pack without the trailer
+     * @return the entries of the pack
+     */
+    static List<Entry> readFooter(byte[] footer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long offset = in.readLong();
+            long length = in.readLong();
+            long checksum = Integer.toUnsignedLong(in.readInt());
+            int metadataCount = in.readInt();
+            Map<String, String> metadata = new LinkedHashMap<>();
+            for (int j = 0; j < metadataCount; j++) {
+                metadata.put(in.readUTF(), in.readUTF());
+            }
+            entries.add(new Entry(key, offset, length, checksum, metadata));
+        }
+        return entries;
+    }
+}
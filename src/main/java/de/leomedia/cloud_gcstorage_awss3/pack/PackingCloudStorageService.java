@@ -0,0 +1,757 @@
+package de.leomedia.cloud_gcstorage_awss3.pack;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link CloudStorageService} decorator that packs small files into larger pack objects,
+ * so thousands of small uploads cost a handful of requests.
+ * <p>
+ * Files up to the pack threshold are appended to an open pack of their bucket, encryption key and storage class
+ * in the staging directory. A pack is uploaded once it reaches its maximum size or entry count, once its oldest
+ * entry waited for the maximum delay, or at the end of an {@link #uploadObjects} batch. An upload returns when
+ * its pack is stored and indexed, so concurrent uploads share a pack like the writes of a group commit.
+ * Larger files are passed to the delegate unchanged.
+ * <p>
+ * The {@link PackIndex} maps every packed key to its byte range, which downloads and metadata reads resolve locally
+ * and read with a single ranged request. Copies of packed objects only add an index entry, and deletes only remove one.
+ * {@link #compact} rewrites packs whose live content dropped below the minimum live ratio, and deletes empty ones.
+ * Packed objects have no URL of their own, {@link #presignRange} signs the URL of their pack together with their range.
+ */
+public class PackingCloudStorageService implements CloudStorageService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackingCloudStorageService.class);
+
+    public static final long DEFAULT_PACK_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_MAXIMUM_PACK_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAXIMUM_PACK_ENTRIES = 10_000;
+    public static final Duration DEFAULT_MAXIMUM_DELAY = Duration.ofMillis(50);
+    public static final String DEFAULT_PACK_PREFIX = ".packs/";
+    public static final double DEFAULT_MINIMUM_LIVE_RATIO = 0.5;
+
+    private final CloudStorageService delegate;
+    private final Path stagingDirectory;
+    private final PackIndex index;
+    private final long packThreshold;
+    private final long maximumPackSize;
+    private final int maximumPackEntries;
+    private final long maximumDelayNanos;
+    private final String packPrefix;
+    private final double minimumLiveRatio;
+
+    private final Map<PackTarget, OpenPack> openPacks = new HashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService flusher;
+    private final Object compactionLock = new Object();
+    private boolean closed;
+
+    /**
+     * The packs of a bucket are separated by the encryption key and storage class of their uploads.
+     */
+    private record PackTarget(String bucketName, String encryptionKey, String storageClass) {
+    }
+
+    /**
+     * A pack that still accepts entries, with the future that completes when it is uploaded and indexed.
+     */
+    private static final class OpenPack {
+
+        final PackTarget target;
+        final String key;
+        final PackWriter writer;
+        final long created = System.nanoTime();
+        final CompletableFuture<Void> flushed = new CompletableFuture<>();
+
+        OpenPack(PackTarget target, String key, PackWriter writer) {
+            this.target = target;
+            this.key = key;
+            this.writer = writer;
+        }
+    }
+
+    private PackingCloudStorageService(Builder builder) throws IOException {
+        this.delegate = builder.delegate;
+        this.stagingDirectory = Files.createDirectories(builder.stagingDirectory);
+        this.index = new PackIndex(builder.indexFile != null ? builder.indexFile : stagingDirectory.resolve("pack.index"));
+        this.packThreshold = builder.packThreshold;
+        this.maximumPackSize = builder.maximumPackSize;
+        this.maximumPackEntries = builder.maximumPackEntries;
+        this.maximumDelayNanos = builder.maximumDelay.toNanos();
+        this.packPrefix = builder.packPrefix;
+        this.minimumLiveRatio = builder.minimumLiveRatio;
+
+        this.flusher = Executors.newFixedThreadPool(builder.flushConcurrency, new DaemonThreadFactory("pack-flush"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("pack-timer"));
+        long period = Math.max(1_000_000, maximumDelayNanos / 2);
+        timer.scheduleWithFixedDelay(this::flushExpired, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public static Builder builder(CloudStorageService delegate, Path stagingDirectory) {
+        return new Builder(delegate, stagingDirectory);
+    }
+
+    /**
+     * This method packs a small file and waits until its pack is stored, larger files are uploaded by the delegate.
+     * A single caller waits up to the maximum delay for every small file, so many files should be uploaded
+     * with {@link #uploadObjects} or from several threads.
+     */
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        Path path = Paths.get(file);
+        if (Files.size(path) > packThreshold) {
+            delegate.uploadObject(bucketName, key, file, encryptionKey, storageClass);
+            unpack(bucketName, key);
+            return;
+        }
+        await(append(new PackTarget(bucketName, encryptionKey, storageClass), key, path, Map.of()));
+        logger.info("File {} packed into bucket {} as {}", file, bucketName, key);
+    }
+
+    /**
+     * This method packs the small files of the batch, uploads their packs right away and uploads the larger files
+     * with one call of the delegate. A file that cannot be read fails alone, a pack that cannot be uploaded fails all its files.
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        long start = System.nanoTime();
+        List<UploadSpec> specs = List.copyOf(uploads);
+        UploadResult[] results = new UploadResult[specs.size()];
+        Map<Integer, CompletableFuture<Void>> packed = new LinkedHashMap<>();
+        Map<Integer, Long> sizes = new HashMap<>();
+        List<Integer> large = new ArrayList<>();
+
+        for (int i = 0; i < specs.size(); i++) {
+            UploadSpec upload = specs.get(i);
+            try {
+                Path path = Paths.get(upload.file());
+                long size = Files.size(path);
+                if (size > packThreshold) {
+                    large.add(i);
+                } else {
+                    sizes.put(i, size);
+                    packed.put(i, append(new PackTarget(bucketName, upload.encryptionKey(), upload.storageClass()),
+                            upload.key(), path, upload.metadata()));
+                }
+            } catch (IOException | RuntimeException e) {
+                results[i] = UploadResult.failed(upload.key(), e, Duration.ofNanos(System.nanoTime() - start));
+            }
+        }
+        if (!packed.isEmpty()) {
+            flushAll(bucketName);
+        }
+
+        if (!large.isEmpty()) {
+            List<UploadResult> delegated = delegate.uploadObjects(bucketName, large.stream().map(specs::get).toList());
+            for (int i = 0; i < large.size(); i++) {
+                UploadResult result = delegated.get(i);
+                if (result.isSuccess()) {
+                    try {
+                        unpack(bucketName, result.key());
+                    } catch (IOException e) {
+                        result = UploadResult.failed(result.key(), e, result.latency());
+                    }
+                }
+                results[large.get(i)] = result;
+            }
+        }
+
+        packed.forEach((i, flushed) -> {
+            String key = specs.get(i).key();
+            try {
+                await(flushed);
+                results[i] = UploadResult.succeeded(key, sizes.get(i), Duration.ofNanos(System.nanoTime() - start));
+            } catch (IOException e) {
+                results[i] = UploadResult.failed(key, e, Duration.ofNanos(System.nanoTime() - start));
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * This method presigns objects that are not packed with the delegate. A packed object has no URL of its own,
+     * because its content is only a range of its pack, so {@link #presignRange} has to be used instead.
+     *
+     * @return the signed {@link URL}, or null if the object is packed or could not be signed, like {@link #presignAll} passes it
+     */
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        if (index.get(bucketName, key) != null) {
+            logger.warn("Object {} of bucket {} is packed, its URL needs the range that presignRange returns", key, bucketName);
+            return null;
+        }
+        return delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey);
+    }
+
+    /**
+     * This method passes packed objects to the sink with a null URL, like keys that could not be signed,
+     * and presigns all other keys with the delegate.
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        Iterable<String> unpackedKeys = () -> new Iterator<>() {
+            private final Iterator<String> iterator = keys.iterator();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    String key = iterator.next();
+                    if (index.get(bucketName, key) == null) {
+                        next = key;
+                    } else {
+                        sink.accept(key, null);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String key = next;
+                next = null;
+                return key;
+            }
+        };
+        delegate.presignAll(bucketName, unpackedKeys, minutes, sink);
+    }
+
+    /**
+     * This method generates a presigned URL for an object that may be packed.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param minutes given timestamp in minutes in which the url is valid
+     * @param encryptionKey given encryption key for decrypting objects
+     * @return the URL of the pack with the range of the object, or the URL of the object without a range if it is not packed
+     */
+    public RangedUrl presignRange(String bucketName, String key, Integer minutes, String encryptionKey) {
+        PackIndex.Location location = index.get(bucketName, key);
+        if (location == null) {
+            return new RangedUrl(delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey), null);
+        }
+        return new RangedUrl(delegate.getPresignedUrl(bucketName, location.pack(), minutes, encryptionKey),
+                "bytes=" + location.offset() + "-" + (location.offset() + location.length() - 1));
+    }
+
+    /**
+     * This method reads a packed object with one ranged request of its pack and verifies it against its CRC32C.
+     * Objects that are not packed are downloaded by the delegate.
+     */
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        PackIndex.Location location = index.get(bucketName, key);
+        if (location == null) {
+            delegate.downloadObject(bucketName, key, target);
+            return;
+        }
+        byte[] content = read(bucketName, key, location);
+        if (target.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+        }
+        Files.write(target, content);
+        logger.info("Object {} of bucket {} downloaded from pack {} to {}", key, bucketName, location.pack(), target);
+    }
+
+    /**
+     * This method reads the range inside the range of a packed object, or of an object that is not packed.
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        PackIndex.Location location = index.get(bucketName, key);
+        if (location == null) {
+            return delegate.readRange(bucketName, key, offset, length);
+        }
+        if (offset >= location.length()) {
+            return new byte[0];
+        }
+        return delegate.readRange(bucketName, location.pack(), location.offset() + offset,
+                (int) Math.min(length, location.length() - offset));
+    }
+
+    /**
+     * The version of a packed object is its pack and offset, which changes whenever the object is packed again.
+     */
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        PackIndex.Location location = index.get(bucketName, key);
+        if (location == null) {
+            return delegate.getObjectInfo(bucketName, key);
+        }
+        return new ObjectInfo(key, location.length(), location.pack() + "#" + location.offset(), location.metadata());
+    }
+
+    /**
+     * This method lists the packed keys below the prefix on the first page, together with the first page of the delegate.
+     * The packs themselves and the keys of the delegate that are packed now are left out.
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        List<ObjectInfo> packed = new ArrayList<>();
+        index.keys(bucketName, prefix).forEach((key, location) ->
+                packed.add(new ObjectInfo(key, location.length(), location.pack() + "#" + location.offset(), null)));
+        ListPage page = delegate.listPage(bucketName, prefix, delimiter, pageToken);
+        ListPage withoutPacks = new ListPage(page.objects(),
+                page.prefixes().stream().filter(commonPrefix -> !commonPrefix.startsWith(packPrefix)).toList(),
+                page.nextPageToken());
+        return withoutPacks.merge(prefix, delimiter, pageToken == null, packed,
+                key -> key.startsWith(packPrefix) || index.get(bucketName, key) != null);
+    }
+
+    /**
+     * This method copies a packed object by indexing its range under the target key, without any request.
+     * The copy stays in the pack of the source, with its encryption key and storage class.
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        PackIndex.Location location = index.get(bucketName, sourceKey);
+        if (location != null) {
+            index.put(bucketName, targetKey, location);
+            index.force();
+            logger.info("Packed object {} of bucket {} copied to {}", sourceKey, bucketName, targetKey);
+            return;
+        }
+        delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+        unpack(bucketName, targetKey);
+    }
+
+    /**
+     * This method removes a packed object from the index and deletes the object with the same key from the delegate,
+     * which an upload before the object was packed may have left. The content stays in its pack until {@link #compact}.
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        if (index.remove(bucketName, key) != null) {
+            index.force();
+        }
+        delegate.deleteObject(bucketName, key);
+    }
+
+    /**
+     * This method rewrites the packs of the bucket whose live objects take less than the minimum live ratio of the pack,
+     * and deletes packs without live objects. A rewritten pack is downloaded once, its live objects are packed again
+     * with the encryption key and storage class of the pack, and it is deleted once no key points into it anymore.
+     *
+     * @param bucketName the name of a bucket
+     * @return the number of packs that were rewritten or deleted
+     * @throws IOException if a pack could not be read, written or deleted
+     */
+    public int compact(String bucketName) throws IOException {
+        synchronized (compactionLock) {
+            int compacted = 0;
+            for (PackIndex.Pack pack : index.packs(bucketName)) {
+                Map<String, PackIndex.Location> entries = index.entries(bucketName, pack.key());
+                // copies share the range of their source, which counts only once
+                Map<Long, Long> ranges = new HashMap<>();
+                entries.values().forEach(location -> ranges.put(location.offset(), location.length()));
+                long liveBytes = ranges.values().stream().mapToLong(Long::longValue).sum();
+
+                if (!entries.isEmpty() && liveBytes >= minimumLiveRatio * pack.size()) {
+                    continue;
+                }
+                if (!entries.isEmpty()) {
+                    rewrite(bucketName, pack, entries);
+                }
+                if (index.entries(bucketName, pack.key()).isEmpty()) {
+                    delegate.deleteObject(bucketName, pack.key());
+                    index.dropPack(bucketName, pack.key());
+                    index.force();
+                }
+                compacted++;
+            }
+            logger.info("Compacted {} packs of bucket {}", compacted, bucketName);
+            return compacted;
+        }
+    }
+
+    /**
+     * This method restores the index entries of a pack from its footer, for keys that are not packed elsewhere.
+     * It rebuilds the index after the index file was lost, given the names of the packs.
+     *
+     * @param bucketName the name of a bucket
+     * @param packKey the name of the pack object
+     * @return the number of restored keys
+     * @throws IOException if the pack does not exist or is not a pack
+     */
+    public int restore(String bucketName, String packKey) throws IOException {
+        ObjectInfo info = delegate.getObjectInfo(bucketName, packKey);
+        if (info == null) {
+            throw new NoSuchFileException(packKey);
+        }
+        int footerLength = PackWriter.footerLength(delegate.readRange(bucketName, packKey,
+                info.size() - PackWriter.TRAILER_SIZE, PackWriter.TRAILER_SIZE));
+        long footerOffset = info.size() - PackWriter.TRAILER_SIZE - footerLength;
+        List<PackWriter.Entry> entries = PackWriter.readFooter(delegate.readRange(bucketName, packKey, footerOffset, footerLength));
+
+        index.addPack(bucketName, new PackIndex.Pack(packKey, footerOffset, null, null));
+        int restored = 0;
+        for (PackWriter.Entry entry : entries) {
+            if (index.putIfAbsent(bucketName, entry.key(), new PackIndex.Location(packKey, entry.offset(), entry.length(),
+                    entry.checksum(), entry.metadata()))) {
+                restored++;
+            }
+        }
+        index.force();
+        logger.info("Restored {} of {} keys from pack {} of bucket {}", restored, entries.size(), packKey, bucketName);
+        return restored;
+    }
+
+    /**
+     * This method uploads all open packs of the bucket now, instead of when they are full or expired.
+     */
+    public void flushAll(String bucketName) {
+        List<OpenPack> sealed = new ArrayList<>();
+        synchronized (this) {
+            openPacks.values().removeIf(pack -> {
+                if (pack.target.bucketName().equals(bucketName)) {
+                    sealed.add(pack);
+                    return true;
+                }
+                return false;
+            });
+        }
+        sealed.forEach(this::submitFlush);
+    }
+
+    /**
+     * @return the number of packed objects in the index
+     */
+    public int packedObjects() {
+        return index.size();
+    }
+
+    /**
+     * This method uploads the open packs, waits for all uploads and closes the index.
+     */
+    @Override
+    public void close() throws IOException {
+        List<OpenPack> sealed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            sealed = new ArrayList<>(openPacks.values());
+            openPacks.clear();
+        }
+        timer.shutdownNow();
+        sealed.forEach(this::submitFlush);
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Packs were still uploading when the packing service was closed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        index.close();
+    }
+
+    /**
+     * This method appends the file to the open pack of the target and seals the pack if it is full.
+     *
+     * @return the future that completes when the pack is uploaded and indexed
+     */
+    private CompletableFuture<Void> append(PackTarget target, String key, Path file, Map<String, String> metadata) throws IOException {
+        OpenPack sealed = null;
+        CompletableFuture<Void> flushed;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The packing service is closed");
+            }
+            OpenPack pack = openPacks.get(target);
+            if (pack == null) {
+                String id = UUID.randomUUID().toString();
+                pack = new OpenPack(target, packPrefix + String.format("%013x", System.currentTimeMillis()) + "-" + id + ".pack",
+                        new PackWriter(stagingDirectory.resolve(id + ".pack")));
+                openPacks.put(target, pack);
+            }
+            pack.writer.append(key, file, metadata);
+            flushed = pack.flushed;
+            if (pack.writer.size() >= maximumPackSize || pack.writer.entries().size() >= maximumPackEntries) {
+                openPacks.remove(target);
+                sealed = pack;
+            }
+        }
+        if (sealed != null) {
+            submitFlush(sealed);
+        }
+        return flushed;
+    }
+
+    private void flushExpired() {
+        List<OpenPack> sealed = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            openPacks.values().removeIf(pack -> {
+                if (now - pack.created >= maximumDelayNanos) {
+                    sealed.add(pack);
+                    return true;
+                }
+                return false;
+            });
+        }
+        sealed.forEach(this::submitFlush);
+    }
+
+    private void submitFlush(OpenPack pack) {
+        flusher.execute(() -> flush(pack));
+    }
+
+    /**
+     * This method uploads a sealed pack with the delegate and indexes its entries, then completes the waiting uploads.
+     */
+    private void flush(OpenPack pack) {
+        PackTarget target = pack.target;
+        try {
+            pack.writer.finish();
+            long size = pack.writer.size();
+            UploadResult result = delegate.uploadObjects(target.bucketName(), List.of(new UploadSpec(pack.key,
+                    pack.writer.file().toString(), target.encryptionKey(), target.storageClass()).withoutCompression())).get(0);
+            if (!result.isSuccess()) {
+                throw result.error();
+            }
+            index.addPack(target.bucketName(), new PackIndex.Pack(pack.key, size, target.encryptionKey(), target.storageClass()),
+                    pack.writer.entries());
+            pack.flushed.complete(null);
+            logger.info("Pack {} with {} objects ({} bytes) uploaded to bucket {}", pack.key, pack.writer.entries().size(),
+                    size, target.bucketName());
+        } catch (Exception e) {
+            logger.error("Could not upload pack {} to bucket {}: {}", pack.key, target.bucketName(), e.getMessage());
+            pack.flushed.completeExceptionally(e);
+        } finally {
+            try {
+                pack.writer.close();
+                Files.deleteIfExists(pack.writer.file());
+            } catch (IOException e) {
+                logger.warn("Could not delete pack file {}: {}", pack.writer.file(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method packs the live objects of a pack into a new pack and moves their keys, unless they changed in the meantime.
+     * Keys that share a range, because one is a copy of the other, keep sharing it.
+     */
+    private void rewrite(String bucketName, PackIndex.Pack pack, Map<String, PackIndex.Location> entries) throws IOException {
+        Path copy = Files.createTempFile(stagingDirectory, "compact-", ".tmp");
+        String id = UUID.randomUUID().toString();
+        String packKey = packPrefix + String.format("%013x", System.currentTimeMillis()) + "-" + id + ".pack";
+        try (PackWriter writer = new PackWriter(stagingDirectory.resolve(id + ".pack"))) {
+            delegate.downloadObject(bucketName, pack.key(), copy);
+
+            Map<Long, PackWriter.Entry> copied = new HashMap<>();
+            Map<String, PackWriter.Entry> moved = new LinkedHashMap<>();
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+                for (Map.Entry<String, PackIndex.Location> entry : entries.entrySet()) {
+                    PackIndex.Location location = entry.getValue();
+                    PackWriter.Entry packed = copied.get(location.offset());
+                    if (packed == null) {
+                        packed = writer.append(entry.getKey(), channel, location.offset(), location.length(), location.metadata());
+                        copied.put(location.offset(), packed);
+                    }
+                    moved.put(entry.getKey(), packed);
+                }
+            }
+            writer.finish();
+
+            long size = writer.size();
+            UploadResult result = delegate.uploadObjects(bucketName, List.of(new UploadSpec(packKey, writer.file().toString(),
+                    pack.encryptionKey(), pack.storageClass()).withoutCompression())).get(0);
+            if (!result.isSuccess()) {
+                throw result.error() instanceof IOException io ? io : new IOException(result.error());
+            }
+            index.addPack(bucketName, new PackIndex.Pack(packKey, size, pack.encryptionKey(), pack.storageClass()));
+            for (Map.Entry<String, PackWriter.Entry> entry : moved.entrySet()) {
+                PackWriter.Entry packed = entry.getValue();
+                PackIndex.Location location = entries.get(entry.getKey());
+                index.replace(bucketName, entry.getKey(), location, new PackIndex.Location(packKey, packed.offset(), packed.length(),
+                        location.checksum(), location.metadata()));
+            }
+            index.force();
+            logger.info("Pack {} of bucket {} rewritten to {} with {} objects", pack.key(), bucketName, packKey, moved.size());
+        } finally {
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(stagingDirectory.resolve(id + ".pack"));
+        }
+    }
+
+    /**
+     * This method reads the range of a packed object and verifies its length and checksum.
+     */
+    private byte[] read(String bucketName, String key, PackIndex.Location location) throws IOException {
+        byte[] content = delegate.readRange(bucketName, location.pack(), location.offset(), (int) location.length());
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        if (content.length != location.length() || crc.getValue() != location.checksum()) {
+            throw new IOException("Packed object " + key + " of bucket " + bucketName + " does not match its checksum");
+        }
+        return content;
+    }
+
+    /**
+     * This method forgets the packed version of a key that the delegate stored as an object of its own.
+     */
+    private void unpack(String bucketName, String key) throws IOException {
+        if (index.remove(bucketName, key) != null) {
+            index.force();
+        }
+    }
+
+    private static void await(CompletableFuture<Void> flushed) throws IOException {
+        try {
+            flushed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pack upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause);
+        }
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService delegate;
+        private final Path stagingDirectory;
+        private Path indexFile;
+        private long packThreshold = DEFAULT_PACK_THRESHOLD;
+        private long maximumPackSize = DEFAULT_MAXIMUM_PACK_SIZE;
+        private int maximumPackEntries = DEFAULT_MAXIMUM_PACK_ENTRIES;
+        private Duration maximumDelay = DEFAULT_MAXIMUM_DELAY;
+        private String packPrefix = DEFAULT_PACK_PREFIX;
+        private double minimumLiveRatio = DEFAULT_MINIMUM_LIVE_RATIO;
+        private int flushConcurrency = 4;
+
+        private Builder(CloudStorageService delegate, Path stagingDirectory) {
+            this.delegate = delegate;
+            this.stagingDirectory = stagingDirectory;
+        }
+
+        /**
+         * @param indexFile the file of the pack index, by default pack.index in the staging directory
+         */
+        public Builder indexFile(Path indexFile) {
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        /**
+         * @param packThreshold the size up to which a file is packed
+         */
+        public Builder packThreshold(long packThreshold) {
+            this.packThreshold = packThreshold;
+            return this;
+        }
+
+        /**
+         * @param maximumPackSize the content size from which on a pack is uploaded
+         */
+        public Builder maximumPackSize(long maximumPackSize) {
+            this.maximumPackSize = maximumPackSize;
+            return this;
+        }
+
+        /**
+         * @param maximumPackEntries the number of objects from which on a pack is uploaded
+         */
+        public Builder maximumPackEntries(int maximumPackEntries) {
+            this.maximumPackEntries = maximumPackEntries;
+            return this;
+        }
+
+        /**
+         * @param maximumDelay the time after which a pack is uploaded, even if it is not full
+         */
+        public Builder maximumDelay(Duration maximumDelay) {
+            this.maximumDelay = maximumDelay;
+            return this;
+        }
+
+        /**
+         * @param packPrefix the prefix of the names of the pack objects
+         */
+        public Builder packPrefix(String packPrefix) {
+            this.packPrefix = packPrefix;
+            return this;
+        }
+
+        /**
+         * @param minimumLiveRatio the share of live content below which {@link #compact} rewrites a pack
+         */
+        public Builder minimumLiveRatio(double minimumLiveRatio) {
+            this.minimumLiveRatio = minimumLiveRatio;
+            return this;
+        }
+
+        /**
+         * @param flushConcurrency the number of packs that are uploaded at the same time
+         */
+        public Builder flushConcurrency(int flushConcurrency) {
+            this.flushConcurrency = flushConcurrency;
+            return this;
+        }
+
+        /**
+         * @throws IOException if the staging directory or the index file cannot be read
+         */
+        public PackingCloudStorageService build() throws IOException {
+            if (packThreshold <= 0 || packThreshold > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid pack threshold: " + packThreshold);
+            }
+            if (maximumPackSize < packThreshold) {
+                throw new IllegalArgumentException("Invalid maximum pack size: " + maximumPackSize);
+            }
+            if (maximumPackEntries <= 0) {
+                throw new IllegalArgumentException("Invalid maximum pack entries: " + maximumPackEntries);
+            }
+            if (maximumDelay.isNegative() || maximumDelay.isZero()) {
+                throw new IllegalArgumentException("Invalid maximum delay: " + maximumDelay);
+            }
+            if (minimumLiveRatio < 0 || minimumLiveRatio > 1) {
+                throw new IllegalArgumentException("Invalid minimum live ratio: " + minimumLiveRatio);
+            }
+            if (flushConcurrency <= 0) {
+                throw new IllegalArgumentException("Invalid flush concurrency: " + flushConcurrency);
+            }
+            return new PackingCloudStorageService(this);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package de.leomedia.cloud_gcstorage_awss3.pack;
+
+import java.net.URL;
+
+/**
+ * This record holds a presigned URL together with the byte range of the object that the URL points into.
+ * The client sends the range as Range header of its GET request, which both providers accept
+ * without it being part of the signature.
+ *
+ * @param url the presigned URL of the pack, or of the object itself if it is not packed
+ * @param range the value of the Range header like "bytes=1024-2047", or null if the whole object is read
+ */
+public record RangedUrl(URL url, String range) {
+}
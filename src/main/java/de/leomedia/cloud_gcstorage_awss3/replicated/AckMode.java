@@ -0,0 +1,18 @@
+package de.leomedia.cloud_gcstorage_awss3.replicated;
+
+/**
+ * Decides when a {@link ReplicatedCloudStorageService} reports an upload as successful.
+ */
+public enum AckMode {
+
+    /**
+     * Waits until a majority of the replicas stored the object, which are both replicas of a dual-provider setup.
+     */
+    QUORUM,
+
+    /**
+     * Returns as soon as one replica stored the object. The other replicas keep uploading it in the background
+     * and retry a failed upload, see {@link ReplicatedCloudStorageService#awaitCatchUp}.
+     */
+    FIRST_SUCCESS
+}
@@ -0,0 +1,102 @@
+package de.leomedia.cloud_gcstorage_awss3.replicated;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * A sliding window of the latest latencies and outcomes of the calls to one replica.
+ * <p>
+ * The window keeps at most a fixed number of samples and drops samples older than the max age,
+ * so a replica that was slow or failing is tried first again once its samples expired.
+ */
+final class LatencyWindow {
+
+    private final long[] times;
+    private final long[] latencies;
+    private final boolean[] errors;
+    private final long maxAgeNanos;
+    private final LongSupplier ticker;
+
+    private int next;
+    private int count;
+
+    LatencyWindow(int size, long maxAgeNanos) {
+        this(size, maxAgeNanos, System::nanoTime);
+    }
+
+    LatencyWindow(int size, long maxAgeNanos, LongSupplier ticker) {
+        this.times = new long[size];
+        this.latencies = new long[size];
+        this.errors = new boolean[size];
+        this.maxAgeNanos = maxAgeNanos;
+        this.ticker = ticker;
+    }
+
+    synchronized void record(long latencyNanos, boolean success) {
+        times[next] = ticker.getAsLong();
+        latencies[next] = latencyNanos;
+        errors[next] = !success;
+        next = (next + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+    }
+
+    /**
+     * @return the latency below which the given share of the samples lie, or -1 if the window is empty
+     */
+    synchronized long percentile(double percentile) {
+        expire();
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencies[index(i)];
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+
+    /**
+     * @return the share of failed calls, or 0 if the window is empty
+     */
+    synchronized double errorRate() {
+        expire();
+        if (count == 0) {
+            return 0;
+        }
+        int failed = 0;
+        for (int i = 0; i < count; i++) {
+            if (errors[index(i)]) {
+                failed++;
+            }
+        }
+        return (double) failed / count;
+    }
+
+    /**
+     * This method estimates how long a call takes until it succeeds: the median latency, scaled up by the calls that fail.
+     * An empty window scores 0, so a replica without recent samples is tried first.
+     */
+    double score() {
+        long median = percentile(0.5);
+        if (median < 0) {
+            return 0;
+        }
+        return median / Math.max(0.01, 1 - errorRate());
+    }
+
+    private void expire() {
+        long now = ticker.getAsLong();
+        while (count > 0 && now - times[index(0)] > maxAgeNanos) {
+            count--;
+        }
+    }
+
+    /**
+     * @return the position of the i-th oldest sample
+     */
+    private int index(int i) {
+        return Math.floorMod(next - count + i, times.length);
+    }
+}
@@ -0,0 +1,766 @@
+package de.leomedia.cloud_gcstorage_awss3.replicated;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A {@link CloudStorageService} that stores every object in several providers, for example in S3 and Cloud Storage.
+ * <p>
+ * An upload is started on every replica at the same time. The replicas take the path of the file,
+ * so every replica reads the file on its own, and a catch-up attempt reads it once more.
+ * The file is read from disk once per replica and attempt, unless the operating system still caches it.
+ * The {@link AckMode} decides whether an upload returns after a majority of the replicas or after the first one.
+ * Replicas that have not stored the object yet keep uploading in the background and retry a failed upload,
+ * so the file must not change or be deleted until {@link #awaitCatchUp} returns.
+ * <p>
+ * Downloads and presigned URLs are served by the replica with the lowest latency and error rate of its recent calls.
+ * If it does not answer within a percentile of its recent latencies, the next replica is asked as well
+ * and the first answer wins. A failed call is passed to the next replica right away.
+ */
+public class ReplicatedCloudStorageService implements CloudStorageService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicatedCloudStorageService.class);
+
+    private final List<Replica> replicas;
+    private final int requiredAcks;
+    private final double hedgePercentile;
+    private final Duration minHedgeDelay;
+    private final Duration maxHedgeDelay;
+    private final int catchUpAttempts;
+    private final Duration catchUpDelay;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("replicated-transfer"));
+
+    private final Object catchUpLock = new Object();
+    private int inFlight;
+    private final AtomicLong failedCatchUps = new AtomicLong();
+    private volatile boolean closed;
+
+    private ReplicatedCloudStorageService(Builder builder) {
+        this.requiredAcks = builder.ackMode == AckMode.QUORUM ? builder.replicas.size() / 2 + 1 : 1;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.minHedgeDelay = builder.minHedgeDelay;
+        this.maxHedgeDelay = builder.maxHedgeDelay;
+        this.catchUpAttempts = builder.catchUpAttempts;
+        this.catchUpDelay = builder.catchUpDelay;
+
+        List<Replica> replicas = new ArrayList<>();
+        builder.replicas.forEach((name, replica) -> replicas.add(new Replica(name, replica.service(), replica.encryptionKey(),
+                new LatencyWindow(builder.windowSize, builder.windowAge.toNanos()),
+                new LatencyWindow(builder.windowSize, builder.windowAge.toNanos()),
+                new LatencyWindow(builder.windowSize, builder.windowAge.toNanos()),
+                new LatencyWindow(builder.windowSize, builder.windowAge.toNanos()))));
+        this.replicas = List.copyOf(replicas);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * This method uploads the object to every replica like {@link #uploadObjects} and throws if it was not acknowledged.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param file the full file path of an object
+     * @param encryptionKey the encryption key, which is replaced by the encryption key of a replica that has its own
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @throws IOException if too few replicas stored the object, with the failures of the others suppressed
+     */
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        UploadResult result = uploadObjects(bucketName, List.of(new UploadSpec(key, file, encryptionKey, storageClass))).get(0);
+        if (!result.isSuccess()) {
+            throw result.error() instanceof IOException e ? e : new IOException(result.error());
+        }
+        logger.info("File {} uploaded to bucket {} as {}, acknowledged by {} replicas", file, bucketName, key, requiredAcks);
+    }
+
+    /**
+     * This method uploads the objects with {@link CloudStorageService#uploadObjects} of every replica concurrently.
+     * Each replica reads the files itself, so a file is read once per replica.
+     * An object succeeds as soon as the {@link AckMode} is satisfied, its latency is the time until then.
+     * An object fails once too many replicas failed to store it, with the failure of the first replica as error
+     * and the others suppressed.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        List<UploadSpec> specs = List.copyOf(uploads);
+        if (specs.isEmpty()) {
+            return List.of();
+        }
+        Acknowledgement acknowledgement = new Acknowledgement(bucketName, specs);
+        for (Replica replica : replicas) {
+            List<UploadSpec> replicaSpecs = replica.specs(specs);
+            submit(() -> {
+                List<UploadResult> results = null;
+                RuntimeException error = null;
+                try {
+                    results = replica.service().uploadObjects(bucketName, replicaSpecs);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                acknowledgement.completed(replica, results, error);
+            }, () -> acknowledgement.completed(replica, null, new IllegalStateException("The replicated service is closed")));
+        }
+        return acknowledgement.await();
+    }
+
+    /**
+     * This method generates a presigned URL with the fastest replica and hedges it with the next one if it is slow.
+     * The URL points to the provider that answered first.
+     *
+     * @return the signed {@link URL}, or null if no replica could sign it
+     */
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        try {
+            return hedged(Replica::presignWindow, new HedgedCall<>() {
+                @Override
+                public URL call(Replica replica) throws IOException {
+                    URL url = replica.service().getPresignedUrl(bucketName, key, minutes,
+                            replica.encryptionKey() != null ? replica.encryptionKey() : encryptionKey);
+                    if (url == null) {
+                        throw new IOException(replica.name() + " could not presign " + key);
+                    }
+                    return url;
+                }
+            });
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method passes the whole batch to the replica with the fastest presigned URLs.
+     * The keys it could not sign are passed to the next replica, and a key that no replica could sign is passed with a null URL.
+     * The batch is not hedged, because a hedge would sign every key twice.
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        Iterable<String> remaining = keys;
+        List<Replica> ranked = ranked(Replica::presignWindow);
+        for (int i = 0; i < ranked.size(); i++) {
+            boolean last = i == ranked.size() - 1;
+            List<String> failed = new ArrayList<>();
+            ranked.get(i).service().presignAll(bucketName, remaining, minutes, (key, url) -> {
+                if (url == null && !last) {
+                    synchronized (failed) {
+                        failed.add(key);
+                    }
+                } else {
+                    sink.accept(key, url);
+                }
+            });
+            if (failed.isEmpty()) {
+                return;
+            }
+            remaining = failed;
+        }
+    }
+
+    /**
+     * This method downloads the object from the fastest replica and hedges it with the next one if it is slow.
+     * Every replica downloads into its own file next to the target, and only the first complete download is moved to the target.
+     * A download that lost is cancelled and deleted, a failed download is kept so that it is resumed the next time.
+     *
+     * @throws IOException if no replica could download the object, with the failures of the others suppressed
+     */
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        Path downloaded = hedged(Replica::downloadWindow, new HedgedCall<>() {
+            @Override
+            public Path call(Replica replica) throws IOException {
+                Path replicaTarget = replicaTarget(target, replica);
+                replica.service().downloadObject(bucketName, key, replicaTarget);
+                return replicaTarget;
+            }
+
+            @Override
+            public void discard(Replica replica) {
+                Path replicaTarget = replicaTarget(target, replica);
+                for (String suffix : new String[]{"", ".part", ".part.state"}) {
+                    try {
+                        Files.deleteIfExists(replicaTarget.resolveSibling(replicaTarget.getFileName() + suffix));
+                    } catch (IOException e) {
+                        logger.warn("Could not delete {}: {}", replicaTarget, e.getMessage());
+                    }
+                }
+            }
+        });
+        try {
+            Files.move(downloaded, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(downloaded, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * This method reads the range from the fastest replica and hedges it with the next one if it is slow, like {@link #getObjectInfo}.
+     *
+     * @throws IOException if no replica could read the range, with the failures of the others suppressed
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        return hedged(Replica::rangeWindow, replica -> replica.service().readRange(bucketName, key, offset, length));
+    }
+
+    /**
+     * This method lists a page of the first replica of the builder. The page tokens of the providers differ,
+     * so all pages of a listing have to come from the same replica and are not hedged.
+     * A listing does not contain the objects that the first replica has not caught up with yet.
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        return replicas.get(0).service().listPage(bucketName, prefix, delimiter, pageToken);
+    }
+
+    /**
+     * This method reads the metadata of an object from the fastest replica and hedges it with the next one if it is slow.
+     * The version is the one of the replica that answered, and a replica that has not caught up yet may not know the object.
+     *
+     * @return the {@link ObjectInfo}, or null if the replica that answered does not have the object
+     * @throws IOException if no replica could read the metadata, with the failures of the others suppressed
+     */
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        return hedged(Replica::infoWindow, replica -> replica.service().getObjectInfo(bucketName, key));
+    }
+
+    /**
+     * This method copies the object on every replica concurrently, each with its own server-side copy.
+     * It returns once every replica answered. A replica that failed is not caught up, because the copy may
+     * depend on an upload that is still catching up, so the failure is only logged if enough replicas succeeded.
+     *
+     * @throws IOException if fewer replicas copied the object than the {@link AckMode} requires, with the other failures suppressed
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        onEveryReplica("copy " + sourceKey + " to " + targetKey + " in bucket " + bucketName, replica ->
+                replica.service().copyObject(bucketName, sourceKey, targetKey,
+                        replica.encryptionKey() != null ? replica.encryptionKey() : encryptionKey, storageClass));
+    }
+
+    /**
+     * This method deletes the object on every replica concurrently, like {@link #copyObject}.
+     * An upload of the object that is still catching up may store it again on a replica afterwards.
+     *
+     * @throws IOException if fewer replicas deleted the object than the {@link AckMode} requires, with the other failures suppressed
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        onEveryReplica("delete " + key + " from bucket " + bucketName, replica -> replica.service().deleteObject(bucketName, key));
+    }
+
+    /**
+     * This method runs the call on every replica concurrently and waits for all of them.
+     *
+     * @throws IOException if fewer replicas succeeded than the {@link AckMode} requires, with the other failures suppressed
+     */
+    private void onEveryReplica(String description, ReplicaCall call) throws IOException {
+        Map<Replica, Future<?>> calls = new LinkedHashMap<>();
+        try {
+            for (Replica replica : replicas) {
+                if (closed) {
+                    throw new RejectedExecutionException();
+                }
+                calls.put(replica, executor.submit(() -> {
+                    call.call(replica);
+                    return null;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            calls.values().forEach(future -> future.cancel(true));
+            throw new IOException("The replicated service is closed", e);
+        }
+
+        int acks = 0;
+        IOException failure = null;
+        for (Map.Entry<Replica, Future<?>> replicaCall : calls.entrySet()) {
+            try {
+                replicaCall.getValue().get();
+                acks++;
+            } catch (InterruptedException e) {
+                calls.values().forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the replicas");
+            } catch (ExecutionException e) {
+                IOException cause = e.getCause() instanceof IOException io ? io
+                        : new IOException(replicaCall.getKey().name() + " failed: " + e.getCause().getMessage(), e.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (acks < requiredAcks) {
+            throw failure;
+        }
+        if (failure != null) {
+            logger.error("Could not {} on every replica: {}", description, failure.getMessage());
+        }
+    }
+
+    /**
+     * This method waits until the background uploads of acknowledged objects reached every replica or gave up.
+     *
+     * @return true if no upload is running anymore, false if the timeout elapsed before
+     */
+    public boolean awaitCatchUp(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (catchUpLock) {
+            while (inFlight > 0) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(catchUpLock, nanos);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of acknowledged objects that could not be copied to a replica after every catch-up attempt
+     */
+    public long failedCatchUps() {
+        return failedCatchUps.get();
+    }
+
+    /**
+     * This method stops accepting new transfers. Running transfers are not cancelled,
+     * call {@link #awaitCatchUp} before to make sure every replica received its objects.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+    }
+
+    private <T> T hedged(Function<Replica, LatencyWindow> window, HedgedCall<T> call) throws IOException {
+        List<Replica> ranked = ranked(window);
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, Replica> attempts = new HashMap<>();
+        AtomicBoolean settled = new AtomicBoolean();
+        IOException failure = null;
+        int next = 0;
+
+        try {
+            while (next < ranked.size() || !attempts.isEmpty()) {
+                Future<T> done;
+                if (attempts.isEmpty()) {
+                    done = null;
+                } else if (next < ranked.size()) {
+                    done = completionService.poll(hedgeDelay(window.apply(ranked.get(next - 1))), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        logger.debug("Hedging a slow call of {} with {}", ranked.get(next - 1).name(), ranked.get(next).name());
+                    }
+                } else {
+                    done = completionService.take();
+                }
+
+                if (done == null) {
+                    Replica replica = ranked.get(next++);
+                    if (closed) {
+                        throw new IOException("The replicated service is closed");
+                    }
+                    attempts.put(completionService.submit(() -> attempt(replica, window.apply(replica), call, settled)), replica);
+                    continue;
+                }
+
+                Replica replica = attempts.remove(done);
+                try {
+                    T value = done.get();
+                    attempts.keySet().forEach(attempt -> attempt.cancel(true));
+                    return value;
+                } catch (ExecutionException e) {
+                    IOException cause = e.getCause() instanceof IOException io ? io
+                            : new IOException(replica.name() + " failed: " + e.getCause().getMessage(), e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            settled.set(true);
+            attempts.keySet().forEach(attempt -> attempt.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the replicas");
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The replicated service is closed", e);
+        }
+        throw failure;
+    }
+
+    /**
+     * This method calls one replica and records the call in its window. Only the first successful attempt settles the call,
+     * a later one is discarded. A failure after the call was settled does not count as error, because it was most likely cancelled.
+     */
+    private <T> T attempt(Replica replica, LatencyWindow window, HedgedCall<T> call, AtomicBoolean settled) throws IOException {
+        long start = System.nanoTime();
+        try {
+            T value = call.call(replica);
+            window.record(System.nanoTime() - start, true);
+            if (settled.compareAndSet(false, true)) {
+                return value;
+            }
+        } catch (IOException | RuntimeException e) {
+            window.record(System.nanoTime() - start, settled.get());
+            if (!settled.get()) {
+                throw e;
+            }
+        }
+        call.discard(replica);
+        throw new IOException(replica.name() + " answered after another replica");
+    }
+
+    private long hedgeDelay(LatencyWindow window) {
+        long percentile = window.percentile(hedgePercentile);
+        if (percentile < 0) {
+            return maxHedgeDelay.toNanos();
+        }
+        return Math.max(minHedgeDelay.toNanos(), Math.min(maxHedgeDelay.toNanos(), percentile));
+    }
+
+    private List<Replica> ranked(Function<Replica, LatencyWindow> window) {
+        Map<Replica, Double> scores = new HashMap<>();
+        replicas.forEach(replica -> scores.put(replica, window.apply(replica).score()));
+        // the sort is stable, so replicas without samples keep the order of the builder
+        return replicas.stream().sorted(Comparator.comparingDouble(scores::get)).toList();
+    }
+
+    private static Path replicaTarget(Path target, Replica replica) {
+        return target.resolveSibling(target.getFileName() + "." + replica.name() + ".replica");
+    }
+
+    private void submit(Runnable task, Runnable rejected) {
+        synchronized (catchUpLock) {
+            inFlight++;
+        }
+        try {
+            if (closed) {
+                throw new RejectedExecutionException();
+            }
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finished();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                rejected.run();
+            } finally {
+                finished();
+            }
+        }
+    }
+
+    private void finished() {
+        synchronized (catchUpLock) {
+            if (--inFlight == 0) {
+                catchUpLock.notifyAll();
+            }
+        }
+    }
+
+    private void catchUp(Replica replica, String bucketName, List<UploadSpec> uploads, int attempt) {
+        if (attempt > catchUpAttempts) {
+            gaveUp(replica, bucketName, uploads, "no catch-up attempts");
+            return;
+        }
+        submit(() -> {
+            try {
+                Thread.sleep(catchUpDelay.multipliedBy(1L << Math.min(attempt - 1, 16)).toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                gaveUp(replica, bucketName, uploads, "interrupted");
+                return;
+            }
+
+            List<UploadSpec> failed = new ArrayList<>();
+            String reason = null;
+            try {
+                List<UploadResult> results = replica.service().uploadObjects(bucketName, uploads);
+                for (int i = 0; i < results.size(); i++) {
+                    if (!results.get(i).isSuccess()) {
+                        failed.add(uploads.get(i));
+                        reason = results.get(i).error().getMessage();
+                    }
+                }
+            } catch (RuntimeException e) {
+                failed.addAll(uploads);
+                reason = e.getMessage();
+            }
+
+            if (failed.isEmpty()) {
+                logger.info("Caught up {} objects of bucket {} on {}", uploads.size(), bucketName, replica.name());
+            } else if (attempt < catchUpAttempts) {
+                catchUp(replica, bucketName, failed, attempt + 1);
+            } else {
+                gaveUp(replica, bucketName, failed, reason);
+            }
+        }, () -> gaveUp(replica, bucketName, uploads, "the replicated service is closed"));
+    }
+
+    private void gaveUp(Replica replica, String bucketName, List<UploadSpec> uploads, String reason) {
+        failedCatchUps.addAndGet(uploads.size());
+        logger.error("Could not replicate {} objects of bucket {} to {}: {}", uploads.size(), bucketName, replica.name(), reason);
+    }
+
+    /**
+     * A provider with its own encryption key and the windows of its recent downloads, presigned URLs and metadata reads.
+     */
+    private record Replica(String name, CloudStorageService service, String encryptionKey,
+                           LatencyWindow downloadWindow, LatencyWindow presignWindow, LatencyWindow infoWindow,
+                           LatencyWindow rangeWindow) {
+
+        List<UploadSpec> specs(List<UploadSpec> uploads) {
+            if (encryptionKey == null) {
+                return uploads;
+            }
+            return uploads.stream()
+                    .map(upload -> new UploadSpec(upload.key(), upload.file(), encryptionKey, upload.storageClass(), upload.metadata(),
+                            upload.compressible()))
+                    .toList();
+        }
+    }
+
+    private interface ReplicaCall {
+
+        void call(Replica replica) throws IOException;
+    }
+
+    private interface HedgedCall<T> {
+
+        T call(Replica replica) throws IOException;
+
+        /**
+         * This method cleans up after an attempt that was not needed anymore.
+         */
+        default void discard(Replica replica) {
+        }
+    }
+
+    /**
+     * Counts the replicas that stored or failed every object of one bulk upload.
+     * Once an object is acknowledged, the replicas that failed it are caught up in the background.
+     */
+    private final class Acknowledgement {
+
+        private final String bucketName;
+        private final List<UploadSpec> uploads;
+        private final long start = System.nanoTime();
+        private final int[] successes;
+        private final long[] bytes;
+        private final ContentChecksum[] checksums;
+        private final Exception[] errors;
+        private final List<List<Replica>> failedReplicas = new ArrayList<>();
+        private final UploadResult[] results;
+        private int undecided;
+
+        Acknowledgement(String bucketName, List<UploadSpec> uploads) {
+            this.bucketName = bucketName;
+            this.uploads = uploads;
+            this.successes = new int[uploads.size()];
+            this.bytes = new long[uploads.size()];
+            this.checksums = new ContentChecksum[uploads.size()];
+            this.errors = new Exception[uploads.size()];
+            this.results = new UploadResult[uploads.size()];
+            this.undecided = uploads.size();
+            uploads.forEach(upload -> failedReplicas.add(new ArrayList<>()));
+        }
+
+        synchronized void completed(Replica replica, List<UploadResult> replicaResults, RuntimeException error) {
+            List<UploadSpec> catchUp = new ArrayList<>();
+            for (int i = 0; i < uploads.size(); i++) {
+                UploadResult result = error == null ? replicaResults.get(i) : null;
+                if (result != null && result.isSuccess()) {
+                    successes[i]++;
+                    bytes[i] = result.bytes();
+                    checksums[i] = result.checksum();
+                    if (results[i] == null && successes[i] >= requiredAcks) {
+                        decide(i, UploadResult.succeeded(uploads.get(i).key(), bytes[i], checksums[i], Duration.ofNanos(System.nanoTime() - start)));
+                        for (Replica failedReplica : failedReplicas.get(i)) {
+                            catchUp(failedReplica, bucketName, List.of(uploads.get(i)), 1);
+                        }
+                    }
+                } else {
+                    Exception cause = result != null ? result.error() : error;
+                    if (results[i] != null && results[i].isSuccess()) {
+                        catchUp.add(uploads.get(i));
+                        continue;
+                    }
+                    failedReplicas.get(i).add(replica);
+                    if (errors[i] == null) {
+                        errors[i] = cause;
+                    } else if (errors[i] != cause) {
+                        errors[i].addSuppressed(cause);
+                    }
+                    if (results[i] == null && failedReplicas.get(i).size() > replicas.size() - requiredAcks) {
+                        decide(i, UploadResult.failed(uploads.get(i).key(), errors[i], Duration.ofNanos(System.nanoTime() - start)));
+                    }
+                }
+            }
+            if (!catchUp.isEmpty()) {
+                catchUp(replica, bucketName, catchUp, 1);
+            }
+        }
+
+        private void decide(int index, UploadResult result) {
+            results[index] = result;
+            if (--undecided == 0) {
+                notifyAll();
+            }
+        }
+
+        synchronized List<UploadResult> await() {
+            try {
+                while (undecided > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] == null) {
+                        results[i] = UploadResult.failed(uploads.get(i).key(),
+                                new InterruptedIOException("Interrupted while waiting for the replicas"),
+                                Duration.ofNanos(System.nanoTime() - start));
+                    }
+                }
+            }
+            return List.of(results);
+        }
+    }
+
+    public static final class Builder {
+
+        private final Map<String, ReplicaSpec> replicas = new LinkedHashMap<>();
+        private AckMode ackMode = AckMode.QUORUM;
+        private int windowSize = 100;
+        private Duration windowAge = Duration.ofMinutes(1);
+        private double hedgePercentile = 0.95;
+        private Duration minHedgeDelay = Duration.ofMillis(5);
+        private Duration maxHedgeDelay = Duration.ofSeconds(2);
+        private int catchUpAttempts = 5;
+        private Duration catchUpDelay = Duration.ofSeconds(1);
+
+        private Builder() {
+        }
+
+        /**
+         * @param name the name of the provider, which is used in the logs
+         * @param service the service of the provider
+         */
+        public Builder replica(String name, CloudStorageService service) {
+            return replica(name, service, null);
+        }
+
+        /**
+         * @param name the name of the provider, which is used in the logs
+         * @param service the service of the provider
+         * @param encryptionKey the encryption key of the provider, which replaces the one of every upload and presigned URL
+         */
+        public Builder replica(String name, CloudStorageService service, String encryptionKey) {
+            this.replicas.put(name, new ReplicaSpec(service, encryptionKey));
+            return this;
+        }
+
+        /**
+         * @param ackMode when an upload is reported as successful
+         */
+        public Builder ackMode(AckMode ackMode) {
+            this.ackMode = ackMode;
+            return this;
+        }
+
+        /**
+         * @param windowSize the number of recent calls of a replica whose latencies and errors rank it
+         * @param windowAge the age after which a call does not rank its replica anymore
+         */
+        public Builder window(int windowSize, Duration windowAge) {
+            this.windowSize = windowSize;
+            this.windowAge = windowAge;
+            return this;
+        }
+
+        /**
+         * @param hedgePercentile the percentile of the recent latencies of a replica after which the next replica is asked as well
+         * @param minHedgeDelay the shortest time to wait before asking the next replica
+         * @param maxHedgeDelay the longest time to wait before asking the next replica, which is also used without recent calls
+         */
+        public Builder hedging(double hedgePercentile, Duration minHedgeDelay, Duration maxHedgeDelay) {
+            this.hedgePercentile = hedgePercentile;
+            this.minHedgeDelay = minHedgeDelay;
+            this.maxHedgeDelay = maxHedgeDelay;
+            return this;
+        }
+
+        /**
+         * @param catchUpAttempts how often an acknowledged object is uploaded to a replica that failed it
+         * @param catchUpDelay the delay before the first attempt, which doubles with every further attempt
+         */
+        public Builder catchUp(int catchUpAttempts, Duration catchUpDelay) {
+            this.catchUpAttempts = catchUpAttempts;
+            this.catchUpDelay = catchUpDelay;
+            return this;
+        }
+
+        public ReplicatedCloudStorageService build() {
+            if (replicas.size() < 2) {
+                throw new IllegalArgumentException("At least two replicas are required");
+            }
+            if (ackMode == null || windowSize < 1 || hedgePercentile <= 0 || hedgePercentile > 1
+                    || minHedgeDelay.compareTo(maxHedgeDelay) > 0 || catchUpAttempts < 0) {
+                throw new IllegalArgumentException("Invalid replication settings");
+            }
+            return new ReplicatedCloudStorageService(this);
+        }
+
+        private record ReplicaSpec(CloudStorageService service, String encryptionKey) {
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package de.leomedia.cloud_gcstorage_awss3.sync;
+
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * This class uploads the files of a local directory tree that changed since the last sync.
+ * <p>
+ * The tree is walked in a {@link ForkJoinPool}, with one task per directory and the checksums of many files split into further tasks.
+ * Every file is compared with the {@link SyncIndex} of the directory: a file with the same size and modification time
+ * as in the index is unchanged and neither read nor requested from the provider. Only a file whose size or modification time
+ * changed is read to compute its CRC32C, and it is uploaded if the checksum differs as well.
+ * The changed files are uploaded in batches with {@link CloudStorageService#uploadObjects}.
+ * <p>
+ * Files that were synced before but were deleted since are deleted from the bucket as well if orphans are deleted,
+ * otherwise their objects are kept. With remote verification, the version of every unchanged file is compared
+ * with the one of its object, which costs one metadata request per file but also uploads objects that were changed
+ * or deleted in the bucket.
+ */
+public class DirectorySync implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySync.class);
+
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+    private static final int FILES_PER_TASK = 256;
+
+    private final CloudStorageService service;
+    private final Path indexDirectory;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final boolean deleteOrphans;
+    private final boolean verifyRemote;
+    private final String encryptionKey;
+    private final String storageClass;
+
+    private DirectorySync(Builder builder) {
+        this.service = builder.service;
+        this.indexDirectory = builder.indexDirectory.toAbsolutePath().normalize();
+        this.pool = new ForkJoinPool(builder.parallelism);
+        this.batchSize = builder.batchSize;
+        this.deleteOrphans = builder.deleteOrphans;
+        this.verifyRemote = builder.verifyRemote;
+        this.encryptionKey = builder.encryptionKey;
+        this.storageClass = builder.storageClass;
+    }
+
+    /**
+     * @param service the service the files are uploaded with
+     * @param indexDirectory the directory of the indexes of the synced directories
+     */
+    public static Builder builder(CloudStorageService service, Path indexDirectory) {
+        return new Builder(service, indexDirectory);
+    }
+
+    /**
+     * This method uploads the new and changed files of the directory and deletes the objects of deleted files if configured.
+     * A file is stored under the prefix followed by its path relative to the directory, with "/" as separator.
+     * Only one sync runs at a time.
+     *
+     * @param localDirectory the directory to sync
+     * @param bucketName the name of a bucket
+     * @param prefix the prefix of the object names, or an empty string
+     * @return the {@link SyncReport} with the failed uploads and deletes, which are retried by the next sync
+     * @throws IOException if the directory cannot be walked or its index cannot be written, then no object is deleted
+     */
+    public synchronized SyncReport sync(Path localDirectory, String bucketName, String prefix) throws IOException {
+        long start = System.nanoTime();
+        Path root = localDirectory.toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new NotDirectoryException(root.toString());
+        }
+        String keyPrefix = prefix == null ? "" : prefix;
+        if (!keyPrefix.isEmpty() && !keyPrefix.endsWith("/")) {
+            keyPrefix += "/";
+        }
+
+        try (SyncIndex index = new SyncIndex(indexFile(root, bucketName, keyPrefix))) {
+            Walk walk = new Walk(root, bucketName, keyPrefix, index);
+            try {
+                pool.invoke(walk.new DirectoryTask(root));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            List<UploadResult> failures = Collections.synchronizedList(new ArrayList<>());
+            long[] uploaded = upload(walk, index, failures);
+            long deleted = removeOrphans(bucketName, keyPrefix, index, failures);
+            index.compact();
+
+            SyncReport report = new SyncReport(walk.scanned.sum(), walk.unchanged.sum(), walk.hashed.sum(), uploaded[0], uploaded[1],
+                    deleted, List.copyOf(failures), Duration.ofNanos(System.nanoTime() - start));
+            logger.info("Synced {} files of {} to bucket {}: {} uploaded, {} deleted, {} failed in {} ms", report.scanned(), root,
+                    bucketName, report.uploaded(), report.deleted(), report.failures().size(), report.duration().toMillis());
+            return report;
+        }
+    }
+
+    /**
+     * This method stops the threads of the walk.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return the number of uploaded files and bytes
+     */
+    private long[] upload(Walk walk, SyncIndex index, List<UploadResult> failures) throws IOException {
+        List<ChangedFile> changed = new ArrayList<>(walk.changed);
+        long files = 0;
+        long bytes = 0;
+        for (int from = 0; from < changed.size(); from += batchSize) {
+            List<ChangedFile> batch = changed.subList(from, Math.min(changed.size(), from + batchSize));
+            List<UploadSpec> uploads = batch.stream()
+                    .map(file -> new UploadSpec(walk.keyPrefix + file.path(), file.file().toString(), encryptionKey, storageClass))
+                    .toList();
+            List<UploadResult> results = service.uploadObjects(walk.bucketName, uploads);
+
+            for (int i = 0; i < batch.size(); i++) {
+                UploadResult result = results.get(i);
+                if (!result.isSuccess()) {
+                    failures.add(result);
+                    continue;
+                }
+                ChangedFile file = batch.get(i);
+                SyncIndex.IndexedFile indexedFile = new SyncIndex.IndexedFile(file.size(), file.modified(), file.checksum(),
+                        verifyRemote ? version(walk.bucketName, uploads.get(i).key()) : null);
+                indexedFile.seen = true;
+                index.put(file.path(), indexedFile);
+                files++;
+                bytes += result.bytes();
+            }
+        }
+        return new long[]{files, bytes};
+    }
+
+    /**
+     * This method deletes the objects of the indexed files that the walk did not find, or only forgets them.
+     * A failed delete keeps its file in the index, so the next sync deletes it again.
+     *
+     * @return the number of deleted objects
+     */
+    private long removeOrphans(String bucketName, String keyPrefix, SyncIndex index, List<UploadResult> failures) throws IOException {
+        List<String> orphans = index.files().entrySet().stream()
+                .filter(entry -> !entry.getValue().seen)
+                .map(Map.Entry::getKey)
+                .toList();
+        if (!deleteOrphans) {
+            for (String orphan : orphans) {
+                index.remove(orphan);
+            }
+            return 0;
+        }
+
+        LongAdder deleted = new LongAdder();
+        pool.submit(() -> orphans.parallelStream().forEach(orphan -> {
+            long start = System.nanoTime();
+            try {
+                service.deleteObject(bucketName, keyPrefix + orphan);
+                index.remove(orphan);
+                deleted.increment();
+            } catch (IOException | RuntimeException e) {
+                failures.add(UploadResult.failed(keyPrefix + orphan, e, Duration.ofNanos(System.nanoTime() - start)));
+            }
+        })).join();
+        return deleted.sum();
+    }
+
+    private String version(String bucketName, String key) {
+        try {
+            ObjectInfo info = service.getObjectInfo(bucketName, key);
+            return info == null ? null : info.version();
+        } catch (IOException | RuntimeException e) {
+            // the version is compared by the next sync with remote verification, which then uploads the file again
+            logger.warn("Could not read the version of {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Every combination of directory, bucket and prefix has its own index.
+     */
+    private Path indexFile(Path root, String bucketName, String keyPrefix) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] id = digest.digest((root + "\n" + bucketName + "\n" + keyPrefix).getBytes(StandardCharsets.UTF_8));
+        return indexDirectory.resolve(HexFormat.of().formatHex(id, 0, 16) + ".index");
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private record ChangedFile(String path, Path file, long size, long modified, long checksum) {
+    }
+
+    private record Candidate(String path, Path file, long size, long modified, SyncIndex.IndexedFile known) {
+    }
+
+    /**
+     * The state of one walk of a directory.
+     */
+    private final class Walk {
+
+        private final Path root;
+        private final String bucketName;
+        private final String keyPrefix;
+        private final SyncIndex index;
+        private final Queue<ChangedFile> changed = new ConcurrentLinkedQueue<>();
+        private final LongAdder scanned = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+        private final LongAdder hashed = new LongAdder();
+
+        Walk(Path root, String bucketName, String keyPrefix, SyncIndex index) {
+            this.root = root;
+            this.bucketName = bucketName;
+            this.keyPrefix = keyPrefix;
+            this.index = index;
+        }
+
+        /**
+         * Compares a file with the index and returns it if its checksum has to be computed.
+         */
+        private Candidate check(Path file, BasicFileAttributes attributes) throws IOException {
+            scanned.increment();
+            String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+            long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            SyncIndex.IndexedFile known = index.get(path);
+            if (known != null) {
+                known.seen = true;
+            }
+            if (known == null || known.size != attributes.size() || known.modified != modified) {
+                return new Candidate(path, file, attributes.size(), modified, known);
+            }
+
+            if (verifyRemote) {
+                ObjectInfo info = service.getObjectInfo(bucketName, keyPrefix + path);
+                if (info == null || info.version() == null || !info.version().equals(known.version)) {
+                    changed.add(new ChangedFile(path, file, known.size, known.modified, known.checksum));
+                    return null;
+                }
+            }
+            unchanged.increment();
+            return null;
+        }
+
+        /**
+         * A file that was only touched keeps its object, its new modification time is written to the index.
+         */
+        private void hash(Candidate candidate) throws IOException {
+            long checksum;
+            try {
+                checksum = checksum(candidate.file());
+            } catch (NoSuchFileException e) {
+                // deleted during the walk, the next sync deletes its object
+                return;
+            }
+            hashed.increment();
+
+            SyncIndex.IndexedFile known = candidate.known();
+            if (known != null && known.size == candidate.size() && known.checksum == checksum) {
+                SyncIndex.IndexedFile touched = new SyncIndex.IndexedFile(candidate.size(), candidate.modified(), checksum, known.version);
+                touched.seen = true;
+                index.put(candidate.path(), touched);
+                unchanged.increment();
+            } else {
+                changed.add(new ChangedFile(candidate.path(), candidate.file(), candidate.size(), candidate.modified(), checksum));
+            }
+        }
+
+        /**
+         * Lists one directory, forks a task for every subdirectory, and checks the files in batches.
+         * A directory that cannot be read fails the whole walk, because its files would otherwise be taken for deleted files.
+         */
+        private final class DirectoryTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final Path directory;
+
+            DirectoryTask(Path directory) {
+                this.directory = directory;
+            }
+
+            @Override
+            protected void compute() {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                List<Candidate> candidates = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        if (entry.equals(indexDirectory)) {
+                            continue;
+                        }
+                        BasicFileAttributes attributes;
+                        try {
+                            attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (NoSuchFileException e) {
+                            continue;
+                        }
+                        if (attributes.isDirectory()) {
+                            tasks.add(new DirectoryTask(entry));
+                        } else if (attributes.isRegularFile()) {
+                            Candidate candidate = check(entry, attributes);
+                            if (candidate != null) {
+                                candidates.add(candidate);
+                            }
+                            if (candidates.size() == FILES_PER_TASK) {
+                                tasks.add(new HashTask(candidates));
+                                candidates = new ArrayList<>();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (!candidates.isEmpty()) {
+                    tasks.add(new HashTask(candidates));
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        private final class HashTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final List<Candidate> candidates;
+
+            HashTask(List<Candidate> candidates) {
+                this.candidates = candidates;
+            }
+
+            @Override
+            protected void compute() {
+                try {
+                    for (Candidate candidate : candidates) {
+                        hash(candidate);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private final CloudStorageService service;
+        private final Path indexDirectory;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 1_000;
+        private boolean deleteOrphans;
+        private boolean verifyRemote;
+        private String encryptionKey;
+        private String storageClass;
+
+        private Builder(CloudStorageService service, Path indexDirectory) {
+            this.service = service;
+            this.indexDirectory = indexDirectory;
+        }
+
+        /**
+         * @param parallelism the number of threads that walk the directory and compute checksums
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param batchSize the maximum number of files that are passed to one {@link CloudStorageService#uploadObjects}
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param deleteOrphans true to delete the objects of deleted files
+         */
+        public Builder deleteOrphans(boolean deleteOrphans) {
+            this.deleteOrphans = deleteOrphans;
+            return this;
+        }
+
+        /**
+         * @param verifyRemote true to compare the version of every unchanged file with the one of its object
+         */
+        public Builder verifyRemote(boolean verifyRemote) {
+            this.verifyRemote = verifyRemote;
+            return this;
+        }
+
+        /**
+         * @param encryptionKey the encryption key generated by SSE KMS
+         */
+        public Builder encryptionKey(String encryptionKey) {
+            this.encryptionKey = encryptionKey;
+            return this;
+        }
+
+        /**
+         * @param storageClass the storage class in which the objects will be stored in S3
+         */
+        public Builder storageClass(String storageClass) {
+            this.storageClass = storageClass;
+            return this;
+        }
+
+        public DirectorySync build() {
+            if (service == null || indexDirectory == null) {
+                throw new IllegalArgumentException("The service and the index directory are required");
+            }
+            if (parallelism <= 0 || batchSize <= 0) {
+                throw new IllegalArgumentException("Invalid parallelism or batch size");
+            }
+            return new DirectorySync(this);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package de.leomedia.cloud_gcstorage_awss3.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the state of the files of one synced directory, as it was when they were last uploaded.
+ * <p>
+ * The index is loaded into memory when a sync starts. Every uploaded or deleted file is appended to the index file
+ * as a PUT or DEL record, so a sync that is interrupted keeps the files it already uploaded.
+ * When the sync is done, the index file is rewritten with the current entries.
+ */
+final class SyncIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncIndex.class);
+
+    private static final String NULL_FIELD = "-";
+
+    private final Path file;
+    private final Map<String, IndexedFile> files = new ConcurrentHashMap<>();
+    private FileChannel channel;
+
+    /**
+     * The state of a file when it was uploaded. The walk marks every file it finds as seen,
+     * so the entries that are not seen afterwards belong to deleted files.
+     */
+    static final class IndexedFile {
+
+        final long size;
+        final long modified;
+        final long checksum;
+        final String version;
+        volatile boolean seen;
+
+        IndexedFile(long size, long modified, long checksum, String version) {
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+            this.version = version;
+        }
+    }
+
+    SyncIndex(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        load();
+        rewrite();
+    }
+
+    IndexedFile get(String path) {
+        return files.get(path);
+    }
+
+    Map<String, IndexedFile> files() {
+        return files;
+    }
+
+    synchronized void put(String path, IndexedFile indexedFile) throws IOException {
+        files.put(path, indexedFile);
+        append(putRecord(path, indexedFile));
+    }
+
+    synchronized void remove(String path) throws IOException {
+        if (files.remove(path) != null) {
+            append("DEL " + encode(path) + "\n");
+        }
+    }
+
+    /**
+     * This method replaces the index file with the current entries, which drops the records of replaced and deleted files.
+     */
+    synchronized void compact() throws IOException {
+        rewrite();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String[] fields = line.split(" ", -1);
+                    if ("PUT".equals(fields[0]) && fields.length == 6) {
+                        files.put(decode(fields[1]), new IndexedFile(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                                Long.parseLong(fields[4]), NULL_FIELD.equals(fields[5]) ? null : decode(fields[5])));
+                    } else if ("DEL".equals(fields[0])) {
+                        files.remove(decode(fields[1]));
+                    }
+                } catch (RuntimeException e) {
+                    // the last record may be torn by a crash, its file is uploaded again
+                    logger.warn("Skipping invalid sync index record: {}", line);
+                }
+            }
+        }
+    }
+
+    private void append(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void rewrite() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, IndexedFile> entry : files.entrySet()) {
+                writer.write(putRecord(entry.getKey(), entry.getValue()));
+            }
+        }
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            out.force(true);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static String putRecord(String path, IndexedFile indexedFile) {
+        return "PUT " + encode(path) + " " + indexedFile.size + " " + indexedFile.modified + " " + indexedFile.checksum
+                + " " + (indexedFile.version == null ? NULL_FIELD : encode(indexedFile.version)) + "\n";
+    }
+
+    /**
+     * Base64 never contains a space or a line break, so any path fits into a single field.
+     */
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String field) {
+        return new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+}
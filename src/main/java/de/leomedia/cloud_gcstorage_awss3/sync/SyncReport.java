@@ -0,0 +1,26 @@
+package de.leomedia.cloud_gcstorage_awss3.sync;
+
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * This record holds the outcome of one {@link DirectorySync#sync}.
+ *
+ * @param scanned the number of files in the directory
+ * @param unchanged the number of files that were not uploaded, because they did not change since the last sync
+ * @param hashed the number of files whose checksum was computed, because their size or modification time changed
+ * @param uploaded the number of uploaded files
+ * @param uploadedBytes the number of uploaded bytes
+ * @param deleted the number of objects that were deleted, because their file was deleted
+ * @param failures the uploads and deletes that failed, they are retried by the next sync
+ * @param duration the time the sync took
+ */
+public record SyncReport(long scanned, long unchanged, long hashed, long uploaded, long uploadedBytes, long deleted,
+                         List<UploadResult> failures, Duration duration) {
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+}
@@ -0,0 +1,24 @@
+package de.leomedia.cloud_gcstorage_awss3.tiered;
+
+/**
+ * Decides what a {@link WriteBackCloudStorageService} does with an upload that does not fit into the staging directory.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Waits until enough staged uploads are flushed, at most for the block timeout of the {@link TierOptions}.
+     */
+    BLOCK,
+
+    /**
+     * Fails the upload with an {@link java.io.IOException} right away.
+     */
+    REJECT,
+
+    /**
+     * Uploads the file directly to the backing provider and waits for it, like without the tier.
+     * If an older version of the object is still staged, the upload waits like {@link #BLOCK} instead,
+     * so the older version cannot overwrite the newer one.
+     */
+    WRITE_THROUGH
+}
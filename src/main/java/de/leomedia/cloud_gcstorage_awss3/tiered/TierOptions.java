@@ -0,0 +1,183 @@
+package de.leomedia.cloud_gcstorage_awss3.tiered;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * This class holds the settings of a {@link WriteBackCloudStorageService}.
+ * <p>
+ * Uploads are staged in the staging directory until they are flushed to the backing provider.
+ * The staged files take at most capacityBytes of disk space, uploads beyond that are handled
+ * by the {@link BackpressurePolicy}. A failed flush is retried after the retry delay,
+ * which doubles with every attempt up to the max retry delay.
+ * A presigned URL of a staged object is only generated once the object is flushed, which it waits for
+ * at most the flush timeout.
+ */
+public final class TierOptions {
+
+    public static final long DEFAULT_CAPACITY_BYTES = 10L * 1024 * 1024 * 1024;
+    public static final Duration DEFAULT_BLOCK_TIMEOUT = Duration.ofSeconds(30);
+    public static final int DEFAULT_FLUSH_BATCH_SIZE = 256;
+    public static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_RETRY_DELAY = Duration.ofMinutes(1);
+    public static final Duration DEFAULT_FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Path stagingDirectory;
+    private final long capacityBytes;
+    private final BackpressurePolicy backpressurePolicy;
+    private final Duration blockTimeout;
+    private final int flushBatchSize;
+    private final Duration retryDelay;
+    private final Duration maxRetryDelay;
+    private final Duration flushTimeout;
+
+    private TierOptions(Builder builder) {
+        this.stagingDirectory = builder.stagingDirectory;
+        this.capacityBytes = builder.capacityBytes;
+        this.backpressurePolicy = builder.backpressurePolicy;
+        this.blockTimeout = builder.blockTimeout;
+        this.flushBatchSize = builder.flushBatchSize;
+        this.retryDelay = builder.retryDelay;
+        this.maxRetryDelay = builder.maxRetryDelay;
+        this.flushTimeout = builder.flushTimeout;
+    }
+
+    /**
+     * @param stagingDirectory the directory of the staged files and the journal
+     */
+    public static Builder builder(Path stagingDirectory) {
+        return new Builder(stagingDirectory);
+    }
+
+    /**
+     * @return the directory of the staged files and the journal
+     */
+    public Path stagingDirectory() {
+        return stagingDirectory;
+    }
+
+    /**
+     * @return the maximum number of bytes of all staged files
+     */
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @return what happens to an upload that does not fit into the staging directory
+     */
+    public BackpressurePolicy backpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * @return how long an upload waits for space with the {@link BackpressurePolicy#BLOCK} policy
+     */
+    public Duration blockTimeout() {
+        return blockTimeout;
+    }
+
+    /**
+     * @return the maximum number of staged uploads that are flushed together
+     */
+    public int flushBatchSize() {
+        return flushBatchSize;
+    }
+
+    /**
+     * @return the delay before the first retry of a failed flush
+     */
+    public Duration retryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * @return the maximum delay between two retries of a failed flush
+     */
+    public Duration maxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * @return how long a presigned URL of a staged object waits for the object to be flushed
+     */
+    public Duration flushTimeout() {
+        return flushTimeout;
+    }
+
+    public static final class Builder {
+
+        private final Path stagingDirectory;
+        private long capacityBytes = DEFAULT_CAPACITY_BYTES;
+        private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+        private Duration blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+        private int flushBatchSize = DEFAULT_FLUSH_BATCH_SIZE;
+        private Duration retryDelay = DEFAULT_RETRY_DELAY;
+        private Duration maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+        private Duration flushTimeout = DEFAULT_FLUSH_TIMEOUT;
+
+        private Builder(Path stagingDirectory) {
+            this.stagingDirectory = stagingDirectory;
+        }
+
+        public Builder capacityBytes(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+            return this;
+        }
+
+        public Builder backpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
+        public Builder blockTimeout(Duration blockTimeout) {
+            this.blockTimeout = blockTimeout;
+            return this;
+        }
+
+        public Builder flushBatchSize(int flushBatchSize) {
+            this.flushBatchSize = flushBatchSize;
+            return this;
+        }
+
+        public Builder retryDelay(Duration retryDelay) {
+            this.retryDelay = retryDelay;
+            return this;
+        }
+
+        public Builder maxRetryDelay(Duration maxRetryDelay) {
+            this.maxRetryDelay = maxRetryDelay;
+            return this;
+        }
+
+        public Builder flushTimeout(Duration flushTimeout) {
+            this.flushTimeout = flushTimeout;
+            return this;
+        }
+
+        public TierOptions build() {
+            if (stagingDirectory == null) {
+                throw new IllegalArgumentException("Missing staging directory");
+            }
+            if (capacityBytes <= 0) {
+                throw new IllegalArgumentException("Invalid capacity: " + capacityBytes);
+            }
+            if (backpressurePolicy == null) {
+                throw new IllegalArgumentException("Missing backpressure policy");
+            }
+            if (blockTimeout == null || blockTimeout.isNegative()) {
+                throw new IllegalArgumentException("Invalid block timeout: " + blockTimeout);
+            }
+            if (flushBatchSize <= 0) {
+                throw new IllegalArgumentException("Invalid flush batch size: " + flushBatchSize);
+            }
+            if (retryDelay == null || retryDelay.isNegative() || maxRetryDelay == null || maxRetryDelay.compareTo(retryDelay) < 0) {
+                throw new IllegalArgumentException("Invalid retry delay: " + retryDelay + " up to " + maxRetryDelay);
+            }
+            if (flushTimeout == null || flushTimeout.isNegative()) {
+                throw new IllegalArgumentException("Invalid flush timeout: " + flushTimeout);
+            }
+            return new TierOptions(this);
+        }
+    }
+}
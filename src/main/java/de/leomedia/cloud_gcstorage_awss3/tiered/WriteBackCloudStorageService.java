@@ -0,0 +1,711 @@
+package de.leomedia.cloud_gcstorage_awss3.tiered;
+
+import de.leomedia.cloud_gcstorage_awss3.BulkUploader;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.DaemonThreadFactory;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A write-back tier in front of another {@link CloudStorageService}.
+ * <p>
+ * An upload is copied into the staging directory, recorded in the {@link WriteBackJournal} and acknowledged,
+ * so the caller only waits for the local disk. A background thread flushes the staged uploads in batches
+ * with {@link CloudStorageService#uploadObjects} of the backing provider and retries failed uploads with backoff.
+ * Uploads that are still pending after a restart are flushed by the next instance with the same staging directory.
+ * <p>
+ * Only the latest staged version of an object is flushed, and a newer version is never flushed
+ * before an older version of the same object is done, so the backing provider always ends up with the latest version.
+ * A presigned URL is always one of the backing provider, so an object that is not flushed yet is flushed first,
+ * ahead of the other staged uploads.
+ * Staged uploads keep their user metadata, which is passed to the backing provider when they are flushed.
+ * A delete is staged like an upload, so a pending older version cannot store the object again after it was deleted.
+ */
+public class WriteBackCloudStorageService implements CloudStorageService, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBackCloudStorageService.class);
+
+    private final CloudStorageService delegate;
+    private final TierOptions options;
+    private final WriteBackJournal journal;
+    private final BulkUploader bulkUploader;
+
+    private final Map<ObjectId, PendingUpload> latest = new ConcurrentHashMap<>();
+    private final Map<Long, PendingUpload> pending = new ConcurrentHashMap<>();
+    private final DelayQueue<PendingUpload> queue = new DelayQueue<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spaceFreed = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private long stagedBytes;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * This constructor recovers the pending uploads of the staging directory and starts flushing them.
+     *
+     * @param delegate the backing provider
+     * @param options the staging directory, capacity and backpressure settings
+     * @throws IOException if the staging directory or its journal cannot be read
+     */
+    public WriteBackCloudStorageService(CloudStorageService delegate, TierOptions options) throws IOException {
+        this.delegate = delegate;
+        this.options = options;
+        this.journal = new WriteBackJournal(options.stagingDirectory());
+        this.bulkUploader = new BulkUploader(TransferOptions.DEFAULT_BULK_CONCURRENCY);
+
+        List<WriteBackJournal.Entry> recovered = journal.recover();
+        for (WriteBackJournal.Entry entry : recovered) {
+            PendingUpload upload = new PendingUpload(entry, journal.dataFile(entry.id()));
+            stagedBytes += Math.max(0, entry.size());
+            pending.put(entry.id(), upload);
+            latest.put(upload.objectId(), upload);
+            queue.add(upload);
+        }
+        if (!recovered.isEmpty()) {
+            logger.info("Recovered {} pending uploads with {} bytes from {}", recovered.size(), stagedBytes, options.stagingDirectory());
+        }
+
+        this.flusher = new DaemonThreadFactory("write-back-flush").newThread(this::flushLoop);
+        this.flusher.start();
+    }
+
+    /**
+     * This method stages the file and returns as soon as it is recorded in the journal.
+     * The object is uploaded to the backing provider later.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @param file the full file path of an object
+     * @param encryptionKey the encryption key generated by SSE KMS
+     * @param storageClass the storage class in which the object will be stored in S3
+     * @throws IOException if the file cannot be staged, or if the {@link BackpressurePolicy} refuses it
+     */
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        stageOrWriteThrough(bucketName, new UploadSpec(key, file, encryptionKey, storageClass));
+    }
+
+    /**
+     * This method stages many files concurrently with the {@link BulkUploader}.
+     * A result is successful once its file is staged, not once it is uploaded to the backing provider.
+     *
+     * @param bucketName the name of a bucket
+     * @param uploads the objects to upload
+     * @return one {@link UploadResult} per object, in the order of the given uploads
+     */
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        return bulkUploader.uploadAll(uploads, upload -> stageOrWriteThrough(bucketName, upload));
+    }
+
+    /**
+     * This method copies the staged file if the object is not flushed yet,
+     * otherwise it downloads the object from the backing provider.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param target the file to write, an existing file is replaced
+     */
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        PendingUpload upload = latest.get(new ObjectId(bucketName, key));
+        if (upload != null && upload.entry().isDelete()) {
+            throw new NoSuchFileException(key);
+        }
+        if (upload != null) {
+            try {
+                Files.copy(upload.dataFile(), target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (NoSuchFileException e) {
+                // flushed in the meantime
+            }
+        }
+        delegate.downloadObject(bucketName, key, target);
+    }
+
+    /**
+     * This method reads the range from the staged file if the object is not flushed yet, otherwise from the backing provider.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes of the range
+     * @return the bytes of the range, fewer if the object ends inside the range
+     * @throws IOException if the object does not exist or cannot be read
+     */
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        PendingUpload upload = latest.get(new ObjectId(bucketName, key));
+        if (upload != null && upload.entry().isDelete()) {
+            throw new NoSuchFileException(key);
+        }
+        if (upload != null) {
+            try (FileChannel channel = FileChannel.open(upload.dataFile(), StandardOpenOption.READ)) {
+                ByteBuffer range = ByteBuffer.allocate(length);
+                while (range.hasRemaining() && channel.read(range, offset + range.position()) >= 0) {
+                    // read until the range is complete or the file ends
+                }
+                return Arrays.copyOf(range.array(), range.position());
+            } catch (NoSuchFileException e) {
+                // flushed in the meantime
+            }
+        }
+        return delegate.readRange(bucketName, key, offset, length);
+    }
+
+    /**
+     * This method flushes the object first if it is staged, or waits for its running flush,
+     * and returns the presigned URL of the backing provider.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @param minutes given timestamp in minutes in which the url is valid
+     * @param encryptionKey given encryption key for decrypting objects
+     * @return generated signed {@link URL}
+     * @throws UncheckedIOException if the staged object is not flushed within the flush timeout
+     */
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        try {
+            awaitFlushed(new ObjectId(bucketName, key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return delegate.getPresignedUrl(bucketName, key, minutes, encryptionKey);
+    }
+
+    /**
+     * This method flushes the staged objects first and presigns all keys with the backing provider.
+     * A staged object that is not flushed within the flush timeout is passed to the sink with a null URL.
+     */
+    @Override
+    public void presignAll(String bucketName, Iterable<String> keys, Integer minutes, BiConsumer<String, URL> sink) {
+        Iterable<String> remoteKeys = () -> new Iterator<>() {
+            private final Iterator<String> iterator = keys.iterator();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    String key = iterator.next();
+                    try {
+                        awaitFlushed(new ObjectId(bucketName, key));
+                        next = key;
+                    } catch (IOException e) {
+                        logger.warn("Could not presign {}: {}", key, e.getMessage());
+                        sink.accept(key, null);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String key = next;
+                next = null;
+                return key;
+            }
+        };
+        delegate.presignAll(bucketName, remoteKeys, minutes, sink);
+    }
+
+    /**
+     * This method returns the metadata of the staged upload if the object is not flushed yet,
+     * otherwise the metadata of the backing provider. The version of a staged object is only known to this tier.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @return the {@link ObjectInfo}, or null if the object does not exist
+     */
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        PendingUpload upload = latest.get(new ObjectId(bucketName, key));
+        if (upload != null && upload.entry().isDelete()) {
+            return null;
+        }
+        if (upload != null) {
+            WriteBackJournal.Entry entry = upload.entry();
+            return new ObjectInfo(key, entry.size(), "staged-" + entry.id(), entry.metadata());
+        }
+        return delegate.getObjectInfo(bucketName, key);
+    }
+
+    /**
+     * This method lists the pages of the backing provider with the pending uploads of the bucket on the first page,
+     * and without the objects that have a pending upload or delete. An upload that is flushed while the listing runs
+     * may be listed twice, once as staged and once by the backing provider.
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        List<ObjectInfo> staged = latest.entrySet().stream()
+                .filter(e -> e.getKey().bucketName().equals(bucketName) && !e.getValue().entry().isDelete())
+                .map(e -> {
+                    WriteBackJournal.Entry entry = e.getValue().entry();
+                    return new ObjectInfo(entry.key(), entry.size(), "staged-" + entry.id(), null);
+                })
+                .toList();
+        return delegate.listPage(bucketName, prefix, delimiter, pageToken)
+                .merge(prefix, delimiter, pageToken == null, staged, key -> latest.containsKey(new ObjectId(bucketName, key)));
+    }
+
+    /**
+     * This method stages a copy of the staged file if the source is not flushed yet.
+     * If only the target is pending, the source is downloaded and staged as well, so the pending version of the target
+     * cannot overwrite the copy when it is flushed. Otherwise the backing provider copies the object.
+     *
+     * @param bucketName the name of a bucket
+     * @param sourceKey the name of the object to copy
+     * @param targetKey the name of the copy, an existing object is replaced
+     * @param encryptionKey the encryption key generated by SSE KMS for the copy
+     * @param storageClass the storage class in which the copy will be stored in S3
+     * @throws IOException if the source object does not exist or the copy cannot be staged
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        PendingUpload source = latest.get(new ObjectId(bucketName, sourceKey));
+        if (source != null && source.entry().isDelete()) {
+            throw new NoSuchFileException(sourceKey);
+        }
+        if (source != null) {
+            try {
+                stageOrWriteThrough(bucketName, new UploadSpec(targetKey, source.dataFile().toString(), encryptionKey, storageClass,
+                        source.entry().metadata(), source.entry().compressible()));
+                return;
+            } catch (NoSuchFileException e) {
+                // flushed in the meantime
+            }
+        }
+
+        if (!latest.containsKey(new ObjectId(bucketName, targetKey))) {
+            delegate.copyObject(bucketName, sourceKey, targetKey, encryptionKey, storageClass);
+            return;
+        }
+
+        ObjectInfo info = delegate.getObjectInfo(bucketName, sourceKey);
+        if (info == null) {
+            throw new NoSuchFileException(sourceKey);
+        }
+        Path temporary = Files.createTempFile(options.stagingDirectory(), "copy-", ".tmp");
+        try {
+            delegate.downloadObject(bucketName, sourceKey, temporary);
+            stageOrWriteThrough(bucketName, new UploadSpec(targetKey, temporary.toString(), encryptionKey, storageClass, info.metadata()));
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * This method stages the delete and returns as soon as it is recorded in the journal.
+     * Until it is flushed, the object is missing for downloads, metadata and copies of this tier.
+     *
+     * @param bucketName the name of a bucket
+     * @param key the name of the object
+     * @throws IOException if the delete cannot be recorded
+     */
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        if (closed) {
+            throw new IOException("The write-back tier is closed");
+        }
+        WriteBackJournal.Entry entry = WriteBackJournal.Entry.delete(journal.nextId(), bucketName, key);
+        PendingUpload pendingDelete = new PendingUpload(entry, journal.dataFile(entry.id()));
+
+        pending.put(entry.id(), pendingDelete);
+        try {
+            journal.appendPut(entry);
+        } catch (IOException | RuntimeException e) {
+            pending.remove(entry.id());
+            throw e;
+        }
+        latest.put(pendingDelete.objectId(), pendingDelete);
+        queue.add(pendingDelete);
+        logger.info("Delete of {} staged for bucket {}", key, bucketName);
+    }
+
+    /**
+     * @param bucketName the name of a bucket
+     * @param key the name of an object
+     * @return the staged file of the object, or null if the object is not staged.
+     * The file is deleted once the object is flushed.
+     */
+    public Path stagedFile(String bucketName, String key) {
+        PendingUpload upload = latest.get(new ObjectId(bucketName, key));
+        return upload == null || upload.entry().isDelete() ? null : upload.dataFile();
+    }
+
+    /**
+     * @return the number of staged uploads that are not flushed yet
+     */
+    public int pendingUploads() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of bytes of all staged files
+     */
+    public long stagedBytes() {
+        lock.lock();
+        try {
+            return stagedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method waits until every staged upload is flushed to the backing provider.
+     *
+     * @param timeout the maximum time to wait
+     * @return true if nothing is pending anymore, false if the timeout elapsed
+     */
+    public boolean awaitFlushed(Duration timeout) throws InterruptedException {
+        long nanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = flushed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This method stops flushing after the current batch. Uploads that are still pending stay in the journal
+     * and are flushed by the next instance with the same staging directory.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * This method moves the pending upload or delete of the object to the head of the flush queue,
+     * unless it is being flushed already, and waits until it is flushed.
+     *
+     * @throws IOException if the object is not flushed within the flush timeout
+     */
+    private void awaitFlushed(ObjectId objectId) throws IOException {
+        if (!latest.containsKey(objectId)) {
+            return;
+        }
+        long nanos = options.flushTimeout().toNanos();
+        lock.lock();
+        try {
+            PendingUpload upload;
+            while ((upload = latest.get(objectId)) != null) {
+                // the delay of an upload in the queue must not change, so it is taken out and added again
+                if (queue.remove(upload)) {
+                    upload.notBefore = System.nanoTime();
+                    queue.add(upload);
+                }
+                if (nanos <= 0) {
+                    throw new IOException("Object " + objectId.key() + " of bucket " + objectId.bucketName()
+                            + " is not flushed after " + options.flushTimeout().toMillis() + " ms");
+                }
+                nanos = flushed.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the flush of " + objectId.key());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long stageOrWriteThrough(String bucketName, UploadSpec upload) throws IOException {
+        if (closed) {
+            throw new IOException("The write-back tier is closed");
+        }
+        Path source = Paths.get(upload.file());
+        long size = Files.size(source);
+        ObjectId objectId = new ObjectId(bucketName, upload.key());
+
+        if (!reserve(objectId, size)) {
+            writeThrough(bucketName, upload);
+            logger.info("File {} written through to bucket {} as {}", upload.file(), bucketName, upload.key());
+            return size;
+        }
+        try {
+            stage(objectId, source, size, upload);
+        } catch (IOException | RuntimeException e) {
+            release(size);
+            throw e;
+        }
+        logger.info("File {} staged for bucket {} as {}", upload.file(), bucketName, upload.key());
+        return size;
+    }
+
+    /**
+     * This method reserves space in the staging directory according to the {@link BackpressurePolicy}.
+     *
+     * @return true if the space is reserved, false if the upload has to be written through
+     */
+    private boolean reserve(ObjectId objectId, long size) throws IOException {
+        BackpressurePolicy policy = options.backpressurePolicy();
+        lock.lock();
+        try {
+            if (stagedBytes + size <= options.capacityBytes()) {
+                stagedBytes += size;
+                return true;
+            }
+            if (policy == BackpressurePolicy.WRITE_THROUGH && !latest.containsKey(objectId)) {
+                return false;
+            }
+            if (policy == BackpressurePolicy.REJECT) {
+                throw new IOException("The staging directory is full, " + stagedBytes + " of " + options.capacityBytes() + " bytes are used");
+            }
+            if (size > options.capacityBytes()) {
+                throw new IOException("The file of " + size + " bytes is larger than the staging directory");
+            }
+
+            long nanos = options.blockTimeout().toNanos();
+            while (stagedBytes + size > options.capacityBytes()) {
+                if (nanos <= 0) {
+                    throw new IOException("Timed out waiting for space in the staging directory");
+                }
+                nanos = spaceFreed.awaitNanos(nanos);
+            }
+            stagedBytes += size;
+            return true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for space in the staging directory");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long size) {
+        lock.lock();
+        try {
+            stagedBytes -= size;
+            spaceFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The staged file is forced to disk before its PUT record is written, so a recorded upload always has its data.
+     */
+    private void stage(ObjectId objectId, Path source, long size, UploadSpec upload) throws IOException {
+        long id = journal.nextId();
+        Path dataFile = journal.dataFile(id);
+        Files.copy(source, dataFile);
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        journal.syncDirectory();
+
+        WriteBackJournal.Entry entry = new WriteBackJournal.Entry(id, objectId.bucketName(), objectId.key(),
+                upload.encryptionKey(), upload.storageClass(), size, upload.metadata(), upload.compressible());
+        PendingUpload pendingUpload = new PendingUpload(entry, dataFile);
+
+        // the upload is pending before its record is written, so a concurrent compaction keeps it
+        pending.put(id, pendingUpload);
+        try {
+            journal.appendPut(entry);
+        } catch (IOException | RuntimeException e) {
+            pending.remove(id);
+            Files.deleteIfExists(dataFile);
+            throw e;
+        }
+        latest.put(objectId, pendingUpload);
+        queue.add(pendingUpload);
+    }
+
+    private void writeThrough(String bucketName, UploadSpec upload) throws IOException {
+        UploadResult result = delegate.uploadObjects(bucketName, List.of(upload)).get(0);
+        if (!result.isSuccess()) {
+            if (result.error() instanceof IOException e) {
+                throw e;
+            }
+            throw new IOException("Could not upload " + upload.key() + " to the backing provider", result.error());
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                PendingUpload first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingUpload> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, options.flushBatchSize() - 1);
+                flush(batch);
+                journal.compactIfNeeded(() -> pending.values().stream().map(PendingUpload::entry).toList());
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | UncheckedIOException e) {
+                logger.error("Could not compact the write-back journal: {}", e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("Flushing staged uploads failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method uploads the latest version of every object of the batch, deletes the objects whose latest version
+     * is a delete, and completes the superseded versions.
+     * The batch is flushed before the next one is taken, so two versions of an object are never uploaded at the same time.
+     */
+    private void flush(List<PendingUpload> batch) {
+        Map<String, List<PendingUpload>> byBucket = new LinkedHashMap<>();
+        for (PendingUpload upload : batch) {
+            if (latest.get(upload.objectId()) != upload) {
+                complete(upload);
+            } else if (upload.entry().isDelete()) {
+                try {
+                    delegate.deleteObject(upload.entry().bucketName(), upload.entry().key());
+                    complete(upload);
+                } catch (IOException | RuntimeException e) {
+                    retry(upload, e);
+                }
+            } else {
+                byBucket.computeIfAbsent(upload.entry().bucketName(), b -> new ArrayList<>()).add(upload);
+            }
+        }
+
+        byBucket.forEach((bucketName, uploads) -> {
+            List<UploadSpec> specs = uploads.stream()
+                    .map(u -> new UploadSpec(u.entry().key(), u.dataFile().toString(), u.entry().encryptionKey(),
+                            u.entry().storageClass(), u.entry().metadata(), u.entry().compressible()))
+                    .toList();
+            List<UploadResult> results = delegate.uploadObjects(bucketName, specs);
+            for (int i = 0; i < uploads.size(); i++) {
+                if (results.get(i).isSuccess()) {
+                    complete(uploads.get(i));
+                } else {
+                    retry(uploads.get(i), results.get(i).error());
+                }
+            }
+        });
+    }
+
+    private void complete(PendingUpload upload) {
+        try {
+            journal.appendDone(upload.entry().id());
+        } catch (IOException e) {
+            // the upload is flushed again after a restart, which is harmless
+            logger.error("Could not record the flush of {}: {}", upload.entry().key(), e.getMessage());
+        }
+        latest.remove(upload.objectId(), upload);
+        try {
+            Files.deleteIfExists(upload.dataFile());
+        } catch (IOException e) {
+            logger.error("Could not delete the staged file {}: {}", upload.dataFile(), e.getMessage());
+        }
+
+        lock.lock();
+        try {
+            pending.remove(upload.entry().id());
+            stagedBytes -= Math.max(0, upload.entry().size());
+            spaceFreed.signalAll();
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void retry(PendingUpload upload, Exception error) {
+        int attempts = ++upload.attempts;
+        long delayNanos = Math.min(options.maxRetryDelay().toNanos(),
+                options.retryDelay().toNanos() << Math.min(attempts - 1, 30));
+        upload.notBefore = System.nanoTime() + delayNanos;
+        logger.warn("Flushing {} to bucket {} failed {} times, retrying in {} ms: {}", upload.entry().key(),
+                upload.entry().bucketName(), attempts, TimeUnit.NANOSECONDS.toMillis(delayNanos), error.getMessage());
+        queue.add(upload);
+    }
+
+    private record ObjectId(String bucketName, String key) {
+    }
+
+    /**
+     * A staged upload in the flush queue. It becomes available once its retry delay has passed.
+     */
+    private static final class PendingUpload implements Delayed {
+
+        private final WriteBackJournal.Entry entry;
+        private final Path dataFile;
+        private final ObjectId objectId;
+        private volatile long notBefore = System.nanoTime();
+        private int attempts;
+
+        PendingUpload(WriteBackJournal.Entry entry, Path dataFile) {
+            this.entry = entry;
+            this.dataFile = dataFile;
+            this.objectId = new ObjectId(entry.bucketName(), entry.key());
+        }
+
+        WriteBackJournal.Entry entry() {
+            return entry;
+        }
+
+        Path dataFile() {
+            return dataFile;
+        }
+
+        ObjectId objectId() {
+            return objectId;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notBefore - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int byDelay = Long.compare(notBefore, ((PendingUpload) other).notBefore);
+            return byDelay != 0 ? byDelay : Long.compare(entry.id(), ((PendingUpload) other).entry.id());
+        }
+    }
+}
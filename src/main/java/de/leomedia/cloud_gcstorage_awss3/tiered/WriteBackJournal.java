@@ -0,0 +1,255 @@
+package de.leomedia.cloud_gcstorage_awss3.tiered;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps the journal of a {@link WriteBackCloudStorageService} in its staging directory.
+ * <p>
+ * Every staged upload is written to the journal as a PUT record before it is acknowledged,
+ * and as a DONE record once it is flushed. Each record is forced to disk, so after a crash
+ * the PUT records without a DONE record are exactly the uploads that still have to be flushed.
+ * A staged delete is a PUT record with a size of -1, which has no staged file.
+ * The journal is compacted to its pending records on start and after many DONE records.
+ */
+final class WriteBackJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBackJournal.class);
+
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final String DATA_SUFFIX = ".data";
+    private static final String NULL_FIELD = "-";
+    private static final int COMPACT_AFTER_DONE_RECORDS = 10_000;
+
+    private final Path directory;
+    private FileChannel channel;
+    private long nextId;
+    private int doneRecords;
+
+    /**
+     * A staged upload as it is recorded in the journal.
+     */
+    record Entry(long id, String bucketName, String key, String encryptionKey, String storageClass, long size,
+                 Map<String, String> metadata, boolean compressible) {
+
+        Entry {
+            metadata = metadata == null ? Map.of() : Map.copyOf(metadata);
+        }
+
+        /**
+         * @return a staged delete of the object
+         */
+        static Entry delete(long id, String bucketName, String key) {
+            return new Entry(id, bucketName, key, null, null, -1, Map.of(), true);
+        }
+
+        boolean isDelete() {
+            return size < 0;
+        }
+    }
+
+    WriteBackJournal(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * This method reads the pending uploads of the journal and deletes the staged files that do not belong to one.
+     * It has to be called once before any other method.
+     *
+     * @return the pending uploads in the order they were staged
+     */
+    synchronized List<Entry> recover() throws IOException {
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        SortedMap<Long, Entry> pending = new TreeMap<>();
+        long maxId = 0;
+
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        String[] fields = line.split(" ", -1);
+                        long id = Long.parseLong(fields[1]);
+                        maxId = Math.max(maxId, id);
+                        if ("PUT".equals(fields[0]) && fields.length == 9) {
+                            pending.put(id, new Entry(id, decode(fields[3]), decode(fields[4]), decode(fields[5]),
+                                    decode(fields[6]), Long.parseLong(fields[2]), decodeMetadata(fields[7]), Boolean.parseBoolean(fields[8])));
+                        } else if ("DONE".equals(fields[0])) {
+                            pending.remove(id);
+                        }
+                    } catch (RuntimeException e) {
+                        // the last record may be torn by a crash, it was never acknowledged
+                        logger.warn("Skipping invalid journal record: {}", line);
+                    }
+                }
+            }
+        }
+
+        List<Entry> recovered = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            Path dataFile = dataFile(entry.id());
+            if (entry.isDelete() || Files.exists(dataFile) && Files.size(dataFile) == entry.size()) {
+                recovered.add(entry);
+            } else {
+                logger.error("The staged file of {} in bucket {} is missing, it cannot be flushed", entry.key(), entry.bucketName());
+            }
+        }
+
+        Set<Path> keep = new HashSet<>();
+        recovered.forEach(entry -> keep.add(dataFile(entry.id())));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DATA_SUFFIX)) {
+            for (Path file : files) {
+                if (!keep.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        nextId = maxId + 1;
+        rewrite(recovered);
+        return recovered;
+    }
+
+    /**
+     * @return a new id for a staged upload
+     */
+    synchronized long nextId() {
+        return nextId++;
+    }
+
+    /**
+     * @return the staged file of the upload with the given id
+     */
+    Path dataFile(long id) {
+        return directory.resolve(id + DATA_SUFFIX);
+    }
+
+    synchronized void appendPut(Entry entry) throws IOException {
+        append(putRecord(entry));
+    }
+
+    synchronized void appendDone(long id) throws IOException {
+        append("DONE " + id + "\n");
+        doneRecords++;
+    }
+
+    /**
+     * This method replaces the journal with the PUT records of the pending uploads once enough DONE records were written.
+     *
+     * @param pending returns the pending uploads, it is called while no other record can be written
+     */
+    synchronized void compactIfNeeded(Supplier<Collection<Entry>> pending) throws IOException {
+        if (doneRecords >= COMPACT_AFTER_DONE_RECORDS) {
+            rewrite(pending.get());
+        }
+    }
+
+    /**
+     * Forces a newly created staged file into its directory, so the file survives a crash together with its PUT record.
+     */
+    void syncDirectory() {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // not every file system allows to open a directory, the data file itself is already forced
+            logger.debug("Could not sync the staging directory: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void append(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private void rewrite(Collection<Entry> pending) throws IOException {
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        Path temporary = directory.resolve(JOURNAL_FILE + ".tmp");
+
+        StringBuilder records = new StringBuilder();
+        pending.stream()
+                .sorted(Comparator.comparingLong(Entry::id))
+                .forEach(entry -> records.append(putRecord(entry)));
+
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temporary, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        doneRecords = 0;
+    }
+
+    private static String putRecord(Entry entry) {
+        return "PUT " + entry.id() + " " + entry.size() + " " + encode(entry.bucketName()) + " " + encode(entry.key())
+                + " " + encode(entry.encryptionKey()) + " " + encode(entry.storageClass()) + " " + encodeMetadata(entry.metadata()) + " " + entry.compressible() + "\n";
+    }
+
+    /**
+     * The metadata is written as comma separated pairs of encoded names and values, which are separated by a colon.
+     */
+    private static String encodeMetadata(Map<String, String> metadata) {
+        if (metadata.isEmpty()) {
+            return NULL_FIELD;
+        }
+        StringJoiner pairs = new StringJoiner(",");
+        new TreeMap<>(metadata).forEach((name, value) -> pairs.add(encode(name) + ":" + encode(value)));
+        return pairs.toString();
+    }
+
+    private static Map<String, String> decodeMetadata(String field) {
+        if (NULL_FIELD.equals(field)) {
+            return Map.of();
+        }
+        Map<String, String> metadata = new HashMap<>();
+        for (String pair : field.split(",")) {
+            int separator = pair.indexOf(':');
+            metadata.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+        }
+        return metadata;
+    }
+
+    /**
+     * Base64 never contains a space, a line break or the null marker, so any value fits into a single field.
+     */
+    private static String encode(String value) {
+        return value == null ? NULL_FIELD : Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String field) {
+        return NULL_FIELD.equals(field) ? null : new String(Base64.getDecoder().decode(field), StandardCharsets.UTF_8);
+    }
+}
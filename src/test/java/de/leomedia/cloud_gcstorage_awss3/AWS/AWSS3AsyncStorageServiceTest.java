@@ -0,0 +1,84 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test uploads files through the {@link AWSS3AsyncStorageService} to the {@link FakeS3Server}.
+ */
+class AWSS3AsyncStorageServiceTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String KMS_KEY = "arn:aws:kms:eu-central-1:000000000000:key/test";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3AsyncClient s3AsyncClient;
+    private AWSS3AsyncStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3AsyncClient = server.newAsyncClient();
+        storageService = new AWSS3AsyncStorageService(s3AsyncClient, null, TransferOptions.builder()
+                .multipartThreshold(1024 * 1024)
+                .partSize(256 * 1024)
+                .minimumPartSize(256 * 1024)
+                .maxConcurrency(3)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3AsyncClient.close();
+        server.close();
+    }
+
+    @Test
+    void uploadsSmallAndLargeFilesConcurrently() throws IOException {
+        byte[] small = randomBytes(10 * 1024);
+        byte[] large = randomBytes(2 * 1024 * 1024 + 5);
+        Path smallFile = Files.write(tempDir.resolve("small.bin"), small);
+        Path largeFile = Files.write(tempDir.resolve("large.bin"), large);
+
+        List<CompletableFuture<Void>> uploads = List.of(
+                storageService.uploadObject(BUCKET, "small.bin", smallFile.toString(), KMS_KEY, "STANDARD"),
+                storageService.uploadObject(BUCKET, "large.bin", largeFile.toString(), KMS_KEY, "STANDARD"));
+        CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+
+        assertArrayEquals(small, server.object(BUCKET, "small.bin").content());
+        FakeS3Server.StoredObject stored = server.object(BUCKET, "large.bin");
+        assertArrayEquals(large, stored.content());
+        assertEquals(9, stored.partCount());
+        assertEquals(KMS_KEY, stored.headers().get("x-amz-server-side-encryption-aws-kms-key-id"));
+    }
+
+    @Test
+    void failsForMissingFile() {
+        CompletableFuture<Void> upload = storageService.uploadObject(BUCKET, "missing.bin",
+                tempDir.resolve("missing.bin").toString(), KMS_KEY, "STANDARD");
+
+        assertTrue(upload.isCompletedExceptionally());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
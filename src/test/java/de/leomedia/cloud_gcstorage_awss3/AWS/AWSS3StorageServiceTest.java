@@ -0,0 +1,344 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.ContentCompressor;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * This test uploads files through the {@link AWSS3StorageService} to the {@link FakeS3Server}.
+ */
+class AWSS3StorageServiceTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String KMS_KEY = "arn:aws:kms:eu-central-1:000000000000:key/test";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        storageService = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .multipartThreshold(1024 * 1024)
+                .partSize(256 * 1024)
+                .minimumPartSize(256 * 1024)
+                .maxConcurrency(3)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void uploadsSmallFileInSingleRequest() throws IOException {
+        byte[] content = randomBytes(100 * 1024);
+        Path file = Files.write(tempDir.resolve("small.bin"), content);
+
+        storageService.uploadObject(BUCKET, "small.bin", file.toString(), KMS_KEY, "STANDARD_IA");
+
+        FakeS3Server.StoredObject stored = server.object(BUCKET, "small.bin");
+        assertArrayEquals(content, stored.content());
+        assertEquals(0, stored.partCount());
+        assertEquals("aws:kms", stored.headers().get("x-amz-server-side-encryption"));
+        assertEquals(KMS_KEY, stored.headers().get("x-amz-server-side-encryption-aws-kms-key-id"));
+        assertEquals("STANDARD_IA", stored.headers().get("x-amz-storage-class"));
+    }
+
+    @Test
+    void reportsThrottledUploadsToTheCaller() throws IOException {
+        Path file = Files.write(tempDir.resolve("small.bin"), randomBytes(1024));
+        server.failNext(10);
+
+        S3Exception e = assertThrows(S3Exception.class,
+                () -> storageService.uploadObject(BUCKET, "small.bin", file.toString(), KMS_KEY, null));
+
+        assertEquals(503, e.statusCode());
+        assertNull(server.object(BUCKET, "small.bin"));
+    }
+
+    @Test
+    void uploadsLargeFileInParts() throws IOException {
+        byte[] content = randomBytes(5 * 1024 * 1024 + 17);
+        Path file = Files.write(tempDir.resolve("large.bin"), content);
+
+        storageService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, "STANDARD_IA");
+
+        FakeS3Server.StoredObject stored = server.object(BUCKET, "large.bin");
+        assertArrayEquals(content, stored.content());
+        assertEquals(21, stored.partCount());
+        assertEquals("aws:kms", stored.headers().get("x-amz-server-side-encryption"));
+        assertEquals(KMS_KEY, stored.headers().get("x-amz-server-side-encryption-aws-kms-key-id"));
+        assertEquals("STANDARD_IA", stored.headers().get("x-amz-storage-class"));
+    }
+
+    @Test
+    void sendsChecksumsOfSingleAndMultipartUploads() throws IOException {
+        byte[] small = randomBytes(100 * 1024);
+        byte[] large = randomBytes(5 * 1024 * 1024 + 17);
+        List<UploadSpec> uploads = List.of(
+                new UploadSpec("small.bin", Files.write(tempDir.resolve("small.bin"), small).toString(), KMS_KEY, null),
+                new UploadSpec("large.bin", Files.write(tempDir.resolve("large.bin"), large).toString(), KMS_KEY, null));
+
+        List<UploadResult> results = storageService.uploadObjects(BUCKET, uploads);
+
+        String crc32c = UploadChecksum.CRC32C.base64(ByteBuffer.wrap(small));
+        assertEquals(new ContentChecksum("CRC32C", crc32c), results.get(0).checksum());
+        assertEquals(crc32c, server.object(BUCKET, "small.bin").headers().get("x-amz-checksum-crc32c"));
+
+        ContentChecksum multipart = results.get(1).checksum();
+        assertEquals("CRC32C", multipart.algorithm());
+        assertTrue(multipart.value().endsWith("-21"), multipart.value());
+        assertFalse(multipart.isFullObject());
+        assertEquals("CRC32C", server.object(BUCKET, "large.bin").headers().get("x-amz-checksum-algorithm"));
+    }
+
+    @Test
+    void rejectsCorruptedUploads() throws IOException {
+        AWSS3StorageService sha256Service = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .uploadChecksum(UploadChecksum.SHA256)
+                .build());
+        Path file = Files.write(tempDir.resolve("small.bin"), randomBytes(1024));
+        server.corruptNext(1);
+
+        S3Exception e = assertThrows(S3Exception.class,
+                () -> sha256Service.uploadObject(BUCKET, "small.bin", file.toString(), KMS_KEY, null));
+
+        assertEquals(400, e.statusCode());
+        assertNull(server.object(BUCKET, "small.bin"));
+
+        sha256Service.uploadObject(BUCKET, "small.bin", file.toString(), KMS_KEY, null);
+        assertNotNull(server.object(BUCKET, "small.bin").headers().get("x-amz-checksum-sha256"));
+    }
+
+    @Test
+    void abortsMultipartUploadWhenAPartFails() throws IOException {
+        Path file = Files.write(tempDir.resolve("large.bin"), randomBytes(2 * 1024 * 1024));
+        server.corruptNext(1);
+
+        S3Exception e = assertThrows(S3Exception.class,
+                () -> storageService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null));
+
+        assertEquals(400, e.statusCode());
+        assertNull(server.object(BUCKET, "large.bin"));
+        assertTrue(server.requests().contains("DELETE /" + BUCKET + "/large.bin?uploadId=upload-1"), server.requests().toString());
+        assertFalse(server.requests().stream().anyMatch(request -> request.startsWith("POST") && request.contains("uploadId=")),
+                "the upload is not completed");
+    }
+
+    @Test
+    void rejectsPartsBelowTheS3Minimum() {
+        assertThrows(IllegalArgumentException.class, () -> TransferOptions.builder().partSize(1024 * 1024).build());
+        assertEquals(TransferOptions.S3_MINIMUM_PART_SIZE,
+                TransferOptions.builder().partSize(TransferOptions.S3_MINIMUM_PART_SIZE).build().partSize());
+    }
+
+    @Test
+    void uploadsManyFilesAndReportsEveryResult() throws IOException {
+        List<UploadSpec> uploads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = Files.write(tempDir.resolve("file" + i + ".txt"), randomBytes(1024 + i));
+            uploads.add(new UploadSpec("file" + i + ".txt", file.toString(), KMS_KEY, "STANDARD"));
+        }
+        uploads.add(new UploadSpec("missing.txt", tempDir.resolve("missing.txt").toString(), KMS_KEY, "STANDARD"));
+
+        List<UploadResult> results = storageService.uploadObjects(BUCKET, uploads);
+
+        assertEquals(21, results.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals("file" + i + ".txt", results.get(i).key());
+            assertEquals(1024 + i, results.get(i).bytes());
+            assertNotNull(server.object(BUCKET, "file" + i + ".txt"));
+        }
+        assertFalse(results.get(20).isSuccess());
+        assertInstanceOf(NoSuchFileException.class, results.get(20).error());
+    }
+
+    @Test
+    void downloadsLargeObjectInRanges() throws IOException {
+        byte[] content = randomBytes(3 * 1024 * 1024 + 5);
+        Path file = Files.write(tempDir.resolve("large.bin"), content);
+        storageService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, "STANDARD_IA");
+        server.requests().clear();
+
+        Path target = tempDir.resolve("download/large.bin");
+        storageService.downloadObject(BUCKET, "large.bin", target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(13, server.requests().stream().filter(r -> r.startsWith("GET ")).count());
+    }
+
+    @Test
+    void failsForMissingObject() {
+        assertThrows(NoSuchFileException.class, () -> storageService.downloadObject(BUCKET, "missing.bin", tempDir.resolve("missing.bin")));
+    }
+
+    @Test
+    void readsObjectInfoWithMetadata() throws IOException {
+        Path file = Files.write(tempDir.resolve("file.txt"), "content".getBytes());
+        storageService.uploadObjects(BUCKET, List.of(new UploadSpec("file.txt", file.toString(), KMS_KEY, "STANDARD", Map.of("origin", "test"))));
+
+        ObjectInfo info = storageService.getObjectInfo(BUCKET, "file.txt");
+
+        assertEquals(7, info.size());
+        assertEquals(Map.of("origin", "test"), info.metadata());
+        assertNotNull(info.version());
+        assertNull(storageService.getObjectInfo(BUCKET, "missing.txt"));
+    }
+
+    @Test
+    void listsObjectsPageByPage() throws IOException {
+        AWSS3StorageService listingService = new AWSS3StorageService(s3Client, null, TransferOptions.builder().listPageSize(2).build());
+        Path file = Files.write(tempDir.resolve("small.bin"), randomBytes(10));
+        List<String> keys = List.of("a.txt", "logs/1.txt", "logs/2.txt", "logs/sub/3.txt", "other/4.txt");
+        for (String key : keys) {
+            listingService.uploadObject(BUCKET, key, file.toString(), null, null);
+        }
+
+        try (Stream<ObjectInfo> objects = listingService.listObjects(BUCKET, "")) {
+            assertEquals(keys, objects.map(ObjectInfo::key).toList());
+        }
+        assertEquals(3, server.requests().stream().filter(request -> request.contains("list-type=2")).count());
+        try (Stream<ObjectInfo> objects = listingService.listObjects(BUCKET, "logs/")) {
+            assertEquals(List.of(10L, 10L, 10L), objects.map(ObjectInfo::size).toList());
+        }
+
+        ListPage first = listingService.listPage(BUCKET, "", "/", null);
+        assertEquals(List.of("a.txt"), first.objects().stream().map(ObjectInfo::key).toList());
+        assertEquals(List.of("logs/"), first.prefixes());
+        ListPage second = listingService.listPage(BUCKET, "", "/", first.nextPageToken());
+        assertEquals(List.of(), second.objects());
+        assertEquals(List.of("other/"), second.prefixes());
+        assertNull(second.nextPageToken());
+    }
+
+    @Test
+    void copiesSmallAndLargeObjectsOnTheServer() throws IOException {
+        byte[] small = randomBytes(1024);
+        byte[] large = randomBytes(3 * 1024 * 1024 + 5);
+        storageService.uploadObjects(BUCKET, List.of(
+                new UploadSpec("small.bin", Files.write(tempDir.resolve("small.bin"), small).toString(), KMS_KEY, "STANDARD", Map.of("origin", "test")),
+                new UploadSpec("large.bin", Files.write(tempDir.resolve("large.bin"), large).toString(), KMS_KEY, "STANDARD", Map.of("origin", "test"))));
+        server.requests().clear();
+
+        storageService.copyObject(BUCKET, "small.bin", "small-copy.bin", KMS_KEY, "STANDARD_IA");
+        storageService.copyObject(BUCKET, "large.bin", "large-copy.bin", KMS_KEY, "STANDARD_IA");
+
+        assertArrayEquals(small, server.object(BUCKET, "small-copy.bin").content());
+        assertEquals("test", storageService.getObjectInfo(BUCKET, "small-copy.bin").metadata().get("origin"));
+        FakeS3Server.StoredObject largeCopy = server.object(BUCKET, "large-copy.bin");
+        assertArrayEquals(large, largeCopy.content());
+        assertEquals(13, largeCopy.partCount());
+        assertEquals("test", largeCopy.headers().get("x-amz-meta-origin"));
+        assertEquals("STANDARD_IA", largeCopy.headers().get("x-amz-storage-class"));
+        assertTrue(server.requests().stream().noneMatch(r -> r.startsWith("GET ")), "no content is downloaded");
+
+        assertThrows(NoSuchFileException.class, () -> storageService.copyObject(BUCKET, "missing.bin", "copy.bin", KMS_KEY, null));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Compression.class, names = {"GZIP", "ZSTD"})
+    void compressesTextWhileUploading(Compression compression) throws IOException {
+        assumeTrue(compression.isAvailable(), "zstd-jni is not available on this platform");
+        AWSS3StorageService compressingService = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .multipartThreshold(1024 * 1024)
+                .partSize(256 * 1024)
+                .minimumPartSize(256 * 1024)
+                .maxConcurrency(3)
+                .compression(compression)
+                .build());
+        byte[] small = text(200 * 1024);
+        byte[] large = text(8 * 1024 * 1024);
+        compressingService.uploadObject(BUCKET, "small.txt", Files.write(tempDir.resolve("small.txt"), small).toString(), KMS_KEY, null);
+        compressingService.uploadObject(BUCKET, "large.txt", Files.write(tempDir.resolve("large.txt"), large).toString(), KMS_KEY, null);
+
+        FakeS3Server.StoredObject storedSmall = server.object(BUCKET, "small.txt");
+        assertEquals(compression.contentEncoding(), storedSmall.headers().get("Content-Encoding"));
+        assertEquals("204800", storedSmall.headers().get("x-amz-meta-" + ContentCompressor.UNCOMPRESSED_SIZE_METADATA));
+        assertEquals(0, storedSmall.partCount());
+        assertTrue(storedSmall.content().length < small.length / 3);
+        try (var temporaryFiles = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            assertTrue(temporaryFiles.noneMatch(file -> file.getFileName().toString().startsWith("small.txt.")),
+                    "the temporary file of the compressed content is deleted");
+        }
+        FakeS3Server.StoredObject storedLarge = server.object(BUCKET, "large.txt");
+        assertEquals(compression.contentEncoding(), storedLarge.headers().get("Content-Encoding"));
+        assertTrue(storedLarge.partCount() > 0);
+        assertTrue(storedLarge.content().length < large.length / 3);
+
+        compressingService.downloadObject(BUCKET, "small.txt", tempDir.resolve("download/small.txt"));
+        compressingService.downloadObject(BUCKET, "large.txt", tempDir.resolve("download/large.txt"));
+        assertArrayEquals(small, Files.readAllBytes(tempDir.resolve("download/small.txt")));
+        assertArrayEquals(large, Files.readAllBytes(tempDir.resolve("download/large.txt")));
+    }
+
+    @Test
+    void uploadsIncompressibleFilesUncompressed() throws IOException {
+        AWSS3StorageService compressingService = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .compression(Compression.GZIP)
+                .build());
+        byte[] random = randomBytes(100 * 1024);
+        byte[] text = text(100 * 1024);
+        compressingService.uploadObject(BUCKET, "random.bin", Files.write(tempDir.resolve("random.bin"), random).toString(), KMS_KEY, null);
+        compressingService.uploadObject(BUCKET, "text.gz", Files.write(tempDir.resolve("text.gz"), text).toString(), KMS_KEY, null);
+
+        assertArrayEquals(random, server.object(BUCKET, "random.bin").content());
+        assertNull(server.object(BUCKET, "random.bin").headers().get("Content-Encoding"));
+        assertArrayEquals(text, server.object(BUCKET, "text.gz").content(), "the name marks the file as compressed");
+    }
+
+    /**
+     * Log lines like the generated content of the performance test, which compress well.
+     */
+    static byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size);
+        Random random = new Random(size);
+        while (text.length() < size) {
+            text.append("2023-06-01T12:00:").append(random.nextInt(60)).append(" INFO request ").append(random.nextInt(1000))
+                    .append(" served in ").append(random.nextInt(100)).append(" ms\n");
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,524 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * An in-process stand-in for the S3 REST API that keeps all objects in memory.
+ * It understands path style requests for single uploads, multipart uploads, copies, deletes, ranged downloads
+ * and ListObjectsV2 listings.
+ * <p>
+ * Like S3, it rejects a single upload or a part whose CRC32C or SHA-256 checksum header or trailer does not match
+ * the received content, and returns the verified checksum in the response.
+ * <p>
+ * A server that does not keep the content drains the request bodies without buffering them,
+ * so benchmarks can upload large files without measuring the memory of the server.
+ */
+public class FakeS3Server implements AutoCloseable {
+
+    private static final String TRAILERS = "trailers";
+
+    private final HttpServer server;
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger corruptions = new AtomicInteger();
+    private final boolean keepContent;
+
+    public FakeS3Server() throws IOException {
+        this(true);
+    }
+
+    /**
+     * @param keepContent false to discard the content of the uploaded objects
+     */
+    public FakeS3Server(boolean keepContent) throws IOException {
+        this.keepContent = keepContent;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public URI endpoint() {
+        return URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    /**
+     * @return a {@link S3Client} that sends its requests to this server
+     */
+    public S3Client newClient() {
+        return S3Client.builder()
+                .endpointOverride(endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build();
+    }
+
+    /**
+     * @return a {@link S3AsyncClient} that sends its requests to this server
+     */
+    public S3AsyncClient newAsyncClient() {
+        return S3AsyncClient.builder()
+                .endpointOverride(endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .forcePathStyle(true)
+                .build();
+    }
+
+    public StoredObject object(String bucket, String key) {
+        return objects.get(bucket + "/" + key);
+    }
+
+    /**
+     * @return every handled request as "METHOD /path?query", or nothing if the server discards the content
+     */
+    public List<String> requests() {
+        return requests;
+    }
+
+    /**
+     * @param count the number of next requests that fail with 503 Slow Down, which the S3 client retries
+     */
+    public void failNext(int count) {
+        failures.set(count);
+    }
+
+    /**
+     * @param count the number of next uploaded bodies whose first byte is flipped, as if they were corrupted on the way
+     */
+    public void corruptNext(int count) {
+        corruptions.set(count);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().substring(1);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (keepContent) {
+            requests.add(method + " /" + path + (query.isEmpty() ? "" : "?" + exchange.getRequestURI().getRawQuery()));
+        }
+
+        // the JDK server sometimes drops a request on a connection kept alive under parallel requests,
+        // which the SDK reports as a server that failed to respond, so every connection serves a single request
+        exchange.getResponseHeaders().add("Connection", "close");
+        try {
+            if (failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                respond(exchange, 503, "<Error><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>");
+
+            } else if ("POST".equals(method) && query.containsKey("uploads")) {
+                String uploadId = "upload-" + uploadIds.incrementAndGet();
+                uploads.put(uploadId, new MultipartUpload(path, copyHeaders(exchange.getRequestHeaders())));
+                String[] bucketAndKey = path.split("/", 2);
+                respond(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + bucketAndKey[0] + "</Bucket><Key>"
+                        + bucketAndKey[1] + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+
+            } else if ("PUT".equals(method) && exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                copy(exchange, path, query);
+
+            } else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+                MultipartUpload upload = uploads.get(query.get("uploadId"));
+                if (upload == null) {
+                    respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                    return;
+                }
+                byte[] body = readBody(exchange);
+                if (!hasValidChecksum(exchange, body)) {
+                    return;
+                }
+                upload.parts.put(Integer.parseInt(query.get("partNumber")), body);
+                exchange.getResponseHeaders().add("ETag", "\"" + etag(body) + "\"");
+                respond(exchange, 200, "");
+
+            } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                MultipartUpload upload = uploads.remove(query.get("uploadId"));
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                for (byte[] part : upload.parts.values()) {
+                    content.write(part);
+                }
+                objects.put(path, new StoredObject(content.toByteArray(), upload.headers, upload.parts.size()));
+                respond(exchange, 200, "<CompleteMultipartUploadResult><Key>" + path
+                        + "</Key><ETag>\"multipart\"</ETag></CompleteMultipartUploadResult>");
+
+            } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                uploads.remove(query.get("uploadId"));
+                respond(exchange, 204, null);
+
+            } else if ("DELETE".equals(method)) {
+                objects.remove(path);
+                respond(exchange, 204, null);
+
+            } else if ("PUT".equals(method)) {
+                byte[] body = readBody(exchange);
+                if (!hasValidChecksum(exchange, body)) {
+                    return;
+                }
+                objects.put(path, new StoredObject(body, copyHeaders(exchange.getRequestHeaders()), 0));
+                exchange.getResponseHeaders().add("ETag", "\"" + etag(body) + "\"");
+                respond(exchange, 200, "");
+
+            } else if ("GET".equals(method) && query.containsKey("list-type")) {
+                list(exchange, path.endsWith("/") ? path.substring(0, path.length() - 1) : path, query);
+
+            } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                get(exchange, method, path);
+
+            } else {
+                respond(exchange, 501, "<Error><Code>NotImplemented</Code></Error>");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers a HEAD or a GET with an optional single "bytes=first-last" range and If-Match precondition.
+     * With the checksum mode enabled, the CRC32C of the content is returned like for an object uploaded with a checksum.
+     */
+    private void get(HttpExchange exchange, String method, String path) throws IOException {
+        StoredObject object = objects.get(path);
+        if (object == null) {
+            respond(exchange, 404, "HEAD".equals(method) ? null : "<Error><Code>NoSuchKey</Code></Error>");
+            return;
+        }
+        String eTag = "\"" + etag(object.content()) + "\"";
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null && !ifMatch.equals(eTag)) {
+            respond(exchange, 412, "<Error><Code>PreconditionFailed</Code></Error>");
+            return;
+        }
+        exchange.getResponseHeaders().add("ETag", eTag);
+        object.headers().forEach((name, value) -> {
+            if (isObjectMetadata(name)) {
+                exchange.getResponseHeaders().add(name, value);
+            }
+        });
+        if ("ENABLED".equals(exchange.getRequestHeaders().getFirst("x-amz-checksum-mode"))) {
+            CRC32C crc = new CRC32C();
+            crc.update(object.content());
+            exchange.getResponseHeaders().add("x-amz-checksum-crc32c",
+                    Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array()));
+        }
+
+        if ("HEAD".equals(method)) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.content().length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        int first = 0;
+        int last = object.content().length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            first = Integer.parseInt(bounds[0]);
+            last = Math.min(last, Integer.parseInt(bounds[1]));
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + object.content().length);
+        }
+        int length = last - first + 1;
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        exchange.getResponseBody().write(object.content(), first, length);
+    }
+
+    /**
+     * Answers a ListObjectsV2 with prefix, delimiter and max-keys. The continuation token is the last key
+     * or common prefix of the previous page.
+     */
+    private void list(HttpExchange exchange, String bucketName, Map<String, String> query) throws IOException {
+        String prefix = decode(query.getOrDefault("prefix", ""));
+        String delimiter = query.containsKey("delimiter") ? decode(query.get("delimiter")) : null;
+        String after = query.containsKey("continuation-token") ? decode(query.get("continuation-token")) : "";
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+
+        SortedMap<String, StoredObject> matching = new TreeMap<>();
+        objects.forEach((path, object) -> {
+            if (path.startsWith(bucketName + "/") && path.startsWith(prefix, bucketName.length() + 1)) {
+                matching.put(path.substring(bucketName.length() + 1), object);
+            }
+        });
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new TreeSet<>();
+        int count = 0;
+        String lastKey = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : matching.tailMap(after + "\0").entrySet()) {
+            String key = entry.getKey();
+            int end = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            String commonPrefix = end >= 0 ? key.substring(0, end + delimiter.length()) : null;
+            if (commonPrefix != null && (commonPrefixes.contains(commonPrefix) || commonPrefix.equals(after))) {
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            count++;
+            lastKey = commonPrefix != null ? commonPrefix : key;
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+            } else {
+                contents.append("<Contents><Key>").append(escape(key)).append("</Key><Size>").append(entry.getValue().content().length)
+                        .append("</Size><ETag>&quot;").append(etag(entry.getValue().content())).append("&quot;</ETag></Contents>");
+            }
+        }
+        StringBuilder body = new StringBuilder("<ListBucketResult><Name>").append(bucketName).append("</Name><Prefix>")
+                .append(escape(prefix)).append("</Prefix><KeyCount>").append(count).append("</KeyCount><MaxKeys>").append(maxKeys)
+                .append("</MaxKeys><IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            body.append("<NextContinuationToken>").append(escape(lastKey)).append("</NextContinuationToken>");
+        }
+        body.append(contents);
+        commonPrefixes.forEach(commonPrefix -> body.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>"));
+        respond(exchange, 200, body.append("</ListBucketResult>").toString());
+    }
+
+    /**
+     * Answers a CopyObject, which keeps the metadata of the source, or an UploadPartCopy with an optional
+     * "bytes=first-last" source range. Both honour the x-amz-copy-source-if-match precondition.
+     */
+    private void copy(HttpExchange exchange, String path, Map<String, String> query) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        String source = URLDecoder.decode(headers.getFirst("x-amz-copy-source"), StandardCharsets.UTF_8);
+        StoredObject object = objects.get(source.startsWith("/") ? source.substring(1) : source);
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+        if (object == null) {
+            respond(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>");
+            return;
+        }
+        String ifMatch = headers.getFirst("x-amz-copy-source-if-match");
+        if (ifMatch != null && !ifMatch.equals("\"" + etag(object.content()) + "\"")) {
+            respond(exchange, 412, "<Error><Code>PreconditionFailed</Code></Error>");
+            return;
+        }
+
+        if (query.containsKey("partNumber")) {
+            MultipartUpload upload = uploads.get(query.get("uploadId"));
+            if (upload == null) {
+                respond(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                return;
+            }
+            byte[] part = object.content();
+            String range = headers.getFirst("x-amz-copy-source-range");
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                part = Arrays.copyOfRange(part, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1);
+            }
+            upload.parts.put(Integer.parseInt(query.get("partNumber")), part);
+            respond(exchange, 200, "<CopyPartResult><ETag>\"" + etag(part) + "\"</ETag></CopyPartResult>");
+            return;
+        }
+
+        Map<String, String> copiedHeaders = copyHeaders(headers);
+        object.headers().forEach((name, value) -> {
+            if (isObjectMetadata(name)) {
+                copiedHeaders.put(name, value);
+            }
+        });
+        objects.put(path, new StoredObject(object.content(), copiedHeaders, 0));
+        respond(exchange, 200, "<CopyObjectResult><ETag>\"" + etag(object.content()) + "\"</ETag></CopyObjectResult>");
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        if (!keepContent) {
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            return new byte[0];
+        }
+        byte[] raw = exchange.getRequestBody().readAllBytes();
+        String sha = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        byte[] body = sha != null && sha.startsWith("STREAMING-") ? decodeAwsChunked(raw, exchange) : raw;
+        if (body.length > 0 && corruptions.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            body[0] ^= 1;
+        }
+        return body;
+    }
+
+    /**
+     * Compares the CRC32C or SHA-256 header or trailer of an upload with the received content and answers 400 Bad Digest
+     * if they differ. A verified checksum is returned as response header.
+     */
+    private boolean hasValidChecksum(HttpExchange exchange, byte[] body) throws IOException {
+        if (!keepContent) {
+            return true;
+        }
+        String crc32c = checksumHeader(exchange, "x-amz-checksum-crc32c");
+        String sha256 = checksumHeader(exchange, "x-amz-checksum-sha256");
+        String actual;
+        if (crc32c != null) {
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            actual = Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        } else if (sha256 != null) {
+            try {
+                actual = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            return true;
+        }
+        if (actual.equals(crc32c != null ? crc32c : sha256)) {
+            exchange.getResponseHeaders().add(crc32c != null ? "x-amz-checksum-crc32c" : "x-amz-checksum-sha256", actual);
+            return true;
+        }
+        respond(exchange, 400, "<Error><Code>BadDigest</Code><Message>The checksum did not match what we received.</Message></Error>");
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String checksumHeader(HttpExchange exchange, String name) {
+        String header = exchange.getRequestHeaders().getFirst(name);
+        if (header != null) {
+            return header;
+        }
+        Map<String, String> trailers = (Map<String, String>) exchange.getAttribute(TRAILERS);
+        return trailers == null ? null : trailers.get(name);
+    }
+
+    /**
+     * Decodes a body in the aws-chunked encoding: "hex-size;chunk-signature=...\r\n" + data + "\r\n",
+     * followed by trailers like "x-amz-checksum-crc32c:value\r\n" after the last, empty chunk.
+     */
+    private static byte[] decodeAwsChunked(byte[] raw, HttpExchange exchange) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < raw.length) {
+            int lineEnd = indexOfCrlf(raw, position);
+            String header = new String(raw, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";")[0], 16);
+            if (size == 0) {
+                exchange.setAttribute(TRAILERS, trailers(raw, lineEnd + 2));
+                break;
+            }
+            decoded.write(raw, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private static Map<String, String> trailers(byte[] raw, int position) {
+        Map<String, String> trailers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        while (position < raw.length) {
+            int lineEnd = indexOfCrlf(raw, position);
+            String line = new String(raw, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                trailers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            position = lineEnd + 2;
+        }
+        return trailers;
+    }
+
+    private static int indexOfCrlf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length - 1; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            String[] keyValue = pair.split("=", 2);
+            query.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+        }
+        return query;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * The user metadata, the Content-Type and the Content-Encoding are stored with the object, returned by HEAD and GET
+     * and kept by a copy.
+     */
+    private static boolean isObjectMetadata(String header) {
+        String name = header.toLowerCase(Locale.ROOT);
+        return name.startsWith("x-amz-meta-") || name.equals("content-type") || name.equals("content-encoding");
+    }
+
+    private static Map<String, String> copyHeaders(Headers headers) {
+        Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.forEach((name, values) -> copy.put(name, values.get(0)));
+        return copy;
+    }
+
+    private static String etag(byte[] body) {
+        return Integer.toHexString(Arrays.hashCode(body));
+    }
+
+    /**
+     * An object that was uploaded to the fake server.
+     *
+     * @param content the content of the object
+     * @param headers the request headers of the put or create multipart upload request
+     * @param partCount the number of parts of a multipart upload, otherwise 0
+     */
+    public record StoredObject(byte[] content, Map<String, String> headers, int partCount) {
+    }
+
+    private record MultipartUpload(String path, Map<String, String> headers, SortedMap<Integer, byte[]> parts) {
+
+        MultipartUpload(String path, Map<String, String> headers) {
+            this(path, headers, Collections.synchronizedSortedMap(new TreeMap<>()));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test uploads through an S3 client with the {@link S3MetricPublisher} to the {@link FakeS3Server}.
+ */
+class S3MetricPublisherTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recordsRetriesAndServiceCalls() throws IOException {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (FakeS3Server server = new FakeS3Server();
+             S3Client s3Client = S3Client.builder()
+                     .endpointOverride(server.endpoint())
+                     .region(Region.US_EAST_1)
+                     .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                     .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                     .overrideConfiguration(c -> c.addMetricPublisher(new S3MetricPublisher(meterRegistry)))
+                     .build()) {
+
+            Path file = Files.write(tempDir.resolve("file.txt"), "content".getBytes());
+            AWSS3StorageService storageService = new AWSS3StorageService(s3Client, null);
+            server.failNext(2);
+            storageService.uploadObject("bucket", "file.txt", file.toString(), null, null);
+
+            assertNotNull(server.object("bucket", "file.txt"));
+            assertEquals(2, meterRegistry.get(S3MetricPublisher.RETRIES_COUNTER).tags("operation", "PutObject").counter().count());
+            assertEquals(1, meterRegistry.get(S3MetricPublisher.API_CALL_TIMER)
+                    .tags("operation", "PutObject", "outcome", "success").timer().count());
+            assertEquals(3, meterRegistry.get(S3MetricPublisher.SERVICE_CALL_TIMER).tags("operation", "PutObject").timer().count());
+
+            int meters = meterRegistry.getMeters().size();
+            storageService.uploadObject("bucket", "file.txt", file.toString(), null, null);
+            assertEquals(meters, meterRegistry.getMeters().size(), "the meters of the operation are reused");
+            assertEquals(2, meterRegistry.get(S3MetricPublisher.API_CALL_TIMER)
+                    .tags("operation", "PutObject", "outcome", "success").timer().count());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.leomedia.cloud_gcstorage_awss3.AWS;
+
+import de.leomedia.cloud_gcstorage_awss3.BulkPresigner;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test compares the URLs of the {@link S3UrlSigner} with those of the {@link S3Presigner}.
+ */
+class S3UrlSignerTest {
+
+    private static final List<String> KEYS = List.of(
+            "file.txt",
+            "folder/sub folder/file name.txt",
+            "unicode/üäöß/日本.txt",
+            "special/+~*!'()&=?;:@,$%#[]",
+            "slashes//./../end/");
+
+    @Test
+    void signsLikeThePresignerForVirtualHostedBuckets() {
+        assertSameUrls(AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"),
+                S3Presigner.builder().region(Region.EU_CENTRAL_1), "my-bucket");
+    }
+
+    @Test
+    void signsLikeThePresignerForPathStyleBucketsWithSessionCredentials() {
+        assertSameUrls(AwsSessionCredentials.create("ASIAEXAMPLE", "secret", "session/token+=="),
+                S3Presigner.builder().region(Region.US_EAST_1), "my.dotted.bucket");
+    }
+
+    @Test
+    void signsLikeThePresignerForCustomEndpoints() {
+        assertSameUrls(AwsBasicCredentials.create("access", "secret"),
+                S3Presigner.builder()
+                        .region(Region.US_EAST_1)
+                        .endpointOverride(URI.create("http://localhost:9000"))
+                        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build()),
+                "local-bucket");
+    }
+
+    @Test
+    void presignsEveryKeyOfABatch() {
+        AwsCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret"));
+        try (S3Presigner presigner = S3Presigner.builder().region(Region.EU_WEST_1).credentialsProvider(credentialsProvider).build()) {
+            AWSS3StorageService storageService = new AWSS3StorageService(null, presigner, TransferOptions.defaults(), credentialsProvider);
+            List<String> keys = IntStream.range(0, 5_000).mapToObj(i -> "objects/" + i + ".txt").toList();
+
+            Map<String, URL> urls = new ConcurrentHashMap<>();
+            storageService.presignAll("my-bucket", keys, 60, (key, url) -> assertNull(urls.put(key, url)));
+
+            assertEquals(keys.size(), urls.size());
+            for (String key : keys) {
+                assertEquals("/" + key, urls.get(key).getPath());
+                assertTrue(urls.get(key).getQuery().contains("X-Amz-Expires=3600"));
+            }
+        }
+    }
+
+    private static void assertSameUrls(AwsCredentials credentials, S3Presigner.Builder presignerBuilder, String bucketName) {
+        AwsCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(credentials);
+        try (S3Presigner presigner = presignerBuilder.credentialsProvider(credentialsProvider).build()) {
+            for (String key : KEYS) {
+                URL expected = presigner.presignGetObject(GetObjectPresignRequest.builder()
+                        .signatureDuration(Duration.ofMinutes(60))
+                        .getObjectRequest(GetObjectRequest.builder().bucket(bucketName).key(key).build())
+                        .build()).url();
+
+                // the presigner signs with the current time, so the signer uses the same time and expiry
+                Map<String, String> query = query(expected);
+                Instant signingTime = LocalDateTime.parse(query.get("X-Amz-Date"), DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'"))
+                        .toInstant(ZoneOffset.UTC);
+                Duration expires = Duration.ofSeconds(Long.parseLong(query.get("X-Amz-Expires")));
+
+                S3UrlSigner urlSigner = new S3UrlSigner(presigner, credentialsProvider, Clock.fixed(signingTime, ZoneOffset.UTC));
+                BulkPresigner.KeySigner signer = urlSigner.signers(bucketName, expires).get();
+
+                assertDoesNotThrow(() -> assertEquals(expected.toString(), signer.sign(key).toString()));
+            }
+        }
+    }
+
+    private static Map<String, String> query(URL url) {
+        Map<String, String> query = new ConcurrentHashMap<>();
+        for (String parameter : url.getQuery().split("&")) {
+            String[] keyValue = parameter.split("=", 2);
+            query.put(keyValue[0], keyValue[1]);
+        }
+        return query;
+    }
+}
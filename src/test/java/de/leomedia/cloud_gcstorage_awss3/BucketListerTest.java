@@ -0,0 +1,97 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test lists a bucket of the {@link FakeS3Server} with small pages, so every sub-prefix takes several pages.
+ */
+class BucketListerTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService storageService;
+    private final List<String> keys = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        storageService = new AWSS3StorageService(s3Client, null, TransferOptions.builder().listPageSize(3).build());
+
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        List<UploadSpec> uploads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            uploads.add(new UploadSpec("root-" + i + ".txt", file.toString(), null, null));
+            for (int j = 0; j < 4; j++) {
+                for (int k = 0; k < 5; k++) {
+                    uploads.add(new UploadSpec("p" + i + "/q" + j + "/file-" + k + ".txt", file.toString(), null, null));
+                }
+            }
+        }
+        storageService.uploadObjects(BUCKET, uploads);
+        uploads.forEach(upload -> keys.add(upload.key()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void listsEverySubPrefixOnce() {
+        BucketLister lister = new BucketLister(storageService, 4, 2);
+
+        try (Stream<ObjectInfo> objects = lister.list(BUCKET, "")) {
+            List<ObjectInfo> listed = objects.toList();
+            assertEquals(keys.size(), listed.size());
+            assertEquals(Set.copyOf(keys), listed.stream().map(ObjectInfo::key).collect(Collectors.toSet()));
+            assertTrue(listed.stream().allMatch(object -> object.size() == 7));
+        }
+        // the bucket, 3 first level prefixes and 12 second level prefixes are listed on their own
+        assertEquals(16, server.requests().stream().filter(request -> request.contains("list-type=2")
+                && !request.contains("continuation-token")).count());
+    }
+
+    @Test
+    void listsBelowAPrefixSequentially() {
+        BucketLister lister = new BucketLister(storageService, 4, 0);
+
+        try (Stream<ObjectInfo> objects = lister.list(BUCKET, "p1/")) {
+            assertEquals(keys.stream().filter(key -> key.startsWith("p1/")).sorted().toList(), objects.map(ObjectInfo::key).toList());
+        }
+    }
+
+    @Test
+    void failsTheStreamWhenAPageCannotBeFetched() {
+        BucketLister lister = new BucketLister(storageService, 4, 2);
+        server.failNext(1_000);
+
+        try (Stream<ObjectInfo> objects = lister.list(BUCKET, "")) {
+            assertThrows(UncheckedIOException.class, objects::count);
+        }
+    }
+}
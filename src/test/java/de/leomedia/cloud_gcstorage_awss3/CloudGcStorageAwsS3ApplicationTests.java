@@ -1,14 +1,12 @@
 package de.leomedia.cloud_gcstorage_awss3;
 
-import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
-import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -19,7 +17,11 @@ class PerformanceTest {
 
     private final Logger logger = LoggerFactory.getLogger(PerformanceTest.class);
 
-    S3Client s3Client;
+    /**
+     * Every phase uses the services of the shared registry, so only the first phase pays for the client setup.
+     */
+    @Autowired
+    CloudClientRegistry clientRegistry;
 
     @Value("${TEST_BUCKET_NAME}")
     private String bucketName;
@@ -33,12 +35,6 @@ class PerformanceTest {
     @Value("${TEST_FILE_COUNT}")
     private int fileCount;
 
-    @Value("${PROJECT_ID}")
-    private String projectId;
-
-    @Value("${GC_JSON_KEY_PATH}")
-    private String gcJsonKeyPath;
-
     @Value("${TEST_GC_ENCRYPTION_KEY}")
     private String gc_encryption_key;
 
@@ -69,9 +65,9 @@ class PerformanceTest {
      * This method uploads multiple objects to S3
      * and measures the current time it took in milliseconds.
      */
-    public void calculateUploadObjectsToS3_TimeMeasure() {
+    public void calculateUploadObjectsToS3_TimeMeasure() throws IOException {
 
-        AWSS3StorageService awss3StorageService = new AWSS3StorageService(s3Client, S3Presigner.builder().build());
+        CloudStorageService awss3StorageService = clientRegistry.cloudStorageService("AWS");
 
         long startTime = System.currentTimeMillis();
 
@@ -90,9 +86,9 @@ class PerformanceTest {
      * This method downloads multiple objects from S3
      * and measures the current time it took in milliseconds.
      */
-    public void calculateDownloadObjectsFromS3_TimeMeasure(){
+    public void calculateDownloadObjectsFromS3_TimeMeasure() throws IOException {
 
-        AWSS3StorageService awss3StorageService = new AWSS3StorageService(s3Client, S3Presigner.builder().build());
+        CloudStorageService awss3StorageService = clientRegistry.cloudStorageService("AWS");
 
         long startTime = System.currentTimeMillis();
 
@@ -112,7 +108,7 @@ class PerformanceTest {
      * and measures the current time it took in milliseconds.
      */
     public void calculateUploadObjectsToCloudStorage_TimeMeasure() throws IOException {
-        GCStorageService googleCloudStorageService = new GCStorageService(projectId, gcJsonKeyPath);
+        CloudStorageService googleCloudStorageService = clientRegistry.cloudStorageService("Google Cloud");
 
         long startTime = System.currentTimeMillis();
 
@@ -133,7 +129,7 @@ class PerformanceTest {
      */
     public void calculateDownloadObjectsFromCloudStorage_TimeMeasure() throws IOException {
 
-        GCStorageService googleCloudStorageService = new GCStorageService(projectId, gcJsonKeyPath);
+        CloudStorageService googleCloudStorageService = clientRegistry.cloudStorageService("Google Cloud");
 
         long startTime = System.currentTimeMillis();
 
@@ -0,0 +1,95 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.sun.net.httpserver.HttpServer;
+import de.leomedia.cloud_gcstorage_awss3.AWS.S3MetricPublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.threeten.bp.Duration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test reads object metadata through a Cloud Storage client with the {@link GCSRetryMetrics}
+ * from a server that answers the first requests with 503.
+ */
+class GCSRetryMetricsTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger failures = new AtomicInteger();
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            boolean fail = failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0;
+            byte[] body = (fail
+                    ? "{\"error\":{\"code\":503,\"message\":\"Service Unavailable\"}}"
+                    : "{\"bucket\":\"bucket\",\"name\":\"file.txt\",\"size\":\"7\",\"generation\":\"1\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(fail ? 503 : 200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void countsEveryRetriedAttempt() throws Exception {
+        try (Storage storage = storage(5)) {
+            failures.set(2);
+            Blob blob = storage.get("bucket", "file.txt");
+
+            assertEquals(7, blob.getSize());
+            assertEquals(2, retries("idempotent"));
+            assertEquals(0, retries("non-idempotent"));
+        }
+    }
+
+    @Test
+    void doesNotCountTheLastAttempt() throws Exception {
+        try (Storage storage = storage(3)) {
+            failures.set(5);
+            assertThrows(StorageException.class, () -> storage.get("bucket", "file.txt"));
+
+            assertEquals(2, retries("idempotent"), "three attempts are two retries");
+        }
+    }
+
+    private Storage storage(int maxAttempts) {
+        return StorageOptions.http()
+                .setHost("http://localhost:" + server.getAddress().getPort())
+                .setProjectId("project")
+                .setCredentials(NoCredentials.getInstance())
+                .setStorageRetryStrategy(new GCSRetryMetrics(meterRegistry))
+                .setRetrySettings(StorageOptions.getDefaultRetrySettings().toBuilder()
+                        .setInitialRetryDelay(Duration.ofMillis(1))
+                        .setMaxRetryDelay(Duration.ofMillis(5))
+                        .setMaxAttempts(maxAttempts)
+                        .build())
+                .build().getService();
+    }
+
+    private double retries(String operation) {
+        return meterRegistry.get(S3MetricPublisher.RETRIES_COUNTER).tags("provider", "GC", "operation", operation).counter().count();
+    }
+}
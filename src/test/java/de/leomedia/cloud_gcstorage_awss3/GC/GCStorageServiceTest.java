@@ -0,0 +1,402 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.api.core.ApiClock;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.ContentCompressor;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test uploads files through the {@link GCStorageService} to the in-memory storage of {@link LocalStorage}.
+ */
+class GCStorageServiceTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String KMS_KEY = "projects/test/locations/europe/keyRings/test/cryptoKeys/test";
+
+    @TempDir
+    Path tempDir;
+
+    private Storage storage;
+    private GCStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        storage = LocalStorage.create();
+        storageService = new GCStorageService(storage, TransferOptions.builder()
+                .multipartThreshold(1024 * 1024)
+                .compositeComponentCount(4)
+                .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                .maxConcurrency(2)
+                .resumeDirectory(tempDir.resolve("resume"))
+                .build());
+    }
+
+    @Test
+    void uploadsSmallFileInSingleRequest() throws IOException {
+        byte[] content = randomBytes(100 * 1024);
+        Path file = Files.write(tempDir.resolve("small.bin"), content);
+
+        storageService.uploadObject(BUCKET, "small.bin", file.toString(), KMS_KEY, null);
+
+        Blob blob = storage.get(BUCKET, "small.bin");
+        assertArrayEquals(content, blob.getContent());
+        assertEquals(KMS_KEY, blob.getMetadata().get("kmsKeyName"));
+    }
+
+    @Test
+    void composesLargeFileFromComponents() throws IOException {
+        byte[] content = randomBytes(3 * 1024 * 1024 + 11);
+        Path file = Files.write(tempDir.resolve("large.bin"), content);
+
+        storageService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null);
+
+        Blob blob = storage.get(BUCKET, "large.bin");
+        assertArrayEquals(content, blob.getContent());
+        assertEquals(KMS_KEY, blob.getMetadata().get("kmsKeyName"));
+
+        List<String> names = StreamSupport.stream(storage.list(BUCKET).iterateAll().spliterator(), false)
+                .map(Blob::getName)
+                .toList();
+        assertEquals(List.of("large.bin"), names);
+        try (var resumeFiles = Files.list(tempDir.resolve("resume"))) {
+            assertEquals(0, resumeFiles.count());
+        }
+    }
+
+    /**
+     * The local storage cannot restore a captured write channel, so the components are written one at a time
+     * and the upload fails before the third component starts. The resume only writes the missing components.
+     */
+    @Test
+    void resumesAnInterruptedCompositeUpload() throws IOException {
+        byte[] content = randomBytes(3 * 1024 * 1024 + 11);
+        Path file = Files.write(tempDir.resolve("large.bin"), content);
+        List<String> written = new CopyOnWriteArrayList<>();
+        // the last component fails, so no later component starts before the upload gives up; the state a started one
+        // saves could not be restored, since a restored channel of the local storage opens an empty storage of its own
+        GCStorageService failingService = new GCStorageService(failOnce(storage, "writer",
+                blobInfo -> ((BlobInfo) blobInfo).getName().endsWith("-3"), new StorageException(503, "Service Unavailable"), written),
+                TransferOptions.builder()
+                        .multipartThreshold(1024 * 1024)
+                        .compositeComponentCount(4)
+                        .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                        .maxConcurrency(1)
+                        .resumeDirectory(tempDir.resolve("resume"))
+                        .build());
+
+        assertThrows(StorageException.class, () -> failingService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null));
+        assertNull(storage.get(BUCKET, "large.bin"));
+        try (Stream<Path> resumeFiles = Files.list(tempDir.resolve("resume"))) {
+            assertEquals(3, resumeFiles.filter(path -> path.toString().endsWith(".done")).count(), "the written components are kept");
+        }
+
+        written.clear();
+        failingService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null);
+
+        assertArrayEquals(content, storage.get(BUCKET, "large.bin").getContent());
+        assertEquals(1, written.size(), "only the missing component is written: " + written);
+        assertTrue(written.get(0).endsWith("-3"), written.toString());
+        assertEquals(List.of("large.bin"), blobNames());
+        try (Stream<Path> resumeFiles = Files.list(tempDir.resolve("resume"))) {
+            assertEquals(0, resumeFiles.count());
+        }
+    }
+
+    @Test
+    void deletesTheComponentsWhenTheComposeIsRefused() throws IOException {
+        Path file = Files.write(tempDir.resolve("large.bin"), randomBytes(3 * 1024 * 1024 + 11));
+        GCStorageService refusingService = new GCStorageService(failOnce(storage, "compose", request -> true,
+                new StorageException(412, "Precondition Failed"), new ArrayList<>()),
+                TransferOptions.builder()
+                        .multipartThreshold(1024 * 1024)
+                        .compositeComponentCount(4)
+                        .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                        .resumeDirectory(tempDir.resolve("resume"))
+                        .build());
+
+        StorageException e = assertThrows(StorageException.class,
+                () -> refusingService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null));
+
+        assertEquals(412, e.getCode());
+        assertEquals(List.of(), blobNames());
+        try (Stream<Path> resumeFiles = Files.list(tempDir.resolve("resume"))) {
+            assertEquals(0, resumeFiles.count());
+        }
+    }
+
+    @Test
+    void returnsTheCrc32cOfSmallAndComposedUploads() throws IOException {
+        byte[] small = randomBytes(100 * 1024);
+        byte[] large = randomBytes(3 * 1024 * 1024 + 11);
+        List<UploadSpec> uploads = List.of(
+                new UploadSpec("small.bin", Files.write(tempDir.resolve("small.bin"), small).toString(), KMS_KEY, null),
+                new UploadSpec("large.bin", Files.write(tempDir.resolve("large.bin"), large).toString(), KMS_KEY, null));
+
+        List<UploadResult> results = storageService.uploadObjects(BUCKET, uploads);
+
+        assertEquals(new ContentChecksum("CRC32C", UploadChecksum.CRC32C.base64(ByteBuffer.wrap(small))), results.get(0).checksum());
+        assertEquals(new ContentChecksum("CRC32C", UploadChecksum.CRC32C.base64(ByteBuffer.wrap(large))), results.get(1).checksum());
+        assertArrayEquals(large, storage.get(BUCKET, "large.bin").getContent());
+    }
+
+    @Test
+    void verifiesTheComponentsBeforeTheCompose() throws IOException {
+        Path file = Files.write(tempDir.resolve("large.bin"), randomBytes(3 * 1024 * 1024 + 11));
+        List<String> calls = new CopyOnWriteArrayList<>();
+        GCStorageService corruptingService = new GCStorageService(corruptCrc32c(storage, name -> name.endsWith("-2"), calls),
+                TransferOptions.builder()
+                        .multipartThreshold(1024 * 1024)
+                        .compositeComponentCount(4)
+                        .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                        .resumeDirectory(tempDir.resolve("resume"))
+                        .build());
+
+        IOException e = assertThrows(IOException.class,
+                () -> corruptingService.uploadObject(BUCKET, "large.bin", file.toString(), KMS_KEY, null));
+
+        assertTrue(e.getMessage().startsWith("CRC32C of component"), e.getMessage());
+        assertFalse(calls.contains("compose"));
+        assertEquals(List.of(), blobNames());
+        try (Stream<Path> resumeFiles = Files.list(tempDir.resolve("resume"))) {
+            assertEquals(0, resumeFiles.count());
+        }
+    }
+
+    @Test
+    void keepsThePreviousObjectWhenCompressedContentIsCorrupted() throws IOException {
+        storage.create(BlobInfo.newBuilder(BUCKET, "log.txt").build(), "previous".getBytes());
+        List<String> calls = new CopyOnWriteArrayList<>();
+        GCStorageService corruptingService = new GCStorageService(corruptCrc32c(storage, name -> name.contains(".upload-"), calls),
+                TransferOptions.builder()
+                        .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                        .compression(Compression.GZIP)
+                        .build());
+        Path file = Files.writeString(tempDir.resolve("log.txt"), "a log line that compresses well\n".repeat(1000));
+
+        IOException e = assertThrows(IOException.class,
+                () -> corruptingService.uploadObject(BUCKET, "log.txt", file.toString(), KMS_KEY, null));
+
+        assertTrue(e.getMessage().startsWith("CRC32C of log.txt"), e.getMessage());
+        assertFalse(calls.contains("copy"));
+        assertEquals(List.of("log.txt"), blobNames());
+        assertArrayEquals("previous".getBytes(), storage.get(BUCKET, "log.txt").getContent());
+    }
+
+    @Test
+    void downloadsLargeObjectInRanges() throws IOException {
+        byte[] content = randomBytes(3 * 1024 * 1024 + 5);
+        storage.create(BlobInfo.newBuilder(BUCKET, "large.bin").build(), content);
+
+        Path target = tempDir.resolve("download/large.bin");
+        storageService.downloadObject(BUCKET, "large.bin", target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(tempDir.resolve("download/large.bin.part")));
+    }
+
+    @Test
+    void failsForMissingObject() {
+        assertThrows(NoSuchFileException.class, () -> storageService.downloadObject(BUCKET, "missing.bin", tempDir.resolve("missing.bin")));
+    }
+
+    @Test
+    void presignsLikeSignUrl() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        ServiceAccountCredentials credentials = ServiceAccountCredentials.newBuilder()
+                .setClientEmail("presigner@test-project.iam.gserviceaccount.com")
+                .setPrivateKey(keyPairGenerator.generateKeyPair().getPrivate())
+                .setPrivateKeyId("test")
+                .build();
+        long now = Instant.parse("2023-06-01T23:59:59.500Z").toEpochMilli();
+        Storage signingStorage = StorageOptions.newBuilder()
+                .setProjectId("test-project")
+                .setCredentials(credentials)
+                .setClock(new ApiClock() {
+                    @Override
+                    public long nanoTime() {
+                        return TimeUnit.MILLISECONDS.toNanos(now);
+                    }
+
+                    @Override
+                    public long millisTime() {
+                        return now;
+                    }
+                })
+                .build().getService();
+        GCStorageService signingService = new GCStorageService(signingStorage, TransferOptions.defaults());
+
+        List<String> keys = new ArrayList<>(List.of("file.txt", "folder/sub folder/file name.txt", "unicode/üäöß/日本.txt",
+                "special/+~*!'()&=?;:@,$%#[]", "slashes//./../end/"));
+        for (int i = 0; i < 1000; i++) {
+            keys.add("objects/" + i + ".txt");
+        }
+
+        Map<String, URL> urls = new ConcurrentHashMap<>();
+        signingService.presignAll(BUCKET, keys, 60, urls::put);
+
+        assertEquals(keys.size(), urls.size());
+        for (String key : keys.subList(0, 10)) {
+            assertEquals(signingService.getPresignedUrl(BUCKET, key, 60, KMS_KEY).toString(), urls.get(key).toString());
+        }
+    }
+
+    @Test
+    void listsObjectsAndPrefixes() throws IOException {
+        for (String key : List.of("a.txt", "logs/1.txt", "logs/sub/2.txt", "other/3.txt")) {
+            storage.create(BlobInfo.newBuilder(BUCKET, key).build(), new byte[5]);
+        }
+
+        try (Stream<ObjectInfo> objects = storageService.listObjects(BUCKET, "logs/")) {
+            assertEquals(List.of("logs/1.txt", "logs/sub/2.txt"), objects.map(ObjectInfo::key).sorted().toList());
+        }
+        ListPage page = storageService.listPage(BUCKET, "", "/", null);
+        assertEquals(List.of("a.txt"), page.objects().stream().map(ObjectInfo::key).toList());
+        assertEquals(5, page.objects().get(0).size());
+        assertEquals(List.of("logs/", "other/"), page.prefixes().stream().sorted().toList());
+    }
+
+    @Test
+    void copiesObjectWithItsMetadata() throws IOException {
+        byte[] content = randomBytes(1024);
+        Path file = Files.write(tempDir.resolve("file.bin"), content);
+        storageService.uploadObjects(BUCKET, List.of(new UploadSpec("file.bin", file.toString(), KMS_KEY, null, Map.of("origin", "test"))));
+
+        ObjectInfo info = storageService.getObjectInfo(BUCKET, "file.bin");
+        assertEquals(1024, info.size());
+        assertEquals("test", info.metadata().get("origin"));
+        assertNull(storageService.getObjectInfo(BUCKET, "missing.bin"));
+
+        storageService.copyObject(BUCKET, "file.bin", "copy.bin", KMS_KEY, null);
+
+        Blob copy = storage.get(BUCKET, "copy.bin");
+        assertArrayEquals(content, copy.getContent());
+        assertEquals("test", copy.getMetadata().get("origin"));
+        assertThrows(NoSuchFileException.class, () -> storageService.copyObject(BUCKET, "missing.bin", "copy.bin", KMS_KEY, null));
+    }
+
+    @Test
+    void compressesTextWhileUploading() throws IOException {
+        GCStorageService compressingService = new GCStorageService(storage, TransferOptions.builder()
+                .multipartThreshold(1024 * 1024)
+                .chunkSize(TransferOptions.CHUNK_SIZE_GRANULARITY)
+                .compression(Compression.GZIP)
+                .build());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) {
+            text.append("line ").append(i).append(" of a log file that compresses well\n");
+        }
+        byte[] content = text.toString().getBytes();
+        byte[] random = randomBytes(100 * 1024);
+        compressingService.uploadObject(BUCKET, "log.txt", Files.write(tempDir.resolve("log.txt"), content).toString(), KMS_KEY, null);
+        compressingService.uploadObject(BUCKET, "random.bin", Files.write(tempDir.resolve("random.bin"), random).toString(), KMS_KEY, null);
+
+        Blob blob = storage.get(BUCKET, "log.txt");
+        assertEquals("gzip", blob.getContentEncoding());
+        assertEquals(String.valueOf(content.length), blob.getMetadata().get(ContentCompressor.UNCOMPRESSED_SIZE_METADATA));
+        assertTrue(blob.getSize() < content.length / 3);
+        assertNull(storage.get(BUCKET, "random.bin").getContentEncoding());
+
+        Path target = tempDir.resolve("download/log.txt");
+        compressingService.downloadObject(BUCKET, "log.txt", target);
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    private List<String> blobNames() {
+        return StreamSupport.stream(storage.list(BUCKET).iterateAll().spliterator(), false)
+                .map(Blob::getName)
+                .toList();
+    }
+
+    /**
+     * @return a storage that throws the failure on the first call of the method whose first argument matches,
+     * and adds the name of every opened writer to the written names
+     */
+    private static Storage failOnce(Storage delegate, String method, Predicate<Object> argument, RuntimeException failure,
+                                    List<String> written) {
+        AtomicBoolean failed = new AtomicBoolean();
+        return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[]{Storage.class},
+                (proxy, called, args) -> {
+                    if (called.getName().equals(method) && argument.test(args[0]) && failed.compareAndSet(false, true)) {
+                        throw failure;
+                    }
+                    if (called.getName().equals("writer") && args[0] instanceof BlobInfo blobInfo) {
+                        written.add(blobInfo.getName());
+                    }
+                    try {
+                        return called.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return a storage that reports a wrong CRC32C for the objects whose name matches,
+     * and adds the name of every called method to the calls; it reports the generation 1,
+     * since the local storage has none and an existing object is only replaced under a generation-match precondition
+     */
+    private static Storage corruptCrc32c(Storage delegate, Predicate<String> name, List<String> calls) {
+        return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[]{Storage.class},
+                (proxy, called, args) -> {
+                    calls.add(called.getName());
+                    Object result;
+                    try {
+                        result = called.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (called.getName().equals("get") && result instanceof Blob blob) {
+                        Blob.Builder builder = blob.toBuilder().setBlobId(BlobId.of(blob.getBucket(), blob.getName(), 1L));
+                        return (name.test(blob.getName()) ? builder.setCrc32c("AAAAAA==") : builder).build();
+                    }
+                    return result;
+                });
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
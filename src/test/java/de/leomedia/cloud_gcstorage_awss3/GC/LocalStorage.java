@@ -0,0 +1,47 @@
+package de.leomedia.cloud_gcstorage_awss3.GC;
+
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+/**
+ * The in-memory storage of {@link LocalStorageHelper} for tests and benchmarks.
+ */
+public final class LocalStorage {
+
+    private LocalStorage() {
+    }
+
+    /**
+     * @return a new in-memory {@link Storage} that also supports compose
+     */
+    public static Storage create() {
+        return withCompose(LocalStorageHelper.customOptions(false).getService());
+    }
+
+    /**
+     * The storage of {@link LocalStorageHelper} does not implement compose,
+     * so this proxy concatenates the sources itself.
+     */
+    private static Storage withCompose(Storage delegate) {
+        return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[]{Storage.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("compose")) {
+                        Storage.ComposeRequest request = (Storage.ComposeRequest) args[0];
+                        ByteArrayOutputStream content = new ByteArrayOutputStream();
+                        for (Storage.ComposeRequest.SourceBlob source : request.getSourceBlobs()) {
+                            content.writeBytes(delegate.readAllBytes(request.getTarget().getBucket(), source.getName()));
+                        }
+                        return delegate.create(request.getTarget(), content.toByteArray());
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,231 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A provider for the tests of the decorators that keeps its objects in memory.
+ * <p>
+ * Every call is counted by the name of its method and passed to the {@link Hook} first, which can delay it or fail it.
+ * A bulk upload counts and hooks every object on its own. Presigned URLs are made by the {@link Signer},
+ * and a presigned URL whose hook or signer fails is null, like the providers return it.
+ */
+public class InMemoryCloudStorageService implements CloudStorageService {
+
+    /**
+     * A hook that runs before every call, and fails the call if it throws.
+     */
+    @FunctionalInterface
+    public interface Hook {
+        void call(String operation, String bucketName, String key) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Signer {
+        URL sign(String bucketName, String key, Integer minutes) throws IOException;
+    }
+
+    /**
+     * @param version the generation of the object, which changes whenever the object is replaced
+     */
+    public record StoredObject(byte[] content, String encryptionKey, String storageClass, Map<String, String> metadata, String version) {
+    }
+
+    private final String name;
+    private final Map<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Hook hook = (operation, bucketName, key) -> {
+    };
+    private volatile Signer signer;
+
+    /**
+     * @param name the name of the provider, which is the host of its presigned URLs
+     */
+    public InMemoryCloudStorageService(String name) {
+        this.name = name;
+        this.signer = (bucketName, key, minutes) -> new URL("https://" + name + ".example.com/" + bucketName + "/" + key);
+    }
+
+    public InMemoryCloudStorageService onCall(Hook hook) {
+        this.hook = hook;
+        return this;
+    }
+
+    public InMemoryCloudStorageService signer(Signer signer) {
+        this.signer = signer;
+        return this;
+    }
+
+    /**
+     * This method stores an object without counting or hooking a call.
+     */
+    public void put(String bucketName, String key, String content) {
+        store(bucketName, key, content.getBytes(StandardCharsets.UTF_8), null, null, Map.of());
+    }
+
+    /**
+     * @return the stored object, or null if it does not exist
+     */
+    public StoredObject stored(String bucketName, String key) {
+        return objects.get(path(bucketName, key));
+    }
+
+    /**
+     * @return the content of the object as UTF-8, or null if it does not exist
+     */
+    public String content(String bucketName, String key) {
+        StoredObject object = stored(bucketName, key);
+        return object == null ? null : new String(object.content(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the keys of the objects of the bucket in their order
+     */
+    public List<String> keys(String bucketName) {
+        return objects.keySet().stream()
+                .filter(path -> path.startsWith(bucketName + "/"))
+                .map(path -> path.substring(bucketName.length() + 1))
+                .toList();
+    }
+
+    public int calls(String operation) {
+        AtomicInteger count = calls.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    public int calls() {
+        return calls.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    @Override
+    public void uploadObject(String bucketName, String key, String file, String encryptionKey, String storageClass) throws IOException {
+        call("uploadObject", bucketName, key);
+        store(bucketName, key, Files.readAllBytes(Path.of(file)), encryptionKey, storageClass, Map.of());
+    }
+
+    @Override
+    public List<UploadResult> uploadObjects(String bucketName, Collection<UploadSpec> uploads) {
+        List<UploadResult> results = new ArrayList<>();
+        for (UploadSpec upload : uploads) {
+            try {
+                call("uploadObjects", bucketName, upload.key());
+                byte[] content = Files.readAllBytes(Path.of(upload.file()));
+                store(bucketName, upload.key(), content, upload.encryptionKey(), upload.storageClass(), upload.metadata());
+                results.add(UploadResult.succeeded(upload.key(), content.length, Duration.ZERO));
+            } catch (IOException | RuntimeException e) {
+                results.add(UploadResult.failed(upload.key(), e, Duration.ZERO));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+        try {
+            call("getPresignedUrl", bucketName, key);
+            return signer.sign(bucketName, key, minutes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void downloadObject(String bucketName, String key, Path target) throws IOException {
+        call("downloadObject", bucketName, key);
+        Files.write(target, existing(bucketName, key).content());
+    }
+
+    @Override
+    public byte[] readRange(String bucketName, String key, long offset, int length) throws IOException {
+        call("readRange", bucketName, key);
+        byte[] content = existing(bucketName, key).content();
+        return Arrays.copyOfRange(content, (int) Math.min(content.length, offset), (int) Math.min(content.length, offset + length));
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucketName, String key) throws IOException {
+        call("getObjectInfo", bucketName, key);
+        StoredObject object = stored(bucketName, key);
+        return object == null ? null : new ObjectInfo(key, object.content().length, object.version(), object.metadata());
+    }
+
+    /**
+     * This method lists all objects below the prefix on a single page, grouped by the delimiter.
+     */
+    @Override
+    public ListPage listPage(String bucketName, String prefix, String delimiter, String pageToken) throws IOException {
+        call("listPage", bucketName, prefix);
+        List<ObjectInfo> listed = new ArrayList<>();
+        Set<String> prefixes = new TreeSet<>();
+        objects.forEach((path, object) -> {
+            if (!path.startsWith(bucketName + "/")) {
+                return;
+            }
+            String key = path.substring(bucketName.length() + 1);
+            if (key.startsWith(prefix)) {
+                int end = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+                if (end >= 0) {
+                    prefixes.add(key.substring(0, end + delimiter.length()));
+                } else {
+                    listed.add(new ObjectInfo(key, object.content().length, object.version(), null));
+                }
+            }
+        });
+        return new ListPage(listed, List.copyOf(prefixes), null);
+    }
+
+    /**
+     * This method copies the content and metadata of the object and stores the copy with the given encryption key and storage class.
+     */
+    @Override
+    public void copyObject(String bucketName, String sourceKey, String targetKey, String encryptionKey, String storageClass) throws IOException {
+        call("copyObject", bucketName, sourceKey);
+        StoredObject source = existing(bucketName, sourceKey);
+        store(bucketName, targetKey, source.content(), encryptionKey, storageClass, source.metadata());
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws IOException {
+        call("deleteObject", bucketName, key);
+        objects.remove(path(bucketName, key));
+    }
+
+    private void call(String operation, String bucketName, String key) throws IOException {
+        calls.computeIfAbsent(operation, ignored -> new AtomicInteger()).incrementAndGet();
+        hook.call(operation, bucketName, key);
+    }
+
+    private void store(String bucketName, String key, byte[] content, String encryptionKey, String storageClass, Map<String, String> metadata) {
+        objects.put(path(bucketName, key), new StoredObject(content, encryptionKey, storageClass, Map.copyOf(metadata),
+                name + "-" + generation.incrementAndGet()));
+    }
+
+    private StoredObject existing(String bucketName, String key) throws NoSuchFileException {
+        StoredObject object = stored(bucketName, key);
+        if (object == null) {
+            throw new NoSuchFileException(path(bucketName, key));
+        }
+        return object;
+    }
+
+    private static String path(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+}
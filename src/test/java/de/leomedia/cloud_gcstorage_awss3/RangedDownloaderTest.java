@@ -0,0 +1,126 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test downloads an in-memory object with the {@link RangedDownloader}.
+ */
+class RangedDownloaderTest {
+
+    private static final int RANGE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final RangedDownloader downloader = new RangedDownloader(TransferOptions.builder()
+            .multipartThreshold(RANGE_SIZE)
+            .partSize(RANGE_SIZE)
+            .minimumPartSize(RANGE_SIZE)
+            .maxConcurrency(4)
+            .build());
+
+    private final byte[] content = randomBytes(40 * RANGE_SIZE + 123);
+    private final List<Long> requestedOffsets = new CopyOnWriteArrayList<>();
+
+    @Test
+    void downloadsEveryRangeAndVerifiesTheChecksum() throws IOException {
+        Path target = tempDir.resolve("dir/object.bin");
+
+        downloader.download(remoteObject("v1", "CRC32C"), reader(-1), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(41, requestedOffsets.size());
+        assertFalse(Files.exists(tempDir.resolve("dir/object.bin.part")));
+        assertFalse(Files.exists(tempDir.resolve("dir/object.bin.part.state")));
+    }
+
+    @Test
+    void resumesWithTheMissingRanges() throws IOException {
+        Path target = tempDir.resolve("object.bin");
+        long failingOffset = 30L * RANGE_SIZE;
+
+        assertThrows(IOException.class, () -> downloader.download(remoteObject("v1", "SHA-256"), reader(failingOffset), target));
+        assertTrue(Files.exists(tempDir.resolve("object.bin.part.state")));
+        int firstAttempt = requestedOffsets.size();
+
+        requestedOffsets.clear();
+        downloader.download(remoteObject("v1", "SHA-256"), reader(-1), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertTrue(requestedOffsets.contains(failingOffset));
+        assertEquals(41, firstAttempt - 1 + requestedOffsets.size(), "every range is completed exactly once");
+    }
+
+    @Test
+    void restartsWhenTheObjectChanged() throws IOException {
+        Path target = tempDir.resolve("object.bin");
+        assertThrows(IOException.class, () -> downloader.download(remoteObject("v1", null), reader(0), target));
+
+        requestedOffsets.clear();
+        downloader.download(remoteObject("v2", null), reader(-1), target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(41, requestedOffsets.size());
+    }
+
+    @Test
+    void rejectsFileThatDoesNotMatchTheChecksum() throws IOException {
+        Path target = tempDir.resolve("object.bin");
+        RangedDownloader.RemoteObject object = new RangedDownloader.RemoteObject(content.length, "v1", "CRC32C", new byte[4]);
+
+        IOException e = assertThrows(IOException.class, () -> downloader.download(object, reader(-1), target));
+
+        assertTrue(e.getMessage().contains("CRC32C"));
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(tempDir.resolve("object.bin.part")));
+    }
+
+    @Test
+    void downloadsEmptyObject() throws IOException {
+        Path target = tempDir.resolve("empty.bin");
+
+        downloader.download(new RangedDownloader.RemoteObject(0, "v1", null, null), reader(-1), target);
+
+        assertEquals(0, Files.size(target));
+        assertTrue(requestedOffsets.isEmpty());
+    }
+
+    private RangedDownloader.RemoteObject remoteObject(String version, String algorithm) throws IOException {
+        if (algorithm == null) {
+            return new RangedDownloader.RemoteObject(content.length, version, null, null);
+        }
+        Path reference = Files.write(tempDir.resolve("reference-" + algorithm), content);
+        return new RangedDownloader.RemoteObject(content.length, version, algorithm, RangedDownloader.checksum(reference, algorithm));
+    }
+
+    /**
+     * @param failingOffset the offset of the range that fails, or -1
+     */
+    private RangedDownloader.RangeReader reader(long failingOffset) {
+        return (offset, length) -> {
+            requestedOffsets.add(offset);
+            if (offset == failingOffset) {
+                throw new IOException("Connection reset");
+            }
+            return Channels.newChannel(new ByteArrayInputStream(content, (int) offset, (int) length));
+        };
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,53 @@
+package de.leomedia.cloud_gcstorage_awss3;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test computes, combines and composes checksums with {@link UploadChecksum}.
+ */
+class UploadChecksumTest {
+
+    @Test
+    void combinesTheCrc32cOfAdjacentRanges() {
+        byte[] content = new byte[100_003];
+        new Random(7).nextBytes(content);
+
+        for (int split : new int[]{0, 1, 4096, 65_537, content.length}) {
+            long combined = UploadChecksum.combineCrc32c(crc32c(content, 0, split),
+                    crc32c(content, split, content.length - split), content.length - split);
+            assertEquals(crc32c(content, 0, content.length), combined, "split at " + split);
+        }
+    }
+
+    @Test
+    void composesThePartChecksumsLikeS3() {
+        ByteBuffer first = ByteBuffer.wrap("first part".getBytes());
+        ByteBuffer second = ByteBuffer.wrap("second part".getBytes());
+        String firstChecksum = UploadChecksum.SHA256.base64(first);
+        String secondChecksum = UploadChecksum.SHA256.base64(second);
+        assertEquals(10, first.remaining(), "the content is not consumed");
+
+        ByteBuffer concatenated = ByteBuffer.allocate(64)
+                .put(Base64.getDecoder().decode(firstChecksum))
+                .put(Base64.getDecoder().decode(secondChecksum))
+                .flip();
+        assertEquals(UploadChecksum.SHA256.base64(concatenated) + "-2",
+                UploadChecksum.SHA256.composite(List.of(firstChecksum, secondChecksum)));
+        assertEquals(UploadChecksum.CRC32C.base64(ByteBuffer.wrap(UploadChecksum.crc32cBytes(crc32c(first.array(), 0, 10)))) + "-1",
+                UploadChecksum.CRC32C.composite(List.of(UploadChecksum.CRC32C.base64(first))));
+    }
+
+    private static long crc32c(byte[] content, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(content, offset, length);
+        return crc.getValue();
+    }
+}
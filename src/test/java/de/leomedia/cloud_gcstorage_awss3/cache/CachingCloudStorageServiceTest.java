@@ -0,0 +1,219 @@
+package de.leomedia.cloud_gcstorage_awss3.cache;
+
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test checks when the {@link CachingCloudStorageService} serves a cached URL and when it signs a new one.
+ */
+class CachingCloudStorageServiceTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2023-06-01T12:00:00Z"));
+    private final AtomicInteger signed = new AtomicInteger();
+    private volatile int lastMinutes;
+    private volatile boolean fail;
+    private volatile String sessionToken;
+    private volatile CountDownLatch gate;
+    private final InMemoryCloudStorageService signingService = new InMemoryCloudStorageService("storage").signer(this::sign);
+
+    @Test
+    void servesCachedUrlWhileValidLongEnough() {
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .provider("AWS")
+                .minRemainingFraction(0.5)
+                .clock(clock)
+                .build();
+
+        URL first = cachingService.getPresignedUrl("bucket", "key", 60, "kms");
+        clock.advance(Duration.ofMinutes(30));
+        assertSame(first, cachingService.getPresignedUrl("bucket", "key", 60, "kms"));
+
+        clock.advance(Duration.ofSeconds(1));
+        URL second = cachingService.getPresignedUrl("bucket", "key", 60, "kms");
+        assertNotSame(first, second);
+
+        assertEquals(2, signed.get());
+        assertEquals(1, cachingService.stats().hits());
+        assertEquals(2, cachingService.stats().misses());
+    }
+
+    @Test
+    void separatesEncryptionKeysAndDurations() {
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .clock(clock)
+                .build();
+
+        cachingService.getPresignedUrl("bucket", "key", 60, "kms-a");
+        cachingService.getPresignedUrl("bucket", "key", 60, "kms-b");
+        cachingService.getPresignedUrl("bucket", "key", 10, "kms-a");
+        cachingService.getPresignedUrl("bucket", "key", 60, "kms-a");
+
+        assertEquals(3, signed.get());
+    }
+
+    @Test
+    void sharesUrlWithinDurationBucket() {
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .durationBucketMinutes(15)
+                .clock(clock)
+                .build();
+
+        URL first = cachingService.getPresignedUrl("bucket", "key", 50, null);
+        assertSame(first, cachingService.getPresignedUrl("bucket", "key", 60, null));
+        assertEquals(60, lastMinutes);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedUrl() {
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .maximumSize(2)
+                .clock(clock)
+                .build();
+
+        cachingService.getPresignedUrl("bucket", "a", 60, null);
+        cachingService.getPresignedUrl("bucket", "b", 60, null);
+        cachingService.getPresignedUrl("bucket", "a", 60, null);
+        cachingService.getPresignedUrl("bucket", "c", 60, null);
+        cachingService.getPresignedUrl("bucket", "a", 60, null);
+        cachingService.getPresignedUrl("bucket", "b", 60, null);
+
+        assertEquals(4, signed.get());
+        assertEquals(2, cachingService.stats().evictions());
+        assertEquals(2, cachingService.stats().size());
+    }
+
+    @Test
+    void refreshesHotUrlAheadOfExpiry() {
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .minRemainingFraction(0.25)
+                .refreshAheadFraction(0.5)
+                .refreshExecutor(Runnable::run)
+                .clock(clock)
+                .build();
+
+        URL first = cachingService.getPresignedUrl("bucket", "key", 60, null);
+        clock.advance(Duration.ofMinutes(40));
+        assertSame(first, cachingService.getPresignedUrl("bucket", "key", 60, null));
+        URL refreshed = cachingService.getPresignedUrl("bucket", "key", 60, null);
+
+        assertNotSame(first, refreshed);
+        assertEquals(2, signed.get());
+        assertEquals(1, cachingService.stats().refreshes());
+    }
+
+    @Test
+    void doesNotCacheFailedSignatures() {
+        fail = true;
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .clock(clock)
+                .build();
+
+        assertNull(cachingService.getPresignedUrl("bucket", "key", 60, null));
+        assertEquals(0, cachingService.stats().size());
+    }
+
+    @Test
+    void doesNotCacheUrlsSignedWithSessionTokens() {
+        sessionToken = "token";
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .clock(clock)
+                .build();
+
+        URL first = cachingService.getPresignedUrl("bucket", "key", 60, null);
+        assertTrue(first.getQuery().contains("X-Amz-Security-Token=token"));
+        assertNotSame(first, cachingService.getPresignedUrl("bucket", "key", 60, null));
+        assertEquals(2, signed.get());
+        assertEquals(0, cachingService.stats().size());
+    }
+
+    @Test
+    void signsConcurrentMissesOnce() throws Exception {
+        gate = new CountDownLatch(1);
+        CachingCloudStorageService cachingService = CachingCloudStorageService.builder(signingService)
+                .clock(clock)
+                .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<URL>> futures = List.of(
+                    executor.submit(() -> cachingService.getPresignedUrl("bucket", "key", 60, null)),
+                    executor.submit(() -> cachingService.getPresignedUrl("bucket", "key", 60, null)),
+                    executor.submit(() -> cachingService.getPresignedUrl("bucket", "key", 60, null)));
+            while (cachingService.stats().misses() < 3) {
+                Thread.onSpinWait();
+            }
+            gate.countDown();
+
+            URL url = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<URL> future : futures) {
+                assertSame(url, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, signed.get());
+    }
+
+    private URL sign(String bucketName, String key, Integer minutes) throws MalformedURLException {
+        if (fail) {
+            return null;
+        }
+        lastMinutes = minutes;
+        try {
+            if (gate != null) {
+                gate.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return new URL("https://storage.example/" + bucketName + "/" + key + "?expires=" + minutes
+                + "&date=" + clock.millis() + "&n=" + signed.incrementAndGet()
+                + (sessionToken == null ? "" : "&X-Amz-Security-Token=" + sessionToken));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.leomedia.cloud_gcstorage_awss3.clients;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test shares the clients of a {@link CloudClientRegistry} with the {@link FakeS3Server} and the local storage.
+ */
+class CloudClientRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sharesClientsAndServicesAndWarmsUpTheConnection() throws IOException {
+        try (FakeS3Server server = new FakeS3Server();
+             CloudClientRegistry registry = registry(server)) {
+
+            registry.warmUp(List.of("AWS"), "bucket");
+            assertEquals(List.of("HEAD /bucket"), server.requests());
+
+            CloudStorageService service = registry.cloudStorageService("aws");
+            assertInstanceOf(AWSS3StorageService.class, service);
+            assertSame(service, registry.cloudStorageService("AWS"));
+            assertSame(registry.s3Client(), registry.s3Client());
+
+            Path file = Files.write(tempDir.resolve("file.txt"), "content".getBytes());
+            service.uploadObject("bucket", "file.txt", file.toString(), null, null);
+            assertArrayEquals("content".getBytes(), server.object("bucket", "file.txt").content());
+
+            assertInstanceOf(GCStorageService.class, registry.cloudStorageService("Google Cloud"));
+            assertThrows(IllegalArgumentException.class, () -> registry.cloudStorageService("Azure"));
+        }
+    }
+
+    @Test
+    void closedRegistryRejectsClients() throws IOException {
+        FakeS3Server server = new FakeS3Server();
+        CloudClientRegistry registry = registry(server);
+        registry.s3Client();
+
+        registry.close();
+        registry.close();
+        server.close();
+
+        assertThrows(IllegalStateException.class, registry::s3Client);
+        assertThrows(IllegalStateException.class, () -> registry.cloudStorageService("Google Cloud"));
+    }
+
+    private static CloudClientRegistry registry(FakeS3Server server) {
+        return CloudClientRegistry.builder(ClientOptions.builder().maxConnections(4).build())
+                .s3Endpoint(server.endpoint())
+                .awsRegion(Region.US_EAST_1)
+                .awsCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .storage(LocalStorage.create())
+                .build();
+    }
+}
@@ -0,0 +1,181 @@
+package de.leomedia.cloud_gcstorage_awss3.dedup;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test deduplicates uploads to the {@link FakeS3Server} and to the in-memory storage of {@link LocalStorage}.
+ */
+class DeduplicatingCloudStorageServiceTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService s3Service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        s3Service = new AWSS3StorageService(s3Client, null, TransferOptions.defaults());
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void skipsStoredContentAndCopiesDuplicates() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        try (DeduplicatingCloudStorageService service = builder().build()) {
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            service.uploadObject(BUCKET, "b.txt", file.toString(), null, null);
+
+            assertEquals(new DeduplicatingCloudStorageService.Stats(1, 1, 1, 14, 1), service.stats());
+        }
+        assertEquals(1, server.requests().stream().filter(r -> r.startsWith("PUT /" + BUCKET + "/a.txt")).count());
+        FakeS3Server.StoredObject copy = server.object(BUCKET, "b.txt");
+        assertArrayEquals("content".getBytes(), copy.content());
+        assertNotNull(copy.headers().get("x-amz-copy-source"));
+        assertNotNull(copy.headers().get("x-amz-meta-" + DeduplicatingCloudStorageService.CONTENT_HASH_METADATA));
+    }
+
+    @Test
+    void matchesTheEncryptionKeyStorageClassAndMetadata() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        try (DeduplicatingCloudStorageService service = builder().build()) {
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, "STANDARD_IA");
+            service.uploadObjects(BUCKET, List.of(new UploadSpec("b.txt", file.toString(), null, null, Map.of("origin", "import"))));
+            service.uploadObjects(BUCKET, List.of(new UploadSpec("c.txt", file.toString(), null, null, Map.of("origin", "import"))));
+
+            assertEquals(new DeduplicatingCloudStorageService.Stats(0, 1, 3, 7, 3), service.stats());
+        }
+        assertEquals(2, server.requests().stream().filter(r -> r.startsWith("PUT /" + BUCKET + "/a.txt")).count());
+        assertNull(server.object(BUCKET, "b.txt").headers().get("x-amz-copy-source"));
+        assertNotNull(server.object(BUCKET, "c.txt").headers().get("x-amz-copy-source"));
+        assertEquals("import", s3Service.getObjectInfo(BUCKET, "c.txt").metadata().get("origin"));
+    }
+
+    @Test
+    void keepsTheIndexAcrossRestartsAndDropsStaleEntries() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        try (DeduplicatingCloudStorageService service = builder().build()) {
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+        }
+
+        try (DeduplicatingCloudStorageService service = builder().build()) {
+            service.uploadObject(BUCKET, "b.txt", file.toString(), null, null);
+            assertEquals(1, service.stats().copied());
+
+            // a.txt is replaced without the decorator, so its index entry is stale
+            Path other = Files.writeString(tempDir.resolve("other.txt"), "changed");
+            s3Service.uploadObject(BUCKET, "a.txt", other.toString(), null, null);
+            Files.writeString(tempDir.resolve("copy.txt"), "content");
+            service.uploadObject(BUCKET, "c.txt", tempDir.resolve("copy.txt").toString(), null, null);
+
+            assertEquals(1, service.stats().copied());
+            assertEquals(1, service.stats().uploaded());
+            assertNull(server.object(BUCKET, "c.txt").headers().get("x-amz-copy-source"));
+        }
+    }
+
+    @Test
+    void uploadsOnlyTheMissesOfABatch() throws IOException {
+        Path first = Files.writeString(tempDir.resolve("first.txt"), "first");
+        Path second = Files.writeString(tempDir.resolve("second.txt"), "second");
+        try (DeduplicatingCloudStorageService service = builder().build()) {
+            service.uploadObject(BUCKET, "first.txt", first.toString(), null, null);
+
+            List<UploadResult> results = service.uploadObjects(BUCKET, List.of(
+                    new UploadSpec("first.txt", first.toString(), null, null),
+                    new UploadSpec("copy.txt", first.toString(), null, null),
+                    new UploadSpec("second.txt", second.toString(), null, null),
+                    new UploadSpec("missing.txt", tempDir.resolve("missing.txt").toString(), null, null)));
+
+            assertEquals(List.of(true, true, true, false), results.stream().map(UploadResult::isSuccess).toList());
+            assertEquals(List.of(5L, 5L, 6L), results.subList(0, 3).stream().map(UploadResult::bytes).toList());
+            assertEquals(new DeduplicatingCloudStorageService.Stats(1, 1, 2, 10, 2), service.stats());
+            assertArrayEquals("second".getBytes(), server.object(BUCKET, "second.txt").content());
+        }
+    }
+
+    @Test
+    void deduplicatesCompressedObjects() throws IOException {
+        AWSS3StorageService compressingService = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .multipartThreshold(64 * 1024)
+                .partSize(256 * 1024)
+                .minimumPartSize(256 * 1024)
+                .compression(Compression.GZIP)
+                .build());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 2 * 1024 * 1024; i++) {
+            text.append("2023-06-01T12:00:00 INFO request ").append(i).append(" served in ").append(i % 97).append(" ms\n");
+        }
+        Path file = Files.writeString(tempDir.resolve("log.txt"), text);
+        long size = Files.size(file);
+
+        try (DeduplicatingCloudStorageService service = DeduplicatingCloudStorageService.builder(compressingService).build()) {
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            ObjectInfo info = compressingService.getObjectInfo(BUCKET, "a.txt");
+            assertTrue(info.size() < size, "the object is stored compressed");
+            assertEquals(size, info.uncompressedSize());
+
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            service.uploadObject(BUCKET, "b.txt", file.toString(), null, null);
+
+            assertEquals(new DeduplicatingCloudStorageService.Stats(1, 1, 1, 2 * size, 1), service.stats());
+        }
+        FakeS3Server.StoredObject copy = server.object(BUCKET, "b.txt");
+        assertTrue(copy.partCount() > 0, "the compressed object is copied in parts");
+        assertEquals(Compression.GZIP.contentEncoding(), copy.headers().get("Content-Encoding"));
+        compressingService.downloadObject(BUCKET, "b.txt", tempDir.resolve("download/b.txt"));
+        assertEquals(text.toString(), Files.readString(tempDir.resolve("download/b.txt")));
+    }
+
+    @Test
+    void copiesDuplicatesInCloudStorage() throws IOException {
+        GCStorageService gcService = new GCStorageService(LocalStorage.create(), TransferOptions.defaults());
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+        try (DeduplicatingCloudStorageService service = DeduplicatingCloudStorageService.builder(gcService).build()) {
+            service.uploadObject(BUCKET, "a.txt", file.toString(), null, null);
+            service.uploadObject(BUCKET, "b.txt", file.toString(), null, null);
+
+            assertEquals(1, service.stats().copied());
+            assertEquals(7, gcService.getObjectInfo(BUCKET, "b.txt").size());
+        }
+    }
+
+    private DeduplicatingCloudStorageService.Builder builder() {
+        return DeduplicatingCloudStorageService.builder(s3Service)
+                .indexFile(tempDir.resolve("index.log"))
+                .maximumEntries(10);
+    }
+}
@@ -0,0 +1,262 @@
+package de.leomedia.cloud_gcstorage_awss3.gateway;
+
+import com.google.cloud.storage.Storage;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3AsyncStorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.ContentChecksum;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageAsyncService;
+import de.leomedia.cloud_gcstorage_awss3.GC.GCStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadChecksum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test streams uploads through the {@link UploadGateway} on a Netty server with two event loop threads
+ * to the {@link FakeS3Server} and the in-memory storage of {@link LocalStorage}.
+ */
+class UploadGatewayTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String ACCESS_TOKEN = "gateway-token";
+
+    private final TransferOptions transferOptions = TransferOptions.builder()
+            .multipartThreshold(1024 * 1024)
+            .partSize(256 * 1024)
+            .minimumPartSize(256 * 1024)
+            .build();
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private S3AsyncClient s3AsyncClient;
+    private S3Presigner presigner;
+    private ExecutorService ioExecutor;
+    private LoopResources loops;
+    private DisposableServer gatewayServer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        s3AsyncClient = server.newAsyncClient();
+        presigner = S3Presigner.builder()
+                .endpointOverride(server.endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build();
+        ioExecutor = GCStorageAsyncService.newIoExecutor(4, 1000);
+        loops = LoopResources.create("gateway", 2, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (gatewayServer != null) {
+            gatewayServer.disposeNow();
+        }
+        loops.disposeLater().block();
+        ioExecutor.shutdownNow();
+        presigner.close();
+        s3AsyncClient.close();
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void streamsSmallAndLargeUploadsToS3() {
+        WebTestClient client = start(new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions),
+                new AWSS3StorageService(s3Client, presigner, transferOptions));
+        byte[] small = randomBytes(100 * 1024);
+        byte[] large = randomBytes(3 * 1024 * 1024 + 7);
+
+        UploadReceipt smallReceipt = upload(client, "uploads/small.bin", small);
+        UploadReceipt largeReceipt = upload(client, "uploads/large.bin", large);
+
+        assertArrayEquals(small, server.object(BUCKET, "uploads/small.bin").content());
+        assertEquals(0, server.object(BUCKET, "uploads/small.bin").partCount());
+        assertEquals(new ContentChecksum("CRC32C", UploadChecksum.CRC32C.base64(ByteBuffer.wrap(small))), smallReceipt.checksum());
+        assertEquals(small.length, smallReceipt.bytes());
+
+        assertArrayEquals(large, server.object(BUCKET, "uploads/large.bin").content());
+        assertEquals(13, server.object(BUCKET, "uploads/large.bin").partCount());
+        assertTrue(largeReceipt.checksum().value().endsWith("-13"), largeReceipt.checksum().value());
+    }
+
+    @Test
+    void answersCorruptedAndUnsizedUploadsWithErrors() {
+        WebTestClient client = start(new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions),
+                new AWSS3StorageService(s3Client, presigner, transferOptions));
+        server.corruptNext(1);
+
+        client.put().uri("/objects/corrupted.bin").bodyValue(randomBytes(1024))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.BAD_GATEWAY);
+        assertNull(server.object(BUCKET, "corrupted.bin"));
+
+        Flux<DataBuffer> chunked = Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(randomBytes(1024)));
+        client.put().uri("/objects/chunked.bin").body(chunked, DataBuffer.class)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.LENGTH_REQUIRED);
+    }
+
+    @Test
+    void streamsManyConcurrentUploadsToCloudStorage() {
+        Storage storage = LocalStorage.create();
+        GCStorageService storageService = new GCStorageService(storage, transferOptions);
+        WebTestClient client = start(new GCStorageAsyncService(storageService, ioExecutor), storageService);
+        List<byte[]> contents = IntStream.range(0, 200).mapToObj(i -> randomBytes(8 * 1024 + i)).toList();
+
+        List<UploadReceipt> receipts = Flux.range(0, contents.size())
+                .flatMap(i -> client.put().uri("/objects/many/" + i + ".bin").bodyValue(contents.get(i))
+                        .exchange()
+                        .returnResult(UploadReceipt.class)
+                        .getResponseBody(), 200)
+                .collectList()
+                .block(Duration.ofMinutes(1));
+
+        assertEquals(200, receipts.size());
+        for (UploadReceipt receipt : receipts) {
+            byte[] content = contents.get(Integer.parseInt(receipt.key().substring("many/".length()).replace(".bin", "")));
+            assertArrayEquals(content, storage.readAllBytes(BUCKET, receipt.key()));
+            assertEquals(UploadChecksum.CRC32C.base64(ByteBuffer.wrap(content)), receipt.checksum().value());
+        }
+    }
+
+    @Test
+    void presignsUrlsThroughTheStorageService() {
+        WebTestClient client = start(new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions),
+                new AWSS3StorageService(s3Client, presigner, transferOptions));
+
+        PresignedUrl presignedUrl = client.get().uri("/presigned/reports/2023.pdf?minutes=5")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(PresignedUrl.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals("reports/2023.pdf", presignedUrl.key());
+        assertEquals(5, presignedUrl.minutes());
+        assertTrue(presignedUrl.url().contains("/test-bucket/reports/2023.pdf?"), presignedUrl.url());
+        assertTrue(presignedUrl.url().contains("X-Amz-Expires=300"), presignedUrl.url());
+
+        client.get().uri("/presigned/reports/2023.pdf?minutes=100000")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void refusesRequestsWithoutTheTokenOrOutsideTheAllowedPrefixes() {
+        WebTestClient client = start(UploadGateway.builder(new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions),
+                        new AWSS3StorageService(s3Client, presigner, transferOptions), BUCKET)
+                .accessToken(ACCESS_TOKEN)
+                .allowedPrefixes(List.of("uploads/"))
+                .build());
+
+        client.put().uri("/objects/uploads/a.bin").bodyValue(randomBytes(1024))
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectHeader().valueEquals(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+        client.get().uri("/presigned/uploads/a.bin")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer wrong-token")
+                .exchange()
+                .expectStatus().isUnauthorized();
+        client.put().uri("/objects/other/a.bin").bodyValue(randomBytes(1024))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN)
+                .exchange()
+                .expectStatus().isForbidden();
+        assertTrue(server.requests().isEmpty(), server.requests().toString());
+
+        client.put().uri("/objects/uploads/a.bin").bodyValue(randomBytes(1024))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN)
+                .exchange()
+                .expectStatus().isCreated();
+        assertNotNull(server.object(BUCKET, "uploads/a.bin"));
+
+        assertThrows(IllegalArgumentException.class, () -> UploadGateway.builder(
+                new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions),
+                new AWSS3StorageService(s3Client, presigner, transferOptions), BUCKET).build());
+    }
+
+    @Test
+    void answersKeysThatCannotBeSignedWithNotFound() {
+        AWSS3StorageService storageService = new AWSS3StorageService(s3Client, presigner, transferOptions) {
+            @Override
+            public URL getPresignedUrl(String bucketName, String key, Integer minutes, String encryptionKey) {
+                return null;
+            }
+        };
+        WebTestClient client = start(new AWSS3AsyncStorageService(s3AsyncClient, presigner, transferOptions), storageService);
+
+        client.get().uri("/presigned/missing.pdf")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private WebTestClient start(de.leomedia.cloud_gcstorage_awss3.AsyncCloudStorageService uploadService,
+                                de.leomedia.cloud_gcstorage_awss3.CloudStorageService storageService) {
+        return start(UploadGateway.builder(uploadService, storageService, BUCKET).accessToken(ACCESS_TOKEN).build())
+                .mutate()
+                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN)
+                .build();
+    }
+
+    private WebTestClient start(UploadGateway gateway) {
+        gatewayServer = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .runOn(loops)
+                .handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(gateway.routes())))
+                .bindNow();
+        return WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + gatewayServer.port())
+                .responseTimeout(Duration.ofMinutes(1))
+                .build();
+    }
+
+    private static UploadReceipt upload(WebTestClient client, String key, byte[] content) {
+        return client.put().uri("/objects/" + key).bodyValue(content)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(UploadReceipt.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
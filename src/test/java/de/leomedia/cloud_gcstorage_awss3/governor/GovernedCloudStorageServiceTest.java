@@ -0,0 +1,149 @@
+package de.leomedia.cloud_gcstorage_awss3.governor;
+
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test governs a fake provider that throttles every request beyond its capacity and fails on demand.
+ */
+class GovernedCloudStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ThrottlingService provider = new ThrottlingService();
+
+    @Test
+    void retriesThrottledAndTransientFailures() throws IOException {
+        GovernedCloudStorageService service = new GovernedCloudStorageService(provider, options().build());
+        Path file = Files.writeString(tempDir.resolve("file.txt"), "content");
+
+        provider.failures.add(error(503, "SlowDown"));
+        provider.failures.add(error(500, "InternalError"));
+        service.uploadObject("bucket", "a.txt", file.toString(), null, null);
+
+        assertEquals(3, provider.calls());
+        assertEquals(new RequestGovernor.Stats(3, 2, 1, 0), service.governor().stats());
+    }
+
+    @Test
+    void doesNotRetryPermanentFailures() {
+        GovernedCloudStorageService service = new GovernedCloudStorageService(provider, options().build());
+
+        provider.failures.add(error(403, "AccessDenied"));
+        S3Exception e = assertThrows(S3Exception.class, () -> service.deleteObject("bucket", "a.txt"));
+
+        assertEquals(403, e.statusCode());
+        assertEquals(1, provider.calls());
+    }
+
+    @Test
+    void givesUpWhenTheRetryBudgetIsUsedUp() {
+        GovernedCloudStorageService service = new GovernedCloudStorageService(provider, options()
+                .retryBudgetCapacity(2)
+                .retryBudgetRatio(0)
+                .build());
+
+        for (int i = 0; i < 10; i++) {
+            provider.failures.add(error(503, "SlowDown"));
+        }
+        S3Exception e = assertThrows(S3Exception.class, () -> service.getObjectInfo("bucket", "a.txt"));
+
+        assertEquals(503, e.statusCode());
+        assertEquals(2, e.getSuppressed().length);
+        assertEquals(3, provider.calls());
+        assertEquals(1, service.governor().stats().budgetExhausted());
+    }
+
+    @Test
+    void adaptsTheConcurrencyOfABulkUploadToThrottling() throws IOException {
+        provider.capacity = 4;
+        GovernedCloudStorageService service = new GovernedCloudStorageService(provider, options()
+                .initialLimit(32)
+                .retryBudgetCapacity(200)
+                .latencyTolerance(0)
+                .build());
+
+        List<UploadSpec> uploads = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Path file = Files.writeString(tempDir.resolve("file-" + i + ".txt"), "content");
+            uploads.add(new UploadSpec("logs/file-" + i + ".txt", file.toString(), null, null));
+        }
+        List<UploadResult> results = service.uploadObjects("bucket", uploads);
+
+        assertTrue(results.stream().allMatch(UploadResult::isSuccess));
+        assertTrue(service.governor().limit("bucket", "logs/other.txt") <= 8);
+        // after the first burst, the limit stays around the capacity, so only a few probes are throttled
+        assertTrue(service.governor().stats().throttled() < 100, service.governor().stats().toString());
+        assertEquals(32, service.governor().limit("bucket", "other/file.txt"));
+    }
+
+    @Test
+    void separatesLimitsByPrefix() {
+        RequestGovernor governor = new RequestGovernor(options().prefixDepth(2).build());
+
+        assertEquals("bucket/", governor.scope("bucket", "file.txt"));
+        assertEquals("bucket/a/", governor.scope("bucket", "a/file.txt"));
+        assertEquals("bucket/a/b/", governor.scope("bucket", "a/b/c/file.txt"));
+        assertEquals("bucket/", new RequestGovernor(options().prefixDepth(0).build()).scope("bucket", "a/file.txt"));
+    }
+
+    private static GovernorOptions.Builder options() {
+        return GovernorOptions.builder()
+                .retryDelay(Duration.ofMillis(1))
+                .maxRetryDelay(Duration.ofMillis(5));
+    }
+
+    private static S3Exception error(int statusCode, String errorCode) {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).errorMessage(errorCode).build())
+                .build();
+    }
+
+    /**
+     * A provider that fails with the queued failures first, and throttles every call beyond its capacity.
+     */
+    private static class ThrottlingService extends InMemoryCloudStorageService {
+
+        final List<RuntimeException> failures = new ArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile int capacity = Integer.MAX_VALUE;
+
+        ThrottlingService() {
+            super("throttling");
+            onCall((operation, bucketName, key) -> {
+                synchronized (failures) {
+                    if (!failures.isEmpty()) {
+                        throw failures.remove(0);
+                    }
+                }
+                try {
+                    if (inFlight.incrementAndGet() > capacity) {
+                        throw error(503, "SlowDown");
+                    }
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.leomedia.cloud_gcstorage_awss3.inventory;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test keeps the inventory of a bucket of the {@link FakeS3Server}.
+ */
+class BucketInventoryTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService storageService;
+    private BucketInventory inventory;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        storageService = new AWSS3StorageService(s3Client, null, TransferOptions.builder().listPageSize(2).build());
+        inventory = BucketInventory.builder(storageService, tempDir.resolve("inventory"))
+                .parallelism(2)
+                .maximumAge(Duration.ofHours(1))
+                .build();
+        file = Files.writeString(tempDir.resolve("file.txt"), "content");
+    }
+
+    @AfterEach
+    void tearDown() {
+        inventory.close();
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void listsOnlyStaleAndNewSegments() throws IOException {
+        upload("a.txt", "logs/1.txt", "logs/2.txt", "logs/3.txt", "other/4.txt");
+
+        InventoryReport first = inventory.refresh(BUCKET, "");
+        assertEquals(3, first.segments());
+        assertEquals(3, first.listedSegments());
+        assertEquals(5, first.objects());
+        assertEquals(35, first.bytes());
+        assertEquals(List.of("a.txt", "logs/1.txt", "logs/2.txt", "logs/3.txt", "other/4.txt"), keys());
+
+        upload("b.txt", "logs/5.txt", "new/6.txt");
+        storageService.deleteObject(BUCKET, "other/4.txt");
+        InventoryReport second = inventory.refresh(BUCKET, "");
+        assertEquals(3, second.segments());
+        assertEquals(2, second.listedSegments());
+        // the segment of logs/ is fresh, so its new object is not listed yet
+        assertEquals(List.of("a.txt", "b.txt", "logs/1.txt", "logs/2.txt", "logs/3.txt", "new/6.txt"), keys());
+
+        InventoryReport full = inventory.refresh(BUCKET, "", Duration.ZERO);
+        assertEquals(3, full.listedSegments());
+        assertEquals(List.of("a.txt", "b.txt", "logs/1.txt", "logs/2.txt", "logs/3.txt", "logs/5.txt", "new/6.txt"), keys());
+        try (Stream<ObjectInfo> objects = inventory.objects(BUCKET, "")) {
+            ObjectInfo object = objects.filter(o -> o.key().equals("logs/5.txt")).findFirst().orElseThrow();
+            assertEquals(storageService.getObjectInfo(BUCKET, "logs/5.txt").version(), object.version());
+            assertEquals(7, object.size());
+        }
+    }
+
+    @Test
+    void keepsAnInventoryPerPrefix() throws IOException {
+        upload("a.txt", "logs/1.txt", "logs/old/2.txt");
+
+        inventory.refresh(BUCKET, "logs/");
+
+        try (Stream<ObjectInfo> objects = inventory.objects(BUCKET, "logs/")) {
+            assertEquals(List.of("logs/1.txt", "logs/old/2.txt"), objects.map(ObjectInfo::key).toList());
+        }
+        assertThrows(NoSuchFileException.class, () -> inventory.objects(BUCKET, ""));
+    }
+
+    private void upload(String... keys) throws IOException {
+        for (String key : keys) {
+            storageService.uploadObject(BUCKET, key, file.toString(), null, null);
+        }
+    }
+
+    private List<String> keys() throws IOException {
+        try (Stream<ObjectInfo> objects = inventory.objects(BUCKET, "")) {
+            return objects.map(ObjectInfo::key).sorted().toList();
+        }
+    }
+}
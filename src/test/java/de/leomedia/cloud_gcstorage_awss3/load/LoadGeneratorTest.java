@@ -0,0 +1,197 @@
+package de.leomedia.cloud_gcstorage_awss3.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.CloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import de.leomedia.cloud_gcstorage_awss3.clients.ClientOptions;
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test runs closed and open loop workloads against the {@link FakeS3Server} and the local storage.
+ */
+class LoadGeneratorTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    private FakeS3Server server;
+    private CloudClientRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        registry = CloudClientRegistry.builder(ClientOptions.builder().maxConnections(8).build())
+                .s3Endpoint(server.endpoint())
+                .awsRegion(Region.US_EAST_1)
+                .awsCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .storage(LocalStorage.create())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+        server.close();
+    }
+
+    @Test
+    void recordsEveryOperationOfAClosedLoop() throws IOException {
+        CloudStorageService service = registry.cloudStorageService("AWS");
+        LoadReport report = new LoadGenerator(service, "AWS", WorkloadOptions.builder(BUCKET)
+                .operations("upload:4,download:4,presign:1,list:1")
+                .objectSizes("1KiB:3,64KiB:1")
+                .concurrency(4)
+                .duration(Duration.ofMillis(800))
+                .warmUp(Duration.ofMillis(200))
+                .seedObjects(8)
+                .build()).run();
+
+        assertEquals("closed-loop", report.mode());
+        assertEquals(4, report.operations().size());
+        for (OperationStats stats : report.operations()) {
+            assertTrue(stats.count() > 0, stats.operation() + " ran");
+            assertEquals(0, stats.errors(), stats.operation() + " did not fail");
+            assertTrue(stats.p50Millis() <= stats.p99Millis() && stats.p99Millis() <= stats.p999Millis()
+                    && stats.p999Millis() <= stats.maxMillis(), "the percentiles are ordered");
+        }
+        OperationStats uploads = report.operations().get(0);
+        assertEquals(LoadOperation.UPLOAD, uploads.operation());
+        assertTrue(uploads.megabytesPerSecond() > 0);
+
+        JsonNode json = new ObjectMapper().readTree(report.toJson());
+        assertEquals("AWS", json.get("provider").asText());
+        assertEquals("UPLOAD", json.get("operations").get(0).get("operation").asText());
+        assertTrue(json.get("operations").get(1).has("p999Millis"));
+        assertTrue(report.toTable().contains("download"));
+
+        assertEquals(List.of(), service.listPage(BUCKET, "", null, null).objects(), "the objects of the run are deleted");
+    }
+
+    @Test
+    void startsTheOperationsOfAnOpenLoopOnSchedule() throws IOException {
+        LoadReport report = new LoadGenerator(registry.cloudStorageService("GC"), "GC", WorkloadOptions.builder(BUCKET)
+                .operations(Map.of(LoadOperation.UPLOAD, 1, LoadOperation.LIST, 1))
+                .objectSizes("2KiB")
+                .concurrency(2)
+                .arrivalRate(100)
+                .duration(Duration.ofMillis(500))
+                .warmUp(Duration.ZERO)
+                .build()).run();
+
+        assertEquals("open-loop", report.mode());
+        assertEquals(50, report.operations().stream().mapToLong(OperationStats::count).sum(), "one operation every 10 ms");
+        assertEquals(0, report.operations().stream().mapToLong(OperationStats::errors).sum());
+        assertEquals(0, report.operations().stream().mapToLong(OperationStats::dropped).sum());
+        assertTrue(report.seconds() >= 0.49);
+    }
+
+    @Test
+    void recordsFailedOperationsApart() throws IOException {
+        CloudStorageService service = slowListing(registry.cloudStorageService("GC"), 20, new IOException("Service Unavailable"));
+        LoadReport report = new LoadGenerator(service, "GC", WorkloadOptions.builder(BUCKET)
+                .operations(Map.of(LoadOperation.UPLOAD, 1, LoadOperation.LIST, 1))
+                .objectSizes("1KiB")
+                .concurrency(2)
+                .duration(Duration.ofMillis(400))
+                .warmUp(Duration.ZERO)
+                .build()).run();
+
+        OperationStats uploads = report.operations().get(0);
+        assertTrue(uploads.count() > 0);
+        assertEquals(0, uploads.errors());
+        OperationStats lists = report.operations().get(1);
+        assertEquals(LoadOperation.LIST, lists.operation());
+        assertEquals(0, lists.count(), "failed operations are not counted as completed");
+        assertEquals(0, lists.opsPerSecond());
+        assertEquals(0, lists.maxMillis(), "failed operations are not in the latencies");
+        assertTrue(lists.errors() > 0);
+        assertTrue(lists.errorP99Millis() >= 20, "the latency of the failed operations is recorded apart");
+        assertTrue(report.toTable().contains("error p99 ms"));
+    }
+
+    @Test
+    void countsAPresignedUrlThatCouldNotBeSignedAsFailed() throws IOException {
+        CloudStorageService service = new InMemoryCloudStorageService("memory").signer((bucketName, key, minutes) -> {
+            throw new IOException("No credentials to sign with");
+        });
+        LoadReport report = new LoadGenerator(service, "memory", WorkloadOptions.builder(BUCKET)
+                .operations("presign")
+                .objectSizes("1KiB")
+                .concurrency(2)
+                .duration(Duration.ofMillis(200))
+                .warmUp(Duration.ZERO)
+                .seedObjects(2)
+                .build()).run();
+
+        OperationStats presigns = report.operations().get(0);
+        assertEquals(LoadOperation.PRESIGN, presigns.operation());
+        assertEquals(0, presigns.count(), "a null URL is not a completed operation");
+        assertTrue(presigns.errors() > 0);
+    }
+
+    @Test
+    void dropsTheArrivalsOfAnOpenLoopOnceTheQueueIsFull() throws IOException {
+        CloudStorageService service = slowListing(registry.cloudStorageService("GC"), 200, null);
+        LoadReport report = new LoadGenerator(service, "GC", WorkloadOptions.builder(BUCKET)
+                .operations("list")
+                .concurrency(1)
+                .maxQueued(2)
+                .arrivalRate(100)
+                .duration(Duration.ofMillis(300))
+                .warmUp(Duration.ZERO)
+                .build()).run();
+
+        OperationStats lists = report.operations().get(0);
+        assertEquals(30, lists.count() + lists.errors() + lists.dropped(), "every arrival is either run or dropped");
+        assertTrue(lists.dropped() >= 20, "one operation runs and two wait, the others are dropped: " + lists);
+        assertEquals(0, lists.errors());
+        assertTrue(lists.p99Millis() >= 200, "the queued operations waited for the worker");
+    }
+
+    @Test
+    void rejectsInvalidWorkloads() {
+        assertEquals(Map.of(4096L, 50, 8_000_000L, 1), WorkloadOptions.builder(BUCKET).objectSizes("4KiB:50, 8 MB").build().objectSizes());
+        assertThrows(IllegalArgumentException.class, () -> WorkloadOptions.builder(BUCKET).operations("upload:1,delete:1"));
+        assertThrows(IllegalArgumentException.class, () -> WorkloadOptions.builder(BUCKET).objectSizes("4 lightyears"));
+        assertThrows(IllegalArgumentException.class, () -> WorkloadOptions.builder(BUCKET).operations("upload:0").build());
+        assertThrows(IllegalArgumentException.class, () -> WorkloadOptions.builder(BUCKET).arrivalRate(-1).build());
+        assertThrows(IllegalArgumentException.class, () -> WorkloadOptions.builder(BUCKET).maxQueued(0).build());
+    }
+
+    /**
+     * @return a service whose listings take the given time and then throw the failure, if there is one
+     */
+    private static CloudStorageService slowListing(CloudStorageService delegate, long millis, IOException failure) {
+        return (CloudStorageService) Proxy.newProxyInstance(CloudStorageService.class.getClassLoader(),
+                new Class<?>[]{CloudStorageService.class}, (proxy, called, args) -> {
+                    if (called.getName().equals("listPage")) {
+                        Thread.sleep(millis);
+                        if (failure != null) {
+                            throw failure;
+                        }
+                    }
+                    try {
+                        return called.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,117 @@
+package de.leomedia.cloud_gcstorage_awss3.metrics;
+
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test checks the meters the {@link MeteredCloudStorageService} records for each operation.
+ */
+class MeteredCloudStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, IOException> failingKeys = new ConcurrentHashMap<>();
+    private final InMemoryCloudStorageService stubService = new InMemoryCloudStorageService("stub").onCall((operation, bucketName, key) -> {
+        IOException failure = failingKeys.get(key);
+        if (failure != null) {
+            throw failure;
+        }
+    });
+
+    @Test
+    void recordsLatencyAndBytesOfTransfers() throws IOException {
+        MeteredCloudStorageService service = MeteredCloudStorageService.builder(stubService, meterRegistry).provider("AWS").build();
+        Path file = Files.write(tempDir.resolve("file.bin"), new byte[1000]);
+
+        service.uploadObject("bucket", "a", file.toString(), null, null);
+        service.uploadObject("bucket", "b", file.toString(), null, null);
+
+        Timer timer = meterRegistry.get(MeteredCloudStorageService.OPERATION_TIMER)
+                .tags("provider", "AWS", "operation", "uploadObject", "outcome", "success").timer();
+        assertEquals(2, timer.count());
+        assertEquals(2000, meterRegistry.get(MeteredCloudStorageService.BYTES_COUNTER)
+                .tags("operation", "uploadObject").counter().count());
+        assertEquals(2, meterRegistry.get(MeteredCloudStorageService.THROUGHPUT_SUMMARY)
+                .tags("operation", "uploadObject").summary().count());
+        assertEquals(0, meterRegistry.get(MeteredCloudStorageService.IN_FLIGHT_GAUGE)
+                .tags("operation", "uploadObject").gauge().value());
+
+        service.downloadObject("bucket", "a", tempDir.resolve("download.bin"));
+        assertEquals(1000, meterRegistry.get(MeteredCloudStorageService.BYTES_COUNTER)
+                .tags("operation", "downloadObject").counter().count());
+    }
+
+    @Test
+    void countsErrorsByExceptionType() throws IOException {
+        MeteredCloudStorageService service = MeteredCloudStorageService.builder(stubService, meterRegistry).provider("GC").build();
+        Path file = Files.write(tempDir.resolve("file.bin"), new byte[10]);
+        failingKeys.put("broken", new IOException("Connection reset"));
+
+        assertThrows(IOException.class, () -> service.uploadObject("bucket", "broken", file.toString(), null, null));
+        List<UploadResult> results = service.uploadObjects("bucket", List.of(
+                new UploadSpec("ok", file.toString(), null, null),
+                new UploadSpec("broken", file.toString(), null, null)));
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(1, meterRegistry.get(MeteredCloudStorageService.ERRORS_COUNTER)
+                .tags("operation", "uploadObject", "exception", "IOException").counter().count());
+        assertEquals(1, meterRegistry.get(MeteredCloudStorageService.ERRORS_COUNTER)
+                .tags("operation", "uploadObjects", "exception", "IOException").counter().count());
+        assertEquals(1, meterRegistry.get(MeteredCloudStorageService.OPERATION_TIMER)
+                .tags("operation", "uploadObject", "outcome", "error").timer().count());
+        assertEquals(10, meterRegistry.get(MeteredCloudStorageService.BYTES_COUNTER)
+                .tags("operation", "uploadObjects").counter().count());
+    }
+
+    @Test
+    void countsPresignedUrlsAndObservesCalls() {
+        List<String> observed = new ArrayList<>();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                observed.add(context.getLowCardinalityKeyValue("operation").getValue());
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        MeteredCloudStorageService service = MeteredCloudStorageService.builder(stubService, meterRegistry)
+                .provider("AWS")
+                .observationRegistry(observationRegistry)
+                .build();
+
+        assertNotNull(service.getPresignedUrl("bucket", "a", 60, null));
+        Map<String, URL> urls = new ConcurrentHashMap<>();
+        service.presignAll("bucket", List.of("b", "c", "d"), 60, urls::put);
+
+        assertEquals(3, urls.size());
+        assertEquals(1, meterRegistry.get(MeteredCloudStorageService.URLS_COUNTER).tags("operation", "getPresignedUrl").counter().count());
+        assertEquals(3, meterRegistry.get(MeteredCloudStorageService.URLS_COUNTER).tags("operation", "presignAll").counter().count());
+        assertEquals(List.of("getPresignedUrl", "presignAll"), observed);
+    }
+}
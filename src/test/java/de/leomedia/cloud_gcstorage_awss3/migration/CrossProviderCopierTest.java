@@ -0,0 +1,199 @@
+package de.leomedia.cloud_gcstorage_awss3.migration;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.ContentCompressor;
+import de.leomedia.cloud_gcstorage_awss3.GC.LocalStorage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.clients.ClientOptions;
+import de.leomedia.cloud_gcstorage_awss3.clients.CloudClientRegistry;
+import de.leomedia.cloud_gcstorage_awss3.dedup.DeduplicatingCloudStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test copies objects between the {@link FakeS3Server} and the local storage with a {@link CrossProviderCopier}.
+ */
+class CrossProviderCopierTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final String KMS_KEY = "arn:aws:kms:us-east-1:123456789012:key/migration";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private Storage storage;
+    private CloudClientRegistry registry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        storage = LocalStorage.create();
+        registry = registry(storage);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+        server.close();
+    }
+
+    @Test
+    void copiesObjectsBetweenProvidersInRanges() throws IOException {
+        byte[] content = new byte[1536 * 1024 + 3];
+        new Random(21).nextBytes(content);
+        storage.create(BlobInfo.newBuilder(BlobId.of(BUCKET, "videos/large.bin")).build(), content);
+
+        try (CrossProviderCopier copier = CrossProviderCopier.builder(registry)
+                .rangeSize(100_000)
+                .window(3)
+                .encryptionKey(KMS_KEY)
+                .storageClass("STANDARD_IA")
+                .build()) {
+
+            UploadResult toS3 = copier.copy("GC", BUCKET, "videos/large.bin", "AWS", BUCKET, "videos/copy.bin");
+            assertEquals(content.length, toS3.bytes());
+            assertTrue(toS3.checksum().value().endsWith("-7"), "the copy is sent as multipart upload");
+
+            FakeS3Server.StoredObject stored = server.object(BUCKET, "videos/copy.bin");
+            assertArrayEquals(content, stored.content());
+            assertEquals(7, stored.partCount());
+            assertEquals(KMS_KEY, stored.headers().get("x-amz-server-side-encryption-aws-kms-key-id"));
+            assertEquals("STANDARD_IA", stored.headers().get("x-amz-storage-class"));
+
+            copier.copy("AWS", BUCKET, "videos/copy.bin", "GC", BUCKET, "videos/back.bin");
+            assertArrayEquals(content, storage.readAllBytes(BlobId.of(BUCKET, "videos/back.bin")));
+
+            assertThrows(NoSuchFileException.class, () -> copier.copy("AWS", BUCKET, "missing.bin", "GC", BUCKET, "missing.bin"));
+            assertThrows(IllegalArgumentException.class, () -> copier.copy("AWS", BUCKET, "videos/copy.bin", "AWS", BUCKET, "videos/copy.bin"));
+        }
+    }
+
+    @Test
+    void keepsTheAttributesAndTheEncodingOfTheSource() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write("log line\n".repeat(10_000).getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> metadata = Map.of(DeduplicatingCloudStorageService.CONTENT_HASH_METADATA, "abc",
+                ContentCompressor.UNCOMPRESSED_SIZE_METADATA, "90000");
+        storage.create(BlobInfo.newBuilder(BlobId.of(BUCKET, "logs/app.log"))
+                .setContentType("text/plain")
+                .setContentEncoding("gzip")
+                .setMetadata(metadata)
+                .build(), compressed.toByteArray());
+
+        try (CrossProviderCopier copier = CrossProviderCopier.builder(registry).build()) {
+            copier.copy("GC", BUCKET, "logs/app.log", "AWS", BUCKET, "logs/app.log");
+            ObjectInfo s3Copy = registry.cloudStorageService("AWS").getObjectInfo(BUCKET, "logs/app.log");
+            assertArrayEquals(compressed.toByteArray(), server.object(BUCKET, "logs/app.log").content(), "the content is not decompressed");
+            assertEquals("gzip", s3Copy.contentEncoding());
+            assertEquals("abc", s3Copy.metadata().get(DeduplicatingCloudStorageService.CONTENT_HASH_METADATA));
+            assertEquals(90000, s3Copy.uncompressedSize());
+            assertEquals("text/plain", server.object(BUCKET, "logs/app.log").headers().get("Content-Type"));
+
+            copier.copy("AWS", BUCKET, "logs/app.log", "GC", BUCKET, "logs/back.log");
+            Blob back = storage.get(BUCKET, "logs/back.log");
+            assertArrayEquals(compressed.toByteArray(), back.getContent());
+            assertEquals("gzip", back.getContentEncoding());
+            assertEquals("text/plain", back.getContentType());
+            assertEquals("abc", back.getMetadata().get(DeduplicatingCloudStorageService.CONTENT_HASH_METADATA));
+        }
+    }
+
+    @Test
+    void failsACopyWhoseSourceChangedDuringTheCopy() throws IOException {
+        put("changing.bin", "original content of the source");
+        AtomicBoolean replaced = new AtomicBoolean();
+        // the source is replaced once the upload of the copy is opened, before its ranges are read
+        Storage replacing = (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(), new Class<?>[]{Storage.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("writer") && replaced.compareAndSet(false, true)) {
+                        put("changing.bin", "replaced content of the source");
+                    }
+                    try {
+                        return method.invoke(storage, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        try (CloudClientRegistry replacingRegistry = registry(replacing);
+             CrossProviderCopier copier = CrossProviderCopier.builder(replacingRegistry).rangeSize(8).window(1).build()) {
+            IOException e = assertThrows(IOException.class, () -> copier.copy("AWS", BUCKET, "changing.bin", "GC", BUCKET, "changing.bin"));
+            assertTrue(e.getMessage().contains("is no longer version"), e.getMessage());
+        }
+        assertTrue(replaced.get());
+        assertNull(storage.get(BUCKET, "changing.bin"), "no copy is written");
+        assertEquals(0, registry.cloudStorageService("GC").listObjects(BUCKET, "").count(), "the upload is not finalized");
+    }
+
+    @Test
+    void migratesAPrefixAndResumesWithTheManifest() throws IOException {
+        for (int i = 0; i < 12; i++) {
+            put("logs/" + i + ".log", "log " + i);
+        }
+        put("other/skipped.log", "other");
+        Path manifest = tempDir.resolve("migration/logs.manifest");
+
+        try (CrossProviderCopier copier = CrossProviderCopier.builder(registry).maxObjects(3).build()) {
+            MigrationReport first = copier.migrate("AWS", BUCKET, "logs/", "GC", BUCKET, manifest);
+            assertTrue(first.isSuccess());
+            assertEquals(12, first.listed());
+            assertEquals(12, first.copied());
+            assertEquals("log 7", new String(storage.readAllBytes(BlobId.of(BUCKET, "logs/7.log"))));
+            assertNull(storage.get(BUCKET, "other/skipped.log"));
+        }
+
+        put("logs/3.log", "replaced log 3");
+        try (CrossProviderCopier copier = CrossProviderCopier.builder(registry).build()) {
+            MigrationReport second = copier.migrate("AWS", BUCKET, "logs/", "GC", BUCKET, manifest);
+            assertEquals(12, second.listed());
+            assertEquals(11, second.skipped());
+            assertEquals(1, second.copied());
+            assertEquals("replaced log 3".length(), second.copiedBytes());
+            assertEquals("replaced log 3", new String(storage.readAllBytes(BlobId.of(BUCKET, "logs/3.log"))));
+        }
+    }
+
+    private CloudClientRegistry registry(Storage storage) {
+        return CloudClientRegistry.builder(ClientOptions.builder().maxConnections(8).build())
+                .transferOptions(TransferOptions.builder().multipartThreshold(1024 * 1024).partSize(256 * 1024).minimumPartSize(256 * 1024).build())
+                .s3Endpoint(server.endpoint())
+                .awsRegion(Region.US_EAST_1)
+                .awsCredentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+                .storage(storage)
+                .build();
+    }
+
+    private void put(String key, String content) throws IOException {
+        Path file = Files.writeString(tempDir.resolve("upload.txt"), content);
+        registry.cloudStorageService("AWS").uploadObject(BUCKET, key, file.toString(), null, null);
+    }
+}
@@ -0,0 +1,199 @@
+package de.leomedia.cloud_gcstorage_awss3.pack;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.Compression;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test packs uploads into the {@link FakeS3Server} and reads them back with ranged requests.
+ */
+class PackingCloudStorageServiceTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService s3Service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        s3Service = new AWSS3StorageService(s3Client, null, TransferOptions.defaults());
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void packsSmallUploadsAndReadsThemInRanges() throws IOException {
+        List<UploadSpec> uploads = files(20);
+        Path large = Files.write(tempDir.resolve("large.bin"), new byte[4096]);
+        uploads.add(new UploadSpec("large.bin", large.toString(), null, null));
+
+        try (PackingCloudStorageService service = builder().build()) {
+            List<UploadResult> results = service.uploadObjects(BUCKET, uploads);
+            assertTrue(results.stream().allMatch(UploadResult::isSuccess));
+            assertEquals(List.of("file-0.txt", "file-1.txt"), results.subList(0, 2).stream().map(UploadResult::key).toList());
+            assertEquals(20, service.packedObjects());
+
+            Path target = tempDir.resolve("download/file-7.txt");
+            service.downloadObject(BUCKET, "file-7.txt", target);
+            assertEquals("content of file 7", Files.readString(target));
+            assertArrayEquals("file 7".getBytes(), service.readRange(BUCKET, "file-7.txt", 11, 100));
+
+            ObjectInfo info = service.getObjectInfo(BUCKET, "file-7.txt");
+            assertEquals(17, info.size());
+            assertEquals("7", info.metadata().get("index"));
+
+            assertNull(service.getPresignedUrl(BUCKET, "file-7.txt", 60, null));
+        }
+        assertEquals(1, packUploads());
+        assertNotNull(server.object(BUCKET, "large.bin"));
+        assertNull(server.object(BUCKET, "file-7.txt"));
+        assertTrue(server.requests().stream().noneMatch(r -> r.startsWith("GET /" + BUCKET + "/file-7.txt")));
+    }
+
+    @Test
+    void uploadsASingleFileOnceTheMaximumDelayPassed() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("single.txt"), "single");
+        try (PackingCloudStorageService service = builder().maximumDelay(Duration.ofMillis(20)).build()) {
+            service.uploadObject(BUCKET, "single.txt", file.toString(), null, null);
+
+            assertEquals(1, packUploads());
+            assertArrayEquals("single".getBytes(), service.readRange(BUCKET, "single.txt", 0, 6));
+        }
+    }
+
+    @Test
+    void compactsPacksAfterDeletesAndKeepsCopies() throws IOException {
+        try (PackingCloudStorageService service = builder().build()) {
+            service.uploadObjects(BUCKET, files(10));
+            service.copyObject(BUCKET, "file-1.txt", "copy.txt", null, null);
+            for (int i = 2; i < 10; i++) {
+                service.deleteObject(BUCKET, "file-" + i + ".txt");
+            }
+            assertEquals(1, packUploads());
+
+            assertEquals(1, service.compact(BUCKET));
+            assertEquals(0, service.compact(BUCKET));
+
+            assertEquals(2, packUploads());
+            assertEquals(1, server.requests().stream().filter(r -> r.startsWith("DELETE /" + BUCKET + "/.packs/")).count());
+            assertEquals("content of file 1", new String(service.readRange(BUCKET, "copy.txt", 0, 100)));
+            assertEquals("content of file 0", new String(service.readRange(BUCKET, "file-0.txt", 0, 100)));
+            assertNull(service.getObjectInfo(BUCKET, "file-5.txt"));
+        }
+    }
+
+    @Test
+    void restoresTheIndexFromThePackFooter() throws IOException {
+        try (PackingCloudStorageService service = builder().build()) {
+            service.uploadObjects(BUCKET, files(5));
+        }
+        String packKey = server.requests().stream()
+                .filter(r -> r.startsWith("PUT /" + BUCKET + "/.packs/"))
+                .findFirst().orElseThrow()
+                .substring(("PUT /" + BUCKET + "/").length());
+
+        try (PackingCloudStorageService service = builder().indexFile(tempDir.resolve("restored.index")).build()) {
+            assertEquals(0, service.packedObjects());
+            assertEquals(5, service.restore(BUCKET, packKey));
+
+            Path target = tempDir.resolve("file-3.txt");
+            service.downloadObject(BUCKET, "file-3.txt", target);
+            assertEquals("content of file 3", Files.readString(target));
+            assertEquals("3", service.getObjectInfo(BUCKET, "file-3.txt").metadata().get("index"));
+        }
+    }
+
+    @Test
+    void listsPackedObjectsWithoutThePacks() throws IOException {
+        List<UploadSpec> uploads = files(3);
+        Path large = Files.write(tempDir.resolve("large.bin"), new byte[4096]);
+        uploads.add(new UploadSpec("large.bin", large.toString(), null, null));
+        uploads.add(new UploadSpec("logs/file-0.txt", uploads.get(0).file(), null, null));
+
+        try (PackingCloudStorageService service = builder().build()) {
+            service.uploadObjects(BUCKET, uploads);
+            service.deleteObject(BUCKET, "file-2.txt");
+
+            try (Stream<ObjectInfo> objects = service.listObjects(BUCKET, "")) {
+                assertEquals(List.of("file-0.txt", "file-1.txt", "large.bin", "logs/file-0.txt"), objects.map(ObjectInfo::key).toList());
+            }
+            ListPage page = service.listPage(BUCKET, "", "/", null);
+            assertEquals(List.of("file-0.txt", "file-1.txt", "large.bin"), page.objects().stream().map(ObjectInfo::key).toList());
+            assertEquals(List.of(17L, 17L, 4096L), page.objects().stream().map(ObjectInfo::size).toList());
+            assertEquals(List.of("logs/"), page.prefixes());
+        }
+    }
+
+    @Test
+    void storesPacksUncompressedWhenTheDelegateCompresses() throws IOException {
+        AWSS3StorageService compressingService = new AWSS3StorageService(s3Client, null, TransferOptions.builder()
+                .compression(Compression.GZIP)
+                .build());
+        List<UploadSpec> uploads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path file = Files.writeString(tempDir.resolve("log-" + i + ".txt"), ("line " + i + " of a log file\n").repeat(30));
+            uploads.add(new UploadSpec("log-" + i + ".txt", file.toString(), null, null));
+        }
+        try (PackingCloudStorageService service = PackingCloudStorageService.builder(compressingService, tempDir.resolve("staging"))
+                .packThreshold(1024)
+                .maximumDelay(Duration.ofSeconds(10))
+                .build()) {
+            assertTrue(service.uploadObjects(BUCKET, uploads).stream().allMatch(UploadResult::isSuccess));
+
+            assertEquals(1, packUploads());
+            String packKey = compressingService.listObjects(BUCKET, PackingCloudStorageService.DEFAULT_PACK_PREFIX).findFirst().orElseThrow().key();
+            assertNull(server.object(BUCKET, packKey).headers().get("Content-Encoding"), "a pack is read in ranges, so it is stored as it is");
+            assertArrayEquals("line 7".getBytes(), service.readRange(BUCKET, "log-7.txt", 0, 6));
+        }
+    }
+
+    private List<UploadSpec> files(int count) throws IOException {
+        List<UploadSpec> uploads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = Files.writeString(tempDir.resolve("file-" + i + ".txt"), "content of file " + i);
+            uploads.add(new UploadSpec("file-" + i + ".txt", file.toString(), null, null, Map.of("index", String.valueOf(i))));
+        }
+        return uploads;
+    }
+
+    private long packUploads() {
+        return server.requests().stream().filter(r -> r.startsWith("PUT /" + BUCKET + "/.packs/")).count();
+    }
+
+    private PackingCloudStorageService.Builder builder() {
+        return PackingCloudStorageService.builder(s3Service, tempDir.resolve("staging"))
+                .packThreshold(1024)
+                .maximumDelay(Duration.ofSeconds(10));
+    }
+}
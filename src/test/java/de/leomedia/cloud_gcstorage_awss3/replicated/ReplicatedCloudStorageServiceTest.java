@@ -0,0 +1,151 @@
+package de.leomedia.cloud_gcstorage_awss3.replicated;
+
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test replicates to two in-memory providers with injected delays and failures.
+ */
+class ReplicatedCloudStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final DelayedService slow = new DelayedService("slow");
+    private final DelayedService fast = new DelayedService("fast");
+    private ReplicatedCloudStorageService service;
+
+    @AfterEach
+    void close() {
+        service.close();
+    }
+
+    @Test
+    void quorumUploadWaitsForBothReplicas() throws IOException {
+        service = builder(AckMode.QUORUM).build();
+        slow.delay = Duration.ofMillis(200);
+        Path file = Files.write(tempDir.resolve("file.txt"), "content".getBytes());
+
+        service.uploadObject("bucket", "a", file.toString(), null, null);
+
+        assertEquals("content", fast.content("bucket", "a"));
+        assertEquals("content", slow.content("bucket", "a"));
+
+        slow.failing = true;
+        IOException e = assertThrows(IOException.class, () -> service.uploadObject("bucket", "b", file.toString(), null, null));
+        assertEquals("slow is down", e.getMessage());
+        assertEquals("content", fast.content("bucket", "b"));
+    }
+
+    @Test
+    void firstSuccessReturnsBeforeTheSlowReplicaAndCatchesUp() throws Exception {
+        service = builder(AckMode.FIRST_SUCCESS).build();
+        slow.delay = Duration.ofMillis(300);
+        slow.failNext.set(1);
+        Path file = Files.write(tempDir.resolve("file.txt"), "content".getBytes());
+
+        long start = System.nanoTime();
+        List<UploadResult> results = service.uploadObjects("bucket", List.of(
+                new UploadSpec("a", file.toString(), null, null),
+                new UploadSpec("b", file.toString(), null, null)));
+
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(250).toNanos());
+        assertTrue(results.stream().allMatch(UploadResult::isSuccess));
+        assertTrue(slow.keys("bucket").isEmpty());
+
+        assertTrue(service.awaitCatchUp(Duration.ofSeconds(5)));
+        assertEquals(List.of("a", "b"), slow.keys("bucket"));
+        assertEquals("content", slow.content("bucket", "b"));
+        assertEquals(0, service.failedCatchUps());
+    }
+
+    @Test
+    void hedgesSlowPresignAndRoutesToTheFasterReplica() throws MalformedURLException {
+        service = builder(AckMode.QUORUM).build();
+        slow.delay = Duration.ofMillis(500);
+
+        long start = System.nanoTime();
+        URL url = service.getPresignedUrl("bucket", "a", 60, null);
+
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(400).toNanos());
+        assertEquals(new URL("https://fast.example.com/bucket/a"), url);
+        assertEquals(1, slow.calls("getPresignedUrl"), "the slow replica was asked first");
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(new URL("https://fast.example.com/bucket/b"), service.getPresignedUrl("bucket", "b", 60, null));
+        }
+        assertEquals(1, slow.calls("getPresignedUrl"));
+    }
+
+    @Test
+    void downloadFailsOverAndKeepsOnlyTheWinningFile() throws IOException {
+        service = builder(AckMode.QUORUM).build();
+        slow.put("bucket", "a", "content");
+        fast.put("bucket", "a", "content");
+        slow.failing = true;
+        Path target = tempDir.resolve("downloads/a.txt");
+        Files.createDirectories(target.getParent());
+
+        service.downloadObject("bucket", "a", target);
+
+        assertEquals("content", Files.readString(target));
+        assertEquals(1, slow.calls("downloadObject"));
+        try (var files = Files.list(target.getParent())) {
+            assertEquals(List.of(target), files.toList());
+        }
+
+        fast.failing = true;
+        IOException e = assertThrows(IOException.class, () -> service.downloadObject("bucket", "a", target));
+        assertEquals(1, e.getSuppressed().length);
+    }
+
+    private ReplicatedCloudStorageService.Builder builder(AckMode ackMode) {
+        return ReplicatedCloudStorageService.builder()
+                .replica("slow", slow)
+                .replica("fast", fast)
+                .ackMode(ackMode)
+                .hedging(0.95, Duration.ofMillis(5), Duration.ofMillis(50))
+                .catchUp(3, Duration.ofMillis(10));
+    }
+
+    /**
+     * A provider that keeps the objects in memory and answers every call after its delay.
+     */
+    private static class DelayedService extends InMemoryCloudStorageService {
+
+        final AtomicInteger failNext = new AtomicInteger();
+        volatile Duration delay = Duration.ZERO;
+        volatile boolean failing;
+
+        DelayedService(String name) {
+            super(name);
+            onCall((operation, bucketName, key) -> {
+                try {
+                    Thread.sleep(delay.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (failing || failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                    throw new IOException(name + " is down");
+                }
+            });
+        }
+    }
+}
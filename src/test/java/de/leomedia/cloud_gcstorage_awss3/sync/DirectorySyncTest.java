@@ -0,0 +1,117 @@
+package de.leomedia.cloud_gcstorage_awss3.sync;
+
+import de.leomedia.cloud_gcstorage_awss3.AWS.AWSS3StorageService;
+import de.leomedia.cloud_gcstorage_awss3.AWS.FakeS3Server;
+import de.leomedia.cloud_gcstorage_awss3.TransferOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test syncs a directory tree to the {@link FakeS3Server} and checks which requests a resync sends.
+ */
+class DirectorySyncTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeS3Server server;
+    private S3Client s3Client;
+    private AWSS3StorageService storageService;
+    private Path root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeS3Server();
+        s3Client = server.newClient();
+        storageService = new AWSS3StorageService(s3Client, null, TransferOptions.defaults());
+
+        root = Files.createDirectories(tempDir.resolve("tree"));
+        for (int i = 0; i < 20; i++) {
+            Path directory = Files.createDirectories(root.resolve("dir" + i % 4).resolve("sub" + i % 2));
+            Files.writeString(directory.resolve("file" + i + ".txt"), "content " + i);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        s3Client.close();
+        server.close();
+    }
+
+    @Test
+    void uploadsOnlyNewAndChangedFiles() throws IOException {
+        try (DirectorySync sync = builder().build()) {
+            SyncReport first = sync.sync(root, BUCKET, "backup");
+            assertEquals(20, first.uploaded());
+            assertEquals("content 5", new String(server.object(BUCKET, "backup/dir1/sub1/file5.txt").content()));
+
+            server.requests().clear();
+            SyncReport unchanged = sync.sync(root, BUCKET, "backup");
+            assertEquals(new SyncReport(20, 20, 0, 0, 0, 0, List.of(), unchanged.duration()), unchanged);
+            assertEquals(List.of(), server.requests(), "an unchanged tree sends no request");
+
+            Files.writeString(root.resolve("dir1/sub1/file5.txt"), "changed content");
+            Files.setLastModifiedTime(root.resolve("dir2/sub0/file6.txt"), FileTime.from(Instant.now().plusSeconds(60)));
+            Files.writeString(root.resolve("dir3/new.txt"), "new");
+        }
+
+        try (DirectorySync sync = builder().build()) {
+            SyncReport changed = sync.sync(root, BUCKET, "backup/");
+            assertEquals(21, changed.scanned());
+            assertEquals(3, changed.hashed());
+            assertEquals(2, changed.uploaded());
+            assertEquals(19, changed.unchanged());
+            assertEquals(List.of("PUT /" + BUCKET + "/backup/dir1/sub1/file5.txt", "PUT /" + BUCKET + "/backup/dir3/new.txt"),
+                    server.requests().stream().sorted().toList());
+        }
+    }
+
+    @Test
+    void deletesOrphansOnlyWhenConfigured() throws IOException {
+        try (DirectorySync sync = builder().build()) {
+            sync.sync(root, BUCKET, "");
+            Files.delete(root.resolve("dir0/sub0/file0.txt"));
+
+            SyncReport kept = sync.sync(root, BUCKET, "");
+            assertEquals(0, kept.deleted());
+            assertNotNull(server.object(BUCKET, "dir0/sub0/file0.txt"));
+        }
+
+        try (DirectorySync sync = builder().deleteOrphans(true).build()) {
+            sync.sync(root, BUCKET, "other");
+            Files.delete(root.resolve("dir1/sub1/file1.txt"));
+            server.requests().clear();
+
+            SyncReport deleted = sync.sync(root, BUCKET, "other");
+            assertEquals(1, deleted.deleted());
+            assertTrue(deleted.isSuccess());
+            assertEquals(List.of("DELETE /" + BUCKET + "/other/dir1/sub1/file1.txt"), server.requests());
+            assertNull(server.object(BUCKET, "other/dir1/sub1/file1.txt"));
+        }
+    }
+
+    @Test
+    void failsWithoutDeletingWhenTheDirectoryIsMissing() throws IOException {
+        try (DirectorySync sync = builder().deleteOrphans(true).build()) {
+            assertThrows(IOException.class, () -> sync.sync(tempDir.resolve("missing"), BUCKET, ""));
+        }
+    }
+
+    private DirectorySync.Builder builder() {
+        return DirectorySync.builder(storageService, tempDir.resolve("index")).parallelism(4).batchSize(8);
+    }
+}
@@ -0,0 +1,276 @@
+package de.leomedia.cloud_gcstorage_awss3.tiered;
+
+import de.leomedia.cloud_gcstorage_awss3.InMemoryCloudStorageService;
+import de.leomedia.cloud_gcstorage_awss3.ListPage;
+import de.leomedia.cloud_gcstorage_awss3.ObjectInfo;
+import de.leomedia.cloud_gcstorage_awss3.UploadResult;
+import de.leomedia.cloud_gcstorage_awss3.UploadSpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This test checks that the {@link WriteBackCloudStorageService} acknowledges staged uploads
+ * and flushes them to the backing provider, also after a restart.
+ */
+class WriteBackCloudStorageServiceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path directory;
+
+    private final BackingService backingService = new BackingService();
+
+    @Test
+    void acknowledgesBeforeTheFlush() throws Exception {
+        backingService.unavailable = true;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService,
+                options().flushTimeout(Duration.ofMillis(100)).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "hello").toString(), null, null);
+
+            assertEquals(1, service.pendingUploads());
+            assertEquals(5, service.stagedBytes());
+            assertThrows(UncheckedIOException.class, () -> service.getPresignedUrl("bucket", "a.txt", 60, null));
+            assertEquals("hello", Files.readString(service.stagedFile("bucket", "a.txt")));
+            service.downloadObject("bucket", "a.txt", directory.resolve("staged.txt"));
+            assertEquals("hello", Files.readString(directory.resolve("staged.txt")));
+
+            backingService.unavailable = false;
+            assertTrue(service.awaitFlushed(TIMEOUT));
+            assertEquals("hello", backingService.content("bucket", "a.txt"));
+            assertNull(service.stagedFile("bucket", "a.txt"));
+            assertEquals(0, service.stagedBytes());
+            assertEquals("https", service.getPresignedUrl("bucket", "a.txt", 60, null).getProtocol());
+            service.downloadObject("bucket", "a.txt", directory.resolve("flushed.txt"));
+            assertEquals("hello", Files.readString(directory.resolve("flushed.txt")));
+        }
+    }
+
+    @Test
+    void presignsStagedObjectsOnlyAfterTheirFlush() throws Exception {
+        backingService.unavailable = true;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService,
+                options().retryDelay(Duration.ofMinutes(1)).maxRetryDelay(Duration.ofMinutes(1)).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "hello").toString(), null, null);
+            service.uploadObject("bucket", "b.txt", file("b.txt", "world").toString(), null, null);
+            while (backingService.attempts.get() < 2) {
+                Thread.sleep(10);
+            }
+
+            // the failed flushes wait a minute for their retry, unless a presigned URL is requested
+            backingService.unavailable = false;
+            URL url = service.getPresignedUrl("bucket", "a.txt", 60, null);
+
+            assertEquals("https://remote.example.com/bucket/a.txt", url.toString());
+            assertEquals("hello", backingService.content("bucket", "a.txt"));
+            assertNull(service.stagedFile("bucket", "a.txt"));
+
+            Map<String, URL> urls = new ConcurrentHashMap<>();
+            service.presignAll("bucket", List.of("a.txt", "b.txt", "c.txt"), 60, urls::put);
+            assertEquals(Set.of("a.txt", "b.txt", "c.txt"), urls.keySet());
+            assertTrue(urls.values().stream().allMatch(u -> u.getProtocol().equals("https")), urls.toString());
+            assertEquals("world", backingService.content("bucket", "b.txt"));
+            assertEquals(0, service.pendingUploads());
+        }
+    }
+
+    @Test
+    void flushesPendingUploadsAfterRestart() throws Exception {
+        backingService.unavailable = true;
+        Path staging = directory.resolve("staging");
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "first").toString(), "kms", "STANDARD_IA");
+            service.uploadObject("bucket", "b.txt", file("b.txt", "second").toString(), null, null);
+        }
+        // a torn record of an upload that was never acknowledged
+        Files.writeString(staging.resolve("journal.log"), "PUT 99 3", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        backingService.unavailable = false;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            assertTrue(service.awaitFlushed(TIMEOUT));
+        }
+        assertEquals("first", backingService.content("bucket", "a.txt"));
+        assertEquals("second", backingService.content("bucket", "b.txt"));
+        assertEquals("kms", backingService.stored("bucket", "a.txt").encryptionKey());
+        try (var files = Files.list(staging)) {
+            assertEquals(List.of(staging.resolve("journal.log")), files.toList());
+        }
+    }
+
+    @Test
+    void flushesOnlyTheLatestVersion() throws Exception {
+        backingService.unavailable = true;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, options().build())) {
+            service.uploadObject("bucket", "a.txt", file("v1.txt", "v1").toString(), null, null);
+            service.uploadObject("bucket", "a.txt", file("v2.txt", "v2").toString(), null, null);
+            service.uploadObject("bucket", "a.txt", file("v3.txt", "v3").toString(), null, null);
+
+            backingService.unavailable = false;
+            assertTrue(service.awaitFlushed(TIMEOUT));
+            assertEquals("v3", backingService.content("bucket", "a.txt"));
+            assertEquals(0, service.stagedBytes());
+        }
+    }
+
+    @Test
+    void retriesFailedFlushes() throws Exception {
+        backingService.failures.set(2);
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, options().build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "hello").toString(), null, null);
+
+            assertTrue(service.awaitFlushed(TIMEOUT));
+            assertEquals("hello", backingService.content("bucket", "a.txt"));
+            assertEquals(3, backingService.attempts.get());
+        }
+    }
+
+    @Test
+    void rejectsUploadsWhenFull() throws Exception {
+        backingService.unavailable = true;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService,
+                options().capacityBytes(8).backpressurePolicy(BackpressurePolicy.REJECT).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "hello").toString(), null, null);
+
+            assertThrows(IOException.class, () -> service.uploadObject("bucket", "b.txt", file("b.txt", "world").toString(), null, null));
+            List<UploadResult> results = service.uploadObjects("bucket", List.of(new UploadSpec("c.txt", file("c.txt", "!").toString(), null, null)));
+            assertTrue(results.get(0).isSuccess());
+            assertEquals(6, service.stagedBytes());
+        }
+    }
+
+    @Test
+    void writesThroughWhenFull() throws Exception {
+        backingService.unavailableKeys.add("a.txt");
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService,
+                options().capacityBytes(8).backpressurePolicy(BackpressurePolicy.WRITE_THROUGH).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "hello").toString(), null, null);
+
+            service.uploadObject("bucket", "b.txt", file("b.txt", "world").toString(), null, null);
+            assertEquals("world", backingService.content("bucket", "b.txt"));
+            assertNull(service.stagedFile("bucket", "b.txt"));
+            assertEquals(5, service.stagedBytes());
+        }
+    }
+
+    @Test
+    void copiesStagedObjectsWithTheirMetadataAcrossRestart() throws Exception {
+        backingService.unavailable = true;
+        Path staging = directory.resolve("staging");
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            service.uploadObjects("bucket", List.of(new UploadSpec("a.txt", file("a.txt", "hello").toString(), null, null,
+                    Map.of("origin", "test", "note", "a b,c:d"))));
+            service.copyObject("bucket", "a.txt", "b.txt", null, null);
+
+            assertEquals(new ObjectInfo("b.txt", 5, service.getObjectInfo("bucket", "b.txt").version(), Map.of("origin", "test", "note", "a b,c:d")),
+                    service.getObjectInfo("bucket", "b.txt"));
+            assertEquals(2, service.pendingUploads());
+        }
+
+        backingService.unavailable = false;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            assertTrue(service.awaitFlushed(TIMEOUT));
+            assertEquals("hello", backingService.content("bucket", "b.txt"));
+            assertEquals(Map.of("origin", "test", "note", "a b,c:d"), backingService.stored("bucket", "b.txt").metadata());
+
+            service.copyObject("bucket", "b.txt", "c.txt", null, null);
+            assertEquals("hello", backingService.content("bucket", "c.txt"));
+            assertEquals(backingService.stored("bucket", "c.txt").version(), service.getObjectInfo("bucket", "c.txt").version());
+        }
+    }
+
+    @Test
+    void stagesDeletesAfterPendingVersions() throws Exception {
+        backingService.put("bucket", "a.txt", "old");
+        backingService.unavailable = true;
+        Path staging = directory.resolve("staging");
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "new").toString(), null, null);
+            service.deleteObject("bucket", "a.txt");
+
+            assertNull(service.getObjectInfo("bucket", "a.txt"));
+            assertThrows(NoSuchFileException.class, () -> service.downloadObject("bucket", "a.txt", directory.resolve("a-copy.txt")));
+        }
+
+        backingService.unavailable = false;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, TierOptions.builder(staging).build())) {
+            assertTrue(service.awaitFlushed(TIMEOUT));
+            assertNull(backingService.stored("bucket", "a.txt"));
+            assertEquals(0, service.stagedBytes());
+        }
+    }
+
+    @Test
+    void listsStagedObjectsWithTheBackingProvider() throws Exception {
+        backingService.put("bucket", "a.txt", "remote");
+        backingService.put("bucket", "b.txt", "remote");
+        backingService.put("bucket", "logs/c.txt", "remote");
+        backingService.unavailable = true;
+        try (WriteBackCloudStorageService service = new WriteBackCloudStorageService(backingService, options().build())) {
+            service.uploadObject("bucket", "a.txt", file("a.txt", "new").toString(), null, null);
+            service.uploadObject("bucket", "staged/d.txt", file("d.txt", "new").toString(), null, null);
+            service.deleteObject("bucket", "b.txt");
+
+            try (Stream<ObjectInfo> objects = service.listObjects("bucket", "")) {
+                assertEquals(List.of(new ObjectInfo("a.txt", 3, service.getObjectInfo("bucket", "a.txt").version(), null),
+                                new ObjectInfo("logs/c.txt", 6, backingService.stored("bucket", "logs/c.txt").version(), null),
+                                new ObjectInfo("staged/d.txt", 3, service.getObjectInfo("bucket", "staged/d.txt").version(), null)),
+                        objects.toList());
+            }
+            ListPage page = service.listPage("bucket", "", "/", null);
+            assertEquals(List.of("a.txt"), page.objects().stream().map(ObjectInfo::key).toList());
+            assertEquals(List.of("logs/", "staged/"), page.prefixes());
+        }
+    }
+
+    private TierOptions.Builder options() {
+        return TierOptions.builder(directory.resolve("staging")).retryDelay(Duration.ofMillis(10)).maxRetryDelay(Duration.ofMillis(50));
+    }
+
+    private Path file(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content);
+    }
+
+    /**
+     * An in-memory backing provider. Every upload and delete fails while it is unavailable, as do the uploads of the unavailable keys
+     * and the first failures uploads.
+     */
+    private static class BackingService extends InMemoryCloudStorageService {
+
+        final Set<String> unavailableKeys = ConcurrentHashMap.newKeySet();
+        volatile boolean unavailable;
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        BackingService() {
+            super("remote");
+            onCall((operation, bucketName, key) -> {
+                if (operation.startsWith("upload")) {
+                    attempts.incrementAndGet();
+                    if (unavailable || unavailableKeys.contains(key) || failures.getAndDecrement() > 0) {
+                        throw new IOException("Service unavailable");
+                    }
+                } else if (operation.equals("deleteObject") && unavailable) {
+                    throw new IOException("Service unavailable");
+                }
+            });
+        }
+    }
+}